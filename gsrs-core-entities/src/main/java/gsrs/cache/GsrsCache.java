@@ -4,7 +4,10 @@ import ix.core.util.EntityUtils;
 import ix.utils.CallableUtil;
 
 import java.io.Closeable;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 
 import gov.nih.ncats.common.util.TimeUtil;
 
@@ -50,6 +53,14 @@ public interface GsrsCache extends Closeable {
     Map<String, Object> getMatchingContextByContextID(String contextID, EntityUtils.Key key);
 
     Object getConfiguration();
+
+    /**
+     * How many keys this cache keeps track of, the most it will, and how many it had
+     * to forget to stay under that.  Null if this cache doesn't know.
+     */
+    default Object getKeyStatistics(){
+        return null;
+    }
     
     
     /**
@@ -61,4 +72,12 @@ public interface GsrsCache extends Closeable {
     public void markChange();
     
     public boolean hasBeenMarkedSince(long thistime);
+
+    /**
+     * The keys of the most used values, most used first, to warm a cache up with
+     * after a restart.  Empty if this cache doesn't know how often its values are used.
+     */
+    default List<String> getHottestKeys(int max, Predicate<String> include){
+        return Collections.emptyList();
+    }
 }
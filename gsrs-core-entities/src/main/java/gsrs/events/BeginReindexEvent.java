@@ -11,6 +11,16 @@ public class BeginReindexEvent implements ReindexOperationEvent {
 
     private UUID id;
     private long numberOfExpectedRecord;
+    /**
+     * Whether all the indexes are rebuilt, which puts the application in maintenance mode
+     * until it's done. False when only one index is rebuilt and the others are left alone.
+     */
+    private boolean maintenanceMode;
+
+    public BeginReindexEvent(UUID id, long numberOfExpectedRecord){
+        this(id, numberOfExpectedRecord, true);
+    }
+
     @Override
     public UUID getReindexId() {
         return id;
@@ -10,6 +10,15 @@ import java.util.UUID;
 public class IncrementReindexEvent implements ReindexOperationEvent{
 
     private UUID id;
+    /**
+     * The number of records this event counts for,
+     * a batch of records can be reported with one event.
+     */
+    private long count;
+
+    public IncrementReindexEvent(UUID id){
+        this(id, 1);
+    }
 
     @Override
     public UUID getReindexId() {
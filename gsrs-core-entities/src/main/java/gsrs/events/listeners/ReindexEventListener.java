@@ -2,7 +2,9 @@ package gsrs.events.listeners;
 
 import java.time.Duration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -10,7 +12,6 @@ import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
-import gov.nih.ncats.common.util.SingleThreadCounter;
 import gov.nih.ncats.common.util.TimeUtil;
 import gsrs.events.BeginReindexEvent;
 import gsrs.events.EndReindexEvent;
@@ -23,6 +24,7 @@ import lombok.extern.slf4j.Slf4j;
  * Listens for reindex events {@link BeginReindexEvent} and counts
  * of each {@link ReindexEntityEvent} to figure out when {@link EndReindexEvent} and
  * {@link MaintenanceModeEvent} should fire fired (and then publishes those events).
+ * Progress and throughput are logged every {@link #PROGRESS_LOG_PERCENT} percent.
  */
 @Service
 @Slf4j
@@ -30,7 +32,11 @@ public class ReindexEventListener {
     //because our event listeners have to do multiple operations
     //on all of our fields in each method we synchronize on the method level
     //so we don't need to use AtomicBoolean or ConcurrentHashMaps because we get no performance improvement from them.
-    private Map<UUID, SingleThreadCounter> reindexCounts = new HashMap<>();
+    private static final int PROGRESS_LOG_PERCENT = 10;
+
+    private Map<UUID, Progress> reindexCounts = new HashMap<>();
+    //the reindexes which need maintenance mode
+    private Set<UUID> maintenanceReindexes = new HashSet<>();
     private boolean inMaintenanceMode = false;
 
     private Map<UUID, Long> reindexTimes = new HashMap<>();
@@ -40,9 +46,12 @@ public class ReindexEventListener {
     @EventListener
     public synchronized void onNewReindex(BeginReindexEvent event){
         long expected=event.getNumberOfExpectedRecord();
-        reindexCounts.put(event.getId(), new SingleThreadCounter(expected));
+        reindexCounts.put(event.getId(), new Progress(expected));
         reindexTimes.put(event.getId(), TimeUtil.getCurrentTimeMillis());
-        if(!inMaintenanceMode){
+        if(event.isMaintenanceMode()){
+            maintenanceReindexes.add(event.getId());
+        }
+        if(event.isMaintenanceMode() && !inMaintenanceMode){
             inMaintenanceMode=true;
             //was not in maintenanceMode mode before and now it is
             applicationEventPublisher.publishEvent(new MaintenanceModeEvent(MaintenanceModeEvent.Mode.BEGIN));
@@ -57,9 +66,9 @@ public class ReindexEventListener {
     private void finishReindexEvent(UUID id) {
         reindexCounts.remove(id);
         applicationEventPublisher.publishEvent(new EndReindexEvent(id));
-        if (reindexCounts.isEmpty()) {
+        log.info("reindex for " + id + " took " + Duration.ofMillis(TimeUtil.getCurrentTimeMillis() - reindexTimes.remove(id)));
+        if (maintenanceReindexes.remove(id) && maintenanceReindexes.isEmpty()) {
             //done!
-            log.info("reindex for " + id + " took " + Duration.ofMillis(TimeUtil.getCurrentTimeMillis() - reindexTimes.remove(id)));
             inMaintenanceMode = false;
             applicationEventPublisher.publishEvent(new MaintenanceModeEvent(MaintenanceModeEvent.Mode.END));
         }
@@ -67,12 +76,27 @@ public class ReindexEventListener {
 
     @EventListener
     public synchronized void reindexEntity(IncrementReindexEvent event){
-        SingleThreadCounter c = reindexCounts.get(event.getId());
+        Progress c = reindexCounts.get(event.getId());
         if(c !=null) {
-            c.decrement();
-            if (c.getAsLong() == 0L) {
+            c.done += event.getCount();
+            if (c.done >= c.expected) {
                 finishReindexEvent(event.getId());
+            } else if (c.done * 100 / c.expected >= c.nextLogPercent) {
+                long millis = Math.max(1, TimeUtil.getCurrentTimeMillis() - reindexTimes.get(event.getId()));
+                log.info("reindex for " + event.getId() + " at " + c.done + " of " + c.expected + " records ("
+                        + (c.done * 1000 / millis) + " records/s)");
+                c.nextLogPercent = (int) (c.done * 100 / c.expected) / PROGRESS_LOG_PERCENT * PROGRESS_LOG_PERCENT + PROGRESS_LOG_PERCENT;
             }
         }
     }
+
+    private static class Progress {
+        private final long expected;
+        private long done;
+        private int nextLogPercent = PROGRESS_LOG_PERCENT;
+
+        Progress(long expected) {
+            this.expected = expected;
+        }
+    }
 }
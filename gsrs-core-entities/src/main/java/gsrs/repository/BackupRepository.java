@@ -7,6 +7,11 @@ import ix.core.util.EntityUtils.Key;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.stream.Stream;
@@ -15,21 +20,57 @@ import java.util.stream.Stream;
 public interface BackupRepository extends GsrsRepository<BackupEntity, Long> {
 
     Optional<BackupEntity> findByRefid(String refid);
+
+    List<BackupEntity> findByRefidIn(Collection<String> refids);
     @Query("select e from BackupEntity e")
     Stream<BackupEntity> streamAll();
     
     //TODO: This should be worked out to respect the kind more if needed
     // but that's not always trivial due to subclasses of kinds
     default Optional<BackupEntity> getByEntityKey(Key k){
+        return refidFor(k).flatMap(this::findByRefid);
+    }
+
+    /**
+     * Get the backups of several keys with one query per
+     * {@link #MAX_KEYS_PER_QUERY} keys instead of one query per key.
+     *
+     * @return a map of key to backup, keys without a backup are left out.
+     */
+    default Map<Key, BackupEntity> getByEntityKeys(Collection<Key> keys){
+        Map<String, Key> byRefid = new HashMap<>(keys.size() * 2);
+        for(Key k : keys){
+            refidFor(k).ifPresent(refid -> byRefid.put(refid, k));
+        }
+        Map<Key, BackupEntity> found = new HashMap<>(byRefid.size() * 2);
+        List<String> refids = new ArrayList<>(byRefid.keySet());
+        for(int i=0; i< refids.size(); i+= MAX_KEYS_PER_QUERY){
+            List<String> chunk = refids.subList(i, Math.min(i + MAX_KEYS_PER_QUERY, refids.size()));
+            for(BackupEntity be : findByRefidIn(chunk)){
+                Key k = byRefid.get(be.getRefid());
+                if(k !=null){
+                    found.put(k, be);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Some databases limit the number of values in an IN clause.
+     */
+    int MAX_KEYS_PER_QUERY = 500;
+
+    static Optional<String> refidFor(Key k){
         Object nid=k.getIdNative();
         if(nid instanceof UUID ||
                 nid instanceof String){
-            return findByRefid(k.getIdString()); //TODO: this part is inconsistent
+            return Optional.of(k.getIdString()); //TODO: this part is inconsistent
             //because the UUIDs considered unique
             //globally, but other IDs are not 
             //considered globally unique
         }else if(nid instanceof Long || nid instanceof Integer ){
-            return findByRefid(k.getKind() + ":" + k.getIdString()); 
+            return Optional.of(k.getKind() + ":" + k.getIdString()); 
         }
         return Optional.empty();
     }
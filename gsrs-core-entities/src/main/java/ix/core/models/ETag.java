@@ -37,6 +37,7 @@ import java.util.*;
   "count",
   "skip",
   "top",
+  "cursor",
   "query",
   "sideway",
   "facets",
@@ -175,6 +176,10 @@ public class ETag extends IxModel {
 	@JsonIgnore
 	private transient boolean sideway = false;
 
+	@Transient
+	@JsonIgnore
+	private transient String cursor;
+
 	public static class Builder {
 		private String uri;
 		private String path;
@@ -321,6 +326,10 @@ public class ETag extends IxModel {
 		this.facets = facets;
 	}
 
+	public void setCursor(String cursor) {
+		this.cursor = cursor;
+	}
+
 	public void setSelected(List<String> selected, boolean sideway) {
 		this.selected = selected;
 		this.sideway=sideway;
@@ -335,6 +344,11 @@ public class ETag extends IxModel {
 	public Object getContent() {
 		return this.content;
 	}
+	@JsonProperty("cursor")
+	// pass back as the cursor parameter to get the page after this one
+	public String getCursor() {
+		return this.cursor;
+	}
 	@JsonProperty("facets")
 	// Maybe make this a link unless full bean view?
 	public List<Facet> getFacets() {
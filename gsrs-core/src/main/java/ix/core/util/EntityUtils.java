@@ -2998,6 +2998,20 @@ public class EntityUtils {
 			return new Key(meta, id);
 		}
 
+		/**
+		 * The Key whose {@link #toString()} this is.
+		 * @throws IllegalArgumentException if it isn't the string of a Key.
+		 * @throws ClassNotFoundException if the kind isn't a known class.
+		 */
+		public static Key parse(String key) throws ClassNotFoundException {
+			int i = key.indexOf(ID_FIELD_NATIVE_SUFFIX + ":");
+			if (i <= 0) {
+				throw new IllegalArgumentException("not a key: " + key);
+			}
+			EntityInfo<?> meta = EntityUtils.getEntityInfoFor(key.substring(0, i));
+			return of(meta, meta.formatIdToNative(key.substring(i + ID_FIELD_NATIVE_SUFFIX.length() + 1)));
+		}
+
 
 
 		// For EntityWrapper (weird place for this, I know)
@@ -0,0 +1,55 @@
+package gsrs.coretests;
+
+import ix.core.util.EntityUtils.Key;
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.Id;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EntityKeyTest {
+
+    public static class LongIdEntity{
+        @Id
+        public Long id;
+    }
+
+    public static class UUIDIdEntity{
+        @Id
+        public UUID uuid;
+    }
+
+    public static class StringIdEntity{
+        @Id
+        public String name;
+    }
+
+    private static void assertParsesBack(Key key) throws Exception{
+        Key parsed = Key.parse(key.toString());
+        assertEquals(key, parsed);
+        assertEquals(key.getEntityInfo(), parsed.getEntityInfo());
+        assertEquals(key.getIdNative(), parsed.getIdNative());
+    }
+
+    @Test
+    public void parseLongId() throws Exception{
+        assertParsesBack(Key.of(LongIdEntity.class, 12345L));
+    }
+
+    @Test
+    public void parseUUIDId() throws Exception{
+        assertParsesBack(Key.of(UUIDIdEntity.class, UUID.randomUUID()));
+    }
+
+    @Test
+    public void parseStringId() throws Exception{
+        assertParsesBack(Key.of(StringIdEntity.class, "some.name:with._id:in it"));
+    }
+
+    @Test
+    public void parseNonKeyThrows(){
+        assertThrows(IllegalArgumentException.class, ()-> Key.parse("foo"));
+        assertThrows(ClassNotFoundException.class, ()-> Key.parse("no.such.Class._id:1"));
+    }
+}
@@ -8,6 +8,7 @@ import gsrs.entityProcessor.ConfigBasedEntityProcessorConfiguration;
 import gsrs.events.listeners.ReindexEventListener;
 import gsrs.indexer.ComponentScanIndexValueMakerConfiguration;
 import gsrs.indexer.ConfigBasedIndexValueMakerConfiguration;
+import gsrs.indexer.IndexEventDispatcher;
 import gsrs.search.SearchResultController;
 import gsrs.springUtils.StartupInitializer;
 import gsrs.springUtils.StaticContextAccessor;
@@ -73,6 +74,7 @@ public class GsrsApiSelector implements ImportSelector {
                 componentsToInclude.add(TextIndexerSingletonConfiguration.class);
                 componentsToInclude.add(TextIndexerConfig.class);
                 componentsToInclude.add(TextIndexerEntityListener.class);
+                componentsToInclude.add(IndexEventDispatcher.class);
                 componentsToInclude.add(Lucene4IndexServiceFactory.class);
 
             }
@@ -0,0 +1,56 @@
+package gsrs.cache;
+
+import gsrs.scheduledTasks.ScheduledTaskInitializer;
+import gsrs.scheduledTasks.SchedulerPlugin;
+import gsrs.scheduledTasks.SchedulerPlugin.TaskCounter;
+import gsrs.security.AdminService;
+import gsrs.springUtils.StaticContextAccessor;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Runs the {@link CacheWarmer} as a scheduled task so how far it got shows up with the other tasks.
+ * Once registered the warm up on startup runs through this task too.
+ * Does nothing unless ix.cache.warmUp.enabled is set.
+ */
+public class CacheWarmUpTaskInitializer extends ScheduledTaskInitializer {
+
+    @Autowired(required = false)
+    private CacheWarmer cacheWarmer;
+
+    @Override
+    public void run(SchedulerPlugin.JobStats stats, SchedulerPlugin.TaskListener l) {
+        if (cacheWarmer == null) {
+            l.message("Cache warm up is not enabled");
+            return;
+        }
+        l.message("Reading cache snapshot");
+        TaskCounter[] counter = new TaskCounter[1];
+        int warmed = cacheWarmer.warmUp(new CacheWarmer.Listener() {
+            @Override
+            public void started(int keys) {
+                counter[0] = l.asCounter(keys, "entities warmed up");
+            }
+
+            @Override
+            public void warmed(String key) {
+                counter[0].increment();
+            }
+        });
+        l.message("Warmed up " + warmed + " entities");
+    }
+
+    @Override
+    public String getDescription() {
+        return "Load the most used entities of the last run into the cache";
+    }
+
+    @Override
+    public SchedulerPlugin.ScheduledTask createTask() {
+        SchedulerPlugin.ScheduledTask task = super.createTask();
+        if (cacheWarmer != null) {
+            //nobody is logged in at startup, like the scheduled runs it runs as admin
+            cacheWarmer.setStartupRunner(() -> StaticContextAccessor.getBean(AdminService.class).runAsAdmin(task::runNow));
+        }
+        return task;
+    }
+}
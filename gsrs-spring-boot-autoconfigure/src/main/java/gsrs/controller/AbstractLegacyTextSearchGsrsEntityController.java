@@ -128,6 +128,17 @@ GET     /suggest       ix.core.controllers.search.SearchFactory.suggest(q: Strin
         return getlegacyGsrsSearchService().suggestField(field, q, max);
     }
     
+    /**
+     * The generation of the text index that has every change saved so far.
+     * Saved entities are indexed in the background, so a search right after a save
+     * might not find them; pass this as the {@code waitForGeneration} parameter of
+     * {@code /search} to wait until it does.
+     */
+    @GetGsrsRestApiMapping(value = "/search/@generation", apiVersions = 1)
+    public Map<String, Long> currentGenerationV1() throws InterruptedException {
+        return Collections.singletonMap("generation", getlegacyGsrsSearchService().currentGeneration());
+    }
+
     @GetGsrsRestApiMapping(value = "/search", apiVersions = 1)
     public ResponseEntity<Object> searchV1(@RequestParam("q") Optional<String> query,
                                            @RequestParam("top") Optional<Integer> top,
@@ -268,6 +268,7 @@ GET     /$context<[a-z0-9_]+>/export/:etagId/:format               ix.core.contr
             }
         }
         etag.setFacets(result.getFacets());
+        etag.setCursor(result.getCursor());
         etag.setFieldFacets(result.getFieldFacets());
         etag.setSelected(result.getOptions().getFacets(), result.getOptions().isSideway());
 
@@ -8,6 +8,8 @@ import gsrs.cache.GsrsCache;
 import gsrs.controller.hateoas.GsrsControllerInfo;
 import gsrs.controller.hateoas.GsrsEntityToControllerMapper;
 import gsrs.security.hasAdminRole;
+import ix.core.search.text.TextIndexer;
+import ix.core.search.text.TextIndexerFactory;
 import lombok.Data;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
@@ -23,6 +25,7 @@ import javax.sql.DataSource;
 import java.sql.DatabaseMetaData;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -39,6 +42,9 @@ public class HealthController {
     @Autowired(required = false)
     private GsrsCache gsrsCache;
 
+    @Autowired(required = false)
+    private TextIndexerFactory textIndexerFactory;
+
     private long startTime =System.currentTimeMillis();
 
     @EventListener(ApplicationReadyEvent.class)
@@ -75,7 +81,13 @@ public class HealthController {
     @hasAdminRole
     public HealthController.Application info() throws Exception{
         int[] uptime = uptime(startTime);
-        return Application.createFromCurrentRuntime(uptime, startTime, gsrsCache, dataSources);
+        Application app = Application.createFromCurrentRuntime(uptime, startTime, gsrsCache, dataSources);
+        if(textIndexerFactory !=null && textIndexerFactory.getDefaultInstance() !=null){
+            TextIndexer indexer = textIndexerFactory.getDefaultInstance();
+            app.searchCacheInfo = indexer.getResultCacheStats();
+            app.suggestInfo = new SuggestInfo(indexer.getPendingSuggestAdditions(), indexer.getSuggestStats());
+        }
+        return app;
     }
 
     public int[] uptime (long startTime) {
@@ -120,6 +132,12 @@ public class HealthController {
 
         public Object cacheInfo;
 
+        public Object cacheKeyStatistics;
+
+        public Object searchCacheInfo;
+
+        public SuggestInfo suggestInfo;
+
         public static Application createFromCurrentRuntime(int[] uptime, long startTime, GsrsCache gsrsCache, List<DataSourceProperties> datasources) throws Exception {
             return createFrom(Runtime.getRuntime(), uptime, startTime, gsrsCache, datasources);
         }
@@ -149,6 +167,7 @@ public class HealthController {
                                                 .collect(Collectors.toList());
 
             app.cacheInfo = gsrsCache ==null? null: gsrsCache.getConfiguration();
+            app.cacheKeyStatistics = gsrsCache ==null? null: gsrsCache.getKeyStatistics();
             return app;
         }
     }
@@ -204,6 +223,17 @@ databaseInformation: Array [ {
 	       </table>
          */
     }
+    public static class SuggestInfo{
+        public int pendingAdditions;
+        //per suggest field
+        public Map<String, TextIndexer.SuggestStats> fields;
+
+        public SuggestInfo(){}
+        public SuggestInfo(int pendingAdditions, Map<String, TextIndexer.SuggestStats> fields){
+            this.pendingAdditions = pendingAdditions;
+            this.fields = fields;
+        }
+    }
     public static class UptimeInfo{
         public long hours;
         public int minutes;
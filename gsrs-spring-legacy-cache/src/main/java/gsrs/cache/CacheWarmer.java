@@ -0,0 +1,247 @@
+package gsrs.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.security.concurrent.DelegatingSecurityContextRunnable;
+
+import gov.nih.ncats.common.util.TimeUtil;
+import ix.core.EntityFetcher;
+import ix.core.util.EntityUtils.Key;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps a cache from starting out empty after a restart.
+ * <p>
+ * The keys of the entities read most from the cache are written to a snapshot file
+ * at shutdown, and every {@code snapshotIntervalSeconds} if set, and on startup they are
+ * fetched again in the background.  Entities are fetched the same way a search fetches them
+ * so they end up under the same keys, anything else in the cache is left out.
+ * </p>
+ * The warm up can also be registered as a scheduled task to see how far it got,
+ * it then runs through {@link #setStartupRunner(Runnable)} instead.
+ */
+@Slf4j
+public class CacheWarmer {
+
+    private static final String JSON_SUFFIX = "_JSON";
+
+    private final GsrsCache cache;
+    private final GsrsLegacyCachePropertyConfiguration.WarmUp config;
+    private final File snapshotFile;
+    private final Predicate<String> fetcher;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile Runnable startupRunner;
+    private ScheduledExecutorService snapshotter;
+
+    /**
+     * Told how far a warm up got.
+     */
+    public interface Listener {
+        default void started(int keys) {
+        }
+
+        default void warmed(String key) {
+        }
+    }
+
+    public CacheWarmer(GsrsCache cache, GsrsLegacyCachePropertyConfiguration.WarmUp config, File snapshotFile) {
+        this(cache, config, snapshotFile, CacheWarmer::fetch);
+    }
+
+    /**
+     * @param fetcher puts the entity of a key in the cache, false if there is none.
+     */
+    CacheWarmer(GsrsCache cache, GsrsLegacyCachePropertyConfiguration.WarmUp config, File snapshotFile,
+                Predicate<String> fetcher) {
+        this.cache = cache;
+        this.config = config;
+        this.snapshotFile = snapshotFile;
+        this.fetcher = fetcher;
+        this.startupRunner = () -> warmUp(new Listener() {});
+        if (config.getSnapshotIntervalSeconds() > 0) {
+            snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "cache-snapshot");
+                t.setDaemon(true);
+                return t;
+            });
+            snapshotter.scheduleWithFixedDelay(this::writeSnapshotQuietly,
+                    config.getSnapshotIntervalSeconds(), config.getSnapshotIntervalSeconds(), TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Run the warm up on startup with this instead, like a scheduled task so its progress is shown.
+     */
+    public void setStartupRunner(Runnable startupRunner) {
+        this.startupRunner = startupRunner;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpOnStartup() {
+        Runnable r = startupRunner;
+        Thread t = new Thread(r, "cache-warm-up");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @PreDestroy
+    public void close() {
+        if (snapshotter != null) {
+            snapshotter.shutdownNow();
+        }
+        writeSnapshotQuietly();
+    }
+
+    private void writeSnapshotQuietly() {
+        try {
+            writeSnapshot();
+        } catch (Throwable t) {
+            log.warn("could not write cache snapshot " + snapshotFile, t);
+        }
+    }
+
+    /**
+     * Write the keys of the most read entities to the snapshot file, replacing what was there.
+     *
+     * @return how many keys were written.
+     */
+    public int writeSnapshot() throws IOException {
+        List<String> keys = cache.getHottestKeys(config.getMaxEntries(), CacheWarmer::isEntityKey);
+        if (keys.isEmpty()) {
+            //nothing was read yet, keep the last snapshot for the next start
+            return 0;
+        }
+        Path path = snapshotFile.toPath();
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(tmp, keys, StandardCharsets.UTF_8);
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.debug("wrote " + keys.size() + " keys to cache snapshot " + snapshotFile);
+        return keys.size();
+    }
+
+    List<String> readSnapshot() throws IOException {
+        if (!snapshotFile.exists()) {
+            return Collections.emptyList();
+        }
+        List<String> keys = Files.readAllLines(snapshotFile.toPath(), StandardCharsets.UTF_8);
+        return keys.size() > config.getMaxEntries() ? keys.subList(0, config.getMaxEntries()) : keys;
+    }
+
+    /**
+     * Fetch the entities of the last snapshot into the cache, hottest first, with up to
+     * {@code parallelism} at a time and stopping after {@code maxSeconds}.
+     * The fetches run as whoever calls this.
+     * Does nothing if a warm up is already running.
+     *
+     * @return how many were fetched.
+     */
+    public int warmUp(Listener listener) {
+        if (!running.compareAndSet(false, true)) {
+            return 0;
+        }
+        try {
+            List<String> keys = readSnapshot();
+            listener.started(keys.size());
+            if (keys.isEmpty()) {
+                return 0;
+            }
+            long start = TimeUtil.getCurrentTimeMillis();
+            long deadline = start + TimeUnit.SECONDS.toMillis(config.getMaxSeconds());
+            AtomicInteger next = new AtomicInteger();
+            AtomicInteger warmed = new AtomicInteger();
+            int threads = Math.max(1, Math.min(config.getParallelism(), keys.size()));
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                for (int i = 0; i < threads; i++) {
+                    //pool threads have no security context of their own, fetch as the caller
+                    executor.submit(new DelegatingSecurityContextRunnable(() -> {
+                        int n;
+                        while ((n = next.getAndIncrement()) < keys.size()
+                                && TimeUtil.getCurrentTimeMillis() < deadline) {
+                            String key = keys.get(n);
+                            if (warm(key)) {
+                                warmed.incrementAndGet();
+                            }
+                            listener.warmed(key);
+                        }
+                    }));
+                }
+                executor.shutdown();
+                //the workers stop themselves at the deadline, give the last fetches a moment
+                if (!executor.awaitTermination(deadline - TimeUtil.getCurrentTimeMillis() + 60_000, TimeUnit.MILLISECONDS)) {
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            log.info("warmed up cache with " + warmed.get() + " of " + keys.size() + " entities in "
+                    + (TimeUtil.getCurrentTimeMillis() - start) + " ms");
+            return warmed.get();
+        } catch (IOException e) {
+            log.warn("could not read cache snapshot " + snapshotFile, e);
+            return 0;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private boolean warm(String key) {
+        try {
+            return !cache.contains(key) && fetcher.test(key);
+        } catch (Exception e) {
+            //deleted since, or a class that isn't around anymore
+            log.debug("could not warm up " + key, e);
+            return false;
+        }
+    }
+
+    private static boolean fetch(String key) {
+        try {
+            if (key.endsWith(JSON_SUFFIX)) {
+                Key k = Key.parse(key.substring(0, key.length() - JSON_SUFFIX.length()));
+                return EntityFetcher.of(k, EntityFetcher.CacheType.BACKUP_JSON_CACHE).call() != null;
+            }
+            return EntityFetcher.of(Key.parse(key), EntityFetcher.CacheType.GLOBAL_CACHE).call() != null;
+        } catch (Exception e) {
+            throw new IllegalStateException("could not fetch " + key, e);
+        }
+    }
+
+    /**
+     * Whether the key is one {@link EntityFetcher} caches an entity under.
+     */
+    static boolean isEntityKey(String key) {
+        //the shape of Key.toString(), most keys aren't and parsing them throws
+        if (!key.contains("._id:")) {
+            return false;
+        }
+        String k = key.endsWith(JSON_SUFFIX) ? key.substring(0, key.length() - JSON_SUFFIX.length()) : key;
+        try {
+            Key.parse(k);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
@@ -3,10 +3,13 @@ package gsrs.cache;
 import ix.core.cache.IxCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 
+import java.io.File;
+
 @Configuration
 public class GsrsLegacyCacheConfiguration {
     @Autowired
@@ -25,4 +28,15 @@ public class GsrsLegacyCacheConfiguration {
         return new IxCache(configuration.createNewGateKeeper(), configuration);
 
     }
+
+    @Bean
+    @ConditionalOnProperty("ix.cache.warm-up.enabled")
+    @ConditionalOnMissingBean(CacheWarmer.class)
+    public CacheWarmer cacheWarmer(GsrsCache cache){
+        File snapshotFile = configuration.getWarmUpSnapshotFile();
+        if(snapshotFile ==null){
+            throw new IllegalStateException("ix.cache.warmUp needs ix.cache.base or ix.cache.warmUp.snapshotFile");
+        }
+        return new CacheWarmer(cache, configuration.getWarmUp(), snapshotFile);
+    }
 }
@@ -1,9 +1,12 @@
 package gsrs.cache;
 
+import ix.core.cache.CacheWeigher;
 import ix.core.cache.FileDbCache;
 import ix.core.cache.GateKeeper;
 import ix.core.cache.GateKeeperFactory;
+import ix.core.cache.MappedFileCache;
 import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
@@ -11,6 +14,7 @@ import org.springframework.context.annotation.Configuration;
 import java.io.File;
 @ConfigurationProperties(prefix = "ix.cache", ignoreInvalidFields = true)
 @Data
+@Slf4j
 public class GsrsLegacyCachePropertyConfiguration {
     /*
 
@@ -29,28 +33,116 @@ public class GsrsLegacyCachePropertyConfiguration {
     public static final int DEFAULT_TIME_TO_LIVE = 60*60; // 1hr
     public static final int DEFAULT_TIME_TO_IDLE = 60*60; // 1hr
 
+    public enum Implementation{
+        /**
+         * Ehcache, bounded by the number of values.
+         */
+        EHCACHE,
+        /**
+         * Caffeine, bounded by the estimated size of the values.
+         */
+        CAFFEINE
+    }
+
+    public enum SecondTier{
+        /**
+         * A berkeley db of java serialized values.
+         */
+        FILEDB,
+        /**
+         * Memory mapped segment files, bounded by secondTierMaxBytes.
+         */
+        MAPPED
+    }
+
+    private Implementation implementation = Implementation.EHCACHE;
+    //only used by caffeine
+    private long maxBytes = 256L*1024*1024;
+    private long maxBytesNotEvictable = 64L*1024*1024;
+    //the estimated size of values nothing better is known about
+    private int defaultWeight = 1024;
+    //makes the weigher of the caffeine cache, CacheWeigher.withDefaults if not set
+    private Class<? extends CacheWeigher.Factory> weigherFactory;
+
     private int maxElements = DEFAULT_MAX_ELEMENTS;
     private int maxElementsNotEvictable = DEFAULT_MAX_ELEMENTS;
     private int timeToLive = DEFAULT_TIME_TO_LIVE;
     private int timeToIdle = DEFAULT_TIME_TO_IDLE;
     private boolean useFileDb = false;
+    //what useFileDb persists to
+    private SecondTier secondTier = SecondTier.FILEDB;
+    private long secondTierMaxBytes = 1024L*1024*1024;
+    //the most keys kept to find the cached values of a key, 0 for twice as many as the caches hold
+    private int maxKeys = 0;
+    //serve values made before the last change while they are regenerated
+    private boolean staleWhileRevalidate = false;
+    private WarmUp warmUp = new WarmUp();
     @Value("${ix.debug:5}")
     private int debugLevel;
 
     boolean clearpersist = true;
     private String base;
 
+    @Data
+    public static class WarmUp{
+        //snapshot the hottest keys and load them again on startup
+        private boolean enabled = false;
+        //defaults to hotkeys.txt in the cache base
+        private String snapshotFile;
+        //0 to only snapshot at shutdown
+        private int snapshotIntervalSeconds = 0;
+        private int maxEntries = 5000;
+        private int maxSeconds = 600;
+        private int parallelism = 4;
+    }
+
+    /**
+     * The file the hot keys are snapshot to, null if there's nowhere to put it.
+     */
+    public File getWarmUpSnapshotFile(){
+        if(warmUp.snapshotFile !=null){
+            return new File(warmUp.snapshotFile);
+        }
+        return base==null? null : new File(base, "hotkeys.txt");
+    }
+
 
     public GateKeeper createNewGateKeeper(){
         GateKeeperFactory.Builder builder = new GateKeeperFactory.Builder( maxElements, timeToLive, timeToIdle)
                 .debugLevel(debugLevel)
-                .useNonEvictableCache(maxElementsNotEvictable,timeToLive,timeToIdle);
-
-        if(useFileDb){
-            builder.cacheAdapter(new FileDbCache(base==null? null: new File(base), "inMemCache", clearpersist));
+                .staleWhileRevalidate(staleWhileRevalidate);
+        if(maxKeys > 0){
+            builder.maxKeys(maxKeys);
+        }
 
+        if(implementation == Implementation.CAFFEINE){
+            if(useFileDb){
+                log.warn("ix.cache.useFileDb is ignored by the caffeine cache");
+            }
+            builder.useCaffeine(createWeigher(), maxBytes, maxBytesNotEvictable);
+        }else{
+            builder.useNonEvictableCache(maxElementsNotEvictable,timeToLive,timeToIdle);
+            if(useFileDb){
+                File dir = base==null? null: new File(base);
+                if(secondTier == SecondTier.MAPPED){
+                    builder.cacheAdapter(new MappedFileCache(dir, "inMemCache", clearpersist, secondTierMaxBytes));
+                }else {
+                    builder.cacheAdapter(new FileDbCache(dir, "inMemCache", clearpersist));
+                }
+            }
         }
         return  builder.build().create();
     }
 
+    private CacheWeigher createWeigher(){
+        if(weigherFactory ==null){
+            return CacheWeigher.withDefaults(defaultWeight);
+        }
+        try {
+            return weigherFactory.getDeclaredConstructor().newInstance().create(defaultWeight);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("can not create cache weigher factory " + weigherFactory.getName(), e);
+        }
+    }
+
 }
@@ -0,0 +1,167 @@
+package ix.core.cache;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import ix.utils.Util;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The default {@link KeyMaster}, keeps the adapted keys of every base key
+ * (one per user who cached something for it) so they can all be removed together.
+ * <p>
+ * Keys are forgotten when the cache drops their value (see {@link KeyMasterCacheListener}),
+ * so normally there are never more keys here than values in the cache.
+ * If there are more than {@code maxKeys} anyway, whole base keys are dropped
+ * until there is room again and their values are taken out of the cache too,
+ * a value whose key is forgotten could not be removed by {@link GateKeeper#removeAllChildKeys(String)} anymore.
+ * </p>
+ */
+@Slf4j
+final class BoundedKeyMaster implements KeyMaster {
+
+    private final ConcurrentHashMap<String, Set<String>> thekeys = new ConcurrentHashMap<>();
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    //only one thread trims at a time, the others keep going
+    private final AtomicBoolean trimming = new AtomicBoolean();
+
+    private final int maxKeys;
+    private volatile Consumer<String> evictor = k -> {};
+
+    BoundedKeyMaster(int maxKeys) {
+        if (maxKeys < 1) {
+            throw new IllegalArgumentException("maxKeys must be > 0: " + maxKeys);
+        }
+        this.maxKeys = maxKeys;
+    }
+
+    @Override
+    public Set<String> getAllAdaptedKeys(String baseKey) {
+        Set<String> set = thekeys.get(baseKey);
+        if (set == null) {
+            return null;
+        }
+        //a copy, removing the values changes the set
+        return new HashSet<>(set);
+    }
+
+    @Override
+    public void addKey(String baseKey, String adaptKey) {
+        thekeys.compute(baseKey, (k, set) -> {
+            if (set == null) {
+                set = ConcurrentHashMap.newKeySet();
+            }
+            if (set.add(adaptKey)) {
+                size.incrementAndGet();
+            }
+            return set;
+        });
+        if (size.get() > maxKeys) {
+            trim();
+        }
+    }
+
+    @Override
+    public void removeKey(String baseKey, String adaptKey) {
+        thekeys.computeIfPresent(baseKey, (k, set) -> {
+            if (set.remove(adaptKey)) {
+                size.decrementAndGet();
+            }
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    @Override
+    public void removeAll() {
+        Iterator<String> iter = thekeys.keySet().iterator();
+        while (iter.hasNext()) {
+            dropBaseKey(iter.next());
+        }
+    }
+
+    @Override
+    public void setEvictor(Consumer<String> evictor) {
+        this.evictor = Objects.requireNonNull(evictor);
+    }
+
+    @Override
+    public Statistics getStatistics() {
+        return new Statistics(size.get(), maxKeys, evictions.get());
+    }
+
+    /**
+     * Drop base keys, in no particular order, until there is 10% room again.
+     */
+    private void trim() {
+        if (!trimming.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long target = maxKeys - maxKeys / 10;
+            Iterator<String> iter = thekeys.keySet().iterator();
+            while (size.get() > target && iter.hasNext()) {
+                Set<String> dropped = dropBaseKey(iter.next());
+                evictions.addAndGet(dropped.size());
+                for (String adaptedKey : dropped) {
+                    try {
+                        evictor.accept(adaptedKey);
+                    } catch (Exception e) {
+                        log.warn("Trouble evicting " + adaptedKey, e);
+                    }
+                }
+            }
+        } finally {
+            trimming.set(false);
+        }
+    }
+
+    private Set<String> dropBaseKey(String baseKey) {
+        Set<String> set = thekeys.remove(baseKey);
+        if (set == null) {
+            return Collections.emptySet();
+        }
+        size.addAndGet(-set.size());
+        return set;
+    }
+
+    @Override
+    public String adaptKey(String baseKey) {
+        final String user = getActingUser();
+        return "!" + baseKey + "#" + Util.sha1(user);
+    }
+
+    private String getActingUser() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null) {
+            Object principal = authentication.getPrincipal();
+            if (principal != null) {
+                if (principal instanceof UserDetails) {
+                    return ((UserDetails) principal).getUsername();
+                } else {
+                    return authentication.getName();
+                }
+            }
+        }
+        return "GUEST";
+    }
+
+    @Override
+    public String unAdaptKey(String adaptedKey) {
+        if (!adaptedKey.startsWith("!")) {
+            return adaptedKey;
+        }
+        return adaptedKey.substring(1, adaptedKey.lastIndexOf('#'));
+    }
+}
@@ -0,0 +1,149 @@
+package ix.core.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import ix.core.search.SearchResultContext;
+import ix.utils.Util;
+
+/**
+ * How {@link MappedFileCache} turns values into bytes, picked per type of value.
+ * The id of a codec is written with every value, so ids must never change or be reused.
+ * Anything without a codec of its own falls back to java serialization.
+ */
+enum CacheValueCodec {
+
+    JAVA(0) {
+        @Override
+        boolean handles(Object value) {
+            return value instanceof Serializable;
+        }
+
+        @Override
+        byte[] encode(Object value) throws IOException {
+            return Util.serialize(value);
+        }
+
+        @Override
+        Object decode(byte[] bytes) throws IOException, ClassNotFoundException {
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                return ois.readObject();
+            }
+        }
+    },
+    STRING(1) {
+        @Override
+        boolean handles(Object value) {
+            return value instanceof String;
+        }
+
+        @Override
+        byte[] encode(Object value) {
+            return ((String) value).getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        Object decode(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    },
+    BYTES(2) {
+        @Override
+        boolean handles(Object value) {
+            return value instanceof byte[];
+        }
+
+        @Override
+        byte[] encode(Object value) {
+            return (byte[]) value;
+        }
+
+        @Override
+        Object decode(byte[] bytes) {
+            return bytes;
+        }
+    },
+    JSON(3) {
+        @Override
+        boolean handles(Object value) {
+            return value instanceof JsonNode;
+        }
+
+        @Override
+        byte[] encode(Object value) throws IOException {
+            return SMILE.writeValueAsBytes(value);
+        }
+
+        @Override
+        Object decode(byte[] bytes) throws IOException {
+            return SMILE.readTree(bytes);
+        }
+    },
+    SEARCH_RESULT_CONTEXT(4) {
+        @Override
+        boolean handles(Object value) {
+            return value instanceof SearchResultContext.SerailizedSearchResultContext;
+        }
+
+        @Override
+        byte[] encode(Object value) throws IOException {
+            return SMILE.writeValueAsBytes(value);
+        }
+
+        @Override
+        Object decode(byte[] bytes) throws IOException {
+            return SMILE.readValue(bytes, SearchResultContext.SerailizedSearchResultContext.class);
+        }
+    };
+
+    //getSerializedKey() is written but can't be read back
+    private static final ObjectMapper SMILE = new ObjectMapper(new SmileFactory())
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private static final CacheValueCodec[] BY_ID = new CacheValueCodec[values().length];
+
+    static {
+        for (CacheValueCodec codec : values()) {
+            BY_ID[codec.id] = codec;
+        }
+    }
+
+    final byte id;
+
+    CacheValueCodec(int id) {
+        this.id = (byte) id;
+    }
+
+    abstract boolean handles(Object value);
+
+    abstract byte[] encode(Object value) throws IOException;
+
+    abstract Object decode(byte[] bytes) throws IOException, ClassNotFoundException;
+
+    /**
+     * The codec for a value, null if it can't be stored at all.
+     */
+    static CacheValueCodec of(Object value) {
+        //the specific ones first, java serialization is the last resort
+        for (int i = BY_ID.length - 1; i >= 0; i--) {
+            if (BY_ID[i].handles(value)) {
+                return BY_ID[i];
+            }
+        }
+        return null;
+    }
+
+    static CacheValueCodec byId(byte id) {
+        if (id < 0 || id >= BY_ID.length) {
+            throw new IllegalArgumentException("unknown cache value codec " + id);
+        }
+        return BY_ID[id];
+    }
+}
@@ -0,0 +1,139 @@
+package ix.core.cache;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+
+import ix.core.search.SearchResultContext;
+import ix.core.util.EntityUtils;
+
+/**
+ * Estimates how many bytes of heap a cached value takes up, so a cache
+ * can be bounded by memory instead of by the number of values.
+ * <p>
+ * A weigher is registered per type and the most specific registered type
+ * of a value is used, values of types nobody registered weigh {@code defaultWeight}.
+ * The estimates only have to be cheap and roughly right relative to each other,
+ * big collections are weighed from a sample of their elements.
+ * </p>
+ */
+public final class CacheWeigher {
+
+    /**
+     * Makes the weigher of a cache, set one as {@code ix.cache.weigherFactory}
+     * to weigh values some other way than {@link #withDefaults(int)} does.
+     * Implementations need a public no argument constructor.
+     */
+    public interface Factory {
+        CacheWeigher create(int defaultWeight);
+    }
+
+    //how many elements of a collection are weighed to estimate the rest
+    private static final int SAMPLE_SIZE = 16;
+
+    private final Map<Class<?>, ToIntFunction<Object>> registered = new ConcurrentHashMap<>();
+    private final Map<Class<?>, ToIntFunction<Object>> resolved = new ConcurrentHashMap<>();
+    private final int defaultWeight;
+
+    public CacheWeigher(int defaultWeight) {
+        this.defaultWeight = Math.max(1, defaultWeight);
+    }
+
+    /**
+     * A weigher that knows about strings, arrays of bytes, collections, maps, search results
+     * and entities.  Entities, wrapped or not, are weighed by the length of their json,
+     * the object graph of an entity takes up a few times that.
+     *
+     * @param defaultWeight the weight of any other value, in bytes.
+     */
+    public static CacheWeigher withDefaults(int defaultWeight) {
+        CacheWeigher weigher = new CacheWeigher(defaultWeight);
+        weigher.register(String.class, s -> 40 + 2 * s.length());
+        weigher.register(byte[].class, b -> 16 + b.length);
+        weigher.register(Number.class, n -> 16);
+        weigher.register(Boolean.class, b -> 16);
+        weigher.register(Collection.class, c -> 32 + 8 * c.size() + weighSample(weigher, c.size(), c.iterator()));
+        weigher.register(Map.class, m -> 48 + 32 * m.size()
+                + weighSample(weigher, m.size(), m.keySet().iterator())
+                + weighSample(weigher, m.size(), m.values().iterator()));
+        weigher.register(SearchResultContext.class, ctx -> 256 + weigher.weigh(ctx.getResults()));
+        weigher.register(EntityUtils.EntityWrapper.class, ew -> 32 + weigher.weigh(ew.getValue()));
+        //anything more specific registered wins over this
+        weigher.register(Object.class, o -> isEntity(o.getClass()) ? weigher.weighAsJson(o) : weigher.defaultWeight);
+        return weigher;
+    }
+
+    private static boolean isEntity(Class<?> type) {
+        try {
+            return EntityUtils.getEntityInfoFor(type).isEntity();
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private int weighAsJson(Object entity) {
+        try {
+            return (int) Math.min(Integer.MAX_VALUE / 2, 64 + 3L * EntityUtils.EntityWrapper.of(entity).toInternalJson().length());
+        } catch (RuntimeException e) {
+            //a lazy collection that can't be loaded anymore and such
+            return defaultWeight;
+        }
+    }
+
+    /**
+     * Weigh values of this type, and its subtypes unless they have a weigher of their own, with the given function.
+     *
+     * @return this.
+     */
+    public <T> CacheWeigher register(Class<T> type, ToIntFunction<? super T> weigher) {
+        registered.put(type, o -> weigher.applyAsInt(type.cast(o)));
+        resolved.clear();
+        return this;
+    }
+
+    /**
+     * The estimated size of a value in bytes, never negative.
+     */
+    public int weigh(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        ToIntFunction<Object> weigher = resolved.computeIfAbsent(value.getClass(), this::find);
+        return Math.max(0, weigher.applyAsInt(value));
+    }
+
+    private ToIntFunction<Object> find(Class<?> type) {
+        Class<?> best = null;
+        for (Class<?> candidate : registered.keySet()) {
+            if (candidate.isAssignableFrom(type) && (best == null || best.isAssignableFrom(candidate))) {
+                best = candidate;
+            }
+        }
+        if (best == null) {
+            return o -> defaultWeight;
+        }
+        return registered.get(best);
+    }
+
+    private static int weighSample(CacheWeigher weigher, int size, Iterator<?> iter) {
+        if (size == 0) {
+            return 0;
+        }
+        long sampled = 0;
+        int n = 0;
+        try {
+            while (n < SAMPLE_SIZE && iter.hasNext()) {
+                sampled += weigher.weigh(iter.next());
+                n++;
+            }
+        } catch (RuntimeException e) {
+            //changed while weighing, go with what there is
+        }
+        if (n == 0) {
+            return 0;
+        }
+        return (int) Math.min(Integer.MAX_VALUE / 2, sampled * size / n);
+    }
+}
@@ -0,0 +1,460 @@
+package ix.core.cache;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+import gov.nih.ncats.common.util.TimeUtil;
+import io.micrometer.core.instrument.Counter;
+import ix.utils.CallableUtil.TypedCallable;
+import lombok.extern.slf4j.Slf4j;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.statistics.CoreStatistics;
+import org.springframework.security.concurrent.DelegatingSecurityContextRunnable;
+
+/**
+ * A {@link GateKeeper} on two caffeine caches bounded by the estimated size of their values
+ * (see {@link CacheWeigher}) instead of by the number of values.
+ * <p>
+ * Like the {@link TwoCacheGateKeeper}, values of types annotated as not evictable by {@link CacheStrategy}
+ * go in their own cache so the evictable ones can't push them out, and values
+ * of unknown type are placed by the class of the value once it is generated.
+ * A value cached for a number of seconds expires that many seconds after it was made
+ * or last read, other values use the time to live and idle of the gatekeeper.
+ * Only one thread generates a missing value at a time, the others wait for it.
+ * </p>
+ * Caffeine's statistics aren't ehcache {@link CoreStatistics}, they are reported
+ * to micrometer as the {@code <name>-Evictable} and {@code <name>-Not-Evictable} caches instead.
+ */
+@Slf4j
+public class CaffeineGateKeeper implements GateKeeper {
+
+    //the key, the entry and what caffeine keeps about it
+    private static final int ENTRY_OVERHEAD = 128;
+    //long enough, and far enough from Long.MAX_VALUE that adding times doesn't overflow
+    private static final long FOREVER = TimeUnit.DAYS.toNanos(365L * 100);
+
+    private final KeyMaster keyMaster;
+    private final CacheWeigher weigher;
+    private final Cache<String, Entry> evictableCache;
+    private final Cache<String, Entry> nonEvictableCache;
+    private final long timeToLiveNanos;
+    private final long timeToIdleNanos;
+    private final int debugLevel;
+
+    //values being generated right now, other misses of the same key wait for these
+    private final Map<String, Loading> loading = new ConcurrentHashMap<>();
+    //keys being regenerated in the background while their stale values are served
+    private final Set<String> revalidating = ConcurrentHashMap.newKeySet();
+    //null unless stale values may be served while they are regenerated
+    private final ThreadPoolExecutor revalidator;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    private volatile boolean isClosed;
+
+    /**
+     * A generated value and how long to keep it.
+     */
+    private static final class Entry {
+        private final Object value;
+        private final long creationTime;
+        private final long timeToLiveNanos;
+        private final long timeToIdleNanos;
+        private final int weight;
+
+        private Entry(Object value, long creationTime, long timeToLiveNanos, long timeToIdleNanos, int weight) {
+            this.value = value;
+            this.creationTime = creationTime;
+            this.timeToLiveNanos = timeToLiveNanos;
+            this.timeToIdleNanos = timeToIdleNanos;
+            this.weight = weight;
+        }
+
+        private long createdNanos() {
+            return TimeUnit.MILLISECONDS.toNanos(creationTime);
+        }
+    }
+
+    private static final class Loading {
+        private final Thread owner = Thread.currentThread();
+        private final CompletableFuture<Object> value = new CompletableFuture<>();
+    }
+
+    /**
+     * Entries live for their time to live, or less if they aren't read for their time to idle.
+     */
+    private static final class EntryExpiry implements Expiry<String, Entry> {
+        @Override
+        public long expireAfterCreate(String key, Entry e, long currentTime) {
+            return Math.min(e.timeToLiveNanos, e.timeToIdleNanos);
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Entry e, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, e, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, Entry e, long currentTime, long currentDuration) {
+            long leftToLive = e.createdNanos() + e.timeToLiveNanos - currentTime;
+            if (leftToLive <= 0) {
+                return 0;
+            }
+            return Math.min(leftToLive, e.timeToIdleNanos);
+        }
+    }
+
+    /**
+     * @param name                 the name of the gatekeeper, its caches and meters are named and tagged with it.
+     * @param maxBytes             the most the evictable values may weigh together.
+     * @param maxBytesNotEvictable the most the values of types that are not evictable may weigh together.
+     * @param timeToLive           the seconds a value lives if it wasn't given its own time, 0 for forever.
+     * @param timeToIdle           the seconds a value lives without being read if it wasn't given its own time, 0 for forever.
+     * @param staleWhileRevalidate if true, a value that is only out of date because
+     *                             something changed since it was made (see {@link #getSinceOrElse(String, long, TypedCallable)})
+     *                             is returned as is while a new one is generated in the background.
+     */
+    public CaffeineGateKeeper(String name, int debugLevel, KeyMaster keyMaster, CacheWeigher weigher,
+                              long maxBytes, long maxBytesNotEvictable,
+                              int timeToLive, int timeToIdle, boolean staleWhileRevalidate) {
+        Objects.requireNonNull(keyMaster);
+        Objects.requireNonNull(weigher);
+
+        this.debugLevel = debugLevel;
+        this.keyMaster = keyMaster;
+        this.weigher = weigher;
+        this.timeToLiveNanos = toNanos(timeToLive);
+        this.timeToIdleNanos = toNanos(timeToIdle);
+        this.evictableCache = createCache(maxBytes);
+        this.nonEvictableCache = createCache(maxBytesNotEvictable);
+        GateKeeperMetrics.monitor(evictableCache, name + "-Evictable", name);
+        GateKeeperMetrics.monitor(nonEvictableCache, name + "-Not-Evictable", name);
+        this.hits = GateKeeperMetrics.gets(name, getClass(), "hit");
+        this.misses = GateKeeperMetrics.gets(name, getClass(), "miss");
+
+        keyMaster.setEvictor(this::removeRaw);
+
+        if (staleWhileRevalidate) {
+            AtomicInteger count = new AtomicInteger();
+            revalidator = new ThreadPoolExecutor(2, 2, 1, TimeUnit.MINUTES, new ArrayBlockingQueue<>(1000), r -> {
+                Thread t = new Thread(r, "ixcache-revalidate-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            revalidator.allowCoreThreadTimeOut(true);
+        } else {
+            revalidator = null;
+        }
+    }
+
+    private static long toNanos(int seconds) {
+        return seconds <= 0 ? FOREVER : TimeUnit.SECONDS.toNanos(seconds);
+    }
+
+    private Cache<String, Entry> createCache(long maxBytes) {
+        KeyMasterCacheListener listener = new KeyMasterCacheListener(keyMaster, this::isKeyCached);
+        return Caffeine.newBuilder()
+                .maximumWeight(Math.max(0, maxBytes))
+                .weigher((String k, Entry e) -> e.weight)
+                .expireAfter(new EntryExpiry())
+                //so the time travelling in the tests moves the cache along
+                .ticker(() -> TimeUnit.MILLISECONDS.toNanos(TimeUtil.getCurrentTimeMillis()))
+                .removalListener((String k, Entry e, RemovalCause cause) -> {
+                    if (k != null && cause != RemovalCause.REPLACED) {
+                        listener.forget(k);
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    private boolean isKeyCached(String adaptedKey) {
+        return evictableCache.asMap().containsKey(adaptedKey)
+                || nonEvictableCache.asMap().containsKey(adaptedKey);
+    }
+
+    private Entry getEntry(String adaptedKey) {
+        Entry e = evictableCache.getIfPresent(adaptedKey);
+        if (e == null) {
+            e = nonEvictableCache.getIfPresent(adaptedKey);
+        }
+        return e;
+    }
+
+    /**
+     * @param creationTime   values made before this are out of date.
+     * @param mayServeStale  true if an out of date value may still be returned
+     *                       while it is regenerated, when this gatekeeper does that.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T getOrElse(String key, String adaptedKey, TypedCallable<T> generator, int seconds,
+                            long creationTime, boolean mayServeStale) {
+        Entry e = getEntry(adaptedKey);
+        if (e != null) {
+            if (e.creationTime >= creationTime) {
+                hits.increment();
+                return (T) e.value;
+            }
+            if (mayServeStale && revalidator != null) {
+                hits.increment();
+                revalidate(key, adaptedKey, generator, seconds);
+                return (T) e.value;
+            }
+        }
+        misses.increment();
+        if (debugLevel >= 2) {
+            log.debug("IxCache missed: " + adaptedKey);
+        }
+        return load(key, adaptedKey, generator, seconds);
+    }
+
+    /**
+     * Generate and cache the value of a key, if the same key is already being generated
+     * wait for that instead so a value is only ever generated once at a time.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T load(String key, String adaptedKey, TypedCallable<T> generator, int seconds) {
+        Loading mine = new Loading();
+        Loading current = loading.putIfAbsent(adaptedKey, mine);
+        if (current != null) {
+            if (current.owner != Thread.currentThread()) {
+                return (T) current.value.join();
+            }
+            //generating the value needs the value, nothing to wait for
+            return generate(generator);
+        }
+        T value = null;
+        try {
+            value = generate(generator);
+            store(key, adaptedKey, value, seconds, generator.getType());
+            return value;
+        } finally {
+            mine.value.complete(value);
+            loading.remove(adaptedKey, mine);
+        }
+    }
+
+    private <T> T generate(TypedCallable<T> generator) {
+        try {
+            return generator.call();
+        } catch (Exception e) {
+            log.trace("Trouble generating cached value", e);
+            return null;
+        }
+    }
+
+    private void revalidate(String key, String adaptedKey, TypedCallable<?> generator, int seconds) {
+        if (!revalidating.add(adaptedKey)) {
+            return;
+        }
+        try {
+            //the generator may check who the user is
+            revalidator.execute(new DelegatingSecurityContextRunnable(() -> {
+                try {
+                    //the old value stays readable until the new one replaces it
+                    store(key, adaptedKey, generate(generator), seconds, generator.getType());
+                } catch (Exception ex) {
+                    log.warn("Trouble regenerating " + adaptedKey, ex);
+                } finally {
+                    revalidating.remove(adaptedKey);
+                }
+            }));
+        } catch (RejectedExecutionException ex) {
+            //too much to do, a later get will try again
+            revalidating.remove(adaptedKey);
+        }
+    }
+
+    private void store(String key, String adaptedKey, Object value, int seconds, Class<?> type) {
+        if (value == null) {
+            removeRaw(adaptedKey);
+            return;
+        }
+        long ttl = seconds > 0 ? TimeUnit.SECONDS.toNanos(seconds) : timeToLiveNanos;
+        long tti = seconds > 0 ? TimeUnit.SECONDS.toNanos(seconds) : timeToIdleNanos;
+        int weight = (int) Math.min(Integer.MAX_VALUE, (long) weigher.weigh(value) + ENTRY_OVERHEAD + 2L * adaptedKey.length());
+        Entry e = new Entry(value, TimeUtil.getCurrentTimeMillis(), ttl, tti, weight);
+        if (isEvictable(type, value)) {
+            evictableCache.put(adaptedKey, e);
+            nonEvictableCache.invalidate(adaptedKey);
+        } else {
+            nonEvictableCache.put(adaptedKey, e);
+            evictableCache.invalidate(adaptedKey);
+        }
+        //after the put, see KeyMasterCacheListener
+        keyMaster.addKey(key, adaptedKey);
+    }
+
+    private static boolean isEvictable(Class<?> type, Object value) {
+        if (type == null || type.equals(Object.class)) {
+            //only the value knows what it is
+            type = value.getClass();
+        }
+        CacheStrategy cacheStrat = type.getAnnotation(CacheStrategy.class);
+        return cacheStrat == null || cacheStrat.evictable();
+    }
+
+    private boolean removeRaw(String adaptedKey) {
+        boolean removed = evictableCache.asMap().remove(adaptedKey) != null;
+        return nonEvictableCache.asMap().remove(adaptedKey) != null || removed;
+    }
+
+    @Override
+    public boolean remove(String key) {
+        return removeRaw(keyMaster.adaptKey(key));
+    }
+
+    @Override
+    public boolean removeAllChildKeys(String key) {
+        Set<String> set = keyMaster.getAllAdaptedKeys(key);
+        if (set == null || set.isEmpty()) {
+            return false;
+        }
+        set.forEach(this::removeRaw);
+        return true;
+    }
+
+    @Override
+    public <T> T getSinceOrElse(String key, long creationTime, TypedCallable<T> generator) throws Exception {
+        return getOrElse(key, keyMaster.adaptKey(key), generator, 0, creationTime, true);
+    }
+
+    @Override
+    public <T> T getSinceOrElseRaw(String key, long creationTime, TypedCallable<T> generator) throws Exception {
+        return getOrElse(key, key, generator, 0, creationTime, true);
+    }
+
+    @Override
+    public <T> T getOrElseRaw(String key, TypedCallable<T> generator) throws Exception {
+        return getOrElse(key, key, generator, 0, Long.MIN_VALUE, false);
+    }
+
+    @Override
+    public <T> T getOrElse(String key, TypedCallable<T> generator) throws Exception {
+        return getOrElse(key, keyMaster.adaptKey(key), generator, 0, Long.MIN_VALUE, false);
+    }
+
+    @Override
+    public Object get(String key) {
+        return getRaw(keyMaster.adaptKey(key));
+    }
+
+    @Override
+    public Object getRaw(String key) {
+        Entry e = getEntry(key);
+        (e == null ? misses : hits).increment();
+        return e == null ? null : e.value;
+    }
+
+    @Override
+    public void put(String key, Object value, int expiration) {
+        store(key, keyMaster.adaptKey(key), value, expiration, null);
+    }
+
+    @Override
+    public void put(String key, Object value) {
+        put(key, value, 0);
+    }
+
+    @Override
+    public void putRaw(String key, Object value) {
+        putRaw(key, value, 0);
+    }
+
+    @Override
+    public void putRaw(String key, Object value, int expiration) {
+        store(key, key, value, expiration, null);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return getEntry(keyMaster.adaptKey(key)) != null;
+    }
+
+    @Override
+    public Element getRawElement(String key) {
+        Entry e = getEntry(key);
+        if (e == null) {
+            return null;
+        }
+        return new Element(key, e.value, 1, e.creationTime, e.creationTime, e.creationTime, 0);
+    }
+
+    @Override
+    public Stream<Element> elements(int top, int skip) {
+        return Stream.concat(evictableCache.asMap().keySet().stream(), nonEvictableCache.asMap().keySet().stream())
+                .skip(skip)
+                .limit(top)
+                .map(this::getRawElement);
+    }
+
+    @Override
+    public List<CoreStatistics> getStatistics() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public KeyMaster.Statistics getKeyStatistics() {
+        return keyMaster.getStatistics();
+    }
+
+    @Override
+    public List<String> getHottestKeys(int max, Predicate<String> include) {
+        //caffeine only orders a cache by frequency, the counts aren't comparable between the two
+        return Stream.of(evictableCache, nonEvictableCache)
+                .flatMap(cache -> cache.policy().eviction()
+                        .map(e -> e.hottest((int) Math.min(Integer.MAX_VALUE, cache.estimatedSize())).keySet().stream())
+                        .orElseGet(Stream::empty))
+                .filter(k -> !k.startsWith("!"))
+                .filter(include)
+                .limit(max)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Do the evictions caffeine would otherwise do in the background.
+     */
+    void cleanUp() {
+        evictableCache.cleanUp();
+        nonEvictableCache.cleanUp();
+    }
+
+    @Override
+    public void clear() {
+        keyMaster.removeAll();
+        evictableCache.invalidateAll();
+        nonEvictableCache.invalidateAll();
+    }
+
+    @Override
+    public void close() {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        if (revalidator != null) {
+            revalidator.shutdownNow();
+        }
+        evictableCache.invalidateAll();
+        nonEvictableCache.invalidateAll();
+    }
+}
@@ -160,7 +160,7 @@ public class FileDbCache implements GinasFileBasedCacheAdapter {
     	
     }
     
-    private static Optional<Tuple<Serializable,Object>> 
+    static Optional<Tuple<Serializable,Object>> 
     					getKeyValueSerialized(Serializable key, Object realValue){
     	if(realValue instanceof SearchResultContext){
     		
@@ -7,6 +7,7 @@ import net.sf.ehcache.statistics.CoreStatistics;
 
 import java.io.Closeable;
 import java.util.List;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 /**
@@ -47,5 +48,17 @@ public interface GateKeeper extends Closeable {
 
     List<CoreStatistics> getStatistics();
 
+    /**
+     * How many keys the {@link KeyMaster} is holding on to.
+     */
+    KeyMaster.Statistics getKeyStatistics();
+
+    /**
+     * The keys of the most used values, most used first, to know what to
+     * warm a new cache up with.  Only keys of values put with the raw methods
+     * are included, the others can't be made again without their user.
+     */
+    List<String> getHottestKeys(int max, Predicate<String> include);
+
     void clear();
 }
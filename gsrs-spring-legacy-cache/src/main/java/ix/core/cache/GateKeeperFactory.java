@@ -1,19 +1,13 @@
 package ix.core.cache;
 
-import ix.utils.Util;
 import net.sf.ehcache.*;
 import net.sf.ehcache.config.CacheConfiguration;
 import net.sf.ehcache.constructs.blocking.SelfPopulatingCache;
 import net.sf.ehcache.writer.CacheWriter;
 import net.sf.ehcache.writer.writebehind.operations.SingleOperationType;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.core.userdetails.UserDetails;
 
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Objects;
 import java.util.function.Supplier;
 
 /**
@@ -21,8 +15,11 @@ import java.util.function.Supplier;
  */
 public final class GateKeeperFactory {
 
-    private static final String IX_CACHE_EVICTABLE = "IxCache-Evictable";
-    private static final String IX_CACHE_NOT_EVICTABLE = "IxCache-Not-Evictable";
+    /**
+     * The name of a gatekeeper unless another is given,
+     * its caches are named after it.
+     */
+    public static final String DEFAULT_NAME = "IxCache";
 
 
     private Supplier<GateKeeper> supplier;
@@ -90,12 +87,19 @@ public final class GateKeeperFactory {
 
     public static class Builder{
         private int debugLevel = 2;
+        private String name = DEFAULT_NAME;
 
         private final int maxElements, timeToLive, timeToIdle;
         private Integer nonEvictableMaxElements, nonEvictableTimeToLive, nonEvictableTimeToIdle;
 
         private GinasFileBasedCacheAdapter cacheAdapter = DoNothingDBCacheWriter.INSTANCE;
-        private KeyMaster km= new ExplicitMapKeyMaster();
+        //null means a new BoundedKeyMaster for every gatekeeper
+        private KeyMaster km;
+        private Integer maxKeys;
+        private boolean staleWhileRevalidate;
+        //set to use caffeine instead of ehcache
+        private CacheWeigher weigher;
+        private long maxBytes, maxBytesNotEvictable;
         
         public Builder(int maxElements, int timeToLive, int timeToIdle){
             this.maxElements = maxElements;
@@ -108,6 +112,14 @@ public final class GateKeeperFactory {
             this.debugLevel = level;
             return this;
         }
+
+        /**
+         * The name of the gatekeeper, its caches and meters are named and tagged with it.
+         */
+        public Builder name(String name){
+            this.name = Objects.requireNonNull(name);
+            return this;
+        }
         
         public Builder cacheAdapter(GinasFileBasedCacheAdapter adapter){
         	this.cacheAdapter=adapter;
@@ -119,6 +131,49 @@ public final class GateKeeperFactory {
         	return this;
         }
 
+        /**
+         * The most keys the default {@link KeyMaster} holds on to,
+         * by default twice as many as the caches can hold values.
+         */
+        public Builder maxKeys(int maxKeys){
+            this.maxKeys = maxKeys;
+            return this;
+        }
+
+        /**
+         * Serve values that are out of date only because something changed since they were made
+         * while they are regenerated in the background, instead of making the caller wait.
+         * Only the two cache gatekeeper does this.
+         */
+        public Builder staleWhileRevalidate(boolean staleWhileRevalidate){
+            this.staleWhileRevalidate = staleWhileRevalidate;
+            return this;
+        }
+
+        /**
+         * Use a {@link CaffeineGateKeeper}, bounded by the estimated size of the values,
+         * instead of ehcache caches bounded by the number of values.
+         * The maximum number of elements only sizes the default {@link KeyMaster}
+         * and the cache adapter is not used.
+         */
+        public Builder useCaffeine(CacheWeigher weigher, long maxBytes, long maxBytesNotEvictable){
+            this.weigher = weigher;
+            this.maxBytes = maxBytes;
+            this.maxBytesNotEvictable = maxBytesNotEvictable;
+            return this;
+        }
+
+        private KeyMaster createKeyMaster(){
+            if(km !=null){
+                return km;
+            }
+            if(maxKeys !=null){
+                return new BoundedKeyMaster(maxKeys);
+            }
+            long cacheSize = (long) maxElements + (nonEvictableMaxElements ==null ? 0 : nonEvictableMaxElements);
+            return new BoundedKeyMaster((int) Math.min(Integer.MAX_VALUE, Math.max(1000, 2 * cacheSize)));
+        }
+
 
         public Builder useNonEvictableCache(int maxElements, int timeToLive, int timeToIdle){
             this.nonEvictableMaxElements = maxElements;
@@ -129,13 +184,16 @@ public final class GateKeeperFactory {
 
         public GateKeeperFactory build(){
             Supplier<GateKeeper> supplier;
-            if(nonEvictableMaxElements ==null){
+            if(weigher !=null){
+                supplier = ()-> new CaffeineGateKeeper(name, debugLevel, createKeyMaster(), weigher,
+                        maxBytes, maxBytesNotEvictable, timeToLive, timeToIdle, staleWhileRevalidate);
+            }else if(nonEvictableMaxElements ==null){
                 //single cache
 
                 supplier = ()->{
 
                     Cache evictableCache = new Cache( new CacheConfiguration()
-                            .name(IX_CACHE_NOT_EVICTABLE)
+                            .name(name + "-Not-Evictable")
                             //.maxBytesLocalHeap(maxElements, MemoryUnit.MEGABYTES)
                             .maxEntriesLocalHeap(10)
                             .timeToLiveSeconds(timeToLive)
@@ -146,13 +204,15 @@ public final class GateKeeperFactory {
                     evictableCache.registerCacheWriter(cacheAdapter);
                     //TODO how do we turn on caching in newer version?
 //                    evictableCache.setSampledStatisticsEnabled(true);
+                    //size, puts and evictions of the ehcache itself
+                    GateKeeperMetrics.monitor(evictableCache, name);
                     Ehcache eh_evictableCache= new SelfPopulatingCache(evictableCache,cacheAdapter);
-                    return new SingleCacheGateKeeper(debugLevel, this.km, eh_evictableCache);
+                    return new SingleCacheGateKeeper(name, debugLevel, createKeyMaster(), eh_evictableCache);
                };
             }else{
                 supplier = ()->{
                     Cache evictableCache = new Cache(new CacheConfiguration()
-                            .name(IX_CACHE_EVICTABLE)
+                            .name(name + "-Evictable")
                             .maxEntriesLocalHeap(maxElements)
                             .timeToLiveSeconds(timeToLive)
                             .timeToIdleSeconds(timeToIdle));
@@ -160,7 +220,7 @@ public final class GateKeeperFactory {
                     evictableCache.registerCacheWriter(cacheAdapter);
                     Ehcache eh_evictableCache= new SelfPopulatingCache(evictableCache,cacheAdapter);
                     Cache nonEvictableCache = new Cache ( new CacheConfiguration()
-                            .name(IX_CACHE_NOT_EVICTABLE)
+                            .name(name + "-Not-Evictable")
                             .maxEntriesLocalHeap(nonEvictableMaxElements)
                             //.maxBytesLocalHeap(nonEvictableMaxElements, MemoryUnit.MEGABYTES)
                             .timeToLiveSeconds(nonEvictableTimeToLive)
@@ -176,11 +236,14 @@ public final class GateKeeperFactory {
 
                     CacheManager.getInstance().removeCache(nonEvictableCache.getName());
                     CacheManager.getInstance().addCache(nonEvictableCache);
+                    //size, puts and evictions of the ehcaches themselves
+                    GateKeeperMetrics.monitor(evictableCache, name);
+                    GateKeeperMetrics.monitor(nonEvictableCache, name);
 
                     //TODO how do we turn on caching in newer version?
 //                    evictableCache.setSampledStatisticsEnabled(true);
 
-                    return new TwoCacheGateKeeper(debugLevel, this.km, eh_evictableCache, eh_nonEvictableCache);
+                    return new TwoCacheGateKeeper(name, debugLevel, createKeyMaster(), eh_evictableCache, eh_nonEvictableCache, staleWhileRevalidate);
                 };
             }
 
@@ -188,60 +251,4 @@ public final class GateKeeperFactory {
         }
     }
 
-    
-    private static class ExplicitMapKeyMaster implements KeyMaster{
-        private ConcurrentHashMap<String,Set<String>> thekeys= new ConcurrentHashMap<String,Set<String>>();
-        private int size=0;
-        public Set<String> getAllAdaptedKeys(String baseKey){
-            return thekeys.get(baseKey);
-        }
-
-        @Override
-        public void addKey(String baseKey, String adaptKey) {
-            if(thekeys.computeIfAbsent(baseKey, k-> new HashSet<>()).add(adaptKey)){
-                size++;
-            }
-        }
-
-        @Override
-        public void removeKey(String baseKey, String adaptKey) {
-            Set<String> keylist=thekeys.get(baseKey);
-            if(keylist!=null){
-                if(keylist.remove(adaptKey)){
-                    size--;
-                }
-            }
-        }
-
-        @Override
-        public void removeAll() {
-            thekeys.clear();
-        }
-        
-        public String adaptKey(String baseKey) {
-            final String user = getActingUser();
-            return "!" + baseKey + "#" + Util.sha1(user);
-        }
-        private String getActingUser(){
-            Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-            if(authentication !=null) {
-                Object principal = authentication.getPrincipal();
-                if (principal != null) {
-                    if (principal instanceof UserDetails) {
-                        return ((UserDetails) principal).getUsername();
-                    } else {
-                        return authentication.getName();
-                    }
-                }
-            }
-            return "GUEST";
-        }
-
-        public String unAdaptKey(String adaptedKey) {
-            if (!adaptedKey.startsWith("!")) {
-                return adaptedKey;
-            }
-            return adaptedKey.substring(1, adaptedKey.lastIndexOf('#'));
-        }
-    }
 }
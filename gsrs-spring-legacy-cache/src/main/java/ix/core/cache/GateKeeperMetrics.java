@@ -0,0 +1,64 @@
+package ix.core.cache;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.micrometer.core.instrument.binder.cache.EhCache2Metrics;
+import net.sf.ehcache.Ehcache;
+
+/**
+ * The meters of the gatekeepers, registered with micrometer's global registry
+ * and tagged with the name of the gatekeeper they belong to.
+ * The caches are made again every time a gatekeeper is, so the meters of the cache
+ * with the same name are removed before the new one is monitored; otherwise they pile up
+ * and the old meters keep reporting the cache that was thrown away.
+ */
+final class GateKeeperMetrics {
+
+    private GateKeeperMetrics() {
+        //can not instantiate
+    }
+
+    /**
+     * The counter of the gets of a gatekeeper, generated values count as misses.
+     * @param result "hit" or "miss".
+     */
+    static Counter gets(String gatekeeper, Class<? extends GateKeeper> type, String result) {
+        return Counter.builder("gsrs.cache.gets")
+                .description("Gets from the cache, generated values count as misses")
+                .tag("gatekeeper", gatekeeper)
+                .tag("type", type.getSimpleName())
+                .tag("result", result)
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * Size, puts and evictions of an ehcache of the gatekeeper.
+     */
+    static void monitor(Ehcache cache, String gatekeeper) {
+        removeCacheMeters(cache.getName());
+        EhCache2Metrics.monitor(Metrics.globalRegistry, cache, "gatekeeper", gatekeeper);
+    }
+
+    /**
+     * Size, hits and evictions of a caffeine cache of the gatekeeper.
+     */
+    static void monitor(Cache<?, ?> cache, String cacheName, String gatekeeper) {
+        removeCacheMeters(cacheName);
+        CaffeineCacheMetrics.monitor(Metrics.globalRegistry, cache, cacheName, "gatekeeper", gatekeeper);
+    }
+
+    private static void removeCacheMeters(String cacheName) {
+        List<Meter> old = Metrics.globalRegistry.getMeters().stream()
+                .filter(m -> m.getId().getName().startsWith("cache.")
+                        && cacheName.equals(m.getId().getTag("cache")))
+                .collect(Collectors.toList());
+        old.forEach(Metrics.globalRegistry::remove);
+    }
+}
@@ -16,6 +16,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 public class IxCache implements GsrsCache {
@@ -109,6 +110,20 @@ public class IxCache implements GsrsCache {
         return this.gateKeeper.getStatistics();
     }
 
+    /**
+     * How many keys are kept to find all the cached values of a key,
+     * ehcache's statistics don't know about them.
+     */
+    @Override
+    public KeyMaster.Statistics getKeyStatistics () {
+        return this.gateKeeper.getKeyStatistics();
+    }
+
+    @Override
+    public List<String> getHottestKeys(int max, Predicate<String> include) {
+        return this.gateKeeper.getHottestKeys(max, include);
+    }
+
     @Override
     public boolean contains(String key) {
         return this.gateKeeper.contains(key);
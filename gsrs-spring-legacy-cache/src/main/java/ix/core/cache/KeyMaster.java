@@ -1,6 +1,9 @@
 package ix.core.cache;
 
 import java.util.Set;
+import java.util.function.Consumer;
+
+import lombok.Value;
 
 /**
  * Created by katzelda on 5/24/16.
@@ -23,5 +26,34 @@ public interface KeyMaster {
     public String unAdaptKey(String adaptedKey);
 
     void removeAll();
-    
+
+    /**
+     * Set what to call with an adapted key when this KeyMaster has to forget it on its own,
+     * so the cached value goes away with it.  KeyMasters that never forget keys can ignore this.
+     */
+    default void setEvictor(Consumer<String> evictor){
+    }
+
+    default Statistics getStatistics(){
+        return new Statistics(-1, -1, 0);
+    }
+
+    /**
+     * How many adapted keys a {@link KeyMaster} holds.
+     */
+    @Value
+    class Statistics{
+        /**
+         * The number of adapted keys, -1 if not known.
+         */
+        long size;
+        /**
+         * The most adapted keys it will hold, -1 if there is no limit.
+         */
+        long maxSize;
+        /**
+         * The number of adapted keys dropped to stay under {@link #maxSize}.
+         */
+        long evictions;
+    }
 }
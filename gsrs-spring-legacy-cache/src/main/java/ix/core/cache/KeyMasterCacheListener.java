@@ -0,0 +1,61 @@
+package ix.core.cache;
+
+import java.util.function.Predicate;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
+
+/**
+ * Tells a {@link KeyMaster} to forget the keys of the values a cache
+ * evicted, expired or removed, otherwise nothing but an explicit remove ever gets rid of them.
+ * <p>
+ * The same key may have been cached again (or still be in another cache of the gatekeeper),
+ * so the key is removed first and added back if it turns out to still be cached.
+ * The gatekeepers add keys only after putting the value, so however a put
+ * and a removal interleave a value that is still cached keeps its key.
+ * </p>
+ */
+class KeyMasterCacheListener extends CacheEventListenerAdapter {
+
+    private final KeyMaster keyMaster;
+    private final Predicate<String> isCached;
+
+    KeyMasterCacheListener(KeyMaster keyMaster, Predicate<String> isCached) {
+        this.keyMaster = keyMaster;
+        this.isCached = isCached;
+    }
+
+    @Override
+    public void notifyElementRemoved(Ehcache cache, Element element) {
+        forget(element);
+    }
+
+    @Override
+    public void notifyElementExpired(Ehcache cache, Element element) {
+        forget(element);
+    }
+
+    @Override
+    public void notifyElementEvicted(Ehcache cache, Element element) {
+        forget(element);
+    }
+
+    private void forget(Element element) {
+        if (element == null || element.getObjectKey() == null) {
+            return;
+        }
+        forget(element.getObjectKey().toString());
+    }
+
+    /**
+     * The value of this adapted key is gone from one of the caches.
+     */
+    void forget(String adaptedKey) {
+        String baseKey = keyMaster.unAdaptKey(adaptedKey);
+        keyMaster.removeKey(baseKey, adaptedKey);
+        if (isCached.test(adaptedKey)) {
+            keyMaster.addKey(baseKey, adaptedKey);
+        }
+    }
+}
@@ -0,0 +1,486 @@
+package ix.core.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import gov.nih.ncats.common.Tuple;
+import gov.nih.ncats.common.util.CachedSupplier;
+import lombok.extern.slf4j.Slf4j;
+import net.sf.ehcache.CacheEntry;
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.writer.writebehind.operations.SingleOperationType;
+
+/**
+ * A second tier for the cache in memory mapped segment files, instead of {@link FileDbCache}'s
+ * berkeley db of java serialized values.
+ * <p>
+ * Values are written by a background thread in batches, appended to the newest segment
+ * in the format of their {@link CacheValueCodec} and looked up through an index in memory.
+ * A value that is still being generated is written once it is done instead of being
+ * generated by the write.  When the segments take up more than {@code maxBytes}
+ * the oldest one is dropped with everything in it.
+ * </p>
+ * <p>
+ * Removals are written too, so on restart the index is rebuilt by reading through
+ * the segments once, values are only decoded when they are asked for.
+ * </p>
+ * Records are {@code [length][crc][type][codec][key length][key][value]},
+ * a record with a length of 0 or a bad crc ends a segment.
+ */
+@Slf4j
+public class MappedFileCache implements GinasFileBasedCacheAdapter {
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    //length and crc
+    private static final int HEADER = 8;
+    //type, codec and key length
+    private static final int RECORD_PREFIX = 4;
+
+    private static final int MAX_BATCH = 1000;
+    private static final long FLUSH_MILLIS = 50;
+    //how long to wait for a value still being generated before giving up on writing it
+    private static final long MAX_DEFER_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final File dir;
+    private final String cacheName;
+    private final boolean clearDb;
+    private final long maxBytes;
+    private final int segmentBytes;
+
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    //the latest write or removal of a key that isn't in the segments yet
+    private final Map<String, Op> pending = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final BlockingQueue<Op> queue;
+
+    private Thread writer;
+    private volatile boolean init = false;
+    private volatile boolean closed = false;
+
+    private static final class Op {
+        private final String key;
+        private final Object value;
+        private final boolean delete;
+        private final long created = System.currentTimeMillis();
+        //set by the writer once a removal is in the segments
+        private volatile boolean written;
+
+        private Op(String key, Object value, boolean delete) {
+            this.key = key;
+            this.value = value;
+            this.delete = delete;
+        }
+    }
+
+    private static final class Segment {
+        private final int id;
+        private final File file;
+        private final RandomAccessFile raf;
+        private final MappedByteBuffer buffer;
+        //only the writer thread moves this
+        private int position;
+
+        private Segment(int id, File file, int size) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "rw");
+            this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        private void close() {
+            try {
+                buffer.force();
+                raf.close();
+            } catch (IOException e) {
+                log.warn("Trouble closing cache segment " + file, e);
+            }
+        }
+    }
+
+    private static final class Location {
+        private final Segment segment;
+        private final int valueOffset;
+        private final int valueLength;
+        private final byte codec;
+
+        private Location(Segment segment, int valueOffset, int valueLength, byte codec) {
+            this.segment = segment;
+            this.valueOffset = valueOffset;
+            this.valueLength = valueLength;
+            this.codec = codec;
+        }
+
+        private Object decode() throws IOException, ClassNotFoundException {
+            byte[] bytes = new byte[valueLength];
+            ByteBuffer b = segment.buffer.duplicate();
+            b.position(valueOffset);
+            b.get(bytes);
+            return CacheValueCodec.byId(codec).decode(bytes);
+        }
+    }
+
+    /**
+     * @param maxBytes the most disk (and address space) the segments may take up together.
+     */
+    public MappedFileCache(File dir, String cacheName, boolean clearDb, long maxBytes) {
+        this(dir, cacheName, clearDb, maxBytes, 10_000);
+    }
+
+    MappedFileCache(File dir, String cacheName, boolean clearDb, long maxBytes, int maxQueued) {
+        Objects.requireNonNull(dir);
+        Objects.requireNonNull(cacheName);
+        this.dir = dir;
+        this.cacheName = cacheName;
+        this.clearDb = clearDb;
+        this.maxBytes = maxBytes;
+        this.queue = new ArrayBlockingQueue<>(maxQueued);
+        //at least a few segments so dropping one doesn't empty the cache
+        this.segmentBytes = (int) Math.max(1024 * 1024, Math.min(64L * 1024 * 1024, maxBytes / 8));
+    }
+
+    @Override
+    public synchronized void init() {
+        if (init) {
+            return;
+        }
+        try {
+            Files.createDirectories(dir.toPath());
+            File[] files = dir.listFiles((d, name) -> name.startsWith(cacheName + "-") && name.endsWith(".seg"));
+            if (files != null) {
+                for (File f : files) {
+                    if (clearDb) {
+                        Files.delete(f.toPath());
+                    } else {
+                        int id = Integer.parseInt(f.getName().substring(cacheName.length() + 1, f.getName().length() - 4));
+                        segments.put(id, new Segment(id, f, segmentBytes));
+                    }
+                }
+            }
+            for (Segment s : segments.values()) {
+                replay(s);
+            }
+            if (segments.isEmpty()) {
+                newSegment();
+            }
+            log.debug("cache " + cacheName + " opened with " + index.size() + " entries in " + segments.size() + " segments");
+        } catch (IOException | RuntimeException e) {
+            throw new CacheException("error opening cache " + cacheName + " in " + dir, e);
+        }
+        writer = new Thread(this::writeLoop, "cache-writer-" + cacheName);
+        writer.setDaemon(true);
+        writer.start();
+        init = true;
+    }
+
+    /**
+     * Put what a segment holds in the index, later segments win.
+     */
+    private void replay(Segment s) {
+        ByteBuffer b = s.buffer.duplicate();
+        int pos = 0;
+        while (pos + HEADER + RECORD_PREFIX <= segmentBytes) {
+            int length = b.getInt(pos);
+            if (length < RECORD_PREFIX || pos + HEADER + length > segmentBytes) {
+                break;
+            }
+            ByteBuffer body = b.duplicate();
+            body.position(pos + HEADER);
+            body.limit(pos + HEADER + length);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != b.getInt(pos + 4)) {
+                //torn write, nothing after it was written
+                break;
+            }
+            int start = pos + HEADER;
+            byte type = b.get(start);
+            byte codec = b.get(start + 1);
+            int keyLength = b.getShort(start + 2) & 0xFFFF;
+            byte[] key = new byte[keyLength];
+            ByteBuffer k = b.duplicate();
+            k.position(start + RECORD_PREFIX);
+            k.get(key);
+            String keyString = new String(key, StandardCharsets.UTF_8);
+            if (type == PUT) {
+                int valueOffset = start + RECORD_PREFIX + keyLength;
+                index.put(keyString, new Location(s, valueOffset, length - RECORD_PREFIX - keyLength, codec));
+            } else {
+                index.remove(keyString);
+            }
+            pos += HEADER + length;
+        }
+        s.position = pos;
+    }
+
+    private Segment newSegment() throws IOException {
+        int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        File f = new File(dir, String.format("%s-%08d.seg", cacheName, id));
+        Segment s = new Segment(id, f, segmentBytes);
+        //a file left over with the same name must not be read as records
+        s.buffer.putInt(0, 0);
+        segments.put(id, s);
+        while (segments.size() > 1 && (long) segments.size() * segmentBytes > maxBytes) {
+            dropOldestSegment();
+        }
+        return s;
+    }
+
+    private void dropOldestSegment() {
+        Map.Entry<Integer, Segment> oldest = segments.pollFirstEntry();
+        if (oldest == null) {
+            return;
+        }
+        Segment s = oldest.getValue();
+        index.values().removeIf(l -> l.segment == s);
+        s.close();
+        try {
+            Files.deleteIfExists(s.file.toPath());
+        } catch (IOException e) {
+            log.warn("Trouble deleting cache segment " + s.file, e);
+        }
+    }
+
+    @Override
+    public Object createEntry(Object key) throws Exception {
+        if (!(key instanceof Serializable)) {
+            throw new IllegalArgumentException("Cache key " + key + " is not serliazable!");
+        }
+        String k = key.toString();
+        Op op = pending.get(k);
+        if (op != null) {
+            if (op.delete) {
+                return null;
+            }
+            Object value = op.value;
+            if (!(value instanceof CachedSupplier)) {
+                return new Element(key, value);
+            }
+            CachedSupplier<?> supplier = (CachedSupplier<?>) value;
+            if (supplier.hasRun()) {
+                return new Element(key, supplier.get());
+            }
+        }
+        Location location = index.get(k);
+        if (location == null) {
+            return null;
+        }
+        try {
+            return new Element(key, location.decode());
+        } catch (Exception ex) {
+            log.error("Can't recreate entry for " + key, ex);
+            index.remove(k, location);
+            return null;
+        }
+    }
+
+    @Override
+    public void write(Element elm) throws CacheException {
+        Object key = elm.getObjectKey();
+        if (!(key instanceof Serializable)) {
+            return;
+        }
+        Op op = new Op(key.toString(), elm.getObjectValue(), false);
+        Op replaced = pending.put(op.key, op);
+        if (!queue.offer(op)) {
+            //it's a cache, better to lose the write than to hold up the put,
+            //but a removal it replaced still has to be seen until the writer got it into the segments
+            pending.compute(op.key, (k, current) -> current != op ? current
+                    : replaced != null && replaced.delete && !replaced.written ? replaced : null);
+            //what is in the segments is older than the value that was put
+            index.remove(op.key);
+            log.debug("cache writer of " + cacheName + " is behind, not writing " + op.key);
+        }
+    }
+
+    @Override
+    public void writeAll(Collection<Element> elements) throws CacheException {
+        //the writer takes what is queued in batches anyway
+        for (Element e : elements) {
+            write(e);
+        }
+    }
+
+    @Override
+    public void delete(CacheEntry entry) throws CacheException {
+        Object key = entry.getKey();
+        if (!(key instanceof Serializable)) {
+            return;
+        }
+        Op op = new Op(key.toString(), null, true);
+        pending.put(op.key, op);
+        index.remove(op.key);
+        try {
+            //unlike a write a removal can't be dropped, the old value would come back after a restart
+            queue.put(op);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CacheException("interrupted removing " + key, e);
+        }
+    }
+
+    @Override
+    public void deleteAll(Collection<CacheEntry> entries) throws CacheException {
+        for (CacheEntry e : entries) {
+            delete(e);
+        }
+    }
+
+    @Override
+    public void throwAway(Element elm, SingleOperationType operationType, RuntimeException ex) {
+        log.error("Throwing away cache element " + elm.getObjectKey(), ex);
+    }
+
+    private void writeLoop() {
+        List<Op> batch = new ArrayList<>();
+        List<Op> deferred = new ArrayList<>();
+        while (true) {
+            try {
+                Op first = queue.poll(FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null && closed) {
+                    return;
+                }
+                //values that weren't generated yet go first, they're older
+                batch.addAll(deferred);
+                deferred.clear();
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH);
+                }
+                append(batch, deferred);
+            } catch (InterruptedException e) {
+                if (closed) {
+                    return;
+                }
+            } catch (Throwable t) {
+                log.error("Trouble writing cache " + cacheName, t);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void append(List<Op> batch, List<Op> deferred) throws IOException {
+        long now = System.currentTimeMillis();
+        for (Op op : batch) {
+            if (op.delete) {
+                //even if a later write replaced it, that write may have been dropped and
+                //the older value must not come back after a restart
+                appendRecord(DELETE, op.key, CacheValueCodec.JAVA, new byte[0]);
+                index.remove(op.key);
+                op.written = true;
+                pending.remove(op.key, op);
+                continue;
+            }
+            if (pending.get(op.key) != op) {
+                //there is a later write or removal of the key
+                continue;
+            }
+            Object value = op.value;
+            if (value instanceof CachedSupplier) {
+                CachedSupplier<?> supplier = (CachedSupplier<?>) value;
+                if (!supplier.hasRun()) {
+                    //whoever put it is generating it, don't do it here
+                    if (closed || now - op.created > MAX_DEFER_MILLIS) {
+                        pending.remove(op.key, op);
+                    } else {
+                        deferred.add(op);
+                    }
+                    continue;
+                }
+                value = supplier.get();
+            }
+            try {
+                Optional<Tuple<Serializable, Object>> kv = value == null ? Optional.empty()
+                        : FileDbCache.getKeyValueSerialized(op.key, value);
+                CacheValueCodec codec = kv.isPresent() ? CacheValueCodec.of(kv.get().v()) : null;
+                if (codec == null) {
+                    continue;
+                }
+                String storedKey = kv.get().k().toString();
+                Location location = appendRecord(PUT, storedKey, codec, codec.encode(kv.get().v()));
+                if (location != null) {
+                    index.put(storedKey, location);
+                }
+            } catch (Exception ex) {
+                log.error("Can't write cache element: key=" + op.key, ex);
+            } finally {
+                pending.remove(op.key, op);
+            }
+        }
+    }
+
+    /**
+     * @return where the value was written, null if it is too big for a segment.
+     */
+    private Location appendRecord(byte type, String key, CacheValueCodec codec, byte[] value) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length > 0xFFFF) {
+            return null;
+        }
+        int length = RECORD_PREFIX + keyBytes.length + value.length;
+        if (HEADER + length + HEADER > segmentBytes) {
+            return null;
+        }
+        Segment s = segments.lastEntry().getValue();
+        //room for the record and the 0 length after it
+        if (s.position + HEADER + length + HEADER > segmentBytes) {
+            s = newSegment();
+        }
+        int pos = s.position;
+        ByteBuffer body = ByteBuffer.allocate(length);
+        body.put(type).put(codec.id).putShort((short) keyBytes.length).put(keyBytes).put(value);
+        body.flip();
+        CRC32 crc = new CRC32();
+        crc.update(body.array(), 0, length);
+
+        ByteBuffer b = s.buffer.duplicate();
+        b.position(pos + HEADER);
+        b.put(body);
+        b.putInt(pos + HEADER + length, 0);
+        b.putInt(pos + 4, (int) crc.getValue());
+        //the length last, until then the record isn't there
+        b.putInt(pos, length);
+        s.position = pos + HEADER + length;
+        return new Location(s, pos + HEADER + RECORD_PREFIX + keyBytes.length, value.length, codec.id);
+    }
+
+    @Override
+    public void dispose() throws CacheException {
+        if (!init || closed) {
+            return;
+        }
+        closed = true;
+        try {
+            //let it write what is queued
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer.interrupt();
+        log.debug("#### closing cache writer " + cacheName + "; " + index.size() + " entries #####");
+        for (Segment s : segments.values()) {
+            s.close();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package ix.core.cache;
 
+import io.micrometer.core.instrument.Counter;
 import ix.utils.CallableUtil.TypedCallable;
 import lombok.extern.slf4j.Slf4j;
 import net.sf.ehcache.CacheManager;
@@ -8,10 +9,12 @@ import net.sf.ehcache.Element;
 import net.sf.ehcache.statistics.CoreStatistics;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -29,14 +32,23 @@ public class SingleCacheGateKeeper implements GateKeeper {
 
     private final int debugLevel;
 
-    public SingleCacheGateKeeper(int debugLevel, KeyMaster keyMaster, Ehcache evictableCache){
+    //gets that were answered from the cache and gets that had to generate the value
+    private final Counter hits;
+    private final Counter misses;
+
+    public SingleCacheGateKeeper(String name, int debugLevel, KeyMaster keyMaster, Ehcache evictableCache){
         Objects.requireNonNull(keyMaster);
         Objects.requireNonNull(evictableCache);
 
         this.debugLevel = debugLevel;
         this.keyMaster = keyMaster;
         this.evictableCache = evictableCache;
+        this.hits = GateKeeperMetrics.gets(name, getClass(), "hit");
+        this.misses = GateKeeperMetrics.gets(name, getClass(), "miss");
 
+        keyMaster.setEvictor(this::removeRaw);
+        evictableCache.getCacheEventNotificationService()
+                .registerListener(new KeyMasterCacheListener(keyMaster, evictableCache::isKeyInCache));
     }
 
     @Override
@@ -120,8 +132,8 @@ public class SingleCacheGateKeeper implements GateKeeper {
        @Override
        public T call() throws Exception {
            T t = delegate.call();
-           keyMaster.addKey(key, adaptedKey);
            addToCache(adaptedKey, t, seconds);
+           keyMaster.addKey(key, adaptedKey);
            return t;
        }
    }
@@ -133,6 +145,34 @@ public class SingleCacheGateKeeper implements GateKeeper {
         return statlist;
     }
 
+    @Override
+    public KeyMaster.Statistics getKeyStatistics() {
+        return keyMaster.getStatistics();
+    }
+
+    @Override
+    public List<String> getHottestKeys(int max, Predicate<String> include) {
+        return hottestKeys(max, include, evictableCache);
+    }
+
+    /**
+     * The raw keys of the caches ordered by how often their values were read.
+     */
+    static List<String> hottestKeys(int max, Predicate<String> include, Ehcache... caches) {
+        return Stream.of(caches)
+                .flatMap(cache -> ((List<?>) cache.getKeys()).stream()
+                        //quietly, so looking doesn't count as a hit
+                        .map(cache::getQuiet))
+                .filter(Objects::nonNull)
+                .filter(e -> e.getObjectKey() instanceof String && !((String) e.getObjectKey()).startsWith("!"))
+                .sorted(Comparator.comparingLong(Element::getHitCount).reversed())
+                .map(e -> (String) e.getObjectKey())
+                //after sorting, so it's only tried until there are enough
+                .filter(include)
+                .limit(max)
+                .collect(Collectors.toList());
+    }
+
     @Override
     public <T> T getSinceOrElse(String key, long creationTime, TypedCallable<T> generator) throws Exception{
         return getSinceOrElse(key, creationTime, generator, 0);
@@ -154,11 +194,13 @@ public class SingleCacheGateKeeper implements GateKeeper {
 
 
         if(e ==null || e.getObjectValue() ==null || regeneratePredicate.test(e)){
+            misses.increment();
             if (debugLevel >= 2) {
                 log.debug("IxCache missed: " + key);
             }
             return generator.call();
         }
+        hits.increment();
         try {
             return (T) e.getObjectValue();
         }catch(Exception ex){
@@ -208,8 +250,10 @@ public class SingleCacheGateKeeper implements GateKeeper {
         Element e = getRawElement(key);
 
         if(e ==null ){
+            misses.increment();
             return null;
         }
+        hits.increment();
         return e.getObjectValue();
     }
 
@@ -6,19 +6,25 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 import gov.nih.ncats.common.util.CachedSupplier;
 import gov.nih.ncats.common.util.TimeUtil;
+import io.micrometer.core.instrument.Counter;
 import ix.utils.CallableUtil.TypedCallable;
 import lombok.extern.slf4j.Slf4j;
 import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
 import net.sf.ehcache.statistics.CoreStatistics;
+import org.springframework.security.concurrent.DelegatingSecurityContextRunnable;
 
 
 /**
@@ -29,6 +35,11 @@ public class TwoCacheGateKeeper implements GateKeeper {
 
 	private Map<String, TimeUtilCacheElement> temporaryCache = new ConcurrentHashMap<String,TimeUtilCacheElement>();
 
+    //values being generated right now, other misses of the same key wait for these
+    private final Map<String, CachedSupplier<?>> loading = new ConcurrentHashMap<>();
+    //keys being regenerated in the background while their stale values are served
+    private final Set<String> revalidating = ConcurrentHashMap.newKeySet();
+
     private final KeyMaster keyMaster;
     private final Ehcache evictableCache;
     private final Ehcache nonEvictableCache;
@@ -38,7 +49,23 @@ public class TwoCacheGateKeeper implements GateKeeper {
 
     private final int debugLevel;
 
-    public TwoCacheGateKeeper(int debugLevel, KeyMaster keyMaster, Ehcache evictableCache, Ehcache nonEvictableCache){
+    //gets that were answered from the cache and gets that had to generate the value
+    private final Counter hits;
+    private final Counter misses;
+
+    //null unless stale values may be served while they are regenerated
+    private final ThreadPoolExecutor revalidator;
+
+    public TwoCacheGateKeeper(String name, int debugLevel, KeyMaster keyMaster, Ehcache evictableCache, Ehcache nonEvictableCache){
+        this(name, debugLevel, keyMaster, evictableCache, nonEvictableCache, false);
+    }
+
+    /**
+     * @param staleWhileRevalidate if true, a value that is only out of date because
+     *                             something changed since it was made (see {@link #getSinceOrElse(String, long, TypedCallable)})
+     *                             is returned as is while a new one is generated in the background.
+     */
+    public TwoCacheGateKeeper(String name, int debugLevel, KeyMaster keyMaster, Ehcache evictableCache, Ehcache nonEvictableCache, boolean staleWhileRevalidate){
         Objects.requireNonNull(keyMaster);
         Objects.requireNonNull(evictableCache);
         Objects.requireNonNull(nonEvictableCache);
@@ -47,7 +74,31 @@ public class TwoCacheGateKeeper implements GateKeeper {
         this.keyMaster = keyMaster;
         this.evictableCache = evictableCache;
         this.nonEvictableCache = nonEvictableCache;
+        this.hits = GateKeeperMetrics.gets(name, getClass(), "hit");
+        this.misses = GateKeeperMetrics.gets(name, getClass(), "miss");
+
+        keyMaster.setEvictor(this::removeRaw);
+        KeyMasterCacheListener listener = new KeyMasterCacheListener(keyMaster, this::isKeyCached);
+        evictableCache.getCacheEventNotificationService().registerListener(listener);
+        nonEvictableCache.getCacheEventNotificationService().registerListener(listener);
+
+        if(staleWhileRevalidate){
+            AtomicInteger count = new AtomicInteger();
+            revalidator = new ThreadPoolExecutor(2, 2, 1, TimeUnit.MINUTES, new ArrayBlockingQueue<>(1000), r -> {
+                Thread t = new Thread(r, "ixcache-revalidate-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            revalidator.allowCoreThreadTimeOut(true);
+        }else{
+            revalidator = null;
+        }
+    }
 
+    private boolean isKeyCached(String adaptedKey){
+        return temporaryCache.containsKey(adaptedKey)
+                || evictableCache.isKeyInCache(adaptedKey)
+                || nonEvictableCache.isKeyInCache(adaptedKey);
     }
 
     private <T> CacheGeneratorWrapper<T> createRaw(TypedCallable<T> delegate, String key, int seconds){
@@ -135,7 +186,6 @@ public class TwoCacheGateKeeper implements GateKeeper {
 
        public CachedSupplier<T> call() {
            //T t = delegate.call();
-           keyMaster.addKey(key, adaptedKey);
            Class<?> type=delegate.getType();
            
            
@@ -159,10 +209,33 @@ public class TwoCacheGateKeeper implements GateKeeper {
            });
            
            addToCache(adaptedKey, memdelegate, seconds, type);
-           
+           //after the put, see KeyMasterCacheListener
+           keyMaster.addKey(key, adaptedKey);
+
            return memdelegate;
        }
 
+        /**
+         * Generate the value first and only then replace what is cached,
+         * so the old value can still be read while this runs.
+         */
+        public T regenerate() {
+            T ret = invokeDelegate();
+            if(ret==null){
+                removeRaw(adaptedKey);
+                return null;
+            }
+            CachedSupplier<T> generated = CachedSupplier.of(()->ret);
+            generated.getSync();
+            Class<?> type = delegate.getType();
+            if(getEvictionPolicy(type) == EvictionType.UNKNOWN){
+                type = ret.getClass();
+            }
+            addToCache(adaptedKey, generated, seconds, type);
+            keyMaster.addKey(key, adaptedKey);
+            return ret;
+        }
+
         private T invokeDelegate() {
             try{
                 T ret= delegate.call();
@@ -187,22 +260,42 @@ public class TwoCacheGateKeeper implements GateKeeper {
     	String adaptedKey = keyMaster.adaptKey(key);
         return getOrElseRaw(adaptedKey,
                 createKeyWrapper(generator, key, adaptedKey, seconds),
-                e->e.getCreationTime() < creationTime
+                e->e.getCreationTime() < creationTime,
+                true
                 );
     }
 
 
+    private  <T> T getOrElseRaw(String key, CacheGeneratorWrapper<T> generator, Predicate<Element> regeneratePredicate) throws Exception{
+        return getOrElseRaw(key, generator, regeneratePredicate, false);
+    }
 
+    /**
+     * @param mayServeStale true if an element the predicate rejects may still be returned
+     *                      while it is regenerated, when this gatekeeper does that.
+     */
     @SuppressWarnings("unchecked")
-	private  <T> T getOrElseRaw(String key, CacheGeneratorWrapper<T> generator, Predicate<Element> regeneratePredicate) throws Exception{
+	private  <T> T getOrElseRaw(String key, CacheGeneratorWrapper<T> generator, Predicate<Element> regeneratePredicate, boolean mayServeStale) throws Exception{
     	Element e = getRawElement(key);
     	
-        if(e ==null || regeneratePredicate.test(e)){
+        if(e ==null){
+            misses.increment();
             if (debugLevel >= 2) {
                 log.debug("IxCache missed: " + key);
             }
-            return generator.call().getSync();
+            return load(key, generator);
         }
+        if(regeneratePredicate.test(e)){
+            if(!mayServeStale || revalidator ==null){
+                misses.increment();
+                if (debugLevel >= 2) {
+                    log.debug("IxCache stale: " + key);
+                }
+                return load(key, generator);
+            }
+            revalidate(key, generator);
+        }
+        hits.increment();
         
         try {
             return (T) getObjectFromElement(e);
@@ -210,11 +303,50 @@ public class TwoCacheGateKeeper implements GateKeeper {
             //in case there is a cast problem
             //or some other problem with the cached value
             //re-generate
-        	return generator.call().getSync();
+        	return load(key, generator);
         }
 
     }
 
+    /**
+     * Generate and cache the value of a key, if the same key is already being generated
+     * wait for that instead so a value is only ever generated once at a time.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T load(String key, CacheGeneratorWrapper<T> generator){
+        CachedSupplier<?>[] mine = new CachedSupplier<?>[1];
+        //generator.call() only caches the supplier, the value is generated by getSync()
+        CachedSupplier<?> supplier = loading.computeIfAbsent(key, k-> mine[0] = generator.call());
+        try{
+            return (T) supplier.getSync();
+        }finally{
+            if(supplier == mine[0]){
+                loading.remove(key, supplier);
+            }
+        }
+    }
+
+    private void revalidate(String key, CacheGeneratorWrapper<?> generator){
+        if(!revalidating.add(key)){
+            return;
+        }
+        try{
+            //the generator may check who the user is
+            revalidator.execute(new DelegatingSecurityContextRunnable(()->{
+                try{
+                    generator.regenerate();
+                }catch(Exception ex){
+                    log.warn("Trouble regenerating " + key, ex);
+                }finally{
+                    revalidating.remove(key);
+                }
+            }));
+        }catch(RejectedExecutionException ex){
+            //too much to do, a later get will try again
+            revalidating.remove(key);
+        }
+    }
+
     
 
 
@@ -222,7 +354,8 @@ public class TwoCacheGateKeeper implements GateKeeper {
 			TypedCallable<T> generator) throws Exception {
 	    return getOrElseRaw(key,
 	               createRaw(generator,key, 0),
-	               e->e.getCreationTime() < creationTime);
+	               e->e.getCreationTime() < creationTime,
+	               true);
 	}
     
     
@@ -259,6 +392,7 @@ public class TwoCacheGateKeeper implements GateKeeper {
     @Override
     public Object getRaw(String key){
         Element e = getRawElement(key);
+        (e ==null ? misses : hits).increment();
         return getObjectFromElement(e);
     }
     
@@ -270,13 +404,16 @@ public class TwoCacheGateKeeper implements GateKeeper {
         Object avalue=e.getObjectValue();
         Object retValue=avalue;
         if(avalue instanceof CachedSupplier){
-        	retValue=((CachedSupplier<Object>)avalue).get();	
+        	//wait for a value another thread is generating instead of generating it again
+        	retValue=((CachedSupplier<Object>)avalue).getSync();
         }
         return retValue;
     }
     
     private void refreshElementAtWith(String adaptedKey, Class<?> type){
-    	TimeUtilCacheElement elm = (TimeUtilCacheElement)this.getRawElement(adaptedKey);
+    	//values of unknown type wait in the temporary cache, getRawElement would
+    	//generate the value that is being generated all over again
+    	TimeUtilCacheElement elm = this.temporaryCache.get(adaptedKey);
     	refreshElementWith(elm, type);
     }
     
@@ -435,6 +572,16 @@ public class TwoCacheGateKeeper implements GateKeeper {
     	stats.add(nonEvictableCache.getStatistics().getCore());
         return stats;
     }
+
+    @Override
+    public KeyMaster.Statistics getKeyStatistics() {
+        return keyMaster.getStatistics();
+    }
+
+    @Override
+    public List<String> getHottestKeys(int max, Predicate<String> include) {
+        return SingleCacheGateKeeper.hottestKeys(max, include, evictableCache, nonEvictableCache);
+    }
     
     //private Map<String, CacheStrategy> cacheStrategies = new ConcurrentHashMap<>();
     
@@ -488,6 +635,9 @@ public class TwoCacheGateKeeper implements GateKeeper {
             return;
         }
         isClosed=true;
+        if(revalidator !=null){
+            revalidator.shutdownNow();
+        }
         disposeCache(evictableCache);
         disposeCache(nonEvictableCache);
     }
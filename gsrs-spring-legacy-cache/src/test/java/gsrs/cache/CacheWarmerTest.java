@@ -0,0 +1,181 @@
+package gsrs.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import javax.persistence.Id;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ix.core.cache.FileDbCache;
+import ix.core.cache.GateKeeperFactory;
+import ix.core.cache.IxCache;
+import ix.core.util.EntityUtils.Key;
+
+public class CacheWarmerTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	static int ONE_HR = (int) ChronoUnit.HOURS.getDuration().toMillis();
+
+	private IxCache cache;
+	private File snapshotFile;
+	private Set<String> fetched = ConcurrentHashMap.newKeySet();
+
+	@Before
+	public void setup() throws Exception {
+		cache = newCache();
+		snapshotFile = new File(tmpDir.getRoot(), "hotkeys.txt");
+	}
+
+	@After
+	public void shutdown(){
+		cache.close();
+	}
+
+	private IxCache newCache() throws Exception {
+		return new IxCache( new GateKeeperFactory.Builder(100, ONE_HR,ONE_HR)
+				.cacheAdapter(new FileDbCache(tmpDir.newFolder(), "testCache",true))
+				.useNonEvictableCache(50, ONE_HR, ONE_HR)
+				.build().create(), null);
+	}
+
+	private CacheWarmer warmer(IxCache cache, int maxEntries, int maxSeconds){
+		GsrsLegacyCachePropertyConfiguration.WarmUp config = new GsrsLegacyCachePropertyConfiguration.WarmUp();
+		config.setMaxEntries(maxEntries);
+		config.setMaxSeconds(maxSeconds);
+		config.setParallelism(2);
+		return new CacheWarmer(cache, config, snapshotFile, k-> fetched.add(k));
+	}
+
+	private static String key(long id){
+		return Key.of(MyEntity.class, id).toString();
+	}
+
+	//reads the keys the given number of times, the first the most
+	private List<String> heat(String... keys){
+		for(int i=0; i< keys.length; i++){
+			cache.setRaw(keys[i], "value");
+			for(int j=0; j< keys.length - i; j++){
+				cache.getRaw(keys[i]);
+			}
+		}
+		return Arrays.asList(keys);
+	}
+
+	@Test
+	public void snapshotIsHottestEntityKeysFirst() throws Exception {
+		List<String> keys = heat(key(1), key(2) + "_JSON", "not an entity", key(3));
+
+		CacheWarmer warmer = warmer(cache, 10, 60);
+		assertEquals(3, warmer.writeSnapshot());
+		assertEquals(Arrays.asList(key(1), key(2) + "_JSON", key(3)), warmer.readSnapshot());
+		assertFalse(warmer.readSnapshot().contains(keys.get(2)));
+	}
+
+	@Test
+	public void emptyCacheKeepsLastSnapshot() throws Exception {
+		heat(key(1));
+		assertEquals(1, warmer(cache, 10, 60).writeSnapshot());
+
+		IxCache empty = newCache();
+		try{
+			CacheWarmer warmer = warmer(empty, 10, 60);
+			assertEquals(0, warmer.writeSnapshot());
+			assertEquals(Collections.singletonList(key(1)), warmer.readSnapshot());
+		}finally{
+			empty.close();
+		}
+	}
+
+	@Test
+	public void entityKeys(){
+		assertTrue(CacheWarmer.isEntityKey(key(1)));
+		assertTrue(CacheWarmer.isEntityKey(key(1) + "_JSON"));
+		assertFalse(CacheWarmer.isEntityKey("foo"));
+		assertFalse(CacheWarmer.isEntityKey("no.such.Class._id:1"));
+	}
+
+	@Test
+	public void warmUpFetchesSnapshotKeys() throws Exception {
+		heat(key(1), key(2) + "_JSON", key(3));
+		warmer(cache, 10, 60).writeSnapshot();
+
+		IxCache empty = newCache();
+		try{
+			List<String> warmed = Collections.synchronizedList(new ArrayList<>());
+			int n = warmer(empty, 10, 60).warmUp(new CacheWarmer.Listener() {
+				@Override
+				public void warmed(String key) {
+					warmed.add(key);
+				}
+			});
+			assertEquals(3, n);
+			assertEquals(new HashSet<>(Arrays.asList(key(1), key(2) + "_JSON", key(3))), fetched);
+			assertEquals(3, warmed.size());
+		}finally{
+			empty.close();
+		}
+	}
+
+	@Test
+	public void warmUpIsBoundedByMaxEntries() throws Exception {
+		String[] keys = new String[10];
+		for(int i=0; i< keys.length; i++){
+			keys[i] = key(i);
+		}
+		heat(keys);
+		warmer(cache, 10, 60).writeSnapshot();
+
+		IxCache empty = newCache();
+		try{
+			assertEquals(4, warmer(empty, 4, 60).warmUp(new CacheWarmer.Listener() {}));
+			assertEquals(Arrays.stream(keys).limit(4).collect(Collectors.toSet()), fetched);
+		}finally{
+			empty.close();
+		}
+	}
+
+	@Test
+	public void warmUpIsBoundedByMaxSeconds() throws Exception {
+		heat(key(1), key(2));
+		warmer(cache, 10, 60).writeSnapshot();
+
+		IxCache empty = newCache();
+		try{
+			assertEquals(0, warmer(empty, 10, 0).warmUp(new CacheWarmer.Listener() {}));
+			assertTrue(fetched.isEmpty());
+		}finally{
+			empty.close();
+		}
+	}
+
+	@Test
+	public void cachedKeysAreNotFetchedAgain() throws Exception {
+		heat(key(1), key(2));
+		warmer(cache, 10, 60).writeSnapshot();
+
+		assertEquals(0, warmer(cache, 10, 60).warmUp(new CacheWarmer.Listener() {}));
+		assertTrue(fetched.isEmpty());
+	}
+
+	public static class MyEntity {
+		@Id
+		public Long id;
+	}
+}
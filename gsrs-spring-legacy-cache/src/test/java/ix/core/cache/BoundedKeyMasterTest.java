@@ -0,0 +1,58 @@
+package ix.core.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BoundedKeyMasterTest {
+
+	@Test
+	public void removingLastAdaptedKeyForgetsBaseKey(){
+		BoundedKeyMaster km = new BoundedKeyMaster(100);
+		km.addKey("a", "!a#1");
+		km.addKey("a", "!a#2");
+		km.addKey("a", "!a#2");
+		assertEquals(new HashSet<>(Arrays.asList("!a#1", "!a#2")), km.getAllAdaptedKeys("a"));
+		assertEquals(2, km.getStatistics().getSize());
+
+		km.removeKey("a", "!a#1");
+		km.removeKey("a", "!a#2");
+		assertNull(km.getAllAdaptedKeys("a"));
+		assertEquals(0, km.getStatistics().getSize());
+	}
+
+	@Test
+	public void overTheCapKeysAreEvictedWithTheirValues(){
+		BoundedKeyMaster km = new BoundedKeyMaster(10);
+		List<String> evicted = new ArrayList<>();
+		km.setEvictor(evicted::add);
+		for(int i=0; i< 11; i++){
+			km.addKey("k" + i, "!k" + i + "#u");
+		}
+		KeyMaster.Statistics stats = km.getStatistics();
+		assertTrue(stats.getSize() <= 9);
+		assertEquals(10, stats.getMaxSize());
+		assertEquals(11 - stats.getSize(), stats.getEvictions());
+		assertEquals(stats.getEvictions(), evicted.size());
+		for(String adaptedKey : evicted){
+			assertNull(km.getAllAdaptedKeys(km.unAdaptKey(adaptedKey)));
+		}
+	}
+
+	@Test
+	public void removeAllResetsSize(){
+		BoundedKeyMaster km = new BoundedKeyMaster(100);
+		km.addKey("a", "a");
+		km.addKey("b", "!b#u");
+		km.removeAll();
+		assertEquals(0, km.getStatistics().getSize());
+		assertNull(km.getAllAdaptedKeys("a"));
+	}
+}
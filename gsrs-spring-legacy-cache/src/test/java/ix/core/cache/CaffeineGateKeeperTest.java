@@ -0,0 +1,167 @@
+package ix.core.cache;
+
+import gsrs.junit.vintage.TimeTravellerRule;
+import ix.core.util.EntityUtils.EntityWrapper;
+import ix.utils.CallableUtil.TypedCallable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CaffeineGateKeeperTest {
+
+	@Rule
+	public TimeTravellerRule timeTraveller = new TimeTravellerRule();
+
+	private static final int MAX_BYTES = 20_000;
+
+	private CaffeineGateKeeper gateKeeper;
+
+	@Before
+	public void setup(){
+		gateKeeper = (CaffeineGateKeeper) new GateKeeperFactory.Builder(100, 3600, 3600)
+				.debugLevel(0)
+				.useCaffeine(CacheWeigher.withDefaults(1024), MAX_BYTES, MAX_BYTES)
+				.build()
+				.create();
+	}
+
+	@After
+	public void shutDown(){
+		gateKeeper.close();
+	}
+
+	private static String bigString(int i){
+		char[] chars = new char[2_000];
+		Arrays.fill(chars, (char) ('a' + i % 26));
+		return new String(chars);
+	}
+
+	@Test
+	public void getOrElseCachesValue() throws Exception{
+		assertEquals("v1", gateKeeper.getOrElse("k", TypedCallable.of("v1")));
+		assertEquals("v1", gateKeeper.getOrElse("k", TypedCallable.of("v2")));
+		assertTrue(gateKeeper.contains("k"));
+		assertEquals("v1", gateKeeper.get("k"));
+
+		assertTrue(gateKeeper.remove("k"));
+		assertFalse(gateKeeper.contains("k"));
+		assertEquals("v2", gateKeeper.getOrElse("k", TypedCallable.of("v2")));
+	}
+
+	@Test
+	public void removeAllChildKeysRemovesAdaptedAndRawValues() throws Exception{
+		gateKeeper.put("k", "adapted");
+		gateKeeper.putRaw("k", "raw");
+		assertTrue(gateKeeper.removeAllChildKeys("k"));
+		assertNull(gateKeeper.get("k"));
+		assertNull(gateKeeper.getRaw("k"));
+	}
+
+	@Test
+	public void sizeIsBoundedByWeight() throws Exception{
+		for(int i=0; i< 50; i++){
+			gateKeeper.put("k" + i, bigString(i));
+		}
+		gateKeeper.cleanUp();
+		int cached = 0;
+		for(int i=0; i< 50; i++){
+			if(gateKeeper.contains("k" + i)){
+				cached++;
+			}
+		}
+		//each string weighs over 4000 bytes
+		assertTrue("cached " + cached, cached > 0 && cached <= MAX_BYTES / 4000);
+	}
+
+	@Test
+	public void notEvictableValuesAreNotPushedOutByEvictableOnes() throws Exception{
+		NonEvictable ne = new NonEvictable();
+		gateKeeper.put("ne", ne);
+		for(int i=0; i< 50; i++){
+			gateKeeper.put("k" + i, bigString(i));
+		}
+		gateKeeper.cleanUp();
+		assertSame(ne, gateKeeper.get("ne"));
+	}
+
+	@Test
+	public void untypedValueIsPlacedByItsClass() throws Exception{
+		NonEvictable ne = new NonEvictable();
+		TypedCallable<Object> untyped = ()-> ne;
+		assertSame(ne, gateKeeper.getOrElseRaw("ne", untyped));
+		for(int i=0; i< 50; i++){
+			gateKeeper.put("k" + i, bigString(i));
+		}
+		gateKeeper.cleanUp();
+		assertSame(ne, gateKeeper.getRaw("ne"));
+	}
+
+	@Test
+	public void valueExpiresAfterItsOwnSeconds() throws Exception{
+		timeTraveller.freezeTime();
+		gateKeeper.put("short", "value", 10);
+		gateKeeper.put("default", "value");
+
+		timeTraveller.jumpAhead(5, TimeUnit.SECONDS);
+		assertEquals("value", gateKeeper.get("short"));
+
+		timeTraveller.jumpAhead(11, TimeUnit.SECONDS);
+		assertNull(gateKeeper.get("short"));
+		assertEquals("value", gateKeeper.get("default"));
+
+		timeTraveller.jumpAhead(2, TimeUnit.HOURS);
+		assertNull(gateKeeper.get("default"));
+	}
+
+	@Test
+	public void valueMadeBeforeChangeIsRegenerated() throws Exception{
+		timeTraveller.freezeTime();
+		assertEquals("old", gateKeeper.getSinceOrElse("k", 0, TypedCallable.of("old")));
+		timeTraveller.jumpAhead(1, TimeUnit.MINUTES);
+		long changed = timeTraveller.getCurrentTimeMillis();
+		timeTraveller.jumpAhead(1, TimeUnit.MINUTES);
+		assertEquals("new", gateKeeper.getSinceOrElse("k", changed, TypedCallable.of("new")));
+		assertEquals("new", gateKeeper.getSinceOrElse("k", changed, TypedCallable.of("newer")));
+	}
+
+	@Test
+	public void entitiesAreWeighedByTheirJson() throws Exception{
+		CacheWeigher weigher = CacheWeigher.withDefaults(1024);
+		Gizmo small = new Gizmo(1L, "a");
+		Gizmo big = new Gizmo(2L, bigString(0));
+
+		assertTrue(weigher.weigh(big) > 3 * 2_000);
+		assertTrue(weigher.weigh(small) < weigher.weigh(big));
+		assertTrue(weigher.weigh(EntityWrapper.of(big)) > weigher.weigh(big));
+		//not an entity
+		assertEquals(1024, weigher.weigh(new NonEvictable()));
+	}
+
+	@CacheStrategy(evictable = false)
+	public static class NonEvictable {}
+
+	@Entity
+	public static class Gizmo {
+		@Id
+		public Long id;
+		public String text;
+
+		Gizmo(Long id, String text){
+			this.id = id;
+			this.text = text;
+		}
+	}
+}
@@ -4,6 +4,7 @@ import static org.junit.Assert.*;
 
 import java.io.Serializable;
 import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
@@ -58,6 +59,24 @@ public class IxCacheTest {
 		assertEquals(first,result1);
 	}
 
+	@Test
+	public void hottestKeysAreMostReadRawKeysFirst() throws Exception {
+		IxCache.setRaw("cold", "value");
+		IxCache.setRaw("hot", "value");
+		IxCache.setRaw("warm", "value");
+		IxCache.getOrElse("adapted", ()->"value");
+		for(int i=0; i< 5; i++){
+			IxCache.getRaw("hot");
+			IxCache.get("adapted");
+		}
+		for(int i=0; i< 2; i++){
+			IxCache.getRaw("warm");
+		}
+
+		assertEquals(Arrays.asList("hot", "warm"), IxCache.getHottestKeys(2, k-> true));
+		assertEquals(Arrays.asList("hot", "cold"), IxCache.getHottestKeys(10, k-> !k.equals("warm")));
+	}
+
 	//DEADLOCK
 	@Test
 	public void fetchSlowGeneratorWith2ThreadsShouldNotCallSecondGenerator() throws Exception {
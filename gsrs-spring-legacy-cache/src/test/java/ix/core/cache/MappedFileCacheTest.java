@@ -0,0 +1,145 @@
+package ix.core.cache;
+
+import gov.nih.ncats.common.util.CachedSupplier;
+import net.sf.ehcache.CacheEntry;
+import net.sf.ehcache.Element;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MappedFileCacheTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+
+	private MappedFileCache cache;
+
+	private MappedFileCache open(boolean clearDb, long maxBytes) throws Exception{
+		if(cache !=null){
+			cache.dispose();
+		}
+		File dir = new File(tmpDir.getRoot(), "cache");
+		cache = new MappedFileCache(dir, "test", clearDb, maxBytes);
+		cache.init();
+		return cache;
+	}
+
+	@After
+	public void shutDown(){
+		if(cache !=null){
+			cache.dispose();
+		}
+	}
+
+	private static Object valueOf(Object element){
+		return element ==null? null : ((Element) element).getObjectValue();
+	}
+
+	@Test
+	public void valuesSurviveRestart() throws Exception{
+		open(true, 1024*1024*16);
+		cache.write(new Element("string", "value"));
+		cache.write(new Element("bytes", new byte[]{1,2,3}));
+		cache.write(new Element("list", new java.util.ArrayList<>(Arrays.asList(1, 2, 3))));
+
+		open(false, 1024*1024*16);
+		assertEquals("value", valueOf(cache.createEntry("string")));
+		assertArrayEquals(new byte[]{1,2,3}, (byte[]) valueOf(cache.createEntry("bytes")));
+		assertEquals(Arrays.asList(1, 2, 3), valueOf(cache.createEntry("list")));
+	}
+
+	@Test
+	public void clearDbStartsEmpty() throws Exception{
+		open(true, 1024*1024*16);
+		cache.write(new Element("string", "value"));
+
+		open(true, 1024*1024*16);
+		assertNull(cache.createEntry("string"));
+	}
+
+	@Test
+	public void laterWriteWins() throws Exception{
+		open(true, 1024*1024*16);
+		cache.write(new Element("k", "v1"));
+		cache.write(new Element("k", "v2"));
+		assertEquals("v2", valueOf(cache.createEntry("k")));
+
+		open(false, 1024*1024*16);
+		assertEquals("v2", valueOf(cache.createEntry("k")));
+	}
+
+	@Test
+	public void removalSurvivesRestart() throws Exception{
+		open(true, 1024*1024*16);
+		cache.write(new Element("k", "value"));
+		open(false, 1024*1024*16);
+
+		cache.delete(new CacheEntry("k", null));
+		assertNull(cache.createEntry("k"));
+
+		open(false, 1024*1024*16);
+		assertNull(cache.createEntry("k"));
+	}
+
+	@Test
+	public void removalIsKeptWhenTheWriteAfterItIsDropped() throws Exception{
+		open(true, 1024*1024*16);
+		cache.write(new Element("k", "old"));
+		cache.dispose();
+
+		//the writer isn't started yet, so the queue of one is full after the removal
+		cache = new MappedFileCache(new File(tmpDir.getRoot(), "cache"), "test", false, 1024*1024*16, 1);
+		cache.delete(new CacheEntry("k", null));
+		cache.write(new Element("k", "new"));
+		cache.init();
+		assertNull(cache.createEntry("k"));
+
+		open(false, 1024*1024*16);
+		assertNull(cache.createEntry("k"));
+	}
+
+	@Test
+	public void oldestValuesAreDroppedWhenOverBudget() throws Exception{
+		//2 segments of 1MB
+		open(true, 1024*1024*2);
+		char[] chars = new char[100_000];
+		Arrays.fill(chars, 'x');
+		String big = new String(chars);
+		for(int i=0; i< 40; i++){
+			cache.write(new Element("k" + i, big));
+		}
+
+		open(false, 1024*1024*2);
+		assertNull(cache.createEntry("k0"));
+		assertEquals(big, valueOf(cache.createEntry("k39")));
+		assertEquals(2, new File(tmpDir.getRoot(), "cache").list().length);
+	}
+
+	@Test
+	public void valueStillBeingGeneratedIsNotGeneratedByTheWrite() throws Exception{
+		open(true, 1024*1024*16);
+		AtomicInteger calls = new AtomicInteger();
+		CachedSupplier<String> notRun = CachedSupplier.of(()->{
+			calls.incrementAndGet();
+			return "value";
+		});
+		CachedSupplier<String> done = CachedSupplier.of(()-> "done");
+		done.get();
+		cache.write(new Element("notRun", notRun));
+		cache.write(new Element("done", done));
+
+		open(false, 1024*1024*16);
+		assertEquals(0, calls.get());
+		assertNull(cache.createEntry("notRun"));
+		assertEquals("done", valueOf(cache.createEntry("done")));
+	}
+}
@@ -0,0 +1,132 @@
+package ix.core.cache;
+
+import gov.nih.ncats.common.util.TimeUtil;
+import ix.utils.CallableUtil.TypedCallable;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TwoCacheGateKeeperConcurrencyTest {
+
+	private static final int THREADS = 32;
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+	private GateKeeper gateKeeper;
+
+	@After
+	public void shutDown(){
+		executor.shutdownNow();
+		if(gateKeeper !=null){
+			gateKeeper.close();
+		}
+	}
+
+	private GateKeeper create(boolean staleWhileRevalidate){
+		gateKeeper = new GateKeeperFactory.Builder(100, 3600, 3600)
+				.debugLevel(0)
+				.useNonEvictableCache(100, 3600, 3600)
+				.staleWhileRevalidate(staleWhileRevalidate)
+				.build()
+				.create();
+		return gateKeeper;
+	}
+
+	/**
+	 * Run the same call on every thread at once.
+	 */
+	private <T> List<T> runTogether(Callable<T> callable) throws Exception{
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<T>> futures = new ArrayList<>();
+		for(int i=0; i< THREADS; i++){
+			futures.add(executor.submit(()->{
+				start.await();
+				return callable.call();
+			}));
+		}
+		start.countDown();
+		List<T> results = new ArrayList<>();
+		for(Future<T> f : futures){
+			results.add(f.get(30, TimeUnit.SECONDS));
+		}
+		return results;
+	}
+
+	@Test(timeout = 60_000)
+	public void concurrentMissesOfTypedValueGenerateOnce() throws Exception{
+		GateKeeper gk = create(false);
+		AtomicInteger calls = new AtomicInteger();
+		TypedCallable<String> generator = TypedCallable.of(()->{
+			calls.incrementAndGet();
+			Thread.sleep(200);
+			return "value";
+		}, String.class);
+
+		for(String result : runTogether(()-> gk.getOrElse("hot", generator))){
+			assertEquals("value", result);
+		}
+		assertEquals(1, calls.get());
+	}
+
+	@Test(timeout = 60_000)
+	public void concurrentMissesOfUntypedValueGenerateOnce() throws Exception{
+		GateKeeper gk = create(false);
+		AtomicInteger calls = new AtomicInteger();
+		//no type, so it waits in the temporary cache until the value says what it is
+		TypedCallable<Object> generator = ()->{
+			calls.incrementAndGet();
+			Thread.sleep(200);
+			return "value";
+		};
+
+		for(Object result : runTogether(()-> gk.getOrElseRaw("hot", generator))){
+			assertEquals("value", result);
+		}
+		assertEquals(1, calls.get());
+	}
+
+	@Test(timeout = 60_000)
+	public void staleValueIsServedWhileOneThreadRegenerates() throws Exception{
+		GateKeeper gk = create(true);
+		assertEquals("old", gk.getSinceOrElse("hot", 0, TypedCallable.of(()->"old", String.class)));
+
+		Thread.sleep(10);
+		long changed = TimeUtil.getCurrentTimeMillis();
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger calls = new AtomicInteger();
+		TypedCallable<String> generator = TypedCallable.of(()->{
+			calls.incrementAndGet();
+			release.await();
+			return "new";
+		}, String.class);
+
+		//nobody waits for the generator, it can't finish until released
+		for(String result : runTogether(()-> gk.getSinceOrElse("hot", changed, generator))){
+			assertEquals("old", result);
+		}
+		release.countDown();
+
+		TypedCallable<String> shouldNotBeCalled = TypedCallable.of(()->{
+			throw new IllegalStateException("should be cached");
+		}, String.class);
+		long deadline = System.currentTimeMillis() + 10_000;
+		while(!"new".equals(gk.getSinceOrElse("hot", 0, shouldNotBeCalled))){
+			if(System.currentTimeMillis() > deadline){
+				fail("value was never regenerated");
+			}
+			Thread.sleep(10);
+		}
+		assertEquals(1, calls.get());
+	}
+}
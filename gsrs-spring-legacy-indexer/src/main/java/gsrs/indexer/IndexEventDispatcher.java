@@ -0,0 +1,306 @@
+package gsrs.indexer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import ix.core.util.EntityUtils.EntityWrapper;
+import ix.core.util.EntityUtils.Key;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Collects the index events of each entity for a short window and hands
+ * the result to every {@link IndexEventSink}.
+ * <p>
+ * Only the create and the latest update for an entity are kept (10 updates of one record in a row are one update),
+ * the entity is fetched once in a single read only transaction and the same loaded entity goes to all the sinks.
+ * Entities are indexed on a bounded pool of threads, never two at once for the same key,
+ * and once too many entities are waiting the threads committing transactions wait too
+ * instead of the backlog growing without limit.
+ * </p>
+ */
+@Component
+@Slf4j
+public class IndexEventDispatcher {
+
+    @Autowired(required = false)
+    private List<IndexEventSink> sinks = Collections.emptyList();
+
+    @Value("${gsrs.indexer.dispatch.windowMillis:100}")
+    private long windowMillis = 100;
+
+    @Value("${gsrs.indexer.dispatch.threads:4}")
+    private int threads = 4;
+
+    @Value("${gsrs.indexer.dispatch.maxPending:10000}")
+    private int maxPending = 10000;
+
+    private Function<Key, Optional<EntityWrapper<?>>> fetcher = Key::fetchReadOnlyFull;
+
+    private final ConcurrentHashMap<Key, Pending> pending = new ConcurrentHashMap<>();
+    //keys being indexed right now, their next events wait
+    private final Set<Key> inFlight = ConcurrentHashMap.newKeySet();
+
+    private Semaphore permits;
+    private ScheduledExecutorService timer;
+    private ThreadPoolExecutor workers;
+
+    public IndexEventDispatcher() {
+    }
+
+    IndexEventDispatcher(List<IndexEventSink> sinks, Function<Key, Optional<EntityWrapper<?>>> fetcher,
+                         long windowMillis, int threads, int maxPending) {
+        this.sinks = sinks;
+        this.fetcher = fetcher;
+        this.windowMillis = windowMillis;
+        this.threads = threads;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * What is left to do for an entity after merging its events.
+     */
+    static class Pending {
+        //the create, if the entity was created in this window
+        private ApplicationEvent created;
+        //the latest update since then, which may carry more than the create did
+        private ApplicationEvent updated;
+        private boolean replace;
+        private EntityWrapper<?> removed;
+
+        void create(ApplicationEvent e, boolean replace) {
+            //a remove, or an earlier update, means there are old documents to get rid of
+            this.replace = replace || this.replace || removed != null;
+            this.created = e;
+            this.updated = null;
+            this.removed = null;
+        }
+
+        void update(ApplicationEvent e) {
+            //created in this window there is nothing old to replace,
+            //the create is kept so the sinks still know it is new
+            if (created == null) {
+                this.replace = true;
+            }
+            this.updated = e;
+            this.removed = null;
+        }
+
+        void remove(EntityWrapper<?> ew) {
+            this.created = null;
+            this.updated = null;
+            this.replace = false;
+            this.removed = ew;
+        }
+
+        /**
+         * The create and then the latest update, whichever happened.
+         */
+        List<ApplicationEvent> events() {
+            List<ApplicationEvent> events = new ArrayList<>(2);
+            if (created != null) {
+                events.add(created);
+            }
+            if (updated != null) {
+                events.add(updated);
+            }
+            return events;
+        }
+
+        boolean isReplace() {
+            return replace;
+        }
+
+        EntityWrapper<?> getRemoved() {
+            return removed;
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        permits = new Semaphore(Math.max(1, maxPending));
+        AtomicInteger count = new AtomicInteger();
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "index-dispatch-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        int n = Math.max(1, threads);
+        //the queue never holds more than the permits allow, so the timer thread
+        //only ever hands work over and never has to index anything itself
+        workers = new ThreadPoolExecutor(n, n, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "index-dispatch-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        timer.shutdown();
+        timer.awaitTermination(1, TimeUnit.MINUTES);
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.MINUTES);
+        //index whatever is left instead of losing it
+        for (Key k : pending.keySet()) {
+            Pending p = pending.remove(k);
+            if (p != null) {
+                process(k, p);
+            }
+        }
+    }
+
+    /**
+     * Index everything that is waiting right away instead of at the end of its window,
+     * and wait until it and whatever is being indexed already is done.
+     * Once this returns true every change committed before it was called is in the indexes.
+     * @return false if that took longer than the timeout.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        Set<Key> waitingFor = new HashSet<>(pending.keySet());
+        waitingFor.addAll(inFlight);
+        for (Key key : waitingFor) {
+            timer.execute(() -> dispatch(key));
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        //a key stays in one or the other until it's indexed
+        while (waitingFor.stream().anyMatch(k -> pending.containsKey(k) || inFlight.contains(k))) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    @TransactionalEventListener
+    public void created(IndexCreateEntityEvent event) {
+        offer(event.getSource(), p -> p.create(event, event.shouldDeleteFirst()));
+    }
+
+    @TransactionalEventListener
+    public void updated(IndexUpdateEntityEvent event) {
+        offer(event.getSource(), p -> p.update(event));
+    }
+
+    @TransactionalEventListener
+    public void removed(IndexRemoveEntityEvent event) {
+        EntityWrapper<?> ew = event.getSource();
+        Optional<Key> key = ew.getOptionalKey();
+        if (key.isPresent()) {
+            offer(key.get(), p -> p.remove(ew));
+        } else {
+            //nothing to merge it with
+            removeFromSinks(ew);
+        }
+    }
+
+    private void offer(Key key, Consumer<Pending> merge) {
+        //a permit for every key waiting or being indexed, held until it's done
+        permits.acquireUninterruptibly();
+        boolean[] isNew = new boolean[1];
+        pending.compute(key, (k, p) -> {
+            if (p == null) {
+                p = new Pending();
+                isNew[0] = true;
+            }
+            merge.accept(p);
+            return p;
+        });
+        if (isNew[0]) {
+            timer.schedule(() -> dispatch(key), windowMillis, TimeUnit.MILLISECONDS);
+        } else {
+            permits.release();
+        }
+    }
+
+    private void dispatch(Key key) {
+        if (!inFlight.add(key)) {
+            //wait for the last change of this entity to be indexed first
+            timer.schedule(() -> dispatch(key), windowMillis, TimeUnit.MILLISECONDS);
+            return;
+        }
+        Pending p = pending.remove(key);
+        if (p == null) {
+            inFlight.remove(key);
+            return;
+        }
+        workers.execute(() -> {
+            try {
+                process(key, p);
+            } finally {
+                inFlight.remove(key);
+                permits.release();
+            }
+        });
+    }
+
+    private void process(Key key, Pending p) {
+        if (p.getRemoved() != null) {
+            removeFromSinks(p.getRemoved());
+            return;
+        }
+        List<IndexEventSink> targets = sinks.stream()
+                .filter(s -> s.accepts(key))
+                .collect(Collectors.toList());
+        if (targets.isEmpty()) {
+            return;
+        }
+        Optional<EntityWrapper<?>> opt;
+        try {
+            opt = fetcher.apply(key);
+        } catch (Throwable t) {
+            log.warn("Trouble fetching " + key + " to index", t);
+            return;
+        }
+        if (!opt.isPresent()) {
+            return;
+        }
+        EntityWrapper<?> ew = opt.get();
+        for (IndexEventSink sink : targets) {
+            try {
+                sink.index(ew, p.events(), p.isReplace());
+            } catch (Throwable t) {
+                log.warn("Trouble indexing " + key + " in " + sink.getClass().getSimpleName(), t);
+            }
+        }
+    }
+
+    private void removeFromSinks(EntityWrapper<?> ew) {
+        Optional<Key> key = ew.getOptionalKey();
+        for (IndexEventSink sink : sinks) {
+            if (key.isPresent() && !sink.accepts(key.get())) {
+                continue;
+            }
+            try {
+                sink.remove(ew);
+            } catch (Throwable t) {
+                log.warn("Trouble removing " + key + " from " + sink.getClass().getSimpleName(), t);
+            }
+        }
+    }
+}
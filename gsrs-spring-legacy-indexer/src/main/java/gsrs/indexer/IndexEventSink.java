@@ -0,0 +1,39 @@
+package gsrs.indexer;
+
+import java.util.List;
+
+import org.springframework.context.ApplicationEvent;
+
+import ix.core.util.EntityUtils;
+
+/**
+ * An index that is kept up to date by the {@link IndexEventDispatcher}.
+ * Every sink gets the same already fetched entity, so an entity that was saved is
+ * only read from the database once no matter how many indexes there are.
+ */
+public interface IndexEventSink {
+
+    /**
+     * Whether this sink might index entities with this key at all,
+     * entities nobody wants aren't fetched.
+     */
+    default boolean accepts(EntityUtils.Key key) {
+        return true;
+    }
+
+    /**
+     * Index a created or updated entity.
+     *
+     * @param ew the entity, fully loaded.
+     * @param events the {@link IndexCreateEntityEvent} if the entity was created since it was last indexed,
+     *               followed by the latest {@link IndexUpdateEntityEvent} if it was updated since,
+     *               the updates before that were dropped.
+     * @param replace true if what was indexed for this entity before has to be removed first.
+     */
+    void index(EntityUtils.EntityWrapper<?> ew, List<ApplicationEvent> events, boolean replace) throws Exception;
+
+    /**
+     * Remove a deleted entity.
+     */
+    void remove(EntityUtils.EntityWrapper<?> ew) throws Exception;
+}
@@ -6,26 +6,31 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.Query;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
 
+import gsrs.events.BeginReindexEvent;
+import gsrs.events.IncrementReindexEvent;
+import gsrs.indexer.IndexEventDispatcher;
 import gsrs.repository.GsrsRepository;
 import gsrs.security.hasAdminRole;
-import ix.core.EntityFetcher;
 import ix.core.search.SearchOptions;
 import ix.core.search.SearchResult;
 import ix.core.search.text.TextIndexer;
+import ix.core.search.text.TextIndexerConfig;
 import ix.core.search.text.TextIndexerFactory;
 import ix.core.util.EntityUtils;
-import ix.core.util.EntityUtils.EntityWrapper;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
@@ -34,6 +39,18 @@ public abstract class LegacyGsrsSearchService<T> implements GsrsSearchService<T>
     @Autowired
     private TextIndexerFactory textIndexerFactory;
 
+    @Autowired
+    private TextIndexerConfig textIndexerConfig;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired(required = false)
+    private IndexEventDispatcher indexEventDispatcher;
+
     private final GsrsRepository gsrsRepository;
     private final Class<T> entityClass;
 
@@ -50,6 +67,20 @@ public abstract class LegacyGsrsSearchService<T> implements GsrsSearchService<T>
         return textIndexerFactory.getDefaultInstance().lastModified();
     }
 
+    /**
+     * The generation of the text index that has every change committed so far.
+     * Saved entities are indexed in the background, a search with this as its
+     * {@link SearchOptions#getWaitForGeneration() waitForGeneration} sees them.
+     * @throws InterruptedException if interrupted while waiting for the changes to be indexed.
+     */
+    public long currentGeneration() throws InterruptedException {
+        if (indexEventDispatcher != null
+                && !indexEventDispatcher.flush(textIndexerConfig.getNrtMaxWaitMillis(), TimeUnit.MILLISECONDS)) {
+            log.warn("changes still being indexed, the generation may not include them");
+        }
+        return textIndexerFactory.getDefaultInstance().currentGeneration();
+    }
+
     @Override
     public Collection<String> getSuggestFields() throws IOException {
         return textIndexerFactory.getDefaultInstance().getSuggestFields();
@@ -112,10 +143,15 @@ public abstract class LegacyGsrsSearchService<T> implements GsrsSearchService<T>
     public void reindexAndWait(boolean wipeIndexFirst){
         //only run if we are not reindexing
         if(reindexing.compareAndSet(false, true)) {
-
+            TextIndexer indexer = textIndexerFactory.getDefaultInstance();
+            boolean shadow = wipeIndexFirst && indexer.isShadowReindexEnabled();
             try {
-                TextIndexer indexer = textIndexerFactory.getDefaultInstance();
-                if (wipeIndexFirst) {
+                if (shadow) {
+                    //only this service's kinds are reindexed, the rest of the index is carried over
+                    indexer.beginShadowReindex(EntityUtils.getEntityInfoFor(entityClass).getTypeAndSubTypes().stream()
+                            .map(EntityUtils.EntityInfo::getName)
+                            .collect(Collectors.toSet()));
+                }else if (wipeIndexFirst) {
                     indexer.clearAllIndexes(false);
                 } else {
                     EntityUtils.getEntityInfoFor(entityClass).getTypeAndSubTypes()
@@ -128,34 +164,36 @@ public abstract class LegacyGsrsSearchService<T> implements GsrsSearchService<T>
                             });
 
                 }
-                Pageable pageRequest = PageRequest.of(0, 200);
-                Page<T> onePage = gsrsRepository.findAll(pageRequest);
-
-                while (!onePage.isEmpty()) {
-                    pageRequest = pageRequest.next();
-                    //DO SOMETHING WITH ENTITIES
-                    onePage.forEach(entity -> {
-                        EntityWrapper ew = EntityUtils.EntityWrapper.of(entity);
-                        try {
-                            Object v=ew.getValue();
-                            //If it can't fetch for some reason, like an invalid
-                            //transaction, this should fix that by fetching
-                            //fully with the EF
-                            try {
-                                ew.toInternalJsonNode();
-                            }catch(Exception e) {
-                                EntityFetcher ef = EntityFetcher.of(ew.getKey());
-                                v = ef.call();
-                            }
-                            indexer.add(EntityWrapper.of(v));
-                        } catch (Exception e) {
-                            log.warn("Error reindexing:" + ew.getOptionalKey(),e);
-                        }
-                    });
-
-                    onePage = gsrsRepository.findAll(pageRequest);
+                long expected = gsrsRepository.count();
+                AtomicLong done = new AtomicLong();
+                UUID reindexId = UUID.randomUUID();
+                //only the text index is rebuilt, the other indexes must not be wiped by maintenance mode
+                eventPublisher.publishEvent(new BeginReindexEvent(reindexId, expected, false));
+                try {
+                    new ReindexPipeline<T>(entityClass, gsrsRepository, indexer, transactionManager,
+                            textIndexerConfig.getReindexThreads(), textIndexerConfig.getReindexBatchSize())
+                            .run(n -> {
+                                done.addAndGet(n);
+                                eventPublisher.publishEvent(new IncrementReindexEvent(reindexId, n));
+                            });
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted while reindexing", e);
+                } finally {
+                    //records which couldn't be read or were deleted in the meantime still have to be counted
+                    //or the reindex never ends, this is sent even when nothing is missing
+                    //so there is always a last increment, also when there was nothing to reindex
+                    long missing = Math.max(0, expected - done.get());
+                    eventPublisher.publishEvent(new IncrementReindexEvent(reindexId, missing));
+                }
+                if(shadow){
+                    indexer.commitShadowReindex();
                 }
             }finally {
+                //only a completed shadow generation is swapped in
+                if(shadow){
+                    indexer.abandonShadowReindex();
+                }
                 reindexing.set(false);
             }
         }
@@ -0,0 +1,241 @@
+package gsrs.legacy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Root;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import gsrs.repository.GsrsRepository;
+import gsrs.springUtils.StaticContextAccessor;
+import ix.core.EntityFetcher;
+import ix.core.search.text.TextIndexer;
+import ix.core.util.EntityUtils;
+import ix.core.util.EntityUtils.EntityWrapper;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reindexes every entity of one type with reading, document building
+ * and writing overlapping instead of one entity after the other.
+ * <p>
+ * The calling thread reads the ids of the entities a batch at a time ordered by id, each batch
+ * starting after the last id of the one before, so the last batch is as fast to read as the first
+ * (offset paging has to skip over every row before the page).  The batches of ids go on a bounded queue
+ * so reading can't run away from indexing.  Worker threads take them off and, each batch in its own
+ * read only transaction, load the entities, run the index value makers, build the documents
+ * and write the batch to the index with one call, so the index value makers can still load
+ * anything lazily.
+ * </p>
+ * Entity types without an id field fall back to the workers reading offset pages through the repository.
+ *
+ * @param <T> the entity type.
+ */
+@Slf4j
+class ReindexPipeline<T> {
+
+    //tells a worker there is nothing more to index
+    private static final Batch END = new Batch(null, null);
+
+    private final Class<T> entityClass;
+    private final GsrsRepository<T, ?> repository;
+    private final TextIndexer indexer;
+    private final Optional<String> idField;
+    private final TransactionTemplate tx;
+    private final int threads;
+    private final int batchSize;
+
+    ReindexPipeline(Class<T> entityClass, GsrsRepository<T, ?> repository, TextIndexer indexer,
+                    PlatformTransactionManager transactionManager, int threads, int batchSize) {
+        this.entityClass = entityClass;
+        this.repository = repository;
+        this.indexer = indexer;
+        this.idField = EntityUtils.getEntityInfoFor(entityClass).getIDFieldInfo()
+                .map(EntityUtils.MethodOrFieldMeta::getName);
+        this.tx = new TransactionTemplate(transactionManager);
+        //a new persistence context for every batch so the entities read before don't pile up in it
+        this.tx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.tx.setReadOnly(true);
+        this.threads = Math.max(1, threads);
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * The ids of the entities to index, or the page of them when the entity type has no id field.
+     */
+    private static class Batch {
+        private final List<Object> ids;
+        private final Pageable page;
+
+        Batch(List<Object> ids, Pageable page) {
+            this.ids = ids;
+            this.page = page;
+        }
+    }
+
+    /**
+     * Reindex everything and wait until it is written.
+     *
+     * @param progress called from the worker threads with the number of entities
+     *                 just finished, whether they could be indexed or not.
+     * @return the number of entities loaded by the workers.
+     * @throws InterruptedException if interrupted while waiting for the workers,
+     * they are stopped before this returns.
+     */
+    long run(LongConsumer progress) throws InterruptedException {
+        BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(threads * 2);
+        AtomicInteger workerCount = new AtomicInteger();
+        AtomicLong read = new AtomicLong();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "reindex-" + entityClass.getSimpleName() + "-" + workerCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        for (int i = 0; i < threads; i++) {
+            workers.execute(() -> index(queue, read, progress));
+        }
+        boolean finished = false;
+        try {
+            if (idField.isPresent()) {
+                readByKeyset(queue);
+            } else {
+                readByOffset(queue);
+            }
+            for (int i = 0; i < threads; i++) {
+                queue.put(END);
+            }
+            workers.shutdown();
+            while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.debug("still reindexing " + entityClass.getSimpleName());
+            }
+            finished = true;
+        } finally {
+            if (!finished) {
+                workers.shutdownNow();
+            }
+        }
+        return read.get();
+    }
+
+    private void index(BlockingQueue<Batch> queue, AtomicLong read, LongConsumer progress) {
+        try {
+            Batch batch;
+            while ((batch = queue.take()) != END) {
+                //entities deleted since their id was read still count as done
+                long done = batch.ids == null ? 0 : batch.ids.size();
+                try {
+                    Batch current = batch;
+                    int n = tx.execute(status -> {
+                        List<EntityWrapper> entities = load(current.ids == null
+                                ? repository.findAll(current.page).getContent()
+                                : findAll(current.ids));
+                        try {
+                            indexer.reindex(entities);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        return entities.size();
+                    });
+                    read.addAndGet(n);
+                    done = Math.max(done, n);
+                } catch (Exception e) {
+                    log.warn("Error reindexing batch of " + entityClass.getSimpleName(), e);
+                } finally {
+                    progress.accept(done);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void readByKeyset(BlockingQueue<Batch> queue) throws InterruptedException {
+        EntityManager em = StaticContextAccessor.getEntityManagerFor(entityClass);
+        Comparable lastId = null;
+        while (true) {
+            Comparable after = lastId;
+            List<Object> ids = tx.execute(status -> {
+                CriteriaBuilder cb = em.getCriteriaBuilder();
+                CriteriaQuery<Object> cq = cb.createQuery(Object.class);
+                Root<T> root = cq.from(entityClass);
+                Path<Comparable> id = root.get(idField.get());
+                cq.select(id);
+                if (after != null) {
+                    cq.where(cb.greaterThan(id, after));
+                }
+                cq.orderBy(cb.asc(id));
+                return em.createQuery(cq).setMaxResults(batchSize).getResultList();
+            });
+            if (ids.isEmpty()) {
+                return;
+            }
+            queue.put(new Batch(ids, null));
+            lastId = (Comparable) ids.get(ids.size() - 1);
+            if (lastId == null) {
+                //can't tell where the next batch starts
+                log.warn("reindex of " + entityClass.getSimpleName() + " stopped at an entity without an id");
+                return;
+            }
+        }
+    }
+
+    private List<T> findAll(List<Object> ids) {
+        EntityManager em = StaticContextAccessor.getEntityManagerFor(entityClass);
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<T> cq = cb.createQuery(entityClass);
+        Root<T> root = cq.from(entityClass);
+        cq.where(root.get(idField.get()).in(ids));
+        return em.createQuery(cq).getResultList();
+    }
+
+    private void readByOffset(BlockingQueue<Batch> queue) throws InterruptedException {
+        long count = repository.count();
+        for (Pageable page = PageRequest.of(0, batchSize); page.getOffset() < count; page = page.next()) {
+            queue.put(new Batch(null, page));
+        }
+    }
+
+    /**
+     * Wrap the entities, refetching any that can't be turned into json.
+     */
+    private List<EntityWrapper> load(List<?> entities) {
+        List<EntityWrapper> batch = new ArrayList<>(entities.size());
+        for (Object entity : entities) {
+            EntityWrapper ew = EntityWrapper.of(entity);
+            try {
+                //If it can't fetch for some reason, like an invalid
+                //transaction, this should fix that by fetching
+                //fully with the EF
+                try {
+                    ew.toInternalJsonNode();
+                } catch (Exception e) {
+                    ew = EntityWrapper.of(EntityFetcher.of(ew.getKey()).call());
+                }
+                batch.add(ew);
+            } catch (Exception e) {
+                log.warn("Error reindexing:" + ew.getOptionalKey(), e);
+            }
+        }
+        return batch;
+    }
+}
@@ -1,14 +1,22 @@
 package ix.core;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.function.Supplier;
+import java.util.Set;
 
 import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import gov.nih.ncats.common.util.TimeUtil;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import gsrs.cache.GsrsCache;
 import gsrs.repository.BackupRepository;
 import gsrs.springUtils.StaticContextAccessor;
@@ -33,6 +41,12 @@ import lombok.extern.slf4j.Slf4j;
  */
 @Slf4j
 public class EntityFetcher<T> implements NamedCallable<Key,T>{
+    //the hydrate phase of a text search, the rest of the phases are timed by the TextIndexer
+    private static final Timer HYDRATE_TIMER = Timer.builder("gsrs.textindexer.search")
+            .description("One phase of a text search")
+            .tag("phase", "hydrate")
+            .register(Metrics.globalRegistry);
+
     private static Object getOrFetchRecordIfNotDirty(Key k) throws Exception {
         GsrsCache ixcache = getIxCache();
         return ixcache.getOrElseRawIfDirty(k.toString(), ()->{
@@ -106,53 +120,54 @@ public class EntityFetcher<T> implements NamedCallable<Key,T>{
 		BACKUP_JSON_CACHE {
 			@Override
 			<T> T get(EntityFetcher<T> fetcher) throws Exception {	
-			    
 				if(fetcher.theKey.getEntityInfo().hasBackup()){
-				    GsrsCache ixCache=getIxCache();
-				    String jkey = fetcher.theKey.toString() +"_JSON";
-				    Supplier<T> ifNot=()->{
-				        try {
-                            return GLOBAL_CACHE.get(fetcher);
-                        }catch(Exception e) {
-                            return null;
-                        }  
-				    };
-                    TypedCallable<T> caller = ()->{
-                        TransactionTemplate ttemp = fetcher.theKey.getTransactionTemplate();
-                        ttemp.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
-                        ttemp.setReadOnly(true);
-                        try {
-                            T tret= ttemp.execute(s->{
-                                BackupEntity be = getBackupRepository().getByEntityKey(fetcher.theKey).orElse(null);
-                                if(be==null){
-                                    return ifNot.get();
-                                }else{
-                                    try {
-                                        T ret=(T)be.getInstantiated();
-                                        return ret;
-                                    }catch(Exception e){
-                                        log.error("Trouble deserializing entity JSON", e);
-                                        return ifNot.get();
-                                    }
-                                }
-                            });
-                            return tret;
-                        }catch(Exception e) {
-                            log.error("Error fetching record in transaction:" + fetcher.theKey.toString(), e);
-                            return ifNot.get();
-                        }
-                       
-                    };
-                    try{
-                        return ixCache.getOrElseRawIfDirty(jkey, caller);
-                    }catch(Exception e){
-                        return ifNot.get();
-                    }
+				    return getFromBackupJsonCache(fetcher, ()->fetchFromBackup(fetcher));
 				}
 				return GLOBAL_CACHE.get(fetcher);
 			}
 		};
 
+		private static <T> T getFromBackupJsonCache(EntityFetcher<T> fetcher, TypedCallable<T> caller) {
+		    try{
+		        return getIxCache().getOrElseRawIfDirty(fetcher.theKey.toString() +"_JSON", caller);
+		    }catch(Exception e){
+		        return fetchUnbacked(fetcher);
+		    }
+		}
+
+		private static <T> T fetchUnbacked(EntityFetcher<T> fetcher) {
+		    try {
+		        return GLOBAL_CACHE.get(fetcher);
+		    }catch(Exception e) {
+		        return null;
+		    }
+		}
+
+		private static <T> T fetchFromBackup(EntityFetcher<T> fetcher) {
+		    TransactionTemplate ttemp = fetcher.theKey.getTransactionTemplate();
+		    ttemp.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		    ttemp.setReadOnly(true);
+		    try {
+		        T tret= ttemp.execute(s->{
+		            BackupEntity be = getBackupRepository().getByEntityKey(fetcher.theKey).orElse(null);
+		            if(be==null){
+		                return fetchUnbacked(fetcher);
+		            }else{
+		                try {
+		                    T ret=(T)be.getInstantiated();
+		                    return ret;
+		                }catch(Exception e){
+		                    log.error("Trouble deserializing entity JSON", e);
+		                    return fetchUnbacked(fetcher);
+		                }
+		            }
+		        });
+		        return tret;
+		    }catch(Exception e) {
+		        log.error("Error fetching record in transaction:" + fetcher.theKey.toString(), e);
+		        return fetchUnbacked(fetcher);
+		    }
+		}
 
 		 abstract <T> T get(EntityFetcher<T> fetcher) throws Exception;
 
@@ -221,6 +236,109 @@ public class EntityFetcher<T> implements NamedCallable<Key,T>{
 		        .getValue();
     }
 
+	/**
+	 * Call all of the given callables, fetching the ones that are
+	 * {@link CacheType#BACKUP_JSON_CACHE} fetchers together: the backups
+	 * missing from the cache are looked up with one query per entity type,
+	 * instead of a transaction and query per record.
+	 * Anything else is just called.
+	 *
+	 * @return the values in the same order as the callables, null where one couldn't be fetched.
+	 */
+	public static List<Object> fetchAll(List<? extends NamedCallable<Key, ?>> callables) {
+	    Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+	    try {
+	        return fetchAllUntimed(callables);
+	    } finally {
+	        sample.stop(HYDRATE_TIMER);
+	    }
+	}
+
+	private static List<Object> fetchAllUntimed(List<? extends NamedCallable<Key, ?>> callables) {
+	    Map<EntityUtils.EntityInfo<?>, List<Key>> toLoad = new LinkedHashMap<>();
+	    GsrsCache ixCache = null;
+	    for(NamedCallable<Key, ?> nc : callables){
+	        if(isBatchable(nc)){
+	            Key k = ((EntityFetcher<?>) nc).theKey;
+	            if(ixCache ==null){
+	                ixCache = getIxCache();
+	            }
+	            if(!ixCache.contains(k.toString() +"_JSON")){
+	                toLoad.computeIfAbsent(k.getEntityInfo(), ei-> new ArrayList<>()).add(k);
+	            }
+	        }
+	    }
+	    Map<Key, Object> loaded = new HashMap<>();
+	    Set<Key> missing = new HashSet<>();
+	    toLoad.values().forEach(keys -> loadBackups(keys, loaded, missing));
+
+	    List<Object> values = new ArrayList<>(callables.size());
+	    for(NamedCallable<Key, ?> nc : callables){
+	        try{
+	            if(isBatchable(nc)){
+	                values.add(getBatched((EntityFetcher<Object>) nc, loaded, missing));
+	            }else{
+	                values.add(nc.call());
+	            }
+	        }catch(Exception e){
+	            log.error("Named callable with name:" + nc.getName() + " could not be fetched", e);
+	            values.add(null);
+	        }
+	    }
+	    return values;
+	}
+
+	private static boolean isBatchable(NamedCallable<Key, ?> nc){
+	    return nc instanceof EntityFetcher
+	            && ((EntityFetcher<?>) nc).cacheType == CacheType.BACKUP_JSON_CACHE
+	            && ((EntityFetcher<?>) nc).theKey.getEntityInfo().hasBackup();
+	}
+
+	private static <T> T getBatched(EntityFetcher<T> fetcher, Map<Key, Object> loaded, Set<Key> missing){
+	    //still goes through the cache so a dirty entry gets replaced,
+	    //just with the value we already loaded when there is one
+	    return CacheType.getFromBackupJsonCache(fetcher, ()->{
+	        Object value = loaded.get(fetcher.theKey);
+	        if(value !=null){
+	            return (T) value;
+	        }
+	        if(missing.contains(fetcher.theKey)){
+	            return CacheType.fetchUnbacked(fetcher);
+	        }
+	        return CacheType.fetchFromBackup(fetcher);
+	    });
+	}
+
+	/**
+	 * Load the backups of keys of the same entity type in one read only transaction,
+	 * putting what could be deserialized in loaded and the keys without a backup in missing.
+	 * Keys which failed to deserialize are in neither so they get fetched one at a time.
+	 */
+	private static void loadBackups(List<Key> keys, Map<Key, Object> loaded, Set<Key> missing){
+	    TransactionTemplate ttemp = keys.get(0).getTransactionTemplate();
+	    ttemp.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+	    ttemp.setReadOnly(true);
+	    try {
+	        ttemp.execute(s->{
+	            Map<Key, BackupEntity> backups = getBackupRepository().getByEntityKeys(keys);
+	            keys.stream()
+	                .filter(k-> !backups.containsKey(k))
+	                .forEach(missing::add);
+	            //one at a time on this thread, the transaction is bound to it
+	            for(Map.Entry<Key, BackupEntity> e : backups.entrySet()){
+	                try {
+	                    loaded.put(e.getKey(), e.getValue().getInstantiated());
+	                }catch(Exception ex){
+	                    log.error("Trouble deserializing entity JSON", ex);
+	                }
+	            }
+	            return null;
+	        });
+	    }catch(Exception e) {
+	        log.error("Error fetching " + keys.size() + " records in transaction", e);
+	    }
+	}
+
 	public static EntityFetcher<?> of(Key k){
 		return new EntityFetcher<>(k);
 	}
@@ -94,6 +94,18 @@ public class SearchOptions implements RequestOptions {
 	//TODO: I don't think this is used anymore
 	private String filter;
 
+	/**
+	 * Opaque position of the last hit of the previous page,
+	 * when set the page starts right after it and skip is ignored.
+	 */
+	private String cursor;
+
+	/**
+	 * Index generation the search waits to see first, so a client can find
+	 * what it just wrote. 0 to search whatever is visible now.
+	 */
+	private long waitForGeneration;
+
 
 	/**
 	 * Facet is of the form: DIMENSION/VALUE...
@@ -176,6 +188,14 @@ public class SearchOptions implements RequestOptions {
 		     	ofBoolean("wait", a->setWait(a), ()->isWait(),false),
 		     	ofSingleString("ffilter", a->ffilter=a, ()->ffilter),
 		     	ofSingleString("filter", a->filter=a, ()->filter),
+		     	ofSingleString("cursor", a->cursor=a, ()->cursor),
+		     	ofSingleString("waitForGeneration", a->{
+		     		try{
+		     			waitForGeneration = Long.parseLong(a);
+		     		}catch(Exception e){
+		     			log.warn("Invalid waitForGeneration:" + a);
+		     		}
+		     	}, ()->waitForGeneration > 0 ? Long.toString(waitForGeneration) : null),
 		     	ofSingleString("kind", a->{
 		     		try{
 		     			setKind(SearchOptions.class.getClassLoader().loadClass(a));
@@ -411,6 +431,8 @@ public class SearchOptions implements RequestOptions {
         private boolean promoteSpecialMatches =true;
 		
 		private String filter;
+		private String cursor;
+		private long waitForGeneration;
 		
 		private List<String> facets = new ArrayList<>();
 		private List<FacetLongRange> longRangeFacets = new ArrayList<>();
@@ -438,6 +460,8 @@ public class SearchOptions implements RequestOptions {
 			fdim(so.getFdim());
 			sideway(so.isSideway());
 			filter(so.filter);
+			cursor(so.cursor);
+			waitForGeneration(so.waitForGeneration);
 			kind(so.getKind());
 			facets(new ArrayList<String>(so.getFacets()));
 			order(new ArrayList<String>(so.getOrder()));
@@ -495,6 +519,23 @@ public class SearchOptions implements RequestOptions {
 			return this;
 		}
 
+		/**
+		 * Start the page right after the hit this cursor was made for,
+		 * see {@link SearchResult#getCursor()}.
+		 */
+		public Builder cursor(String cursor) {
+			this.cursor = cursor;
+			return this;
+		}
+
+		/**
+		 * Wait for this index generation to be visible before searching.
+		 */
+		public Builder waitForGeneration(long waitForGeneration) {
+			this.waitForGeneration = waitForGeneration;
+			return this;
+		}
+
 		public Builder facets(List<String> facets) {
 			this.facets = facets;
 			return this;
@@ -590,6 +631,8 @@ public class SearchOptions implements RequestOptions {
 		this.setFdim(builder.fdim);
 		this.setSideway(builder.sideway);
 		this.filter = builder.filter;
+		this.cursor = builder.cursor;
+		this.waitForGeneration = builder.waitForGeneration;
 		this.facets = builder.facets;
 		this.ffilter= builder.ffilter;
 		this.fskip  = builder.fskip;
@@ -704,6 +747,30 @@ public class SearchOptions implements RequestOptions {
         queryParams.resetCache();
     }
     
+    /**
+     * The cursor of the page to start after, null to page with skip.
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+        queryParams.resetCache();
+    }
+
+    /**
+     * The index generation to wait for before searching, 0 to not wait.
+     */
+    public long getWaitForGeneration() {
+        return waitForGeneration;
+    }
+
+    public void setWaitForGeneration(long waitForGeneration) {
+        this.waitForGeneration = waitForGeneration;
+        queryParams.resetCache();
+    }
+
     public String getFfilter() {
         return ffilter;
     }
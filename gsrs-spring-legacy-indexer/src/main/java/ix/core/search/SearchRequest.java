@@ -57,6 +57,16 @@ public class SearchRequest {
 			return this;
 		}
 
+		public Builder cursor(String cursor) {
+			opBuilder.cursor(cursor);
+			return this;
+		}
+
+		public Builder waitForGeneration(long waitForGeneration) {
+			opBuilder.waitForGeneration(waitForGeneration);
+			return this;
+		}
+
 		public Builder fetch(int fetch) {
 			opBuilder.fetch(fetch);
 			return this;
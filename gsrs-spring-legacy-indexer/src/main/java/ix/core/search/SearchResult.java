@@ -8,6 +8,7 @@ import gsrs.controller.GsrsControllerUtil;
 import gsrs.controller.hateoas.GsrsLinkUtil;
 import gsrs.model.GsrsApiAction;
 import gsrs.springUtils.StaticContextAccessor;
+import ix.core.EntityFetcher;
 import ix.core.models.FieldedQueryFacet;
 import ix.core.search.LazyList.NamedCallable;
 import ix.core.models.Facet;
@@ -46,11 +47,16 @@ public class SearchResult {
 	                        // (largely unnecessary now)
 
 	private int count;
+	//where the next page starts, null when there is no next page
+	private String cursor;
 	private SearchOptions options;
 	final long timestamp = TimeUtil.getCurrentTimeMillis();
 	final AtomicLong stop = new AtomicLong();
 	
 	Comparator<Key> idComparator = null;
+
+	//when set, matches are only added as they are asked for
+	private volatile SearchResultPopulator populator;
 	
 	private String generatingUrl;
 
@@ -162,9 +168,48 @@ public class SearchResult {
 	}
 
 	public int size() {
+		SearchResultPopulator p = populator;
+		if (p != null) {
+			return Math.max(p.size(), matches.size());
+		}
 		return matches.size();
 	}
 
+	/**
+	 * Add the matches lazily with the given populator instead of
+	 * having them all added up front.  Pages copied out with
+	 * {@link #copyTo(List, int, int, boolean)} or {@link #copyKeysTo(List, int, int, boolean)}
+	 * only populate up to the end of the page, anything which needs the whole list
+	 * like {@link #getMatches()} or sorting by id populates everything.
+	 */
+	public void setPopulator(SearchResultPopulator populator) {
+		this.populator = populator;
+	}
+
+	private boolean isPopulatedLazily() {
+		return populator != null && idComparator == null;
+	}
+
+	/**
+	 * Populate up to the end of the requested page and get a copy of the callables in it,
+	 * so the page can be fetched outside the lock while more matches are added.
+	 */
+	private List<NamedCallable<Key,Object>> populatedPage(int start, int count) {
+		SearchResultPopulator p = populator;
+		int end = (int) Math.min(Integer.MAX_VALUE, (long) start + count);
+		p.populateTo(end);
+		List<NamedCallable<Key,Object>> page;
+		synchronized (matches) {
+			List<NamedCallable<Key,Object>> internal = matches.getInternalList();
+			if (start >= internal.size()) {
+				return Collections.emptyList();
+			}
+			page = new ArrayList<>(internal.subList(start, Math.min(end, internal.size())));
+		}
+		p.prefetch(end, count);
+		return page;
+	}
+
 	public Object get(int index) {
 		throw new UnsupportedOperationException("get(index) is no longer supported; please use copyTo()");
 	}
@@ -195,6 +240,11 @@ public class SearchResult {
 		if(this.count ==0 || count ==0){
 			return 0;
 		}
+		if (isPopulatedLazily()) {
+			List<Object> page = fetchPage(populatedPage(start, count));
+			list.addAll(page);
+			return page.size();
+		}
 		// It may be that the page that is being fetched is not yet
 		// complete. There are 2 options here then. The first is to
 		// return whatever is ready now immediately, and report the
@@ -219,6 +269,13 @@ public class SearchResult {
 			return 0;
 		}
 	
+		if (matches instanceof LazyList) {
+			//fetch the whole page together rather than record by record
+			List<NamedCallable<Key,Object>> internal = ((LazyList<Key,Object>) matches).getInternalList();
+			List<Object> page = fetchPage(new ArrayList<>(internal.subList(start, Math.min(start + count, internal.size()))));
+			list.addAll(page);
+			return page.size();
+		}
 		
 		Iterator it = matches.listIterator(start);
 
@@ -253,6 +310,11 @@ public class SearchResult {
      * @return
      */
     public int copyKeysTo(List<ix.core.util.EntityUtils.Key> list, int start, int count, boolean wait) {
+        if (isPopulatedLazily()) {
+            List<NamedCallable<Key,Object>> page = populatedPage(start, count);
+            page.forEach(nc -> list.add(nc.getName()));
+            return page.size();
+        }
 
         // It may be that the page that is being fetched is not yet
         // complete. There are 2 options here then. The first is to
@@ -395,10 +457,53 @@ public class SearchResult {
 		return lazylist;
 	}
 
+	/**
+	 * The keys of the matches which aren't sponsored, in order.
+	 * When the populator already knows them nothing more is populated.
+	 */
+	@JsonIgnore
+	public List<Key> getMatchKeys() {
+		SearchResultPopulator p = populator;
+		if (p != null && idComparator == null) {
+			List<Key> keys = p.getKeys();
+			if (keys != null) {
+				return keys;
+			}
+		}
+		List<Key> all = new ArrayList<>();
+		copyKeysTo(all, 0, Integer.MAX_VALUE, false);
+		//sponsored matches are always first
+		int sponsoredCount = sponsored.size();
+		return all.subList(Math.min(sponsoredCount, all.size()), all.size());
+	}
+
+	/**
+	 * Fetch the records of a page together, leaving out the ones
+	 * which couldn't be fetched, those were already logged.
+	 */
+	private static List<Object> fetchPage(List<NamedCallable<Key,Object>> page) {
+		List<Object> fetched = EntityFetcher.fetchAll(page);
+		fetched.removeIf(Objects::isNull);
+		return fetched;
+	}
+
+	/**
+	 * The keys of the sponsored matches, in the order they were added.
+	 * @return
+	 */
+	@JsonIgnore
+	public List<Key> getSponsoredKeys() {
+		return new ArrayList<>(sponsored.keySet());
+	}
+
 	public List getMatches() {
 		if (result != null)
 			return result; // return if ready
 		boolean finished = finished();
+		SearchResultPopulator p = populator;
+		if (p != null) {
+			p.populateTo(Integer.MAX_VALUE);
+		}
 
 
         if (idComparator != null) {
@@ -413,7 +518,7 @@ public class SearchResult {
 	}
 
 	public boolean isEmpty() {
-		return matches.isEmpty();
+		return size() == 0;
 	}
 
 	/**
@@ -442,11 +547,13 @@ public class SearchResult {
 		return stop.get() >= timestamp;
 	}
 
-	private final Map<Key, NamedCallable<Key,Object>> sponsored = new HashMap<>();
+	private final Map<Key, NamedCallable<Key,Object>> sponsored = new LinkedHashMap<>();
 
 	public void addNamedCallable(NamedCallable<Key,Object> c) {
 		if (!sponsored.containsKey(c.getName())) {
-			matches.addCallable(c);
+			synchronized (matches) {
+				matches.addCallable(c);
+			}
 			processAddition(c);
 		}
 	}
@@ -582,6 +689,22 @@ public class SearchResult {
 		this.count = count;
 	}
 
+	/**
+	 * Opaque position of the last hit of this page, pass it back with
+	 * {@link SearchOptions#setCursor(String)} to get the page after it
+	 * without collecting every hit before it again.
+	 *
+	 * @return the cursor, or null if this was the last page or the search
+	 * doesn't support cursors.
+	 */
+	public String getCursor() {
+		return cursor;
+	}
+
+	public void setCursor(String cursor) {
+		this.cursor = cursor;
+	}
+
 	public void addFacet(Facet f) {
 		this.facets.add(f);
 	}
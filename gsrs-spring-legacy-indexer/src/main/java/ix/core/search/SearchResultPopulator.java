@@ -0,0 +1,39 @@
+package ix.core.search;
+
+import java.util.List;
+
+import ix.core.util.EntityUtils.Key;
+
+/**
+ * Adds the matches of a {@link SearchResult} when they are asked for
+ * instead of all of them as soon as the search finishes, so a caller
+ * paging through a big result only pays for the pages it reads.
+ */
+public interface SearchResultPopulator {
+
+    /**
+     * Add matches to the {@link SearchResult} until it has at least
+     * the given number, or all of them if there are fewer.
+     */
+    void populateTo(int count);
+
+    /**
+     * The number of matches there will be once they are all added.
+     */
+    int size();
+
+    /**
+     * Hint that the matches from {@code start} up to {@code start + count}
+     * are likely to be asked for next.  Does nothing by default.
+     */
+    default void prefetch(int start, int count){
+    }
+
+    /**
+     * The keys of all the matches in order, without adding them to the result.
+     * Null (the default) if they aren't known without populating.
+     */
+    default List<Key> getKeys(){
+        return null;
+    }
+}
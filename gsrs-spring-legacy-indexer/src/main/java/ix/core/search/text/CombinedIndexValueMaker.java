@@ -3,6 +3,9 @@ package ix.core.search.text;
 import java.util.List;
 import java.util.function.Consumer;
 
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
 public class CombinedIndexValueMaker<T> implements IndexValueMaker<T> {
     private final List<IndexValueMaker<? super T>> list;
     private final Class<T> clazz;
@@ -19,8 +22,10 @@ public class CombinedIndexValueMaker<T> implements IndexValueMaker<T> {
     @Override
     public void createIndexableValues(T t, Consumer<IndexableValue> c) {
         list.forEach(i -> {
+            Timer.Sample sample = Timer.start(Metrics.globalRegistry);
             try {
                 i.createIndexableValues(t, c);
+                sample.stop(TextIndexerMetrics.valueMaker(i.getClass()));
             } catch (Throwable e) {
                 e.printStackTrace();
 //		        Logger.error("Trouble creating index for:" + EntityWrapper.of(t).getKey(), e);
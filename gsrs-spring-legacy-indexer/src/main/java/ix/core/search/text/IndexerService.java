@@ -1,15 +1,82 @@
 package ix.core.search.text;
 
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.facet.taxonomy.SearcherTaxonomyManager;
+import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyWriter;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.TrackingIndexWriter;
+import org.apache.lucene.search.SearcherFactory;
 import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
 
 import java.io.IOException;
+import java.util.List;
 
 public interface IndexerService extends IndexListener {
     boolean flushChangesIfNeeded();
-    SearcherManager createSearchManager() throws IOException;
+    /**
+     * @deprecated searches go through {@link #createSearcherTaxonomyManager(DirectoryTaxonomyWriter)},
+     * this only sees the committed index unless it is overridden.
+     */
+    @Deprecated
+    default SearcherManager createSearchManager() throws IOException {
+        return new SearcherManager(getIndexDirectory(), null);
+    }
+    /**
+     * Create a manager of index searchers paired with a taxonomy reader
+     * from the given taxonomy writer, so both are refreshed together
+     * and searches see a consistent index and taxonomy.
+     */
+    default SearcherTaxonomyManager createSearcherTaxonomyManager(DirectoryTaxonomyWriter taxonomyWriter) throws IOException {
+        return createSearcherTaxonomyManager(taxonomyWriter, null);
+    }
+    /**
+     * Same as {@link #createSearcherTaxonomyManager(DirectoryTaxonomyWriter)} but the index searchers
+     * are made by the given factory, null for lucene's default searchers.
+     * Unless it is overridden the searchers only see what was committed to the index and the taxonomy.
+     */
+    default SearcherTaxonomyManager createSearcherTaxonomyManager(DirectoryTaxonomyWriter taxonomyWriter, SearcherFactory searcherFactory) throws IOException {
+        return new SearcherTaxonomyManager(getIndexDirectory(), taxonomyWriter.getDirectory(), searcherFactory);
+    }
     IndexReader createIndexReader() throws IOException;
 
+    /**
+     * The directory of the index, found through {@link #createIndexReader()}.
+     */
+    default Directory getIndexDirectory() throws IOException {
+        try (IndexReader reader = createIndexReader()) {
+            if (!(reader instanceof DirectoryReader)) {
+                throw new IOException("no index directory known for " + getClass().getName());
+            }
+            return ((DirectoryReader) reader).directory();
+        }
+    }
+
+    /**
+     * Add several documents at once, which lets the index writer
+     * handle them together instead of one call per document.
+     */
+    default void addDocuments(List<Document> docs) {
+        for (Document doc : docs) {
+            addDocument(doc);
+        }
+    }
+
+    /**
+     * The writer every change goes through, its generations tell
+     * when a searcher sees a change. Null if generations aren't tracked,
+     * searchers are then refreshed on every search.
+     */
+    default TrackingIndexWriter getTrackingIndexWriter() {
+        return null;
+    }
+
+    /**
+     * Add the documents of other indexes as they are, without analyzing them again.
+     */
+    void addIndexes(IndexReader... readers) throws IOException;
+
     Analyzer getIndexAnalyzer();
 }
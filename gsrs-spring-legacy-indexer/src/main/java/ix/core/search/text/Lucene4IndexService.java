@@ -7,11 +7,15 @@ import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.util.CharArraySet;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.facet.taxonomy.SearcherTaxonomyManager;
+import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyWriter;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.TrackingIndexWriter;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SearcherFactory;
 import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.NIOFSDirectory;
@@ -24,6 +28,7 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class Lucene4IndexService implements IndexerService {
@@ -39,6 +44,8 @@ public class Lucene4IndexService implements IndexerService {
     public static final String DIM_CLASS = "ix.Class";
 
     private IndexWriter indexWriter;
+    //changes go through this so they have a generation
+    private TrackingIndexWriter trackingWriter;
     private Directory indexDir;
     private Analyzer indexAnalyzer;
 
@@ -48,6 +55,7 @@ public class Lucene4IndexService implements IndexerService {
         IndexWriterConfig conf = new IndexWriterConfig(LUCENE_VERSION, indexAnalyzer);
 
         indexWriter = new IndexWriter(indexDir, conf);
+        trackingWriter = new TrackingIndexWriter(indexWriter);
     }
     public Lucene4IndexService(File dir) throws IOException{
         // Path dirPath = baseDir.toPath();
@@ -63,6 +71,7 @@ public class Lucene4IndexService implements IndexerService {
         indexAnalyzer = createIndexAnalyzer();
         IndexWriterConfig conf = new IndexWriterConfig(LUCENE_VERSION, indexAnalyzer);
         indexWriter = new IndexWriter(indexDir, conf);
+        trackingWriter = new TrackingIndexWriter(indexWriter);
     }
 
     @SuppressWarnings("deprecation")
@@ -79,17 +88,34 @@ public class Lucene4IndexService implements IndexerService {
     }
 
     @Override
+    @Deprecated
     public SearcherManager createSearchManager() throws IOException{
         return new SearcherManager(indexWriter, true, null);
     }
     @Override
+    public SearcherTaxonomyManager createSearcherTaxonomyManager(DirectoryTaxonomyWriter taxonomyWriter) throws IOException{
+        return createSearcherTaxonomyManager(taxonomyWriter, null);
+    }
+    @Override
+    public SearcherTaxonomyManager createSearcherTaxonomyManager(DirectoryTaxonomyWriter taxonomyWriter, SearcherFactory searcherFactory) throws IOException{
+        return new SearcherTaxonomyManager(indexWriter, true, searcherFactory, taxonomyWriter);
+    }
+    @Override
+    public Directory getIndexDirectory() {
+        return indexDir;
+    }
+    @Override
+    public TrackingIndexWriter getTrackingIndexWriter() {
+        return trackingWriter;
+    }
+    @Override
     public IndexReader createIndexReader() throws IOException{
         return  DirectoryReader.open(indexWriter, true);
     }
     @Override
     public Document addDocument(Document doc) {
         try {
-            indexWriter.addDocument(doc);
+            trackingWriter.addDocument(doc);
             return doc;
         } catch (IOException e) {
             e.printStackTrace();
@@ -97,12 +123,26 @@ public class Lucene4IndexService implements IndexerService {
         }
     }
 
+    @Override
+    public void addDocuments(List<Document> docs) {
+        try {
+            trackingWriter.addDocuments(docs);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
 
+    @Override
+    public void addIndexes(IndexReader... readers) throws IOException {
+        trackingWriter.addIndexes(readers);
+    }
 
     @Override
     public void deleteDocuments(Query query) {
         try {
-            indexWriter.deleteDocuments(query);
+            trackingWriter.deleteDocuments(query);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
@@ -111,7 +151,7 @@ public class Lucene4IndexService implements IndexerService {
     @Override
     public void removeAll() {
         try {
-            indexWriter.deleteAll();
+            trackingWriter.deleteAll();
             indexWriter.commit();
         } catch (Exception e) {
             // e.printStackTrace();
@@ -7,50 +7,121 @@ import ix.core.controllers.EntityFactory;
 import ix.core.search.LazyList;
 import ix.core.search.SearchOptions;
 import ix.core.search.SearchResult;
+import ix.core.search.SearchResultPopulator;
 import ix.core.util.EntityUtils;
 import ix.core.util.EntityUtils.Key;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.BinaryDocValues;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
 
 /**
  * Takes the TopDocs and IndexSearcher from a lucene index, 
  * and uses them to populate a given SearchResult with
  * the expected results. In the current instantiation,
  * the objects returned are deferred rather than direct.
+ * <p>
+ * The keys of the hits are read up front with {@link #resolveKeys()} while the
+ * searcher is still open, but the {@link EntityFetcher}s are only added
+ * to the result as pages are asked for through {@link #populateTo(int)}.
+ * </p>
  * 
  * @author peryeata
  *
  */
 @Slf4j
-class LuceneSearchResultPopulator {
+class LuceneSearchResultPopulator implements SearchResultPopulator {
+	private static final char KEY_SEPARATOR = '\t';
+
 	SearchResult result;
 	TopDocs hits;
 	IndexSearcher searcher;
 	SearchOptions options;
 	int total, offset, last=0;
 	GsrsRepository gsrsRepository;
+	//keys of the hits in rank order, null until resolved
+	private volatile Key[] keys;
+	//the number of hits the keys are resolved for
+	private int expected;
+	private boolean pagedByCursor;
+	private final List<EntityFetcher> fetchers = new ArrayList<>();
+	private Executor prefetchExecutor;
+
 	LuceneSearchResultPopulator(GsrsRepository gsrsRepository, SearchResult result, TopDocs hits, IndexSearcher searcher) {
 		this.result = result;
 		this.hits = hits;
 		this.searcher = searcher;
 		this.options = result.getOptions();
 		result.setCount(hits.totalHits);
-		total  = Math.max(0, Math.min(options.max(), result.getCount()));
-		offset = Math.min(options.getSkip(), total);
+		pagedByCursor = TextIndexer.cursorOf(options) !=null;
+		if(pagedByCursor){
+			//the search already started after the cursor, the hits are the page and one more if there is a next page
+			total  = Math.min(options.getTop(), hits.scoreDocs.length);
+			offset = 0;
+		}else{
+			total  = Math.max(0, Math.min(options.max(), result.getCount()));
+			offset = Math.min(options.getSkip(), total);
+		}
 		this.gsrsRepository = gsrsRepository;
+		expected = Math.max(0, Math.min(options.getTop(), Math.min(total - offset, hits.scoreDocs.length - offset)));
+		result.setCursor(nextCursor());
+	}
+
+	/**
+	 * The cursor of the last hit of the page, only if there are hits after it,
+	 * otherwise the next page would just be empty.
+	 */
+	private String nextCursor() {
+		int top = options.getTop();
+		int end = offset + top;
+		if(top <=0 || end > hits.scoreDocs.length){
+			return null;
+		}
+		//the count of a search after a cursor includes the hits before it
+		boolean more = pagedByCursor ? hits.scoreDocs.length > end : end < result.getCount();
+		return more ? SearchCursor.encode(hits.scoreDocs[end - 1]) : null;
 	}
 	
 	
+	/**
+	 * Populate the result with keys that were already resolved
+	 * by an earlier search, no searcher is needed.
+	 */
+	LuceneSearchResultPopulator(SearchResult result, Key[] keys) {
+		this.result = result;
+		this.options = result.getOptions();
+		this.keys = keys;
+		total = keys.length;
+		expected = keys.length;
+	}
+
 	public void setSearcher(IndexSearcher searcher){
 		this.searcher=searcher;
 	}
 
+	/**
+	 * Fetch the next page in the background on this executor whenever
+	 * a page is asked for, null (the default) to not prefetch.
+	 */
+	public void setPrefetchExecutor(Executor prefetchExecutor){
+		this.prefetchExecutor = prefetchExecutor;
+	}
+
 	void fetch() throws IOException, InterruptedException {
 		try {
 			fetch(total);
@@ -60,32 +131,127 @@ class LuceneSearchResultPopulator {
 	}
 
 	void fetch(int size) throws IOException, InterruptedException {
-		size = Math.min(options.getTop(), Math.min(total - offset, size));
-		
-		int i=last;
-		try{
-			for (i = last; (i < size) && (i + offset<hits.scoreDocs.length); ++i) {
-				if (Thread.interrupted()) {
-					throw new InterruptedException();
-				}
-				
-				//This is probably a bad idea
-				//because the document id integer may not always remain the same between loads
-				//and that can cause a problem
-				Document doc = searcher.doc(hits.scoreDocs[i + offset].doc);
-				try {
-					Key k = keyOf(doc).toRootKey();
-					result.addNamedCallable(new EntityFetcher(k));
-				} catch (Exception e) {
-					System.out.println("Record:" + i + " of " + hits.scoreDocs.length);
-					e.printStackTrace();
-					log.error(e.getMessage());
+		resolveKeys();
+		populateTo(size);
+	}
+
+	/**
+	 * Read the keys of every hit that will be in the result.  Has to be called
+	 * before the searcher is released, nothing after this touches the index
+	 * and the searcher and hits aren't held on to.
+	 * <p>
+	 * The hits are visited in document order so each segment is read front to back,
+	 * and the key comes from the {@link TextIndexer#FIELD_DOC_KEY} doc values
+	 * instead of loading the stored document.  Documents indexed before that field existed
+	 * fall back to the stored fields.
+	 * </p>
+	 */
+	void resolveKeys() throws IOException, InterruptedException {
+		if(keys !=null){
+			return;
+		}
+		int size = expected;
+		Integer[] order = new Integer[size];
+		for(int i=0;i<size;i++){
+			order[i]=i;
+		}
+		Arrays.sort(order, Comparator.comparingInt(i -> hits.scoreDocs[i + offset].doc));
+
+		Key[] resolved = new Key[size];
+		List<AtomicReaderContext> leaves = searcher.getIndexReader().leaves();
+		int leaf=-1;
+		AtomicReaderContext context=null;
+		BinaryDocValues docKeys=null;
+		Bits hasDocKey=null;
+		for(int j=0;j<size;j++){
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			int i = order[j];
+			int doc = hits.scoreDocs[i + offset].doc;
+			while(context==null || doc >= context.docBase + context.reader().maxDoc()){
+				context = leaves.get(++leaf);
+				docKeys = context.reader().getBinaryDocValues(TextIndexer.FIELD_DOC_KEY);
+				hasDocKey = context.reader().getDocsWithField(TextIndexer.FIELD_DOC_KEY);
+			}
+			int local = doc - context.docBase;
+			try {
+				Key k;
+				if(docKeys !=null && hasDocKey !=null && hasDocKey.get(local)){
+					k = keyOf(docKeys.get(local));
+				}else{
+					k = keyOf(searcher.doc(doc));
 				}
+				resolved[i] = k.toRootKey();
+			} catch (Exception e) {
+				log.error("Record:" + (i + offset) + " of " + hits.scoreDocs.length + " has no usable key", e);
 			}
-		}finally{
-			this.last=i;
 		}
+		this.keys = Arrays.stream(resolved)
+						  .filter(k -> k != null)
+						  .toArray(Key[]::new);
+		//everything needed from the index was read, let the reader go
+		searcher = null;
+		hits = null;
+	}
+
+	/**
+	 * The number of hits in the result, before the keys are resolved
+	 * this counts the ones which might turn out to have no usable key.
+	 */
+	@Override
+	public int size() {
+		Key[] k = keys;
+		return k ==null ? expected : k.length;
+	}
+
+	@Override
+	public List<Key> getKeys() {
+		Key[] k = keys;
+		return k ==null ? null : Collections.unmodifiableList(Arrays.asList(k));
+	}
+
+	@Override
+	public synchronized void populateTo(int count) {
+		int end = Math.min(count, size());
+		for (; last < end; last++) {
+			EntityFetcher fetcher = new EntityFetcher(keys[last]);
+			fetchers.add(fetcher);
+			result.addNamedCallable(fetcher);
+		}
+	}
+
+	@Override
+	public void prefetch(int start, int count) {
+		Executor executor = prefetchExecutor;
+		if(executor ==null || start >= size()){
+			return;
+		}
+		List<EntityFetcher> page;
+		synchronized (this) {
+			populateTo(start + count);
+			page = new ArrayList<>(fetchers.subList(start, Math.min(start + count, fetchers.size())));
+		}
+		executor.execute(() -> EntityFetcher.fetchAll(page));
+	}
+
+	/**
+	 * Encode the key of an entity for the {@link TextIndexer#FIELD_DOC_KEY} doc values.
+	 */
+	static BytesRef encodeKey(String kind, String id) {
+		return new BytesRef(kind + KEY_SEPARATOR + id);
 	}
+
+	static Key keyOf(BytesRef encoded) throws Exception {
+		String s = new String(encoded.bytes, encoded.offset, encoded.length, StandardCharsets.UTF_8);
+		int split = s.indexOf(KEY_SEPARATOR);
+		if(split <0){
+			throw new IllegalArgumentException("malformed document key:" + s);
+		}
+		EntityUtils.EntityInfo<?> ei = EntityUtils.getEntityInfoFor(s.substring(0, split));
+		return new Key(ei, ei.formatIdToNative(s.substring(split + 1)));
+	}
+
 //TODO katzelda Nov 2020: copied factory method from EntityInfo
 //	 For lucene document
 		public static Key keyOf(Document doc) throws Exception {
@@ -0,0 +1,179 @@
+package ix.core.search.text;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import org.apache.lucene.facet.FacetsCollector;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MultiCollector;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopDocsCollector;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.Weight;
+
+import gov.nih.ncats.common.Tuple;
+
+/**
+ * An {@link IndexSearcher} which searches the segments of the index
+ * on an executor instead of one after the other on the calling thread.
+ * <p>
+ * Plain top docs searches are split up by lucene itself,
+ * searches which need a collector (facets, term vectors) use {@link #searchSlices(Query, Filter, Supplier)}
+ * to get one collector per slice of segments and merge them afterwards.
+ * </p>
+ */
+class ParallelIndexSearcher extends IndexSearcher {
+
+    private final ExecutorService executor;
+
+    ParallelIndexSearcher(IndexReader reader, ExecutorService executor) {
+        super(reader, executor);
+        this.executor = executor;
+    }
+
+    /**
+     * Makes {@link ParallelIndexSearcher}s for indexes with at least the given number
+     * of documents and more than one segment, plain {@link IndexSearcher}s for the rest
+     * since splitting up a small search costs more than it saves.
+     */
+    static class Factory extends SearcherFactory {
+        private final ExecutorService executor;
+        private final int minDocs;
+
+        Factory(ExecutorService executor, int minDocs) {
+            this.executor = executor;
+            this.minDocs = minDocs;
+        }
+
+        @Override
+        public IndexSearcher newSearcher(IndexReader reader) throws IOException {
+            if (reader.maxDoc() >= minDocs && reader.leaves().size() > 1) {
+                return new ParallelIndexSearcher(reader, executor);
+            }
+            return new IndexSearcher(reader);
+        }
+    }
+
+    /**
+     * Run the query on every slice of segments in parallel, each slice
+     * with its own collector from the supplier.
+     *
+     * @return the collectors, in segment order.
+     */
+    <C extends Collector> List<C> searchSlices(Query query, Filter filter, Supplier<C> collectors) throws IOException {
+        return searchSlices(createNormalizedWeight(wrapFilter(query, filter)), collectors);
+    }
+
+    private <C extends Collector> List<C> searchSlices(Weight weight, Supplier<C> collectors) throws IOException {
+        List<C> parts = new ArrayList<>(leafSlices.length);
+        List<Future<?>> futures = new ArrayList<>(leafSlices.length);
+        for (LeafSlice slice : leafSlices) {
+            List<AtomicReaderContext> leaves = Arrays.asList(slice.leaves);
+            C collector = collectors.get();
+            parts.add(collector);
+            futures.add(executor.submit(() -> {
+                try {
+                    search(leaves, weight, collector);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) cause).getCause();
+                }
+                throw new IOException(cause);
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * The parallel version of {@link FacetsCollector#searchAfter(IndexSearcher, ScoreDoc, Query, Filter, int, Sort, Collector)}:
+     * collect the top hits and the facets of every slice in one pass and merge them.
+     *
+     * @param after only collect hits after this one, null to start at the first hit;
+     *              has to be a {@link FieldDoc} when there is a sort order.
+     * @param sort the sort order, null to sort by score.
+     */
+    Tuple<TopDocs, FacetsCollector> searchWithFacets(Query query, Filter filter, ScoreDoc after, int n, Sort sort) throws IOException {
+        int limit = Math.max(1, getIndexReader().maxDoc());
+        int top = Math.max(1, Math.min(n, limit));
+        Weight weight = createNormalizedWeight(wrapFilter(query, filter));
+        boolean inOrder = !weight.scoresDocsOutOfOrder();
+
+        List<TopDocsCollector<?>> hitCollectors = new ArrayList<>();
+        List<FacetsCollector> facetCollectors = new ArrayList<>();
+        searchSlices(weight, () -> {
+            TopDocsCollector<?> hits;
+            try {
+                hits = sort == null
+                        ? TopScoreDocCollector.create(top, after, inOrder)
+                        : TopFieldCollector.create(sort, top, (FieldDoc) after, true, false, false, inOrder);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            FacetsCollector facets = new FacetsCollector();
+            hitCollectors.add(hits);
+            facetCollectors.add(facets);
+            return MultiCollector.wrap(hits, facets);
+        });
+
+        TopDocs[] shards = new TopDocs[hitCollectors.size()];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = hitCollectors.get(i).topDocs();
+        }
+        return Tuple.of(TopDocs.merge(sort, top, shards), new MergedFacetsCollector(facetCollectors));
+    }
+
+    /**
+     * Collect only the facets of every slice in parallel.
+     */
+    FacetsCollector collectFacets(Query query, Filter filter) throws IOException {
+        return new MergedFacetsCollector(searchSlices(query, filter, FacetsCollector::new));
+    }
+
+    /**
+     * The matching docs of several per slice {@link FacetsCollector}s,
+     * which is all the facet counters look at.
+     */
+    static class MergedFacetsCollector extends FacetsCollector {
+        private final List<MatchingDocs> matchingDocs = new ArrayList<>();
+
+        MergedFacetsCollector(List<FacetsCollector> parts) {
+            for (FacetsCollector part : parts) {
+                matchingDocs.addAll(part.getMatchingDocs());
+            }
+        }
+
+        @Override
+        public List<MatchingDocs> getMatchingDocs() {
+            return matchingDocs;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package ix.core.search.text;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Turns the last {@link ScoreDoc} of a page into the opaque string handed out
+ * as {@link ix.core.search.SearchResult#getCursor()} and back, so the next page can be
+ * searched with {@link org.apache.lucene.search.IndexSearcher#searchAfter(ScoreDoc, org.apache.lucene.search.Query, int)}
+ * instead of collecting and throwing away every hit before it.
+ * <p>
+ * The sort values of a {@link FieldDoc} are kept too since that is what lucene
+ * compares against; the doc id only breaks ties, so a cursor still works
+ * after the index has changed, the page just may not line up exactly.
+ * </p>
+ */
+final class SearchCursor {
+
+    private static final byte VERSION = 1;
+
+    private static final byte NULL = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte FLOAT = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte BYTES = 5;
+    private static final byte STRING = 6;
+
+    //more sort values than any search sorts by, cursors come from clients
+    private static final int MAX_FIELDS = 64;
+
+    private SearchCursor() {
+        //can not instantiate
+    }
+
+    static String encode(ScoreDoc last) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeInt(last.doc);
+            out.writeFloat(last.score);
+            Object[] fields = last instanceof FieldDoc ? ((FieldDoc) last).fields : null;
+            out.writeInt(fields == null ? -1 : fields.length);
+            if (fields != null) {
+                for (Object f : fields) {
+                    writeValue(out, f);
+                }
+            }
+        } catch (IOException e) {
+            //can't happen writing to memory
+            throw new IllegalStateException(e);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * @return a {@link FieldDoc} if the cursor was made from a sorted search,
+     * a plain {@link ScoreDoc} otherwise.
+     * @throws IllegalArgumentException if this isn't a cursor made by {@link #encode(ScoreDoc)}.
+     */
+    static ScoreDoc decode(String cursor) {
+        return decode(cursor, MAX_FIELDS);
+    }
+
+    /**
+     * Same as {@link #decode(String)}, nothing is allocated for more than
+     * {@code maxFields} sort values or for values longer than the cursor.
+     *
+     * @param maxFields the most sort values the cursor may have.
+     */
+    static ScoreDoc decode(String cursor, int maxFields) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(cursor)))) {
+            if (in.readByte() != VERSION) {
+                throw new IllegalArgumentException("unsupported search cursor: " + cursor);
+            }
+            int doc = in.readInt();
+            float score = in.readFloat();
+            int n = in.readInt();
+            if (n < 0) {
+                return new ScoreDoc(doc, score);
+            }
+            if (n > Math.min(maxFields, MAX_FIELDS)) {
+                throw new IllegalArgumentException("too many sort values " + n);
+            }
+            Object[] fields = new Object[n];
+            for (int i = 0; i < n; i++) {
+                fields[i] = readValue(in);
+            }
+            return new FieldDoc(doc, score, fields);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid search cursor: " + cursor, e);
+        }
+    }
+
+    /**
+     * Make sure a decoded cursor was made by a search with the same kind of order,
+     * a sorted search needs the sort values of a {@link FieldDoc} and an unsorted
+     * one only compares scores, so the sort values would be silently ignored.
+     *
+     * @param after the decoded cursor, may be null.
+     * @param sort the sort order of the search, null for ordering by score.
+     * @throws IllegalArgumentException if the cursor doesn't match the sort order.
+     */
+    static void checkOrder(ScoreDoc after, Sort sort) {
+        if (after == null) {
+            return;
+        }
+        boolean sorted = after instanceof FieldDoc;
+        if (sort == null) {
+            if (sorted) {
+                throw new IllegalArgumentException("cursor was made for a sorted search");
+            }
+        } else if (!sorted || ((FieldDoc) after).fields.length != sort.getSort().length) {
+            throw new IllegalArgumentException("cursor was not made for this sort order");
+        }
+    }
+
+    /**
+     * The same position without sort values, for searches which
+     * want a {@link FieldDoc} but aren't sorted.
+     */
+    static FieldDoc asFieldDoc(ScoreDoc after) {
+        if (after == null || after instanceof FieldDoc) {
+            return (FieldDoc) after;
+        }
+        return new FieldDoc(after.doc, after.score);
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof BytesRef) {
+            BytesRef b = (BytesRef) value;
+            out.writeByte(BYTES);
+            out.writeInt(b.length);
+            out.write(b.bytes, b.offset, b.length);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            out.writeUTF((String) value);
+        } else {
+            throw new IllegalArgumentException("can't make a cursor for sort value " + value.getClass());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case INT:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case FLOAT:
+                return in.readFloat();
+            case DOUBLE:
+                return in.readDouble();
+            case BYTES:
+                int length = in.readInt();
+                //only the rest of the cursor can be read, don't allocate more
+                if (length < 0 || length > in.available()) {
+                    throw new IllegalArgumentException("invalid length " + length);
+                }
+                byte[] b = new byte[length];
+                in.readFully(b);
+                return new BytesRef(b);
+            case STRING:
+                return in.readUTF();
+            default:
+                throw new IllegalArgumentException("unknown sort value type " + type);
+        }
+    }
+}
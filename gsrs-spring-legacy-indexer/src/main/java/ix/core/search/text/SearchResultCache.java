@@ -0,0 +1,208 @@
+package ix.core.search.text;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import ix.core.models.Facet;
+import ix.core.models.FieldedQueryFacet;
+import ix.core.search.SearchOptions;
+import ix.core.search.SearchResult;
+import ix.core.util.EntityUtils.Key;
+
+/**
+ * Least recently used cache of text search results, so identical searches
+ * from different users (default browse pages, common facet drill downs, UI polling)
+ * don't each run the lucene query and collect the facets again.
+ * <p>
+ * Only the keys of the hits, the facets and the counts are kept, never the entities.
+ * Every entry is tagged with the {@link TextIndexer#lastModified()} generation
+ * it was computed from and is ignored once the index has changed since.
+ * </p>
+ */
+class SearchResultCache {
+
+    private final LinkedHashMap<String, Entry> lru = new LinkedHashMap<>(256, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private volatile int maxEntries;
+
+    SearchResultCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * What is kept of a finished search.
+     */
+    static class Entry {
+        final long generation;
+        final int count;
+        final String cursor;
+        final Key[] sponsoredKeys;
+        final Key[] keys;
+        final List<Facet> facets;
+        final List<FieldedQueryFacet> fieldFacets;
+
+        Entry(long generation, int count, String cursor, Key[] sponsoredKeys, Key[] keys, List<Facet> facets, List<FieldedQueryFacet> fieldFacets) {
+            this.generation = generation;
+            this.count = count;
+            this.cursor = cursor;
+            this.sponsoredKeys = sponsoredKeys;
+            this.keys = keys;
+            this.facets = facets;
+            this.fieldFacets = fieldFacets;
+        }
+
+        /**
+         * Make the entry for a finished search.
+         *
+         * @param generation the {@link TextIndexer#lastModified()} from before the search started.
+         */
+        static Entry of(long generation, SearchResult result) {
+            List<Key> sponsored = result.getSponsoredKeys();
+            //taken from the populator when it can, so a lazy result stays lazy
+            List<Key> keys = result.getMatchKeys();
+            return new Entry(generation, result.getCount(), result.getCursor(),
+                    sponsored.toArray(new Key[0]),
+                    keys.toArray(new Key[0]),
+                    Collections.unmodifiableList(result.getFacets().stream()
+                            .map(SearchResultCache::detach)
+                            .collect(Collectors.toList())),
+                    Collections.unmodifiableList(new ArrayList<>(result.getFieldFacets())));
+        }
+    }
+
+    /**
+     * Copy the facet without its link back to the result it was collected for,
+     * so a cached entry doesn't keep the whole result alive.
+     */
+    private static Facet detach(Facet f) {
+        if (f instanceof TextIndexer.FacetImpl) {
+            return ((TextIndexer.FacetImpl) f).copyFor(null);
+        }
+        return f;
+    }
+
+    /**
+     * Get the entry for the given key if it was computed from the given index generation.
+     */
+    Entry get(String key, long generation) {
+        if (maxEntries <= 0) {
+            return null;
+        }
+        synchronized (lru) {
+            Entry e = lru.get(key);
+            if (e != null && e.generation != generation) {
+                lru.remove(key);
+                invalidations.incrementAndGet();
+                e = null;
+            }
+            if (e == null) {
+                misses.incrementAndGet();
+            } else {
+                hits.incrementAndGet();
+            }
+            return e;
+        }
+    }
+
+    void put(String key, Entry entry) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        synchronized (lru) {
+            Entry old = lru.get(key);
+            //don't let a slow search replace what a newer one found
+            if (old != null && old.generation > entry.generation) {
+                return;
+            }
+            lru.put(key, entry);
+            evict();
+        }
+    }
+
+    void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+        synchronized (lru) {
+            evict();
+        }
+    }
+
+    void clear() {
+        synchronized (lru) {
+            lru.clear();
+        }
+    }
+
+    TextIndexer.ResultCacheStats getStats() {
+        TextIndexer.ResultCacheStats stats = new TextIndexer.ResultCacheStats();
+        synchronized (lru) {
+            stats.setSize(lru.size());
+        }
+        stats.setMaxSize(maxEntries);
+        stats.setHits(hits.get());
+        stats.setMisses(misses.get());
+        stats.setEvictions(evictions.get());
+        stats.setInvalidations(invalidations.get());
+        return stats;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> iter = lru.entrySet().iterator();
+        while (lru.size() > Math.max(0, maxEntries) && iter.hasNext()) {
+            iter.next();
+            iter.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Normalize the query text and everything in the options which changes
+     * the hits, facets or counts of a search into a cache key.  Options which only
+     * change how the entities are fetched, like fetch, wait and expand, are left out.
+     * <p>
+     * Has to be called before the search since searching removes the range facets from the options.
+     * </p>
+     */
+    static String keyFor(String qtext, SearchOptions options) {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("q=").append(qtext == null ? "*:*" : qtext.trim());
+        sb.append("\nkind=").append(options.getKind() == null ? "" : options.getKind().getName());
+        sb.append("\ntop=").append(options.getTop());
+        sb.append("\nskip=").append(options.getSkip());
+        sb.append("\ncursor=").append(options.getCursor());
+        sb.append("\nfdim=").append(options.getFdim());
+        sb.append("\nfskip=").append(options.getFskip());
+        sb.append("\nffilter=").append(options.getFfilter());
+        sb.append("\nfilter=").append(options.getFilter());
+        sb.append("\nsideway=").append(options.isSideway());
+        sb.append("\nincludeFacets=").append(options.getIncludeFacets());
+        sb.append("\nincludeBreakdown=").append(options.getIncludeBreakdown());
+        sb.append("\npromoteSpecialMatches=").append(options.getPromoteSpecialMatches());
+        //drill downs are and'ed together so their order doesn't matter
+        sb.append("\nfacets=").append(options.getFacets().stream()
+                .sorted()
+                .collect(Collectors.joining("\t")));
+        sb.append("\ntermFilters=").append(options.getTermFilters().stream()
+                .map(tf -> tf.getField() + ":" + tf.getTerm())
+                .sorted()
+                .collect(Collectors.joining("\t")));
+        sb.append("\norder=").append(String.join("\t", options.getOrder()));
+        sb.append("\nranges=");
+        for (SearchOptions.FacetLongRange flr : options.getLongRangeFacets()) {
+            sb.append(flr.field).append('{');
+            flr.range.forEach((title, r) -> sb.append(title).append('=').append(r[0]).append(',').append(r[1]).append(';'));
+            sb.append('}');
+        }
+        return sb.toString();
+    }
+}
@@ -19,6 +19,9 @@ import gsrs.cache.GsrsCache;
 import gsrs.indexer.IndexValueMakerFactory;
 import gsrs.legacy.GsrsSuggestResult;
 import gsrs.repository.GsrsRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import ix.core.EntityFetcher;
 import ix.core.FieldNameDecorator;
 import ix.core.models.*;
@@ -32,6 +35,7 @@ import ix.core.util.EntityUtils.Key;
 import ix.core.util.LogUtil;
 import ix.core.utils.executor.ProcessListener;
 import ix.utils.Util;
+import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.core.KeywordAnalyzer;
@@ -43,8 +47,10 @@ import org.apache.lucene.facet.*;
 import org.apache.lucene.facet.range.LongRange;
 import org.apache.lucene.facet.range.LongRangeFacetCounts;
 import org.apache.lucene.facet.taxonomy.FastTaxonomyFacetCounts;
+import org.apache.lucene.facet.taxonomy.OrdinalMappingAtomicReader;
+import org.apache.lucene.facet.taxonomy.SearcherTaxonomyManager;
+import org.apache.lucene.facet.taxonomy.SearcherTaxonomyManager.SearcherAndTaxonomy;
 import org.apache.lucene.facet.taxonomy.TaxonomyReader;
-import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyReader;
 import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyWriter;
 import org.apache.lucene.index.*;
 import org.apache.lucene.index.FieldInfo.IndexOptions;
@@ -63,11 +69,15 @@ import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.NIOFSDirectory;
 import org.apache.lucene.store.NoLockFactory;
 import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
 import org.apache.lucene.util.Version;
 import org.springframework.beans.factory.annotation.Autowired;
 import java.io.*;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -76,6 +86,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -83,6 +94,7 @@ import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static org.apache.lucene.document.Field.Store.NO;
@@ -189,6 +201,11 @@ public class TextIndexer implements Closeable, ProcessListener {
 	 */
 	public static final String FIELD_KIND = "__kind";
 	public static final String FIELD_ID = "id";
+	/**
+	 * binary doc values of the entity kind and id, so the keys of hits
+	 * can be read without loading the stored document
+	 */
+	public static final String FIELD_DOC_KEY = "__docKey";
 
 	/**
 	 * these default parameters should be configurable!
@@ -206,6 +223,21 @@ public class TextIndexer implements Closeable, ProcessListener {
 	static final String SORTER_CONFIG_FILE = "sorter_conf.json";
 	public static final String DIM_CLASS = "ix.Class";
 
+	/**
+	 * Shadow reindexing builds a complete new index generation
+	 * in this sub directory (a sibling of the live "index" directory)
+	 * while searches keep using the live generation.
+	 */
+	static final String SHADOW_DIR = "shadow";
+	static final String RETIRED_DIR_PREFIX = "retired-";
+	static final String SHADOW_COMPLETE_MARKER = "shadow_complete";
+	/**
+	 * Everything in the base directory that belongs to a single index generation.
+	 * The base directory is shared with other services (cache, payload etc)
+	 * so only these entries are swapped.
+	 */
+	static final String[] GENERATION_ENTRIES = {"index", "facet", "suggest", FACETS_CONFIG_FILE, SORTER_CONFIG_FILE};
+
 	static final ThreadLocal<DateFormat> YEAR_DATE_FORMAT = ThreadLocal.withInitial(()->new SimpleDateFormat("yyyy"));
 	
 
@@ -238,6 +270,13 @@ public class TextIndexer implements Closeable, ProcessListener {
         private List<TermList> docs = new ArrayList<TermList>();
         private Map<String, DocumentSet> terms = new TreeMap<String,DocumentSet>();
         private Map<String, String> filters = new TreeMap<String, String>();
+        //when collected from doc values only the count of each term is kept,
+        //with the utf-8 bytes of the terms packed one after the other,
+        //null when collected from the term vectors
+        private byte[] countedTerms;
+        private int[] countedTermOffsets;
+        private int[] termCounts;
+        private int numDocsWithTerms;
 
         TermVectors (Class kind, String field) {
             this.kind = kind;
@@ -248,12 +287,27 @@ public class TextIndexer implements Closeable, ProcessListener {
         public String getField () { return field.substring(TERM_VEC_PREFIX.length()); }
 
         public Map<String, String> getFilters () { return filters; }
+        /**
+         * The documents of each term, empty when the terms were counted from doc values.
+         */
         public Map<String, DocumentSet> getTerms () { return terms; }
+        /**
+         * The terms of each document, empty when the terms were counted from doc values.
+         */
         public List<TermList> getDocs () { return docs; }
         public int getNumDocs () { return numDocs; }
-        public int getNumDocsWithTerms () { return docs.size(); }
-        public int getNumTerms () { return terms.size(); }
+        public int getNumDocsWithTerms () { return countedTerms ==null ? docs.size() : numDocsWithTerms; }
+        public int getNumTerms () { return countedTerms ==null ? terms.size() : termCounts.length; }
         public Integer getTermCount (String term) {
+            if(countedTerms !=null){
+                BytesRef bytes = new BytesRef(term);
+                for(int i=0;i<termCounts.length;i++){
+                    if(countedTerm(i).bytesEquals(bytes)){
+                        return termCounts[i];
+                    }
+                }
+                return null;
+            }
             DocumentSet map = terms.get(term);
             Integer count = null;
             if (map != null) {
@@ -338,17 +392,35 @@ public class TextIndexer implements Closeable, ProcessListener {
             }
 
 
-            terms.entrySet()
-                .stream()
-                .parallel()
-                .map(es->Tuple.of(es.getKey(), es.getValue().getNDocs()))
-                .filter(filt)
-                .map(t->new FV(fac,t.k(),t.v()))
-                .collect(StreamUtil.maxElements(top+skip, FacetImpl.Comparators.COUNT_SORTER_DESC))
+            Stream<Tuple<String,Integer>> page;
+            if(countedTerms !=null && (filter==null || filter.equals(""))){
+                //only the terms of the requested page are decoded
+                page = IntStream.range(0, termCounts.length)
+                        .boxed()
+                        .collect(StreamUtil.maxElements(top+skip, this::compareCounted))
+                        .map(i->Tuple.of(countedTerm(i).utf8ToString(), termCounts[i]));
+            }else{
+                Stream<Tuple<String,Integer>> counted;
+                if(countedTerms !=null){
+                    //the filter needs the text of every term
+                    counted = IntStream.range(0, termCounts.length)
+                            .mapToObj(i->Tuple.of(countedTerm(i).utf8ToString(), termCounts[i]));
+                }else{
+                    counted = terms.entrySet()
+                            .stream()
+                            .map(es->Tuple.of(es.getKey(), es.getValue().getNDocs()));
+                }
+                page = counted
+                        .parallel()
+                        .filter(filt)
+                        .collect(StreamUtil.maxElements(top+skip, COUNT_DESC));
+            }
+            //only the requested page is turned into facet values
+            page
                 .skip(skip)
                 .limit(top)
-                .forEach(fv->{
-                    fac.add(fv);
+                .forEach(t->{
+                    fac.add(new FV(fac,t.k(),t.v()));
                 });
 
             return new FacetMeta.Builder()
@@ -356,12 +428,32 @@ public class TextIndexer implements Closeable, ProcessListener {
 					            .ffilter(filter)
 					            .fdim(top)
 					            .fskip(skip)
-					            .ftotal(terms.size())
+					            .ftotal(getNumTerms())
 					            .uri(uri)
 					            .build();
         }
 
+        private BytesRef countedTerm(int i) {
+            return new BytesRef(countedTerms, countedTermOffsets[i], countedTermOffsets[i+1] - countedTermOffsets[i]);
+        }
+
+        //same order as COUNT_DESC, comparing the utf-8 bytes of the terms
+        private int compareCounted(int a, int b) {
+            int d = termCounts[b] - termCounts[a];
+            if (d == 0)
+                d = countedTerm(a).compareTo(countedTerm(b));
+            return d;
+        }
+
     }
+    //same order as FacetImpl.Comparators.COUNT_SORTER_DESC
+    private static final Comparator<Tuple<String,Integer>> COUNT_DESC = (a, b)->{
+        int d = b.v() - a.v();
+        if (d == 0)
+            d = a.k().compareTo(b.k());
+        return d;
+    };
+
     private static class DocumentSet implements Serializable{
         private Set s;
         public DocumentSet(Set set){
@@ -442,18 +534,21 @@ public class TextIndexer implements Closeable, ProcessListener {
 
             this.reader = searcher.getIndexReader();
 
-            Filter filter = filterForKinds(kind);
+            Filter filter = termVectorsFilter(kind, extrafilter);
 
             if(q==null){
                 q = new MatchAllDocsQuery();
             }
 
-            if(extrafilter!=null){
-                filter=new ChainedFilter(new Filter[]{filter,extrafilter}, ChainedFilter.AND);
+            if(searcher instanceof ParallelIndexSearcher){
+                //each slice of segments gets its own collector, merged afterwards
+                for(TermVectorsCollector<T> part : ((ParallelIndexSearcher) searcher).searchSlices(q, filter, ()->new TermVectorsCollector<>(this))){
+                    merge(part);
+                }
+            }else{
+                searcher.search(q, filter, this);
             }
 
-            searcher.search(q, filter, this);
-
             Collections.sort(tvec.docs);
 
             tvec.terms= counts.entrySet()
@@ -466,6 +561,23 @@ public class TextIndexer implements Closeable, ProcessListener {
         }
 
 
+        /**
+         * An empty collector for one slice of the segments, sharing the setup of the given collector.
+         */
+        private TermVectorsCollector (TermVectorsCollector<T> parent) {
+            this.reader = parent.reader;
+            this.entityMeta = parent.entityMeta;
+            this.fieldSet = parent.fieldSet;
+            this.tvec = new TermVectors(parent.tvec.kind, parent.tvec.field);
+            this.counts = new HashMap<String, Set<Object>>();
+        }
+
+        private void merge(TermVectorsCollector<T> part) {
+            tvec.docs.addAll(part.tvec.docs);
+            tvec.numDocs += part.tvec.numDocs;
+            part.counts.forEach((term, ids)->counts.computeIfAbsent(term, t->new HashSet<>()).addAll(ids));
+        }
+
         public void setScorer (Scorer scorer) {}
 
         public boolean acceptsDocsOutOfOrder () { return true; }
@@ -527,6 +639,189 @@ public class TextIndexer implements Closeable, ProcessListener {
         }
     }
 
+    private static Filter termVectorsFilter(Class<?> kind, Filter extrafilter){
+        Filter filter = filterForKinds(kind);
+        if(extrafilter!=null){
+            filter=new ChainedFilter(new Filter[]{filter,extrafilter}, ChainedFilter.AND);
+        }
+        return filter;
+    }
+
+    /**
+     * Counts the terms of a facet field from its {@link SortedSetDocValues}
+     * instead of reading the term vector and stored id of every matching document.
+     * Each segment is counted into an array indexed by the term ordinals,
+     * only the bytes of the terms that were seen are copied once the segment is done.
+     * The terms aren't decoded to strings until a page of them is asked for,
+     * see {@link TermVectors#getFacet(int, int, String, String)}.
+     * <p>
+     * Only usable when the index was built with {@link TextIndexerConfig#isTermVectorDocValues()},
+     * see {@link #canCollect(IndexReader, String)}.
+     * </p>
+     */
+    static class DocValuesTermVectorsCollector extends Collector {
+        //segment core -> field -> whether every document of the segment with the field has its doc values,
+        //segments never change so this is only worked out once per segment
+        private static final Map<Object, Map<String, Boolean>> COMPLETE_SEGMENTS = Collections.synchronizedMap(new WeakHashMap<>());
+
+        private final String field;
+        private final BytesRefHash terms = new BytesRefHash();
+        private int[] counts = new int[16];
+        private SortedSetDocValues values;
+        private int[] segmentCounts;
+        private int numDocs;
+        private int numDocsWithTerms;
+
+        private DocValuesTermVectorsCollector(String field) {
+            this.field = field;
+        }
+
+        /**
+         * Whether every document which has the field also has its doc values.
+         * Documents indexed before {@link TextIndexerConfig#isTermVectorDocValues()}
+         * was turned on don't, and would be counted as having no terms,
+         * so the term vectors have to be read until everything is reindexed.
+         */
+        static boolean canCollect(IndexReader reader, String originalField) throws IOException {
+            String adaptedField = TERM_VEC_PREFIX + originalField;
+            for (AtomicReaderContext ctx : reader.leaves()) {
+                AtomicReader segment = ctx.reader();
+                Map<String, Boolean> fields = COMPLETE_SEGMENTS.computeIfAbsent(segment.getCoreCacheKey(),
+                        k -> new ConcurrentHashMap<>());
+                Boolean complete = fields.get(adaptedField);
+                if (complete == null) {
+                    complete = hasAllDocValues(segment, adaptedField);
+                    fields.put(adaptedField, complete);
+                }
+                if (!complete) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean hasAllDocValues(AtomicReader segment, String adaptedField) throws IOException {
+            FieldInfo info = segment.getFieldInfos().fieldInfo(adaptedField);
+            if (info == null) {
+                return true;
+            }
+            if (info.getDocValuesType() != FieldInfo.DocValuesType.SORTED_SET) {
+                return false;
+            }
+            Terms indexed = segment.terms(adaptedField);
+            int withField = indexed == null ? 0 : indexed.getDocCount();
+            if (withField < 0) {
+                return false;
+            }
+            Bits withValues = segment.getDocsWithField(adaptedField);
+            int n = 0;
+            for (int i = 0; i < segment.maxDoc(); i++) {
+                if (withValues.get(i)) {
+                    n++;
+                }
+            }
+            return n >= withField;
+        }
+
+        static TermVectors collect(Class<?> kind, String originalField, IndexSearcher searcher, Filter extrafilter, Query q) throws IOException {
+            String adaptedField = TERM_VEC_PREFIX + originalField;
+            Filter filter = termVectorsFilter(kind, extrafilter);
+            if (q == null) {
+                q = new MatchAllDocsQuery();
+            }
+            DocValuesTermVectorsCollector collector = new DocValuesTermVectorsCollector(adaptedField);
+            if (searcher instanceof ParallelIndexSearcher) {
+                for (DocValuesTermVectorsCollector part : ((ParallelIndexSearcher) searcher).searchSlices(q, filter, () -> new DocValuesTermVectorsCollector(adaptedField))) {
+                    collector.merge(part);
+                }
+            } else {
+                searcher.search(q, filter, collector);
+                collector.finishSegment();
+            }
+            int size = collector.terms.size();
+            TermVectors tvec = new TermVectors(kind, adaptedField);
+            tvec.numDocs = collector.numDocs;
+            tvec.numDocsWithTerms = collector.numDocsWithTerms;
+            tvec.countedTermOffsets = new int[size + 1];
+            tvec.termCounts = Arrays.copyOf(collector.counts, size);
+            BytesRef term = new BytesRef();
+            int length = 0;
+            for (int i = 0; i < size; i++) {
+                length += collector.terms.get(i, term).length;
+                tvec.countedTermOffsets[i + 1] = length;
+            }
+            tvec.countedTerms = new byte[length];
+            for (int i = 0; i < size; i++) {
+                collector.terms.get(i, term);
+                System.arraycopy(term.bytes, term.offset, tvec.countedTerms, tvec.countedTermOffsets[i], term.length);
+            }
+            return tvec;
+        }
+
+        @Override
+        public void setScorer(Scorer scorer) {}
+
+        @Override
+        public boolean acceptsDocsOutOfOrder() { return true; }
+
+        @Override
+        public void setNextReader(AtomicReaderContext ctx) throws IOException {
+            finishSegment();
+            values = ctx.reader().getSortedSetDocValues(field);
+            segmentCounts = values == null ? null : new int[(int) values.getValueCount()];
+        }
+
+        @Override
+        public void collect(int doc) {
+            ++numDocs;
+            if (values == null) {
+                return;
+            }
+            values.setDocument(doc);
+            boolean hasTerms = false;
+            for (long ord = values.nextOrd(); ord != SortedSetDocValues.NO_MORE_ORDS; ord = values.nextOrd()) {
+                segmentCounts[(int) ord]++;
+                hasTerms = true;
+            }
+            if (hasTerms) {
+                ++numDocsWithTerms;
+            }
+        }
+
+        private void finishSegment() {
+            if (segmentCounts == null) {
+                return;
+            }
+            for (int ord = 0; ord < segmentCounts.length; ord++) {
+                int c = segmentCounts[ord];
+                if (c > 0) {
+                    add(values.lookupOrd(ord), c);
+                }
+            }
+            segmentCounts = null;
+            values = null;
+        }
+
+        private void add(BytesRef term, int count) {
+            int id = terms.add(term);
+            if (id < 0) {
+                id = -id - 1;
+            }
+            counts = ArrayUtil.grow(counts, id + 1);
+            counts[id] += count;
+        }
+
+        private void merge(DocValuesTermVectorsCollector part) {
+            part.finishSegment();
+            numDocs += part.numDocs;
+            numDocsWithTerms += part.numDocsWithTerms;
+            BytesRef term = new BytesRef();
+            for (int i = 0; i < part.terms.size(); i++) {
+                add(part.terms.get(i, term), part.counts[i]);
+            }
+        }
+    }
+
 
     public static class FacetImpl implements Facet {
 		String name;
@@ -780,6 +1075,20 @@ public class TextIndexer implements Closeable, ProcessListener {
             this.selectedFVfetch.resetCache();
         }
 
+        /**
+         * Copy this facet and its values for another search result.
+         */
+        public FacetImpl copyFor(SearchResult sr) {
+            FacetImpl copy = new FacetImpl(name, sr);
+            copy.enhanced = enhanced;
+            copy.prefix = prefix;
+            for (FV fv : values) {
+                copy.add(fv.getLabel(), fv.getCount());
+            }
+            copy.setSelectedLabels(new ArrayList<>(selectedLabel));
+            return copy;
+        }
+
 
 	}
 
@@ -823,6 +1132,13 @@ public class TextIndexer implements Closeable, ProcessListener {
 		});
 
 		long lastRefresh;
+		long lastPersist = System.currentTimeMillis();
+		//stops lookups from using the suggester while it is closed to persist it
+		private final ReentrantReadWriteLock openLock = new ReentrantReadWriteLock();
+		private boolean closed;
+		private final AtomicLong refreshCount = new AtomicLong();
+		private final AtomicLong totalRefreshMillis = new AtomicLong();
+		private volatile long lastRefreshMillis;
 
 		ConcurrentHashMap<String, Addition> additions = new ConcurrentHashMap<String, Addition>();
 
@@ -849,10 +1165,25 @@ public class TextIndexer implements Closeable, ProcessListener {
 		/**
 		 * Not an ideal mechanism for flushing, but lucene does not provide
 		 * a way to do this short of closing/opening in the version we use.
+		 * Lookups wait while the suggester is closed, when reopen is true
+		 * it is opened again right away so they don't have to open it.
 		 */
-		private synchronized void flush() throws IOException{
-			this.close();
-			lookup.resetCache();
+		private void flush(boolean reopen) throws IOException{
+			Lock write = openLock.writeLock();
+			write.lock();
+			try {
+				//This needs to be run for it to persist. Weird.
+				if(lookup.hasRun()){
+					lookup.get().get().close();
+				}
+				lookup.resetCache();
+				lastPersist = System.currentTimeMillis();
+				if(reopen){
+					lookup.get();
+				}
+			} finally {
+				write.unlock();
+			}
 		}
 
 		private SuggestLookup(File dir) throws IOException {
@@ -895,35 +1226,69 @@ public class TextIndexer implements Closeable, ProcessListener {
 			}
 		}
 
+		/**
+		 * Push the pending additions into the suggester and refresh it so lookups
+		 * see them.  The suggester only writes them to disk when it's closed,
+		 * which is only done every {@link TextIndexerConfig#getSuggestPersistMillis()}
+		 * instead of on every refresh.
+		 */
 		private synchronized void refresh() throws IOException {
-			Iterator<Addition> additionIterator = additions.values().iterator();
-			ExactMatchSuggesterDecorator emd = lookup.get().get();
-
-			while (additionIterator.hasNext()) {
-				Addition add = additionIterator.next();
-				BytesRef ref = new BytesRef(add.text);
-				add.addToWeight(emd.getWeightFor(ref));
-				//lookup.
-				((AnalyzingInfixSuggester)emd.getDelegate()).update(ref, null, add.weight.get(), ref);
-				additionIterator.remove();
+			if(closed){
+				return;
 			}
-
-			long start = System.currentTimeMillis();
-			((AnalyzingInfixSuggester)emd.getDelegate()).refresh();
-			lastRefresh = System.currentTimeMillis();
-			log.debug(emd.getClass().getName() + " refreshs " + emd.getCount() + " entries in "
-					+ String.format("%1$.2fs", 1e-3 * (lastRefresh - start)));
+			//anything added from here on waits for the next refresh
 			dirty.set(false);
-			flush();
+			long start = System.currentTimeMillis();
+			Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+			Lock read = openLock.readLock();
+			read.lock();
+			try {
+				ExactMatchSuggesterDecorator emd = lookup.get().get();
+				for (String text : additions.keySet()) {
+					Addition add = additions.remove(text);
+					if(add ==null){
+						continue;
+					}
+					BytesRef ref = new BytesRef(add.text);
+					add.addToWeight(emd.getWeightFor(ref));
+					((AnalyzingInfixSuggester)emd.getDelegate()).update(ref, null, add.weight.get(), ref);
+				}
+				//swaps in a new point in time searcher, lookups already running keep the old one
+				((AnalyzingInfixSuggester)emd.getDelegate()).refresh();
+				lastRefresh = System.currentTimeMillis();
+				log.debug(emd.getClass().getName() + " refreshs " + emd.getCount() + " entries in "
+						+ String.format("%1$.2fs", 1e-3 * (lastRefresh - start)));
+			} finally {
+				read.unlock();
+			}
+			lastRefreshMillis = lastRefresh - start;
+			totalRefreshMillis.addAndGet(lastRefreshMillis);
+			sample.stop(TextIndexerMetrics.SUGGEST_REFRESH);
+			refreshCount.incrementAndGet();
+			if(lastRefresh - lastPersist >= textIndexerConfig.getSuggestPersistMillis()){
+				flush(true);
+			}
 		}
 
 		@Override
-		public void close() throws IOException {
-			refreshIfDirty();
-			//This needs to be run for it to persist. Weird.
-			if(lookup.hasRun()){
-				lookup.get().get().close();
+		public synchronized void close() throws IOException {
+			if(closed){
+				return;
 			}
+			refreshIfDirty();
+			closed = true;
+			flush(false);
+		}
+
+		SuggestStats getStats() {
+			SuggestStats stats = new SuggestStats();
+			stats.setPendingAdditions(additions.size());
+			stats.setRefreshCount(refreshCount.get());
+			stats.setLastRefreshMillis(lastRefreshMillis);
+			stats.setTotalRefreshMillis(totalRefreshMillis.get());
+			stats.setLastRefresh(lastRefresh);
+			stats.setLastPersist(lastPersist);
+			return stats;
 		}
 
 		long build(ExactMatchSuggesterDecorator lookup) throws IOException {
@@ -939,11 +1304,19 @@ public class TextIndexer implements Closeable, ProcessListener {
 			}
 		}
 
+		/**
+		 * Lookups don't refresh, they see the suggester as of the last background refresh.
+		 */
 		List<SuggestResult> suggest(CharSequence key, int max) throws IOException {
-			refreshIfDirty();
-			return lookup.get().get().lookup(key, null, false, max).stream()
-					.map(r -> new SuggestResult(r.payload.utf8ToString(), r.key, r.value))
-					.collect(Collectors.toList());
+			Lock read = openLock.readLock();
+			read.lock();
+			try {
+				return lookup.get().get().lookup(key, null, false, max).stream()
+						.map(r -> new SuggestResult(r.payload.utf8ToString(), r.key, r.value))
+						.collect(Collectors.toList());
+			} finally {
+				read.unlock();
+			}
 		}
 	}
 
@@ -990,9 +1363,12 @@ public class TextIndexer implements Closeable, ProcessListener {
 		 * shutdown state
 		 */
 		public void execute() {
-		    //TODO katzelda October 2020: don't use stopwatch
-//			StopWatch.timeElapsed(this::flush);
-            flush();
+            Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+            try {
+                flush();
+            } finally {
+                sample.stop(TextIndexerMetrics.FLUSH);
+            }
 		}
 
 		private void flush() {
@@ -1021,6 +1397,13 @@ public class TextIndexer implements Closeable, ProcessListener {
 					}
 				}
 
+				try {
+					//open the new searcher and taxonomy now instead of on the next search
+					searchManager.maybeRefresh();
+				} catch (IOException ex) {
+					log.warn("trouble refreshing searcher", ex);
+				}
+
 				for (SuggestLookup lookup : lookups.values()) {
                     lookup.refreshIfDirty();
                 }
@@ -1048,6 +1431,11 @@ public class TextIndexer implements Closeable, ProcessListener {
 
 	private ExecutorService threadPool;
 	private ScheduledExecutorService scheduler;
+	/**
+	 * Searches the segments of big indexes in parallel,
+	 * null unless parallel search is turned on.
+	 */
+	private ExecutorService searchPool;
 
 	private boolean isEmptyPool;
 
@@ -1063,9 +1451,59 @@ public class TextIndexer implements Closeable, ProcessListener {
 
 	private AtomicBoolean isReindexing = new AtomicBoolean(false);
 
+	/**
+	 * Guards the live index generation. Searches and writes share it,
+	 * swapping in a rebuilt shadow generation takes it exclusively.
+	 */
+	private final ReentrantReadWriteLock generationLock = new ReentrantReadWriteLock();
+
+	/**
+	 * The index generation being rebuilt during a shadow reindex,
+	 * null when no shadow reindex is running.
+	 */
+	private volatile TextIndexer shadowIndexer;
+
+	/**
+	 * A live change to a shadow generation.
+	 */
+	@FunctionalInterface
+	private interface LiveChange {
+		void apply() throws Exception;
+	}
+
+	/**
+	 * Live changes made while this shadow generation is being seeded with the
+	 * live generation, applied once seeding is done so they aren't overwritten by it.
+	 * Null when not seeding, guarded by itself.
+	 */
+	private List<LiveChange> changesWhileSeeding;
+	private final Object seedingLock = new Object();
+
 	private FlushDaemon flushDaemon;
 
-	SearcherManager searchManager;
+	/**
+	 * Results of recent searches, null for the in memory instances
+	 * used for facet sub-searching.
+	 */
+	private SearchResultCache resultCache;
+
+	/**
+	 * Index searchers paired with the taxonomy reader they were opened with,
+	 * so a search never has to open its own taxonomy reader.
+	 */
+	SearcherTaxonomyManager searchManager;
+
+	/**
+	 * Reopens the searchers in the background so searches don't pay for it,
+	 * null for the in memory instances which still refresh on every search.
+	 */
+	private volatile ControlledRealTimeReopenThread<SearcherAndTaxonomy> reopenThread;
+	private volatile TrackingIndexWriter trackingWriter;
+	/**
+	 * The generation of the last change, the searchers are current once
+	 * the reopen thread has caught up to it.
+	 */
+	private final AtomicLong lastWriteGeneration = new AtomicLong();
 
 	private IndexerService indexerService;
 
@@ -1075,6 +1513,11 @@ public class TextIndexer implements Closeable, ProcessListener {
 
 	private Function<EntityWrapper, Boolean> deepKindFunction;
 
+	/**
+	 * Removed on shutdown, shadow generations come and go.
+	 */
+	private Gauge pendingSuggestGauge;
+
 
 
     public DirectoryTaxonomyWriter getTaxonWriter() {
@@ -1109,22 +1552,46 @@ public class TextIndexer implements Closeable, ProcessListener {
         this.deepKindFunction = deepKindFunction;
         this.indexerService = indexerService;
         this.indexerServiceFactory = indexerServiceFactory;
-        
+
+        resultCache = new SearchResultCache(textIndexerConfig.getResultCacheSize());
+        if(textIndexerConfig.isParallelSearch()){
+            searchPool = Executors.newFixedThreadPool(Math.max(1, textIndexerConfig.getParallelSearchThreads()));
+        }
+        recoverGenerations();
         initialSetup();
 
         flushDaemon = new FlushDaemon();
         // run daemon every 10s
         scheduler.scheduleWithFixedDelay(flushDaemon, 10, 35, TimeUnit.SECONDS);
-
+        long suggestRefresh = Math.max(1, textIndexerConfig.getSuggestRefreshMillis());
+        scheduler.scheduleWithFixedDelay(this::refreshSuggestLookups, suggestRefresh, suggestRefresh, TimeUnit.MILLISECONDS);
+        pendingSuggestGauge = TextIndexerMetrics.pendingSuggestAdditions(this, dir);
     }
     
     private void initialSetup() throws IOException {
 
-        searchManager = this.indexerService.createSearchManager();
         facetFileDir = new File(baseDir, "facet");
         Files.createDirectories(facetFileDir.toPath());
         taxonDir = new NIOFSDirectory(facetFileDir, NoLockFactory.getNoLockFactory());
         taxonWriter = new DirectoryTaxonomyWriter(taxonDir);
+        searchManager = this.indexerService.createSearcherTaxonomyManager(taxonWriter, createSearcherFactory());
+        searchManager.addListener(new ReferenceManager.RefreshListener() {
+            //refreshes of one manager never overlap
+            private Timer.Sample sample;
+
+            @Override
+            public void beforeRefresh() {
+                sample = Timer.start(Metrics.globalRegistry);
+            }
+
+            @Override
+            public void afterRefresh(boolean didRefresh) {
+                if (didRefresh) {
+                    sample.stop(TextIndexerMetrics.REFRESH);
+                }
+            }
+        });
+        startReopenThread();
         facetsConfig = loadFacetsConfig(new File(baseDir, FACETS_CONFIG_FILE));
         if (facetsConfig == null) {
             int size = taxonWriter.getSize();
@@ -1167,6 +1634,11 @@ public class TextIndexer implements Closeable, ProcessListener {
 		R apply(IndexSearcher indexSearcher) throws Exception;
 	}
 
+	@FunctionalInterface
+	public interface SearcherAndTaxonomyFunction<R> {
+		R apply(IndexSearcher indexSearcher, TaxonomyReader taxonomyReader) throws Exception;
+	}
+
 	//This method is moved from SearchRequest since it belongs here since it uses indexer fields mostly
 
     public Query extractFullFacetQuery(String queryString, SearchOptions options, String facet) throws ParseException {
@@ -1249,14 +1721,126 @@ public class TextIndexer implements Closeable, ProcessListener {
         return Tuple.of(ddq,filter);
     }
 
+	/**
+	 * The factory for the searchers of this index, null for lucene's default
+	 * when searches aren't run in parallel.
+	 */
+	private SearcherFactory createSearcherFactory() {
+		if (searchPool == null) {
+			return null;
+		}
+		return new ParallelIndexSearcher.Factory(searchPool, textIndexerConfig.getParallelSearchMinDocs());
+	}
+
+	/**
+	 * Replace the reopen thread with one for the current index service
+	 * and search manager.
+	 */
+	private void startReopenThread() {
+		stopReopenThread();
+		lastWriteGeneration.set(0);
+		TrackingIndexWriter writer = indexerService.getTrackingIndexWriter();
+		if (writer == null) {
+			return;
+		}
+		ControlledRealTimeReopenThread<SearcherAndTaxonomy> thread = new ControlledRealTimeReopenThread<>(writer, searchManager,
+				textIndexerConfig.getNrtMaxStaleMillis() / 1000d, textIndexerConfig.getNrtMinStaleMillis() / 1000d);
+		thread.setName("textindexer-reopen-" + baseDir.getName());
+		thread.setDaemon(true);
+		thread.start();
+		trackingWriter = writer;
+		reopenThread = thread;
+	}
+
+	private void stopReopenThread() {
+		ControlledRealTimeReopenThread<SearcherAndTaxonomy> thread = reopenThread;
+		reopenThread = null;
+		trackingWriter = null;
+		closeAndIgnore(thread);
+	}
+
+	/**
+	 * The generation of the index right now, once searches see this generation
+	 * they see every change made before this was called. 0 if generations aren't tracked.
+	 */
+	public long currentGeneration() {
+		TrackingIndexWriter writer = trackingWriter;
+		return writer == null ? 0 : writer.getGeneration();
+	}
+
+	/**
+	 * Wait until searches see the given generation, as returned by {@link #add(EntityWrapper)},
+	 * {@link #update(EntityWrapper)} or {@link #remove(Key)}.  Only the waiting search
+	 * makes the searchers reopen sooner, nobody else's search pays for it.
+	 * @param generation the generation to wait for, nothing to wait for if 0 or less.
+	 * @return false if the generation still wasn't visible after waiting as long as configured.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public boolean waitForGeneration(long generation) throws InterruptedException {
+		ControlledRealTimeReopenThread<SearcherAndTaxonomy> thread = reopenThread;
+		if (thread == null || generation <= 0) {
+			return true;
+		}
+		//a generation of an index replaced by a reindex can't be waited for
+		long target = Math.min(generation, currentGeneration());
+		try {
+			return thread.waitForGeneration(target, (int) Math.min(Integer.MAX_VALUE, textIndexerConfig.getNrtMaxWaitMillis()));
+		} catch (IllegalArgumentException e) {
+			//the index was replaced while we were looking
+			return false;
+		}
+	}
+
+	private void waitForGeneration(SearchOptions options) {
+		if (options == null || options.getWaitForGeneration() <= 0) {
+			return;
+		}
+		try {
+			if (!waitForGeneration(options.getWaitForGeneration())) {
+				log.debug("searching before generation " + options.getWaitForGeneration() + " is visible");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Do the searchers see every change made so far.
+	 */
+	private boolean isSearcherCurrent() {
+		ControlledRealTimeReopenThread<SearcherAndTaxonomy> thread = reopenThread;
+		return thread == null || thread.getSearchingGen() >= lastWriteGeneration.get();
+	}
+
 	public <R> R withSearcher(SearcherFunction<R> worker) throws Exception {
-		searchManager.maybeRefresh();
-		IndexSearcher searcher = searchManager.acquire();
+		return withSearcherAndTaxonomy((searcher, taxon) -> worker.apply(searcher));
+	}
+
+	/**
+	 * Run the worker with an index searcher and the taxonomy reader
+	 * of the same point in time, both are released when the worker is done.
+	 * The searcher sees every change made before this was called.
+	 */
+	public <R> R withSearcherAndTaxonomy(SearcherAndTaxonomyFunction<R> worker) throws Exception {
+		Lock generationReadLock = generationLock.readLock();
+		generationReadLock.lock();
 		try {
-			return worker.apply(searcher); //what happens if this starts using the
-										   //searcher in another thread?
+			if (reopenThread == null) {
+				searchManager.maybeRefresh();
+			} else if (!isSearcherCurrent()) {
+				//read after write for whoever changed the index directly,
+				//the reopen thread sees this refresh and tracks its generation too
+				searchManager.maybeRefreshBlocking();
+			}
+			SearcherAndTaxonomy pair = searchManager.acquire();
+			try {
+				return worker.apply(pair.searcher, pair.taxonomyReader); //what happens if this starts using the
+																		  //searcher in another thread?
+			} finally {
+				searchManager.release(pair);
+			}
 		} finally {
-			searchManager.release(searcher);
+			generationReadLock.unlock();
 		}
 	}
 
@@ -1282,8 +1866,8 @@ public class TextIndexer implements Closeable, ProcessListener {
 	protected TextIndexer config(TextIndexer indexer) throws IOException {
 
 
-		indexer.searchManager = indexer.indexerService.createSearchManager();
 		indexer.taxonWriter = new DirectoryTaxonomyWriter(indexer.taxonDir);
+		indexer.searchManager = indexer.indexerService.createSearcherTaxonomyManager(indexer.taxonWriter);
 		indexer.facetsConfig = new FacetsConfig();
 
 		//This should also be reset by the re-indexing trigger
@@ -1306,19 +1890,84 @@ public class TextIndexer implements Closeable, ProcessListener {
 
 
 	public List<? extends GsrsSuggestResult> suggest(String field, CharSequence key, int max) throws IOException {
-		SuggestLookup lookup = lookups.get(field);
-		if (lookup == null) {
-			log.debug("Unknown suggest field \"" + field + "\"");
-			return Collections.emptyList();
-		}
+		Lock generationReadLock = generationLock.readLock();
+		generationReadLock.lock();
+		try {
+			SuggestLookup lookup = lookups.get(field);
+			if (lookup == null) {
+				log.debug("Unknown suggest field \"" + field + "\"");
+				return Collections.emptyList();
+			}
 
-		return lookup.suggest(key, max);
+			return lookup.suggest(key, max);
+		} finally {
+			generationReadLock.unlock();
+		}
 	}
 
 	public Collection<String> getSuggestFields() {
 		return Collections.unmodifiableCollection(lookups.keySet());
 	}
 
+	/**
+	 * Refresh every suggest lookup with pending additions,
+	 * run in the background so lookups never have to.
+	 */
+	private void refreshSuggestLookups() {
+		if (isShutDown) {
+			return;
+		}
+		Lock generationReadLock = generationLock.readLock();
+		generationReadLock.lock();
+		try {
+			for (SuggestLookup lookup : lookups.values()) {
+				lookup.refreshIfDirty();
+			}
+		} catch (Throwable t) {
+			//don't let the scheduler cancel future refreshes
+			log.warn("trouble refreshing suggest lookups", t);
+		} finally {
+			generationReadLock.unlock();
+		}
+	}
+
+	/**
+	 * Statistics for each suggest field, like the number of additions waiting
+	 * for the next refresh and how long refreshes take.
+	 */
+	public Map<String, SuggestStats> getSuggestStats() {
+		Map<String, SuggestStats> stats = new TreeMap<>();
+		lookups.forEach((name, lookup) -> stats.put(name, lookup.getStats()));
+		return stats;
+	}
+
+	/**
+	 * The number of suggest additions, over all fields, waiting for the next refresh.
+	 */
+	public int getPendingSuggestAdditions() {
+		int pending = 0;
+		for (SuggestLookup lookup : lookups.values()) {
+			pending += lookup.additions.size();
+		}
+		return pending;
+	}
+
+	@Data
+	public static class SuggestStats {
+		private int pendingAdditions;
+		private long refreshCount;
+		private long lastRefreshMillis;
+		private long totalRefreshMillis;
+		/**
+		 * time of the last refresh, 0 if it hasn't been refreshed.
+		 */
+		private long lastRefresh;
+		/**
+		 * time the suggester was last written to disk.
+		 */
+		private long lastPersist;
+	}
+
 	/**
 	 * Returns the number of documents indexed here.
 	 *
@@ -1466,7 +2115,81 @@ public class TextIndexer implements Closeable, ProcessListener {
 	public SearchResult search(GsrsRepository gsrsRepository, SearchOptions options, String text) throws IOException {
 		return search(gsrsRepository, options, text, null);
 	}
-	public SearchResult search(GsrsRepository gsrsRepository,  SearchOptions options, String qtext, Collection<?> subset) throws IOException {
+	public SearchResult search(GsrsRepository gsrsRepository,  SearchOptions options, String qtext, Collection<?> subset) throws IOException {
+		//a subset changes the hits and the ranking so it isn't worth caching
+		SearchResultCache cache = subset == null ? resultCache : null;
+		waitForGeneration(options);
+		if (cache == null) {
+			return searchWithoutCache(gsrsRepository, options, qtext, subset);
+		}
+		//read the generation first, a change during the search makes the entry stale right away
+		long generation = lastModified();
+		//a search on searchers which haven't caught up yet would be cached as if it were current
+		boolean current = isSearcherCurrent();
+		String cacheKey = SearchResultCache.keyFor(qtext, options);
+		SearchResultCache.Entry cached = cache.get(cacheKey, generation);
+		if (cached != null) {
+			return fromCache(cached, options, qtext);
+		}
+		SearchResult searchResult = searchWithoutCache(gsrsRepository, options, qtext, null);
+		if (!searchResult.hasError() && current) {
+			cache.put(cacheKey, SearchResultCache.Entry.of(generation, searchResult));
+		}
+		return searchResult;
+	}
+
+	private SearchResult fromCache(SearchResultCache.Entry cached, SearchOptions options, String qtext) {
+		SearchResult searchResult = new SearchResult(options, qtext);
+		//searching takes the range facets out of the options, do the same so the result looks the same
+		createAndRemoveRangeFiltersFromOptions(options);
+		searchResult.setCount(cached.count);
+		searchResult.setCursor(cached.cursor);
+		for (Key k : cached.sponsoredKeys) {
+			searchResult.addSponsoredNamedCallable(new EntityFetcher(k));
+		}
+		for (Facet f : cached.facets) {
+			searchResult.addFacet(f instanceof FacetImpl ? ((FacetImpl) f).copyFor(searchResult) : f);
+		}
+		cached.fieldFacets.forEach(searchResult::addFieldQueryFacet);
+		LuceneSearchResultPopulator payload = new LuceneSearchResultPopulator(searchResult, cached.keys);
+		try {
+			if (textIndexerConfig.isLazyResults()) {
+				if (textIndexerConfig.isPrefetchNextPage()) {
+					payload.setPrefetchExecutor(threadPool);
+				}
+				searchResult.setPopulator(payload);
+			} else {
+				payload.populateTo(Integer.MAX_VALUE);
+			}
+		} finally {
+			searchResult.done();
+		}
+		return searchResult;
+	}
+
+	/**
+	 * Hit and miss statistics of the search result cache,
+	 * null if this instance doesn't cache results.
+	 */
+	public ResultCacheStats getResultCacheStats() {
+		SearchResultCache cache = resultCache;
+		return cache == null ? null : cache.getStats();
+	}
+
+	@Data
+	public static class ResultCacheStats {
+		private int size;
+		private int maxSize;
+		private long hits;
+		private long misses;
+		private long evictions;
+		/**
+		 * entries thrown away because the index changed after they were cached.
+		 */
+		private long invalidations;
+	}
+
+	private SearchResult searchWithoutCache(GsrsRepository gsrsRepository,  SearchOptions options, String qtext, Collection<?> subset) throws IOException {
 		SearchResult searchResult = new SearchResult(options, qtext);
 
 		Supplier<Query> qs = ()->{
@@ -1523,8 +2246,10 @@ public class TextIndexer implements Closeable, ProcessListener {
 			}
 			return f;
 		};
+		Timer.Sample parseSample = Timer.start(Metrics.globalRegistry);
 		Query q=qs.get();
 		Filter f=fs.get();
+		parseSample.stop(TextIndexerMetrics.PARSE);
 
 		try{
 		    search(gsrsRepository, searchResult, q, f);
@@ -1634,7 +2359,8 @@ public class TextIndexer implements Closeable, ProcessListener {
 	}
 
 	protected SearchResult search(GsrsRepository gsrsRepository, SearchResult searchResult, Query query, Filter filter) throws Exception {
-		return withSearcher(searcher -> search(gsrsRepository, searcher, searchResult, query, filter));
+		waitForGeneration(searchResult.getOptions());
+		return withSearcherAndTaxonomy((searcher, taxon) -> search(gsrsRepository, searcher, taxon, searchResult, query, filter));
 	}
 
 	public Map<String,List<Filter>> createAndRemoveRangeFiltersFromOptions(SearchOptions options) {
@@ -1771,14 +2497,30 @@ public class TextIndexer implements Closeable, ProcessListener {
 	public static interface LuceneSearchProviderResult{
 		public TopDocs getTopDocs();
 		public Facets getFacets();
+		/**
+		 * The collector the matching docs ended up in when it isn't
+		 * the one passed to the search, like when the segments were searched in parallel.
+		 */
+		public default Optional<FacetsCollector> getFacetsCollector(){
+			return Optional.empty();
+		}
 	}
 	public static class DefaultLuceneSearchProviderResult implements LuceneSearchProviderResult{
 		private TopDocs hits=null;
 		private Facets facets=null;
+		private FacetsCollector facetsCollector=null;
 		public DefaultLuceneSearchProviderResult(TopDocs hits, Facets facets){
 			this.hits=hits;
 			this.facets=facets;
 		}
+		public DefaultLuceneSearchProviderResult(TopDocs hits, Facets facets, FacetsCollector facetsCollector){
+			this(hits, facets);
+			this.facetsCollector=facetsCollector;
+		}
+		@Override
+		public Optional<FacetsCollector> getFacetsCollector() {
+			return Optional.ofNullable(facetsCollector);
+		}
 		@Override
 		public TopDocs getTopDocs() {
 			return hits;
@@ -1796,6 +2538,7 @@ public class TextIndexer implements Closeable, ProcessListener {
 	    private Filter filter;
 	    private int max;
 	    private boolean includeFacets = true;
+	    private ScoreDoc after;
 
 //		public BasicLuceneSearchProvider(Sort sorter, Filter filter, int max){
 //			this.sorter=sorter;
@@ -1808,14 +2551,33 @@ public class TextIndexer implements Closeable, ProcessListener {
             this.max=max;
             this.includeFacets=includeFacets;
         }
+        /**
+         * Only collect the max hits which come after the given one.
+         */
+        public BasicLuceneSearchProvider(Sort sorter,Filter filter, int max, boolean includeFacets, ScoreDoc after){
+            this(sorter, filter, max, includeFacets);
+            this.after=after;
+        }
 
 		@Override
 		public DefaultLuceneSearchProviderResult search(IndexSearcher searcher, TaxonomyReader taxon, Query query, FacetsCollector facetCollector) throws IOException {
 			TopDocs hits=null;
 			Facets facets=null;
+			if (searcher instanceof ParallelIndexSearcher) {
+			    Tuple<TopDocs, FacetsCollector> result = ((ParallelIndexSearcher) searcher).searchWithFacets(query, filter, after, max, sorter);
+			    if(includeFacets) {
+			        facets = new FastTaxonomyFacetCounts(taxon, facetsConfig, result.v());
+			    }
+			    return new DefaultLuceneSearchProviderResult(result.k(), facets, result.v());
+			}
 			//FacetsCollector.
+			//after the cursor
+			if (after != null) {
+			    hits = sorter != null
+			            ? FacetsCollector.searchAfter(searcher, after, query, filter, max, sorter, facetCollector)
+			            : FacetsCollector.searchAfter(searcher, after, query, filter, max, facetCollector);
 			//with sorter
-			if (sorter != null) {
+			}else if (sorter != null) {
 			    hits = (FacetsCollector.search(searcher, query, filter, max, sorter, facetCollector));
 			//without sorter
 			}else {
@@ -1850,8 +2612,9 @@ public class TextIndexer implements Closeable, ProcessListener {
 			DrillSideways sideway = new DrillSideways(searcher, facetsConfig, taxon);
 
 
-			DrillSideways.DrillSidewaysResult swResult = sideway.search(ddq, filter, null, options.max(),
-					sorter, false, false);
+			ScoreDoc after = cursorOf(options);
+			DrillSideways.DrillSidewaysResult swResult = sideway.search(ddq, filter, SearchCursor.asFieldDoc(after),
+					after == null ? options.max() : options.getTop(), sorter, false, false);
 			
 
 
@@ -1860,27 +2623,39 @@ public class TextIndexer implements Closeable, ProcessListener {
 			 * range/dynamic facets?
 			 *
 			 */
+			FacetsCollector rangeCollector = null;
 			if (options.getIncludeFacets() && !options.getLongRangeFacets().isEmpty()){
-				FacetsCollector.search(searcher, ddq, filter, options.max(), facetCollector);
+				if (searcher instanceof ParallelIndexSearcher) {
+					rangeCollector = ((ParallelIndexSearcher) searcher).collectFacets(ddq, filter);
+				} else {
+					FacetsCollector.search(searcher, ddq, filter, options.max(), facetCollector);
+				}
 			}
 
 			if(options.getIncludeFacets()) {
 			    facets = swResult.facets;
 			}
 			hits = swResult.hits;
-			return new DefaultLuceneSearchProviderResult(hits,facets);
+			return new DefaultLuceneSearchProviderResult(hits,facets, rangeCollector);
 		}
 
 	}
 
-	// This is the most important method, everything goes here
 	protected SearchResult search(GsrsRepository gsrsRepository,  IndexSearcher searcher, SearchResult searchResult, Query query, Filter filter)
 			throws IOException {
-		final TopDocs hits;
-
-		try (TaxonomyReader taxon = new DirectoryTaxonomyReader(taxonWriter)) {
-		    hits=firstPassLuceneSearch(searcher,taxon,searchResult,filter, query, gsrsRepository);
+		//the current taxonomy is never older than the searcher, the taxonomy is written first
+		SearcherAndTaxonomy pair = searchManager.acquire();
+		try {
+			return search(gsrsRepository, searcher, pair.taxonomyReader, searchResult, query, filter);
+		} finally {
+			searchManager.release(pair);
 		}
+	}
+
+	// This is the most important method, everything goes here
+	protected SearchResult search(GsrsRepository gsrsRepository,  IndexSearcher searcher, TaxonomyReader taxon, SearchResult searchResult, Query query, Filter filter)
+			throws IOException {
+		final TopDocs hits=firstPassLuceneSearch(searcher,taxon,searchResult,filter, query, gsrsRepository);
 
 //		if (DEBUG(1)) {
 //			log.debug(
@@ -1892,13 +2667,23 @@ public class TextIndexer implements Closeable, ProcessListener {
 //		}
 
 		try {
+			Timer.Sample populateSample = Timer.start(Metrics.globalRegistry);
 			LuceneSearchResultPopulator payload = new LuceneSearchResultPopulator(gsrsRepository, searchResult, hits, searcher);
-            //get everything, forever
-            //hard-coded for now
-            //katzelda Jan 2021 : fetching is now very fast so we can get everything always
             try {
-                payload.fetch();
+                //the keys have to be read while we still have the searcher,
+                //the entities can be fetched later as pages are asked for
+                payload.resolveKeys();
+                if(textIndexerConfig.isLazyResults()){
+                    if(textIndexerConfig.isPrefetchNextPage()){
+                        payload.setPrefetchExecutor(threadPool);
+                    }
+                    searchResult.setPopulator(payload);
+                }else{
+                    //katzelda Jan 2021 : fetching is now very fast so we can get everything always
+                    payload.populateTo(Integer.MAX_VALUE);
+                }
             } finally {
+                populateSample.stop(TextIndexerMetrics.POPULATE);
                 searchResult.done();
             }
 		} catch (Exception ex) {
@@ -1929,6 +2714,32 @@ public class TextIndexer implements Closeable, ProcessListener {
         return firstPassLuceneSearch(searcher, taxon, searchResult,ifilter,query, null);
     }
 
+	/**
+	 * The hit the page should start after, from the cursor in the options.
+	 *
+	 * @return null if there is no cursor.
+	 * @throws IllegalArgumentException if the cursor wasn't made by this indexer.
+	 */
+	static ScoreDoc cursorOf(SearchOptions options) {
+		String cursor = options.getCursor();
+		if (cursor == null || cursor.isEmpty()) {
+			return null;
+		}
+		return SearchCursor.decode(cursor);
+	}
+
+	/**
+	 * Same as {@link #cursorOf(SearchOptions)}, the cursor may have no more
+	 * sort values than the sort order has.
+	 */
+	static ScoreDoc cursorOf(SearchOptions options, Sort sort) {
+		String cursor = options.getCursor();
+		if (cursor == null || cursor.isEmpty()) {
+			return null;
+		}
+		return SearchCursor.decode(cursor, sort == null ? 0 : sort.getSort().length);
+	}
+
 	/**
 	 * Performs a basic Lucene query using the provided Filter and Query, and any other
 	 * refining information from the SearchResult options. Facet results are placed in
@@ -1965,6 +2776,11 @@ public class TextIndexer implements Closeable, ProcessListener {
 		// This may change in the future
 
 		Sort sorter = createSorterFromOptions(options);
+		//with a cursor only the page itself is collected, not everything before it
+		ScoreDoc after = cursorOf(options, sorter);
+		SearchCursor.checkOrder(after, sorter);
+		//one more than the page, to tell whether there is a next page
+		int max = after == null ? options.max() : options.getTop() + 1;
 
 
 		List<Filter> filtersFromOptions = createAndRemoveRangeFiltersFromOptions(options)
@@ -1995,7 +2811,7 @@ public class TextIndexer implements Closeable, ProcessListener {
 
 		//no specified facets (normal search)
 		if (options.getFacets().isEmpty()) {
-			lsp = new BasicLuceneSearchProvider(sorter, filter, options.max(), options.getIncludeFacets());
+			lsp = new BasicLuceneSearchProvider(sorter, filter, max, options.getIncludeFacets(), after);
 		} else {
 			DrillDownQuery ddq = new DrillDownQuery(facetsConfig, query);
 			List<Filter> nonStandardFacets = new ArrayList<Filter>();
@@ -2038,13 +2854,13 @@ public class TextIndexer implements Closeable, ProcessListener {
 
 			// drilldown
 			} else {
-				lsp = new BasicLuceneSearchProvider(sorter, filter, options.max(), options.getIncludeFacets());
+				lsp = new BasicLuceneSearchProvider(sorter, filter, max, options.getIncludeFacets(), after);
 			}
 		} // facets is empty
 
 
-		//Promote special matches
-		if(searchResult.getOptions().getPromoteSpecialMatches() && searchResult.getOptions().getKindInfo() !=null && gsrsRepository !=null){
+		//Promote special matches, they were already shown on the first page
+		if(searchResult.getOptions().getPromoteSpecialMatches() && after == null && searchResult.getOptions().getKindInfo() !=null && gsrsRepository !=null){
 		    
 		   
 		    //TODO katzelda October 2020 : don't support sponsored fields yet that's a Substance only thing
@@ -2111,12 +2927,16 @@ public class TextIndexer implements Closeable, ProcessListener {
 			}
 		}
 
+		Timer.Sample searchSample = Timer.start(Metrics.globalRegistry);
 		LuceneSearchProviderResult lspResult=lsp.search(searcher, taxon,qactual,facetCollector);
 		hits=lspResult.getTopDocs();
+		searchSample.stop(TextIndexerMetrics.LUCENE_SEARCH);
 
 		if(options.getIncludeFacets()) {
+		     Timer.Sample facetSample = Timer.start(Metrics.globalRegistry);
 		     collectBasicFacets(lspResult.getFacets(), searchResult);
-		     collectLongRangeFacets(facetCollector, searchResult);
+		     collectLongRangeFacets(lspResult.getFacetsCollector().orElse(facetCollector), searchResult);
+		     facetSample.stop(TextIndexerMetrics.FACETS);
 		}
 
 		
@@ -2574,28 +3394,160 @@ public class TextIndexer implements Closeable, ProcessListener {
 		return doc;
 	}
 
-	public void update(EntityWrapper ew) throws Exception{
-	    Lock l = stripedLock.get(ew.getKey());
-	    l.lock();
+	/**
+	 * @return the generation to wait for to see the change, see {@link #waitForGeneration(long)}.
+	 */
+	public long update(EntityWrapper ew) throws Exception{
+	    //hold the generation while forwarding so the change can't fall between generations
+	    Lock generationReadLock = generationLock.readLock();
+	    generationReadLock.lock();
 	    try {
-            remove(ew);
-            add(ew, true);
-        }finally{
-	        l.unlock();
-        }
-
+	        Lock l = stripedLock.get(ew.getKey());
+	        l.lock();
+	        try {
+	            remove(ew); //also removes it from the shadow generation
+	            add(ew, true);
+	        }finally{
+	            l.unlock();
+	        }
+	        TextIndexer shadow = shadowIndexer;
+	        if(shadow !=null){
+	            shadow.applyLiveChange(()-> shadow.addLiveChange(ew, true));
+	        }
+	    }finally {
+	        generationReadLock.unlock();
+	    }
+	    return currentGeneration();
     }
-    public void add(EntityWrapper ew) throws IOException {
+    /**
+     * @return the generation to wait for to see the change, see {@link #waitForGeneration(long)}.
+     */
+    public long add(EntityWrapper ew) throws IOException {
         //Don't index if any of the following:
         // 1. The entity doesn't have an Indexable annotation OR
         // 2. The config is set to only index things with Indexable Root annotation and the entity doesn't have that annotation
         // 3. Reindexing is happening and the entity has already been indexed
-        boolean shouldNotAdd=     !ew.shouldIndex() ||
-                (textIndexerConfig.isRootIndexOnly() && !ew.isRootIndex()) ||
+        boolean shouldNotAdd=     !shouldIndex(ew) ||
                 (isReindexing.get() && !alreadySeenDuringReindexingMode.add(ew.getKey().toString()));
         
-        add(ew,!shouldNotAdd);
-        
+        Lock generationReadLock = generationLock.readLock();
+        generationReadLock.lock();
+        try {
+            add(ew, !shouldNotAdd);
+
+            TextIndexer shadow = shadowIndexer;
+            if (shadow != null) {
+                boolean index = shouldIndex(ew);
+                shadow.applyLiveChange(()-> shadow.addLiveChange(ew, index));
+            }
+        }finally {
+            generationReadLock.unlock();
+        }
+        return currentGeneration();
+    }
+
+    /**
+     * Index an entity as part of a reindex. While a shadow generation
+     * is being built the entity only goes to the shadow generation, so the
+     * live generation keeps serving complete results; otherwise this is
+     * the same as {@link #add(EntityWrapper)}.
+     * @param ew the entity to index.
+     * @throws IOException if there is a problem writing to the index.
+     */
+    public void reindex(EntityWrapper ew) throws IOException {
+        TextIndexer shadow = shadowIndexer;
+        if(shadow !=null){
+            shadow.add(ew);
+        }else{
+            add(ew);
+        }
+    }
+
+    /**
+     * Index a batch of entities as part of a reindex, the same as calling
+     * {@link #reindex(EntityWrapper)} for each of them except all their documents
+     * are built first and then handed to the index writer together.
+     * Safe to call from several threads at once.
+     * @param batch the entities to index.
+     * @throws IOException if there is a problem writing to the index.
+     */
+    public void reindex(List<EntityWrapper> batch) throws IOException {
+        TextIndexer shadow = shadowIndexer;
+        if(shadow !=null){
+            shadow.addAll(batch);
+        }else{
+            addAll(batch);
+        }
+    }
+
+    private void addAll(List<EntityWrapper> batch) throws IOException {
+        if(!textIndexerConfig.isEnabled()){
+            return;
+        }
+        Lock generationReadLock = generationLock.readLock();
+        generationReadLock.lock();
+        try {
+            List<Document> docs = new ArrayList<>();
+            for(EntityWrapper ew : batch){
+                if(!shouldIndex(ew) ||
+                        (isReindexing.get() && !alreadySeenDuringReindexingMode.add(ew.getKey().toString()))){
+                    continue;
+                }
+                Lock l = stripedLock.get(ew.getKey());
+                l.lock();
+                try{
+                    docs.addAll(createDocuments(ew));
+                }catch(Exception e){
+                    log.error("Error indexing record [" + ew.toString() + "] This may cause consistency problems", e);
+                }finally{
+                    l.unlock();
+                }
+            }
+            writeDocs(docs);
+        }finally {
+            generationReadLock.unlock();
+        }
+    }
+
+    private boolean shouldIndex(EntityWrapper ew){
+        return ew.shouldIndex() && !(textIndexerConfig.isRootIndexOnly() && !ew.isRootIndex());
+    }
+
+    /**
+     * Apply a live (not reindex) change to this indexer while it is
+     * being built as a shadow generation. The entity is always written and
+     * its key is remembered so that a later, possibly stale, reindex of the same
+     * entity does not add it a second time.
+     */
+    private void addLiveChange(EntityWrapper ew, boolean force) throws IOException {
+        markSeenDuringReindexing(ew.getOptionalKey());
+        add(ew, force);
+    }
+
+    /**
+     * Apply a live change to this shadow generation, or keep it for after seeding.
+     */
+    private void applyLiveChange(LiveChange change) throws IOException {
+        synchronized (seedingLock){
+            if(changesWhileSeeding !=null){
+                changesWhileSeeding.add(change);
+                return;
+            }
+        }
+        try {
+            change.apply();
+        }catch(IOException | RuntimeException e){
+            throw e;
+        }catch(Exception e){
+            throw new IOException(e);
+        }
+    }
+
+    private void markSeenDuringReindexing(Optional<Key> key){
+        Set<String> seen = alreadySeenDuringReindexingMode;
+        if(seen !=null && key.isPresent()){
+            seen.add(key.get().toString());
+        }
     }
 	/**
 	 * recursively index any object annotated with Entity
@@ -2610,9 +3562,30 @@ public class TextIndexer implements Closeable, ProcessListener {
 		    return;
 		}
 
+        //always take the generation lock before the striped lock
+        Lock generationReadLock = generationLock.readLock();
+        generationReadLock.lock();
         Lock l = stripedLock.get(ew.getKey());
         l.lock();
         try{
+            for(Document doc : createDocuments(ew)){
+                writeDoc(doc);
+            }
+		}catch(Exception e){
+			log.error("Error indexing record [" + ew.toString() + "] This may cause consistency problems", e);
+		}finally{
+            l.unlock();
+            generationReadLock.unlock();
+        }
+	}
+
+	/**
+	 * Build the documents of an entity without adding them to the index:
+	 * the field suggest documents if there are any, and the document of the entity itself last.
+	 */
+	private List<Document> createDocuments(EntityWrapper ew) throws Exception {
+            Timer.Sample buildSample = Timer.start(Metrics.globalRegistry);
+            List<Document> docs = new ArrayList<>();
             ew.toInternalJson();
 			HashMap<String,List<TextField>> fullText = new HashMap<>();
             Document doc = new Document();
@@ -2656,6 +3629,9 @@ public class TextIndexer implements Closeable, ProcessListener {
 					    if (text != null) {
 					        TermVectorField tvf = new TermVectorField(TERM_VEC_PREFIX + key,text);
 					        doc.add(tvf);
+					        if(textIndexerConfig.isTermVectorDocValues()){
+					            doc.add(new SortedSetDocValuesField(TERM_VEC_PREFIX + key, new BytesRef(text)));
+					        }
 					    }
 					}
 					doc.add(f);
@@ -2678,7 +3654,6 @@ public class TextIndexer implements Closeable, ProcessListener {
 					FacetField docParentFacet =new FacetField(ANALYZER_VAL_PREFIX+luceneKey.k(),luceneKey.v());
 					//This is a test of a terrible idea, which just. might. work.
 					fullText.forEach((name,group)->{
-							try{
                                 Document fielddoc = new Document();
 								fielddoc.add(toAnalyze);
 								fielddoc.add(analyzeMarker);
@@ -2688,28 +3663,25 @@ public class TextIndexer implements Closeable, ProcessListener {
 								for(IndexableField f:group){
 										fielddoc.add(f);
 								}
-								addDoc(fielddoc);
-							}catch(Exception e){
-								log.error("Analyzing index failed", e);
-							}
+								docs.add(fielddoc);
 						});
 				}
 			}
 
 			fieldCollector.accept(new StringField(FIELD_KIND, ew.getKind(), YES));
 			fieldCollector.accept(new StringField(ANALYZER_MARKER_FIELD, "false", YES));
+			if(ew.hasKey()){
+				doc.add(new BinaryDocValuesField(FIELD_DOC_KEY,
+						LuceneSearchResultPopulator.encodeKey(ew.getKind(), ew.getKey().getIdString())));
+			}
 
-			// now index
-			addDoc(doc);
+			docs.add(doc);
 
 //			if (DEBUG(2)) {
 //                log.debug("<<< " + ew.getValue());
 //            }
-		}catch(Exception e){
-			log.error("Error indexing record [" + ew.toString() + "] This may cause consistency problems", e);
-		}finally{
-            l.unlock();
-        }
+			buildSample.stop(TextIndexerMetrics.DOCUMENT_BUILD);
+			return docs;
 	}
 
 	//One more thing:
@@ -2718,19 +3690,90 @@ public class TextIndexer implements Closeable, ProcessListener {
 	// 3. in fact... it's already maybe present ...
 
 	public void addDoc(Document doc) throws IOException {
-		doc = facetsConfig.build(taxonWriter, doc);
-//		if (DEBUG(2))
-//			log.debug("++ adding document " + doc);
-		indexerService.addDocument(doc);
+		//hold the generation while forwarding so the change can't fall between generations
+		Lock generationReadLock = generationLock.readLock();
+		generationReadLock.lock();
+		try {
+			writeDoc(doc);
+			TextIndexer shadow = shadowIndexer;
+			if(shadow !=null){
+				shadow.applyLiveChange(()-> shadow.addDoc(doc));
+			}
+		} finally {
+			generationReadLock.unlock();
+		}
+	}
+
+	/**
+	 * Same as {@link #addDoc(Document)} for each document, but
+	 * they are written with one call to the index writer.
+	 */
+	public void addDocs(List<Document> docs) throws IOException {
+		Lock generationReadLock = generationLock.readLock();
+		generationReadLock.lock();
+		try {
+			writeDocs(docs);
+			TextIndexer shadow = shadowIndexer;
+			if(shadow !=null && !docs.isEmpty()){
+				shadow.applyLiveChange(()-> shadow.addDocs(docs));
+			}
+		} finally {
+			generationReadLock.unlock();
+		}
+	}
+
+	/**
+	 * Write a document to this generation only, a shadow generation
+	 * gets the entity it was made from some other way.
+	 */
+	private void writeDoc(Document doc) throws IOException {
+		Lock generationReadLock = generationLock.readLock();
+		generationReadLock.lock();
+		try {
+			doc = facetsConfig.build(taxonWriter, doc);
+//			if (DEBUG(2))
+//				log.debug("++ adding document " + doc);
+			Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+			indexerService.addDocument(doc);
+			sample.stop(TextIndexerMetrics.ADD_DOC);
+		} finally {
+			generationReadLock.unlock();
+		}
         notifyListenersAddDocument(doc);
 		markChange();
 	}
 
+	private void writeDocs(List<Document> docs) throws IOException {
+		if(docs.isEmpty()){
+			return;
+		}
+		List<Document> built = new ArrayList<>(docs.size());
+		Lock generationReadLock = generationLock.readLock();
+		generationReadLock.lock();
+		try {
+			for(Document doc : docs){
+				built.add(facetsConfig.build(taxonWriter, doc));
+			}
+			Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+			indexerService.addDocuments(built);
+			sample.stop(TextIndexerMetrics.ADD_DOCS);
+		} finally {
+			generationReadLock.unlock();
+		}
+		built.forEach(this::notifyListenersAddDocument);
+		markChange();
+	}
+
 
 	//TODO: Should be an interface, which can throw a DataHasChange event ... or something
 	// like that
 	public void markChange(){
-		lastModified.set(TimeUtil.getCurrentTimeMillis());
+		//always move forward, even for two changes in the same millisecond,
+		//cached search results are only valid while this doesn't change
+		//the write generation goes first so whoever sees the new lastModified also sees it
+		lastWriteGeneration.accumulateAndGet(currentGeneration(), Math::max);
+		long now = TimeUtil.getCurrentTimeMillis();
+		lastModified.accumulateAndGet(now, (prev, t) -> Math.max(prev + 1, t));
 		if(gsrscache!=null) {
 		    gsrscache.markChange();
 		}
@@ -2749,17 +3792,26 @@ public class TextIndexer implements Closeable, ProcessListener {
 	}
 
 
-	public void remove(EntityWrapper ew) throws Exception {
+	/**
+	 * @return the generation to wait for to see the change, see {@link #waitForGeneration(long)}.
+	 */
+	public long remove(EntityWrapper ew) throws Exception {
 		if (ew.shouldIndex()) {
 			if (ew.hasKey()) {
-				remove(ew.getKey());
+				return remove(ew.getKey());
 			} else {
 				log.warn("Entity " + ew.getKind() + "'s Id field is null!");
 			}
 		}
+		return currentGeneration();
 	}
 
-	public void remove(Key key) throws Exception {
+	/**
+	 * @return the generation to wait for to see the change, see {@link #waitForGeneration(long)}.
+	 */
+	public long remove(Key key) throws Exception {
+        Lock generationReadLock = generationLock.readLock();
+        generationReadLock.lock();
         Lock l = stripedLock.get(key);
         l.lock();
         try {
@@ -2783,27 +3835,46 @@ public class TextIndexer implements Closeable, ProcessListener {
                 notifyListenersDeleteDocuments(qa);
             }
             markChange();
+
+            TextIndexer shadow = shadowIndexer;
+            if(shadow !=null){
+                shadow.applyLiveChange(()->{
+                    shadow.markSeenDuringReindexing(Optional.of(key));
+                    shadow.remove(key);
+                });
+            }
         }finally{
             l.unlock();
+            generationReadLock.unlock();
         }
+        return currentGeneration();
 	}
 	
 
 	public void removeAllType(EntityInfo<?> ei) throws Exception{
-	    ei.getTypeAndSubTypes()
-    	  .forEach(ee->{
-    	        TermQuery q = new TermQuery(new Term(FIELD_KIND, ee.getName()));
-    	        indexerService.deleteDocuments(q);
-    	        notifyListenersDeleteDocuments(q);
-
-    	        //Delete pseudo documents associated with meta-data for field suggest
-    	        if(textIndexerConfig.isFieldsuggest()){
-    	            TermQuery qq= new TermQuery(new Term(FIELD_KIND, ANALYZER_VAL_PREFIX + ee.getName()));
-    	            indexerService.deleteDocuments(qq);
-    	            notifyListenersDeleteDocuments(qq);
-    	        }
-    	  });
-	    
+	    Lock generationReadLock = generationLock.readLock();
+	    generationReadLock.lock();
+	    try {
+	        ei.getTypeAndSubTypes()
+	          .forEach(ee->{
+	                TermQuery q = new TermQuery(new Term(FIELD_KIND, ee.getName()));
+	                indexerService.deleteDocuments(q);
+	                notifyListenersDeleteDocuments(q);
+
+	                //Delete pseudo documents associated with meta-data for field suggest
+	                if(textIndexerConfig.isFieldsuggest()){
+	                    TermQuery qq= new TermQuery(new Term(FIELD_KIND, ANALYZER_VAL_PREFIX + ee.getName()));
+	                    indexerService.deleteDocuments(qq);
+	                    notifyListenersDeleteDocuments(qq);
+	                }
+	          });
+	        TextIndexer shadow = shadowIndexer;
+	        if(shadow !=null){
+	            shadow.applyLiveChange(()-> shadow.removeAllType(ei));
+	        }
+	    } finally {
+	        generationReadLock.unlock();
+	    }
         
 		markChange();
 	}
@@ -3036,8 +4107,331 @@ public class TextIndexer implements Closeable, ProcessListener {
 
     @Override
 	public void newProcess() {
-        clearAllIndexes(true);
+        if(textIndexerConfig.isShadowReindex()){
+            beginShadowReindex();
+        }else {
+            clearAllIndexes(true);
+        }
 	}
+
+    /**
+     * Should a full reindex build a shadow generation instead of
+     * clearing the live index.
+     * @return {@code true} if shadow reindexing is configured for this indexer.
+     */
+    public boolean isShadowReindexEnabled(){
+        return !isEmptyPool && textIndexerConfig.isShadowReindex();
+    }
+
+    /**
+     * Is a shadow index generation currently being built.
+     * @return {@code true} if reindexed entities are going to a shadow generation.
+     */
+    public boolean isShadowReindexing(){
+        return shadowIndexer !=null;
+    }
+
+    /**
+     * Start building a new, empty index generation next to the live one.
+     * Until {@link #commitShadowReindex()} or {@link #abandonShadowReindex()}
+     * is called, entities passed to {@link #reindex(EntityWrapper)} only go to the
+     * new generation, live changes go to both, and searches keep using
+     * the (complete) live generation.
+     * If a shadow generation can not be created, this falls back to clearing
+     * the live index like a normal reindex.
+     */
+    public void beginShadowReindex() {
+        beginShadowReindex(null);
+    }
+
+    /**
+     * Same as {@link #beginShadowReindex()} for a reindex of only some kinds of entities:
+     * the new generation starts out with everything of the live generation except
+     * the documents of those kinds, so the rest of the index survives the swap.
+     * Searches and writes only wait while the live generation is snapshot,
+     * not while its configuration or documents are copied.
+     *
+     * @param reindexedKinds the names of the kinds that will be reindexed, null if all of them are.
+     */
+    public synchronized void beginShadowReindex(Set<String> reindexedKinds) {
+        if(isEmptyPool || shadowIndexer !=null){
+            return;
+        }
+        File shadowDir = new File(baseDir, SHADOW_DIR);
+        IOUtil.deleteRecursivelyQuitely(shadowDir);
+        TextIndexer shadow = null;
+        IndexReader snapshot = null;
+        try {
+            //the slow part is done before anyone has to wait
+            if(reindexedKinds !=null){
+                copyConfigurationTo(shadowDir);
+            }
+            shadow = new TextIndexer(shadowDir, indexerServiceFactory, indexerServiceFactory.createForDir(shadowDir),
+                    textIndexerConfig, indexValueMakerFactory, null, deepKindFunction);
+            shadow.startReindexingMode();
+            if(reindexedKinds !=null){
+                synchronized (shadow.seedingLock){
+                    shadow.changesWhileSeeding = new ArrayList<>();
+                }
+            }
+            Lock generationWriteLock = generationLock.writeLock();
+            generationWriteLock.lock();
+            try {
+                if(reindexedKinds !=null){
+                    //everything in this reader has its facet labels in the committed taxonomy
+                    snapshot = indexerService.createIndexReader();
+                    taxonWriter.commit();
+                }
+                shadowIndexer = shadow;
+            }finally {
+                generationWriteLock.unlock();
+            }
+            if(snapshot !=null){
+                shadow.seedFrom(snapshot, taxonDir, facetsConfig, reindexedKinds);
+            }
+            log.info("building shadow index generation in " + shadowDir);
+        }catch(Exception e){
+            if(shadow !=null){
+                if(shadowIndexer == shadow){
+                    abandonShadowReindex();
+                }else{
+                    shadow.shutdown();
+                    IOUtil.deleteRecursivelyQuitely(shadowDir);
+                }
+            }
+            if(reindexedKinds ==null){
+                log.error("could not create shadow index generation, clearing live index instead", e);
+                clearAllIndexes(true);
+            }else{
+                log.error("could not create shadow index generation, removing the reindexed kinds from the live index instead", e);
+                for(String kind : reindexedKinds){
+                    try {
+                        remove(new TermQuery(new Term(FIELD_KIND, kind)));
+                        remove(new TermQuery(new Term(FIELD_KIND, ANALYZER_VAL_PREFIX + kind)));
+                    } catch (Exception ex) {
+                        log.error("could not remove " + kind + " from the index", ex);
+                    }
+                }
+                markChange();
+            }
+        }finally {
+            if(snapshot !=null){
+                IOUtil.closeQuietly(snapshot);
+            }
+        }
+    }
+
+    /**
+     * Copy the facet and sorter configurations and the suggest lookups of
+     * this generation, the documents are copied by {@link #seedFrom(IndexReader, Directory, FacetsConfig, Set)}.
+     */
+    private void copyConfigurationTo(File shadowDir) throws IOException {
+        //the flush daemon rewrites the same files
+        flushDaemon.lockFlush();
+        try {
+            for (SuggestLookup lookup : lookups.values()) {
+                lookup.refreshIfDirty();
+                lookup.flush(true);
+            }
+            saveFacetsConfig(getFacetsConfigFile(), facetsConfig);
+            saveSorters(getSorterConfigFile(), sorters);
+            Files.createDirectories(shadowDir.toPath());
+            for(String entry : new String[]{"suggest", FACETS_CONFIG_FILE, SORTER_CONFIG_FILE}){
+                File from = new File(baseDir, entry);
+                if(from.exists()){
+                    copyRecursively(from.toPath(), new File(shadowDir, entry).toPath());
+                }
+            }
+        }finally {
+            flushDaemon.unLockFlush();
+        }
+    }
+
+    private static void copyRecursively(Path from, Path to) throws IOException {
+        try(Stream<Path> paths = Files.walk(from)){
+            for(Path p : (Iterable<Path>) paths::iterator){
+                Path target = to.resolve(from.relativize(p).toString());
+                if(Files.isDirectory(p)){
+                    Files.createDirectories(target);
+                }else{
+                    Files.copy(p, target);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the documents of another generation to this shadow generation, except the
+     * ones of the kinds being reindexed, then apply the live changes made in the meantime.
+     * Facet ordinals are mapped to this generation's taxonomy.
+     */
+    private void seedFrom(IndexReader source, Directory sourceTaxonomy, FacetsConfig sourceConfig, Set<String> reindexedKinds) throws Exception {
+        try {
+            DirectoryTaxonomyWriter.MemoryOrdinalMap ordinalMap = new DirectoryTaxonomyWriter.MemoryOrdinalMap();
+            taxonWriter.addTaxonomy(sourceTaxonomy, ordinalMap);
+            int[] ordinals = ordinalMap.getMap();
+            List<AtomicReaderContext> leaves = source.leaves();
+            IndexReader[] mapped = new IndexReader[leaves.size()];
+            for (int i = 0; i < mapped.length; i++) {
+                mapped[i] = new OrdinalMappingAtomicReader(leaves.get(i).reader(), ordinals, sourceConfig);
+            }
+            indexerService.addIndexes(mapped);
+            for (String kind : reindexedKinds) {
+                indexerService.deleteDocuments(new TermQuery(new Term(FIELD_KIND, kind)));
+                indexerService.deleteDocuments(new TermQuery(new Term(FIELD_KIND, ANALYZER_VAL_PREFIX + kind)));
+            }
+            markChange();
+        } finally {
+            synchronized (seedingLock) {
+                List<LiveChange> changes = changesWhileSeeding;
+                changesWhileSeeding = null;
+                for (LiveChange change : changes) {
+                    try {
+                        change.apply();
+                    } catch (Exception e) {
+                        log.error("could not apply change to shadow index generation", e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The generation being built by a shadow reindex, null if there isn't one.
+     */
+    TextIndexer getShadowIndexer(){
+        return shadowIndexer;
+    }
+
+    /**
+     * Replace the live index generation with the shadow generation
+     * built since {@link #beginShadowReindex()}.  The shadow is flushed
+     * to disk first so searches are only blocked while the directories are
+     * moved and the new generation is opened.  The old generation
+     * is deleted in the background.
+     */
+    public synchronized void commitShadowReindex() {
+        TextIndexer shadow = shadowIndexer;
+        if(shadow ==null){
+            return;
+        }
+        File shadowDir = shadow.baseDir;
+        //do the expensive commit before we block anyone
+        shadow.finishReindexing();
+        shadow.flushDaemon.lockFlush();
+        try {
+            shadow.flushDaemon.execute();
+        }finally {
+            shadow.flushDaemon.unLockFlush();
+        }
+
+        Lock generationWriteLock = generationLock.writeLock();
+        generationWriteLock.lock();
+        flushDaemon.lockFlush();
+        try {
+            shadowIndexer = null;
+            shadow.shutdown();
+
+            closeAndClear(lookups);
+            stopReopenThread();
+            closeAndIgnore(searchManager);
+            closeAndIgnore(indexerService);
+            closeAndIgnore(taxonWriter);
+            closeAndIgnore(taxonDir);
+            try {
+                Files.createFile(new File(shadowDir, SHADOW_COMPLETE_MARKER).toPath());
+                promoteShadowGeneration(shadowDir);
+            }catch(IOException e){
+                log.error("Trouble swapping in shadow index generation from " + shadowDir, e);
+            }
+            try {
+                indexerService = indexerServiceFactory.createForDir(baseDir);
+                initialSetup();
+            } catch (Exception e) {
+                log.error("Trouble starting up textindexer after shadow reindexing", e);
+            }
+        }finally {
+            flushDaemon.unLockFlush();
+            generationWriteLock.unlock();
+        }
+        markChange();
+        threadPool.submit(this::deleteRetiredGenerations);
+    }
+
+    /**
+     * Throw away the shadow generation being built, if any,
+     * leaving the live generation untouched.
+     */
+    public synchronized void abandonShadowReindex() {
+        TextIndexer shadow = shadowIndexer;
+        if(shadow ==null){
+            return;
+        }
+        shadowIndexer = null;
+        shadow.shutdown();
+        IOUtil.deleteRecursivelyQuitely(shadow.baseDir);
+    }
+
+    /**
+     * Move every generation entry from the shadow directory into the base
+     * directory, moving the entry it replaces into a retired directory.
+     * Each entry is only moved if it is still in the shadow directory so this can
+     * be re-run to finish a swap that was interrupted.
+     */
+    private void promoteShadowGeneration(File shadowDir) throws IOException {
+        File retiredDir = new File(baseDir, RETIRED_DIR_PREFIX + TimeUtil.getCurrentTimeMillis());
+        Files.createDirectories(retiredDir.toPath());
+        for(String entry : GENERATION_ENTRIES){
+            File rebuilt = new File(shadowDir, entry);
+            if(!rebuilt.exists()){
+                continue;
+            }
+            File live = new File(baseDir, entry);
+            if(live.exists()){
+                Files.move(live.toPath(), new File(retiredDir, entry).toPath());
+            }
+            Files.move(rebuilt.toPath(), live.toPath());
+        }
+        IOUtil.deleteRecursivelyQuitely(shadowDir);
+    }
+
+    /**
+     * Clean up after shadow reindexing on startup: finish a swap that was
+     * interrupted after the shadow generation was complete,
+     * otherwise throw away the incomplete shadow generation, then delete
+     * any retired generations.
+     */
+    private void recoverGenerations() throws IOException {
+        File shadowDir = new File(baseDir, SHADOW_DIR);
+        if(shadowDir.exists()){
+            if(new File(shadowDir, SHADOW_COMPLETE_MARKER).exists()){
+                log.info("finishing interrupted swap of shadow index generation " + shadowDir);
+                //the index service was opened on the old generation
+                closeAndIgnore(indexerService);
+                promoteShadowGeneration(shadowDir);
+                indexerService = indexerServiceFactory.createForDir(baseDir);
+            }else{
+                log.info("deleting incomplete shadow index generation " + shadowDir);
+                IOUtil.deleteRecursivelyQuitely(shadowDir);
+            }
+        }
+        deleteRetiredGenerations();
+    }
+
+    private void deleteRetiredGenerations(){
+        File[] retired = baseDir.listFiles(f-> f.isDirectory() && f.getName().startsWith(RETIRED_DIR_PREFIX));
+        if(retired ==null){
+            return;
+        }
+        for(File f : retired){
+            IOUtil.deleteRecursivelyQuitely(f);
+        }
+    }
+
+    private void startReindexingMode(){
+        isReindexing.set(true);
+        alreadySeenDuringReindexingMode = Collections.newSetFromMap(new ConcurrentHashMap<>(100_000));
+    }
 	
     
     
@@ -3046,11 +4440,9 @@ public class TextIndexer implements Closeable, ProcessListener {
             flushDaemon.lockFlush();
             try {
                 //0. Notify and mark that it's happening
-                isReindexing.set(true);
-                notifyListenersRemoveAll();
-                
                 //0.5 Set up space for use in reindexing
-                alreadySeenDuringReindexingMode = Collections.newSetFromMap(new ConcurrentHashMap<>(100_000));
+                startReindexingMode();
+                notifyListenersRemoveAll();
                 
                 //*************
                 //1. START CLEAR SUGGEST
@@ -3098,6 +4490,7 @@ public class TextIndexer implements Closeable, ProcessListener {
                 } catch (Exception e) {
                     log.error("Trouble starting up textindexer on reindexing", e);
                 }
+                markChange();
 
                
             }finally {
@@ -3126,7 +4519,11 @@ public class TextIndexer implements Closeable, ProcessListener {
     
 	@Override
 	public void doneProcess() {
-	    finishReindexing();
+	    if(isShadowReindexing()) {
+	        commitShadowReindex();
+	    }else {
+	        finishReindexing();
+	    }
 	}
 
 	@Override
@@ -3145,6 +4542,16 @@ public class TextIndexer implements Closeable, ProcessListener {
 		if (isShutDown) {
 			return;
 		}
+		TextIndexer shadow = shadowIndexer;
+		if (shadow != null) {
+			//an unfinished shadow generation is thrown away on the next startup
+			shadowIndexer = null;
+			shadow.shutdown();
+		}
+		if (pendingSuggestGauge != null) {
+			TextIndexerMetrics.remove(pendingSuggestGauge);
+			pendingSuggestGauge = null;
+		}
 		try {
 			if (scheduler != null) {
 				try {
@@ -3171,7 +4578,11 @@ public class TextIndexer implements Closeable, ProcessListener {
 			// area
 			lookups.clear();
 
+			stopReopenThread();
 			closeAndIgnore(searchManager);
+			if (searchPool != null) {
+				searchPool.shutdown();
+			}
 			closeAndIgnore(indexerService);
 			closeAndIgnore(taxonWriter);
 
@@ -3223,6 +4634,10 @@ public class TextIndexer implements Closeable, ProcessListener {
 	                throws Exception {
 
 	    return withSearcher(searcher -> {
+	        if(textIndexerConfig.isTermVectorDocValues()
+	                && DocValuesTermVectorsCollector.canCollect(searcher.getIndexReader(), field)){
+	            return DocValuesTermVectorsCollector.collect(kind, field, searcher, luceneFilter, query);
+	        }
 	        return TermVectorsCollector.make(kind, field, searcher, luceneFilter, query)
 	               .termVectors();
         });
@@ -35,6 +35,96 @@ public class TextIndexerConfig {
     
     @Value("#{new Boolean('${ix.index.rootIndexOnly:false}')}")
     private boolean rootIndexOnly;
+
+    /**
+     * When true, a full reindex builds a new index generation next to the live one
+     * and swaps it in when done, so searches keep returning complete results
+     * while reindexing instead of running against a wiped index.
+     */
+    @Value("#{new Boolean('${ix.textindex.shadowReindex:false}')}")
+    private boolean shadowReindex;
+    /**
+     * When true, search results only fetch the entities of the pages
+     * that are asked for instead of every hit as soon as the search is done.
+     */
+    @Value("#{new Boolean('${ix.textindex.lazyResults:true}')}")
+    private boolean lazyResults = true;
+    /**
+     * When true, fetching a page of lazy search results also starts fetching
+     * the next page in the background.
+     */
+    @Value("#{new Boolean('${ix.textindex.prefetchNextPage:false}')}")
+    private boolean prefetchNextPage;
+    /**
+     * How often, in milliseconds, new suggestions are made visible to type-ahead lookups.
+     */
+    @Value("#{new Long('${ix.textindex.suggestRefreshMillis:1000}')}")
+    private long suggestRefreshMillis = 1000;
+    /**
+     * How often, in milliseconds, the suggest indexes are written to disk.
+     */
+    @Value("#{new Long('${ix.textindex.suggestPersistMillis:300000}')}")
+    private long suggestPersistMillis = 300000;
+    /**
+     * How many recent search results (keys, facets and counts only) to keep
+     * for identical searches, 0 to not cache them.
+     */
+    @Value("#{new Integer('${ix.textindex.resultCacheSize:200}')}")
+    private int resultCacheSize = 200;
+    /**
+     * When true, searches of big indexes run over the index segments in parallel,
+     * including the facet and term vector collection.
+     */
+    @Value("#{new Boolean('${ix.textindex.parallelSearch:false}')}")
+    private boolean parallelSearch;
+    /**
+     * Number of threads used to search segments in parallel.
+     */
+    @Value("#{new Integer('${ix.textindex.parallelSearchThreads:4}')}")
+    private int parallelSearchThreads = 4;
+    /**
+     * Indexes with fewer documents than this are still searched on the calling thread.
+     */
+    @Value("#{new Integer('${ix.textindex.parallelSearchMinDocs:100000}')}")
+    private int parallelSearchMinDocs = 100000;
+    /**
+     * When true, facet values are also written as doc values so the facet
+     * statistics endpoints count them without loading every matching document.
+     * Needs a reindex, until every document with a facet field has its doc values
+     * the term vectors are still read.
+     */
+    @Value("#{new Boolean('${ix.textindex.termVectorDocValues:false}')}")
+    private boolean termVectorDocValues;
+    /**
+     * Number of threads building documents during a full reindex,
+     * while the entities are read from the database on the calling thread.
+     */
+    @Value("#{new Integer('${ix.textindex.reindexThreads:4}')}")
+    private int reindexThreads = 4;
+    /**
+     * Number of entities read from the database at a time during a full reindex,
+     * also the number of entities whose documents are written to the index together.
+     */
+    @Value("#{new Integer('${ix.textindex.reindexBatchSize:200}')}")
+    private int reindexBatchSize = 200;
+    /**
+     * How stale, in milliseconds, searches may be when nobody is waiting for
+     * a change to show up; new documents become visible at least this often.
+     */
+    @Value("#{new Long('${ix.textindex.nrtMaxStaleMillis:1000}')}")
+    private long nrtMaxStaleMillis = 1000;
+    /**
+     * How stale, in milliseconds, searches may be while a search is waiting
+     * for a generation to become visible.
+     */
+    @Value("#{new Long('${ix.textindex.nrtMinStaleMillis:25}')}")
+    private long nrtMinStaleMillis = 25;
+    /**
+     * The longest, in milliseconds, a search waits for a generation before it
+     * runs anyway.
+     */
+    @Value("#{new Long('${ix.textindex.nrtMaxWaitMillis:5000}')}")
+    private long nrtMaxWaitMillis = 5000;
     
     
     public List<String> getDeepFields(){
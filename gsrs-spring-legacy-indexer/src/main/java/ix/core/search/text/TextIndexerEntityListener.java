@@ -3,19 +3,17 @@ package ix.core.search.text;
 import gsrs.DefaultDataSourceConfig;
 import gsrs.events.MaintenanceModeEvent;
 import gsrs.events.ReindexEntityEvent;
-import gsrs.indexer.IndexCreateEntityEvent;
-import gsrs.indexer.IndexRemoveEntityEvent;
-import gsrs.indexer.IndexUpdateEntityEvent;
+import gsrs.indexer.IndexEventDispatcher;
+import gsrs.indexer.IndexEventSink;
 import gsrs.springUtils.AutowireHelper;
 import gsrs.springUtils.StaticContextAccessor;
 import ix.core.util.EntityUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.event.EventListener;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.transaction.event.TransactionalEventListener;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
@@ -24,14 +22,16 @@ import javax.persistence.PostRemove;
 import javax.persistence.PostUpdate;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.List;
 import java.util.Optional;
 
 /**
  * Hibernate Entity listener that will update our legacy {@link TextIndexer}.
+ * Created, updated and removed entities come from the {@link IndexEventDispatcher}.
  */
 @Component
 @Transactional(readOnly = true)
-public class TextIndexerEntityListener {
+public class TextIndexerEntityListener implements IndexEventSink {
 
     @Autowired
     private TextIndexerFactory textIndexerFactory;
@@ -45,37 +45,13 @@ public class TextIndexerEntityListener {
             AutowireHelper.getInstance().autowire(this);
         }
     }
-    @Async
-    @TransactionalEventListener
-    public void created(IndexCreateEntityEvent event) throws Exception{
-        autowireIfNeeded();
-        try {
-            TextIndexer indexer = textIndexerFactory.getDefaultInstance();
-            if(indexer !=null) {
-                
-                //refetch from db
-                Optional<EntityUtils.EntityWrapper<?>> opt = event.getSource().fetch();
-                if(opt.isPresent()) {
-                    EntityUtils.EntityWrapper ew = opt.get();
-
-                    if (event.shouldDeleteFirst()) {
-                        indexer.remove(ew);
-                    }
-                    indexer.add(ew);
-                }
-            }
-        } catch (Throwable e) {
-            
-            throw new Exception(e);
-        }
-    }
     @EventListener
     public void reindexEntity(ReindexEntityEvent event) throws IOException {
         autowireIfNeeded();
         Optional<EntityUtils.EntityWrapper<?>> opt = event.getOptionalFetchedEntityToReindex();
         
         if(opt.isPresent()){
-            textIndexerFactory.getDefaultInstance().add(opt.get());
+            textIndexerFactory.getDefaultInstance().reindex(opt.get());
         }
     }
     @EventListener
@@ -90,25 +66,22 @@ public class TextIndexerEntityListener {
         }
     }
 
-    @Async
-    @TransactionalEventListener
-    public void updateEntity(IndexUpdateEntityEvent event) {
+    @Override
+    public void index(EntityUtils.EntityWrapper<?> ew, List<ApplicationEvent> events, boolean replace) throws Exception {
         autowireIfNeeded();
         TextIndexer indexer = textIndexerFactory.getDefaultInstance();
         if(indexer !=null) {
-            try {
-                EntityUtils.EntityWrapper ew = event.getSource().fetch().get();
+            if (replace) {
                 indexer.update(ew);
-            }catch(Throwable t){
-                t.printStackTrace();
+            } else {
+                indexer.add(ew);
             }
         }
     }
-    @Async
-    @TransactionalEventListener
-    public void deleteEntity(IndexRemoveEntityEvent event) throws Exception {
-//        System.out.println("removing from index " + obj);
+
+    @Override
+    public void remove(EntityUtils.EntityWrapper<?> ew) throws Exception {
         autowireIfNeeded();
-        textIndexerFactory.getDefaultInstance().remove(event.getSource());
+        textIndexerFactory.getDefaultInstance().remove(ew);
     }
 }
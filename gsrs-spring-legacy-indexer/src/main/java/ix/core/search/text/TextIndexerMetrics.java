@@ -0,0 +1,80 @@
+package ix.core.search.text;
+
+import java.io.File;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * The timers of the text indexer.  They are registered with micrometer's global registry,
+ * which spring boot actuator adds its registry to, so they show up in the actuator's
+ * metrics and cost next to nothing when there is no registry.
+ */
+final class TextIndexerMetrics {
+
+    private static final String SEARCH = "gsrs.textindexer.search";
+
+    static final Timer DOCUMENT_BUILD = timer("gsrs.textindexer.document.build", "Building the documents of an entity");
+    static final Timer ADD_DOC = timer("gsrs.textindexer.adddoc", "Writing one document to the index");
+    static final Timer ADD_DOCS = timer("gsrs.textindexer.adddocs", "Writing a batch of documents to the index");
+    static final Timer FLUSH = timer("gsrs.textindexer.flush", "Committing the index, taxonomy and configuration");
+    static final Timer REFRESH = timer("gsrs.textindexer.refresh", "Reopening the searchers");
+    static final Timer SUGGEST_REFRESH = timer("gsrs.textindexer.suggest.refresh", "Refreshing a suggest lookup");
+
+    static final Timer PARSE = searchPhase("parse");
+    static final Timer LUCENE_SEARCH = searchPhase("lucene");
+    static final Timer FACETS = searchPhase("facets");
+    static final Timer POPULATE = searchPhase("populate");
+
+    private static final ClassValue<Timer> VALUE_MAKERS = new ClassValue<Timer>() {
+        @Override
+        protected Timer computeValue(Class<?> type) {
+            return Timer.builder("gsrs.textindexer.valuemaker")
+                    .description("Making the indexable values of an entity")
+                    .tag("maker", type.getName())
+                    .register(Metrics.globalRegistry);
+        }
+    };
+
+    private TextIndexerMetrics() {
+        //can not instantiate
+    }
+
+    /**
+     * The timer of one kind of {@link IndexValueMaker}.
+     */
+    static Timer valueMaker(Class<?> type) {
+        return VALUE_MAKERS.get(type);
+    }
+
+    /**
+     * Gauge the suggest additions of the indexer waiting for a refresh,
+     * the indexer isn't kept alive by the gauge.  Remove it with {@link #remove(Meter)}
+     * once the indexer is shut down.
+     */
+    static Gauge pendingSuggestAdditions(TextIndexer indexer, File dir) {
+        return Gauge.builder("gsrs.textindexer.suggest.pending", indexer, TextIndexer::getPendingSuggestAdditions)
+                .description("Suggest additions waiting for the next refresh")
+                .tag("index", dir.getAbsolutePath())
+                .register(Metrics.globalRegistry);
+    }
+
+    static void remove(Meter meter) {
+        Metrics.globalRegistry.remove(meter);
+    }
+
+    private static Timer timer(String name, String description) {
+        return Timer.builder(name)
+                .description(description)
+                .register(Metrics.globalRegistry);
+    }
+
+    private static Timer searchPhase(String phase) {
+        return Timer.builder(SEARCH)
+                .description("One phase of a text search")
+                .tag("phase", phase)
+                .register(Metrics.globalRegistry);
+    }
+}
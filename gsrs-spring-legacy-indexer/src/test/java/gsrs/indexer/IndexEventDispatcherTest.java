@@ -0,0 +1,182 @@
+package gsrs.indexer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.Id;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEvent;
+
+import ix.core.util.EntityUtils.EntityWrapper;
+import ix.core.util.EntityUtils.Key;
+
+public class IndexEventDispatcherTest {
+
+    public static class Thing {
+        @Id
+        public Long id;
+
+        Thing(long id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * What a sink was asked to do.
+     */
+    private static class Call {
+        final EntityWrapper<?> ew;
+        final List<ApplicationEvent> events;
+        final boolean replace;
+        final boolean removed;
+
+        Call(EntityWrapper<?> ew, List<ApplicationEvent> events, boolean replace, boolean removed) {
+            this.ew = ew;
+            this.events = events;
+            this.replace = replace;
+            this.removed = removed;
+        }
+    }
+
+    private final BlockingQueue<Call> calls = new LinkedBlockingQueue<>();
+    private final AtomicInteger fetches = new AtomicInteger();
+    private IndexEventDispatcher dispatcher;
+
+    @BeforeEach
+    public void start() {
+        IndexEventSink sink = new IndexEventSink() {
+            @Override
+            public void index(EntityWrapper<?> ew, List<ApplicationEvent> events, boolean replace) {
+                calls.add(new Call(ew, events, replace, false));
+            }
+
+            @Override
+            public void remove(EntityWrapper<?> ew) {
+                calls.add(new Call(ew, Collections.emptyList(), false, true));
+            }
+        };
+        dispatcher = new IndexEventDispatcher(Arrays.asList(sink, sink), key -> {
+            fetches.incrementAndGet();
+            return Optional.of(EntityWrapper.of(new Thing((Long) key.getIdNative())));
+        }, 200, 2, 100);
+        dispatcher.start();
+    }
+
+    @AfterEach
+    public void stop() throws InterruptedException {
+        dispatcher.stop();
+    }
+
+    private static EntityWrapper<Thing> wrap(long id) {
+        return EntityWrapper.of(new Thing(id));
+    }
+
+    private Call next() throws InterruptedException {
+        Call call = calls.poll(10, TimeUnit.SECONDS);
+        assertTrue(call != null, "nothing was indexed");
+        return call;
+    }
+
+    @Test
+    public void updatesInOneWindowAreIndexedOnce() throws InterruptedException {
+        Key key = wrap(1).getKey();
+        IndexUpdateEntityEvent last = null;
+        for (int i = 0; i < 10; i++) {
+            last = new IndexUpdateEntityEvent(key);
+            dispatcher.updated(last);
+        }
+        //once for each of the two sinks, from a single fetch
+        Call first = next();
+        Call second = next();
+        assertSame(first.ew, second.ew);
+        assertEquals(Collections.singletonList(last), first.events);
+        assertTrue(first.replace);
+        assertNull(calls.poll(500, TimeUnit.MILLISECONDS));
+        assertEquals(1, fetches.get());
+    }
+
+    @Test
+    public void createThenUpdateKeepsBoth() {
+        Key key = wrap(1).getKey();
+        IndexCreateEntityEvent created = new IndexCreateEntityEvent(key);
+        IndexUpdateEntityEvent updated = new IndexUpdateEntityEvent(key);
+        IndexUpdateEntityEvent updatedAgain = new IndexUpdateEntityEvent(key);
+
+        IndexEventDispatcher.Pending p = new IndexEventDispatcher.Pending();
+        p.create(created, false);
+        p.update(updated);
+        p.update(updatedAgain);
+        //nothing was indexed before the create
+        assertFalse(p.isReplace());
+        assertEquals(Arrays.asList(created, updatedAgain), p.events());
+    }
+
+    @Test
+    public void createThenRemoveOnlyRemoves() {
+        EntityWrapper<Thing> ew = wrap(1);
+        IndexEventDispatcher.Pending p = new IndexEventDispatcher.Pending();
+        p.create(new IndexCreateEntityEvent(ew.getKey()), false);
+        p.update(new IndexUpdateEntityEvent(ew.getKey()));
+        p.remove(ew);
+        assertSame(ew, p.getRemoved());
+        assertTrue(p.events().isEmpty());
+    }
+
+    @Test
+    public void createAfterRemoveReplaces() {
+        EntityWrapper<Thing> ew = wrap(1);
+        IndexCreateEntityEvent created = new IndexCreateEntityEvent(ew.getKey());
+        IndexEventDispatcher.Pending p = new IndexEventDispatcher.Pending();
+        p.remove(ew);
+        p.create(created, false);
+        assertNull(p.getRemoved());
+        assertTrue(p.isReplace());
+        assertEquals(Collections.singletonList(created), p.events());
+    }
+
+    @Test
+    public void updateAfterRemoveReplaces() {
+        EntityWrapper<Thing> ew = wrap(1);
+        IndexUpdateEntityEvent updated = new IndexUpdateEntityEvent(ew.getKey());
+        IndexEventDispatcher.Pending p = new IndexEventDispatcher.Pending();
+        p.remove(ew);
+        p.update(updated);
+        assertNull(p.getRemoved());
+        assertTrue(p.isReplace());
+        assertEquals(Collections.singletonList(updated), p.events());
+    }
+
+    @Test
+    public void createThatDeletesFirstReplaces() {
+        IndexCreateEntityEvent created = new IndexCreateEntityEvent(wrap(1).getKey());
+        IndexEventDispatcher.Pending p = new IndexEventDispatcher.Pending();
+        p.create(created, true);
+        assertTrue(p.isReplace());
+    }
+
+    @Test
+    public void removeReachesEverySinkWithoutAFetch() throws InterruptedException {
+        EntityWrapper<Thing> ew = wrap(2);
+        dispatcher.created(new IndexCreateEntityEvent(ew.getKey()));
+        dispatcher.removed(new IndexRemoveEntityEvent(ew));
+        assertTrue(next().removed);
+        assertTrue(next().removed);
+        assertNull(calls.poll(500, TimeUnit.MILLISECONDS));
+        assertEquals(0, fetches.get());
+    }
+}
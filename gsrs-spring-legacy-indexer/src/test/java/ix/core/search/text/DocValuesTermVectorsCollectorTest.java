@@ -0,0 +1,164 @@
+package ix.core.search.text;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.persistence.Id;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Version;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import ix.core.util.EntityUtils;
+
+public class DocValuesTermVectorsCollectorTest {
+
+    public static class Thing {
+        @Id
+        public Long id;
+    }
+
+    private static final String[] COLORS = {"red", "green", "blue", "yellow", "cyan"};
+
+    private final FieldType termVectors = new FieldType(StringField.TYPE_NOT_STORED);
+    private Directory dir;
+    private IndexWriter writer;
+    private int nextId;
+
+    @BeforeEach
+    public void open() throws IOException {
+        termVectors.setStoreTermVectors(true);
+        termVectors.freeze();
+        dir = new RAMDirectory();
+        IndexWriterConfig iwc = new IndexWriterConfig(Version.LATEST, new WhitespaceAnalyzer(Version.LATEST));
+        iwc.setMergePolicy(NoMergePolicy.NO_COMPOUND_FILES);
+        writer = new IndexWriter(dir, iwc);
+    }
+
+    @AfterEach
+    public void close() throws IOException {
+        writer.close();
+        dir.close();
+    }
+
+    private void add(boolean docValues, String... colors) throws IOException {
+        EntityUtils.EntityInfo<Thing> ei = EntityUtils.getEntityInfoFor(Thing.class);
+        Document doc = new Document();
+        doc.add(new StringField(TextIndexer.FIELD_KIND, ei.getName(), Field.Store.YES));
+        doc.add(new StringField(ei.getInternalIdField(), Integer.toString(nextId++), Field.Store.YES));
+        for (String color : colors) {
+            doc.add(new Field(TextIndexer.TERM_VEC_PREFIX + "color", color, termVectors));
+            if (docValues) {
+                doc.add(new SortedSetDocValuesField(TextIndexer.TERM_VEC_PREFIX + "color", new BytesRef(color)));
+            }
+        }
+        writer.addDocument(doc);
+    }
+
+    //i+1 docs of COLORS[i] in every segment, a few with two colors, and one without any
+    private void addSegment(boolean docValues) throws IOException {
+        for (int i = 0; i < COLORS.length; i++) {
+            for (int j = 0; j < i + 1; j++) {
+                if (j == 0 && i > 0) {
+                    add(docValues, COLORS[i], COLORS[i - 1]);
+                } else {
+                    add(docValues, COLORS[i]);
+                }
+            }
+        }
+        add(docValues);
+        writer.commit();
+    }
+
+    @Test
+    public void countsMatchTheTermVectors() throws IOException {
+        addSegment(true);
+        addSegment(true);
+        addSegment(true);
+        try (DirectoryReader reader = DirectoryReader.open(dir)) {
+            assertTrue(reader.leaves().size() > 1);
+            assertTrue(TextIndexer.DocValuesTermVectorsCollector.canCollect(reader, "color"));
+            IndexSearcher searcher = new IndexSearcher(reader);
+
+            TextIndexer.TermVectors expected = TextIndexer.TermVectorsCollector.make(Thing.class, "color", searcher, null, null).termVectors();
+            TextIndexer.TermVectors actual = TextIndexer.DocValuesTermVectorsCollector.collect(Thing.class, "color", searcher, null, null);
+
+            assertEquals(expected.getNumDocs(), actual.getNumDocs());
+            assertEquals(expected.getNumDocsWithTerms(), actual.getNumDocsWithTerms());
+            assertEquals(expected.getNumTerms(), actual.getNumTerms());
+            for (String color : COLORS) {
+                assertEquals(expected.getTermCount(color), actual.getTermCount(color), color);
+            }
+            assertNull(actual.getTermCount("purple"));
+
+            for (int skip = 0; skip < COLORS.length; skip += 2) {
+                assertEquals(labels(expected, 2, skip, ""), labels(actual, 2, skip, ""));
+            }
+            assertEquals(labels(expected, 10, 0, "re*"), labels(actual, 10, 0, "re*"));
+        }
+    }
+
+    private static List<String> labels(TextIndexer.TermVectors tvec, int top, int skip, String filter) {
+        try {
+            return tvec.getFacet(top, skip, filter, "http://localhost/facets")
+                    .getContent()
+                    .stream()
+                    .map(fv -> fv.getLabel() + "=" + fv.getCount())
+                    .collect(Collectors.toList());
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test
+    public void segmentWithoutDocValuesUsesTheTermVectors() throws IOException {
+        addSegment(false);
+        addSegment(true);
+        try (DirectoryReader reader = DirectoryReader.open(dir)) {
+            assertFalse(TextIndexer.DocValuesTermVectorsCollector.canCollect(reader, "color"));
+        }
+    }
+
+    @Test
+    public void segmentWithOnlySomeDocValuesUsesTheTermVectors() throws IOException {
+        //older documents merged into the same segment as newer ones
+        add(false, "red");
+        add(true, "green");
+        writer.commit();
+        try (DirectoryReader reader = DirectoryReader.open(dir)) {
+            assertEquals(1, reader.leaves().size());
+            assertFalse(TextIndexer.DocValuesTermVectorsCollector.canCollect(reader, "color"));
+        }
+    }
+
+    @Test
+    public void segmentsWithoutTheFieldDontMatter() throws IOException {
+        add(false);
+        writer.commit();
+        addSegment(true);
+        try (DirectoryReader reader = DirectoryReader.open(dir)) {
+            assertTrue(TextIndexer.DocValuesTermVectorsCollector.canCollect(reader, "color"));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package ix.core.search.text;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.junit.jupiter.api.Test;
+
+import ix.core.search.SearchOptions;
+import ix.core.search.SearchResult;
+import ix.core.util.EntityUtils;
+import ix.core.util.EntityUtils.Key;
+
+public class LuceneSearchResultPopulatorTest {
+
+    static class Thing {
+        public Long id;
+    }
+
+    static Key[] keys(int n) {
+        EntityUtils.EntityInfo<Thing> ei = EntityUtils.getEntityInfoFor(Thing.class);
+        Key[] keys = new Key[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = new Key(ei, (long) i);
+        }
+        return keys;
+    }
+
+    private static SearchResult lazyResult(Key[] keys, LuceneSearchResultPopulator[] populator) {
+        SearchResult result = new SearchResult(new SearchOptions.Builder().top(keys.length).build(), "q");
+        result.setCount(keys.length);
+        populator[0] = new LuceneSearchResultPopulator(result, keys);
+        result.setPopulator(populator[0]);
+        result.done();
+        return result;
+    }
+
+    @Test
+    public void pagesArePopulatedOnlyAsFarAsTheyAreRead() {
+        Key[] keys = keys(25);
+        LuceneSearchResultPopulator[] populator = new LuceneSearchResultPopulator[1];
+        SearchResult result = lazyResult(keys, populator);
+        assertEquals(25, result.size());
+        assertEquals(0, populator[0].last);
+
+        List<Key> page = new ArrayList<>();
+        assertEquals(10, result.copyKeysTo(page, 0, 10, true));
+        assertEquals(10, populator[0].last);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(keys[i], page.get(i));
+        }
+
+        page.clear();
+        assertEquals(10, result.copyKeysTo(page, 10, 10, true));
+        assertEquals(20, populator[0].last);
+        assertEquals(keys[10], page.get(0));
+        assertEquals(keys[19], page.get(9));
+        assertEquals(25, result.size());
+
+        page.clear();
+        assertEquals(5, result.copyKeysTo(page, 20, 10, true));
+        assertEquals(keys[24], page.get(4));
+        assertEquals(0, result.copyKeysTo(page, 30, 10, true));
+        assertEquals(25, populator[0].last);
+    }
+
+    @Test
+    public void skippingAheadPopulatesEverythingBeforeThePage() {
+        Key[] keys = keys(25);
+        LuceneSearchResultPopulator[] populator = new LuceneSearchResultPopulator[1];
+        SearchResult result = lazyResult(keys, populator);
+
+        List<Key> page = new ArrayList<>();
+        assertEquals(5, result.copyKeysTo(page, 15, 5, true));
+        assertEquals(keys[15], page.get(0));
+        assertEquals(20, populator[0].last);
+    }
+
+    @Test
+    public void sizeCountsTheHitsBeforeTheirKeysAreRead() {
+        ScoreDoc[] docs = new ScoreDoc[30];
+        for (int i = 0; i < docs.length; i++) {
+            docs[i] = new ScoreDoc(i, 1f);
+        }
+        SearchResult result = new SearchResult(new SearchOptions.Builder().top(10).skip(5).build(), "q");
+        LuceneSearchResultPopulator populator = new LuceneSearchResultPopulator(null, result,
+                new TopDocs(docs.length, docs, 1f), null);
+        assertEquals(30, result.getCount());
+        assertEquals(10, populator.size());
+        assertTrue(result.getCursor() != null);
+    }
+
+    private static ScoreDoc[] scoreDocs(int n) {
+        ScoreDoc[] docs = new ScoreDoc[n];
+        for (int i = 0; i < docs.length; i++) {
+            docs[i] = new ScoreDoc(i, 1f);
+        }
+        return docs;
+    }
+
+    @Test
+    public void pageEndingOnTheLastHitHasNoCursor() {
+        ScoreDoc[] docs = scoreDocs(15);
+        SearchResult result = new SearchResult(new SearchOptions.Builder().top(10).skip(5).build(), "q");
+        new LuceneSearchResultPopulator(null, result, new TopDocs(docs.length, docs, 1f), null);
+        assertNull(result.getCursor());
+    }
+
+    @Test
+    public void pageAfterACursorOnlyHasACursorIfThereIsMore() {
+        String cursor = SearchCursor.encode(new ScoreDoc(100, 1f));
+        //the count of a search after a cursor includes the hits before it
+        ScoreDoc[] lastPage = scoreDocs(10);
+        SearchResult last = new SearchResult(new SearchOptions.Builder().top(10).cursor(cursor).build(), "q");
+        new LuceneSearchResultPopulator(null, last, new TopDocs(200, lastPage, 1f), null);
+        assertNull(last.getCursor());
+
+        //the search looks for one more than the page
+        ScoreDoc[] morePages = scoreDocs(11);
+        SearchResult more = new SearchResult(new SearchOptions.Builder().top(10).cursor(cursor).build(), "q");
+        LuceneSearchResultPopulator populator = new LuceneSearchResultPopulator(null, more, new TopDocs(200, morePages, 1f), null);
+        assertEquals(10, populator.size());
+        assertEquals(SearchCursor.encode(morePages[9]), more.getCursor());
+    }
+}
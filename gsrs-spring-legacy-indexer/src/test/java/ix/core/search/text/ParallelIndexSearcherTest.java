@@ -0,0 +1,213 @@
+package ix.core.search.text;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.persistence.Id;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.facet.FacetField;
+import org.apache.lucene.facet.FacetResult;
+import org.apache.lucene.facet.FacetsCollector;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.taxonomy.FastTaxonomyFacetCounts;
+import org.apache.lucene.facet.taxonomy.TaxonomyReader;
+import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyReader;
+import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyWriter;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import gov.nih.ncats.common.Tuple;
+import ix.core.util.EntityUtils;
+
+/**
+ * Compares what the {@link ParallelIndexSearcher} finds on an index of several
+ * segments with what a plain {@link IndexSearcher} finds on the same reader.
+ */
+public class ParallelIndexSearcherTest {
+
+    public static class Thing {
+        @Id
+        public Long id;
+    }
+
+    private static final String[] COLORS = {"red", "green", "blue", "yellow"};
+    private static final int DOCS = 100;
+
+    private final FacetsConfig facetsConfig = new FacetsConfig();
+    private ExecutorService executor;
+    private Directory indexDir;
+    private Directory taxonDir;
+    private DirectoryReader reader;
+    private TaxonomyReader taxonomy;
+    private IndexSearcher plain;
+    private ParallelIndexSearcher parallel;
+
+    @BeforeEach
+    public void buildIndex() throws IOException {
+        EntityUtils.EntityInfo<Thing> ei = EntityUtils.getEntityInfoFor(Thing.class);
+        FieldType termVectors = new FieldType(StringField.TYPE_NOT_STORED);
+        termVectors.setStoreTermVectors(true);
+        termVectors.freeze();
+
+        indexDir = new RAMDirectory();
+        taxonDir = new RAMDirectory();
+        IndexWriterConfig iwc = new IndexWriterConfig(Version.LATEST, new WhitespaceAnalyzer(Version.LATEST));
+        iwc.setMergePolicy(NoMergePolicy.NO_COMPOUND_FILES);
+        try (IndexWriter writer = new IndexWriter(indexDir, iwc);
+             DirectoryTaxonomyWriter taxonWriter = new DirectoryTaxonomyWriter(taxonDir)) {
+            for (int i = 0; i < DOCS; i++) {
+                Document doc = new Document();
+                doc.add(new StringField(TextIndexer.FIELD_KIND, ei.getName(), Field.Store.YES));
+                doc.add(new StringField(ei.getInternalIdField(), Integer.toString(i), Field.Store.YES));
+                StringBuilder text = new StringBuilder();
+                for (int j = 0; j <= i % 7; j++) {
+                    text.append("foo ");
+                }
+                if (i % 3 == 0) {
+                    text.append("bar");
+                }
+                doc.add(new TextField("text", text.toString(), Field.Store.NO));
+                //a permutation of 0..99 so the sort has no ties
+                doc.add(new NumericDocValuesField("n", (i * 37) % DOCS));
+                doc.add(new FacetField("color", COLORS[i % COLORS.length]));
+                doc.add(new Field(TextIndexer.TERM_VEC_PREFIX + "color", COLORS[(i / 3) % COLORS.length], termVectors));
+                writer.addDocument(facetsConfig.build(taxonWriter, doc));
+                if (i % 20 == 19) {
+                    writer.commit();
+                }
+            }
+        }
+        reader = DirectoryReader.open(indexDir);
+        taxonomy = new DirectoryTaxonomyReader(taxonDir);
+        assertTrue(reader.leaves().size() > 1);
+
+        executor = Executors.newFixedThreadPool(3);
+        plain = new IndexSearcher(reader);
+        parallel = new ParallelIndexSearcher(reader, executor);
+    }
+
+    @AfterEach
+    public void close() throws IOException {
+        executor.shutdownNow();
+        taxonomy.close();
+        reader.close();
+        taxonDir.close();
+        indexDir.close();
+    }
+
+    private static void assertSameHits(TopDocs expected, TopDocs actual) {
+        assertEquals(expected.totalHits, actual.totalHits);
+        assertEquals(expected.scoreDocs.length, actual.scoreDocs.length);
+        for (int i = 0; i < expected.scoreDocs.length; i++) {
+            assertEquals(expected.scoreDocs[i].doc, actual.scoreDocs[i].doc, "hit " + i);
+            assertEquals(expected.scoreDocs[i].score, actual.scoreDocs[i].score, 0.0001f, "hit " + i);
+        }
+    }
+
+    private FacetResult colors(FacetsCollector fc) throws IOException {
+        return new FastTaxonomyFacetCounts(taxonomy, facetsConfig, fc).getTopChildren(10, "color");
+    }
+
+    @Test
+    public void scoredHitsAndFacetsMatchThePlainSearcher() throws IOException {
+        Query q = new TermQuery(new Term("text", "foo"));
+        FacetsCollector expectedFacets = new FacetsCollector();
+        TopDocs expected = FacetsCollector.search(plain, q, 30, expectedFacets);
+
+        Tuple<TopDocs, FacetsCollector> actual = parallel.searchWithFacets(q, null, null, 30, null);
+        assertSameHits(expected, actual.k());
+        assertEquals(colors(expectedFacets).toString(), colors(actual.v()).toString());
+    }
+
+    @Test
+    public void sortedPagesMatchThePlainSearcher() throws IOException {
+        Query q = new TermQuery(new Term("text", "foo"));
+        Sort sort = new Sort(new SortField("n", SortField.Type.LONG));
+
+        TopDocs expected = plain.search(q, null, 10, sort);
+        Tuple<TopDocs, FacetsCollector> actual = parallel.searchWithFacets(q, null, null, 10, sort);
+        assertSameDocs(expected, actual.k());
+
+        //the next page starts after the last hit of this one
+        ScoreDoc after = actual.k().scoreDocs[9];
+        assertTrue(after instanceof FieldDoc);
+        TopDocs expectedNext = plain.searchAfter(after, q, null, 10, sort);
+        Tuple<TopDocs, FacetsCollector> actualNext = parallel.searchWithFacets(q, null, after, 10, sort);
+        assertSameDocs(expectedNext, actualNext.k());
+        //the facets always count every hit, not just the page
+        assertEquals(colors(actual.v()).toString(), colors(actualNext.v()).toString());
+    }
+
+    private static void assertSameDocs(TopDocs expected, TopDocs actual) {
+        assertEquals(expected.totalHits, actual.totalHits);
+        assertEquals(expected.scoreDocs.length, actual.scoreDocs.length);
+        for (int i = 0; i < expected.scoreDocs.length; i++) {
+            assertEquals(expected.scoreDocs[i].doc, actual.scoreDocs[i].doc, "hit " + i);
+        }
+    }
+
+    @Test
+    public void filteredFacetCountsMatchThePlainSearcher() throws IOException {
+        Query q = new TermQuery(new Term("text", "foo"));
+        Filter filter = new QueryWrapperFilter(new TermQuery(new Term("text", "bar")));
+        FacetsCollector expected = new FacetsCollector();
+        plain.search(q, filter, expected);
+
+        FacetsCollector actual = parallel.collectFacets(q, filter);
+        assertEquals(colors(expected).toString(), colors(actual).toString());
+    }
+
+    @Test
+    public void termVectorsMergedFromSlicesMatchThePlainSearcher() throws IOException {
+        Query q = new TermQuery(new Term("text", "foo"));
+        TextIndexer.TermVectors expected = TextIndexer.TermVectorsCollector.make(Thing.class, "color", plain, null, q).termVectors();
+        TextIndexer.TermVectors actual = TextIndexer.TermVectorsCollector.make(Thing.class, "color", parallel, null, q).termVectors();
+
+        assertEquals(DOCS, expected.getNumDocs());
+        assertEquals(expected.getNumDocs(), actual.getNumDocs());
+        assertEquals(expected.getNumDocsWithTerms(), actual.getNumDocsWithTerms());
+        assertEquals(termCounts(expected), termCounts(actual));
+        assertEquals(expected.getDocs().size(), actual.getDocs().size());
+        assertEquals(expected.getTerms().keySet(), actual.getTerms().keySet());
+    }
+
+    private static Map<String, Integer> termCounts(TextIndexer.TermVectors tvec) {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (String color : COLORS) {
+            counts.put(color, tvec.getTermCount(color));
+        }
+        return counts;
+    }
+}
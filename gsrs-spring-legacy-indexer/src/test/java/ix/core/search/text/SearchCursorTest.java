@@ -0,0 +1,87 @@
+package ix.core.search.text;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.util.BytesRef;
+import org.junit.jupiter.api.Test;
+
+public class SearchCursorTest {
+
+    @Test
+    public void scoreDocRoundTrip() {
+        ScoreDoc after = SearchCursor.decode(SearchCursor.encode(new ScoreDoc(42, 1.5f)));
+        assertFalse(after instanceof FieldDoc);
+        assertEquals(42, after.doc);
+        assertEquals(1.5f, after.score);
+    }
+
+    @Test
+    public void fieldDocRoundTrip() {
+        Object[] fields = new Object[]{new BytesRef("abc"), 7L, 3, 2.5f, 0.25d, null, "x"};
+        ScoreDoc after = SearchCursor.decode(SearchCursor.encode(new FieldDoc(3, Float.NaN, fields)));
+        assertTrue(after instanceof FieldDoc);
+        assertEquals(3, after.doc);
+        assertArrayEquals(fields, ((FieldDoc) after).fields);
+    }
+
+    @Test
+    public void cursorIsUrlSafe() {
+        String cursor = SearchCursor.encode(new FieldDoc(-1 >>> 1, 1f, new Object[]{new BytesRef(new byte[]{(byte) 0xfb, (byte) 0xff})}));
+        assertTrue(cursor.matches("[A-Za-z0-9_-]+"), cursor);
+    }
+
+    @Test
+    public void cursorMustMatchTheSortOrder() {
+        Sort sort = new Sort(new SortField("n", SortField.Type.LONG));
+        ScoreDoc unsorted = new ScoreDoc(1, 1f);
+        FieldDoc sorted = new FieldDoc(1, Float.NaN, new Object[]{7L});
+
+        SearchCursor.checkOrder(null, null);
+        SearchCursor.checkOrder(null, sort);
+        SearchCursor.checkOrder(unsorted, null);
+        SearchCursor.checkOrder(sorted, sort);
+        assertThrows(IllegalArgumentException.class, () -> SearchCursor.checkOrder(sorted, null));
+        assertThrows(IllegalArgumentException.class, () -> SearchCursor.checkOrder(unsorted, sort));
+        assertThrows(IllegalArgumentException.class, () -> SearchCursor.checkOrder(sorted,
+                new Sort(new SortField("n", SortField.Type.LONG), new SortField("m", SortField.Type.STRING))));
+    }
+
+    private static String cursorOf(ByteBuffer bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.array());
+    }
+
+    @Test
+    public void hugeSizesAreRejectedBeforeAllocating() {
+        ByteBuffer manyFields = ByteBuffer.allocate(13);
+        manyFields.put((byte) 1).putInt(1).putFloat(1f).putInt(Integer.MAX_VALUE);
+        assertThrows(IllegalArgumentException.class, () -> SearchCursor.decode(cursorOf(manyFields)));
+
+        ByteBuffer longValue = ByteBuffer.allocate(18);
+        longValue.put((byte) 1).putInt(1).putFloat(1f).putInt(1).put((byte) 5).putInt(Integer.MAX_VALUE);
+        assertThrows(IllegalArgumentException.class, () -> SearchCursor.decode(cursorOf(longValue)));
+    }
+
+    @Test
+    public void moreSortValuesThanTheSortHasAreRejected() {
+        String cursor = SearchCursor.encode(new FieldDoc(1, Float.NaN, new Object[]{7L, 8L}));
+        assertEquals(2, ((FieldDoc) SearchCursor.decode(cursor, 2)).fields.length);
+        assertThrows(IllegalArgumentException.class, () -> SearchCursor.decode(cursor, 1));
+    }
+
+    @Test
+    public void garbageIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> SearchCursor.decode("not a cursor!"));
+        assertThrows(IllegalArgumentException.class, () -> SearchCursor.decode("AQ"));
+    }
+}
@@ -0,0 +1,104 @@
+package ix.core.search.text;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+import ix.core.search.SearchOptions;
+import ix.core.search.SearchResult;
+import ix.core.util.EntityUtils.Key;
+
+public class SearchResultCacheTest {
+
+    private static SearchResultCache.Entry entry(long generation) {
+        return new SearchResultCache.Entry(generation, 0, null, new Key[0], new Key[0],
+                Collections.emptyList(), Collections.emptyList());
+    }
+
+    @Test
+    public void drillDownOrderDoesNotChangeKey() {
+        SearchOptions a = new SearchOptions.Builder().facets("a/1", "b/2").build();
+        SearchOptions b = new SearchOptions.Builder().facets("b/2", "a/1").build();
+        assertEquals(SearchResultCache.keyFor(" foo ", a), SearchResultCache.keyFor("foo", b));
+    }
+
+    @Test
+    public void pagingChangesKey() {
+        SearchOptions a = new SearchOptions.Builder().top(10).skip(0).build();
+        SearchOptions b = new SearchOptions.Builder().top(10).skip(10).build();
+        assertNotEquals(SearchResultCache.keyFor(null, a), SearchResultCache.keyFor(null, b));
+    }
+
+    @Test
+    public void cursorChangesKey() {
+        SearchOptions a = new SearchOptions.Builder().top(10).build();
+        SearchOptions b = new SearchOptions.Builder().top(10).cursor("AQ").build();
+        assertNotEquals(SearchResultCache.keyFor(null, a), SearchResultCache.keyFor(null, b));
+    }
+
+    @Test
+    public void nullQueryIsMatchAll() {
+        SearchOptions a = new SearchOptions.Builder().build();
+        assertEquals(SearchResultCache.keyFor(null, a), SearchResultCache.keyFor("*:*", a));
+    }
+
+    @Test
+    public void entryFromOlderGenerationIsInvalidated() {
+        SearchResultCache cache = new SearchResultCache(10);
+        SearchResultCache.Entry e = entry(1);
+        cache.put("k", e);
+        assertSame(e, cache.get("k", 1));
+        assertNull(cache.get("k", 2));
+        assertNull(cache.get("k", 1));
+
+        TextIndexer.ResultCacheStats stats = cache.getStats();
+        assertEquals(1, stats.getHits());
+        assertEquals(2, stats.getMisses());
+        assertEquals(1, stats.getInvalidations());
+        assertEquals(0, stats.getSize());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() {
+        SearchResultCache cache = new SearchResultCache(2);
+        cache.put("a", entry(1));
+        cache.put("b", entry(1));
+        cache.get("a", 1);
+        cache.put("c", entry(1));
+
+        assertNotNull(cache.get("a", 1));
+        assertNull(cache.get("b", 1));
+        assertNotNull(cache.get("c", 1));
+        assertEquals(1, cache.getStats().getEvictions());
+    }
+
+    @Test
+    public void olderResultDoesNotReplaceNewer() {
+        SearchResultCache cache = new SearchResultCache(2);
+        SearchResultCache.Entry newer = entry(2);
+        cache.put("a", newer);
+        cache.put("a", entry(1));
+        assertSame(newer, cache.get("a", 2));
+    }
+
+    @Test
+    public void entryOfLazyResultDoesNotPopulateIt() {
+        Key[] keys = LuceneSearchResultPopulatorTest.keys(5);
+        SearchResult result = new SearchResult(new SearchOptions.Builder().top(5).build(), "q");
+        result.setCount(5);
+        LuceneSearchResultPopulator populator = new LuceneSearchResultPopulator(result, keys);
+        result.setPopulator(populator);
+        result.done();
+
+        SearchResultCache.Entry e = SearchResultCache.Entry.of(1, result);
+        assertArrayEquals(keys, e.keys);
+        assertEquals(0, populator.last);
+    }
+}
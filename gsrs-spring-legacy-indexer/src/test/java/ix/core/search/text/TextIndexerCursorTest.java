@@ -0,0 +1,143 @@
+package ix.core.search.text;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ix.core.search.SearchOptions;
+import ix.core.search.SearchResult;
+
+public class TextIndexerCursorTest {
+
+    private static final IndexerServiceFactory FACTORY = new IndexerServiceFactory() {
+        @Override
+        public IndexerService createInMemory() throws IOException {
+            return new Lucene4IndexService();
+        }
+
+        @Override
+        public IndexerService createForDir(File dir) throws IOException {
+            return new Lucene4IndexService(dir);
+        }
+    };
+
+    private static final int DOCS = 50;
+    private static final int PAGE = 7;
+
+    @TempDir
+    File baseDir;
+
+    private TextIndexer indexer;
+    private final Query query = new TermQuery(new Term("text", "foo"));
+
+    @BeforeEach
+    public void open() throws Exception {
+        TextIndexer.saveSorters(new File(baseDir, TextIndexer.SORTER_CONFIG_FILE),
+                Collections.singletonMap("SORT_n", SortField.Type.STRING));
+        indexer = new TextIndexer(baseDir, FACTORY, FACTORY.createForDir(baseDir), new TextIndexerConfig(), null, null, ew -> false);
+        for (int i = 0; i < DOCS; i++) {
+            Document doc = new Document();
+            doc.add(new StringField(TextIndexer.FIELD_KIND, "A", Field.Store.YES));
+            doc.add(new StringField(TextIndexer.FIELD_ID, Integer.toString(i), Field.Store.YES));
+            StringBuilder text = new StringBuilder();
+            //plenty of ties in the scores
+            for (int j = 0; j <= i % 5; j++) {
+                text.append("foo ");
+            }
+            doc.add(new TextField("text", text.toString(), Field.Store.NO));
+            doc.add(new StringField("SORT_n", String.format("%03d", (i * 37) % DOCS), Field.Store.NO));
+            indexer.addDoc(doc);
+        }
+        indexer.waitForGeneration(indexer.currentGeneration());
+    }
+
+    @AfterEach
+    public void shutDown() {
+        indexer.shutdown();
+    }
+
+    private TopDocs search(SearchOptions options) throws Exception {
+        return indexer.withSearcherAndTaxonomy((s, taxon) ->
+                indexer.firstPassLuceneSearch(s, taxon, new SearchResult(options, "foo"), null, query, null));
+    }
+
+    private SearchOptions.Builder options(List<String> order) {
+        return new SearchOptions.Builder()
+                .order(order)
+                .includeFacets(false);
+    }
+
+    private List<Integer> allAtOnce(List<String> order) throws Exception {
+        List<Integer> docs = new ArrayList<>();
+        for (ScoreDoc d : search(options(order).top(DOCS).build()).scoreDocs) {
+            docs.add(d.doc);
+        }
+        return docs;
+    }
+
+    private List<Integer> pageByCursor(List<String> order) throws Exception {
+        List<Integer> docs = new ArrayList<>();
+        String cursor = null;
+        while (true) {
+            //after a cursor there is one more hit than the page, to tell if there is a next page
+            ScoreDoc[] hits = search(options(order).top(PAGE).cursor(cursor).build()).scoreDocs;
+            int page = Math.min(PAGE, hits.length);
+            for (int i = 0; i < page; i++) {
+                docs.add(hits[i].doc);
+            }
+            if (page < PAGE) {
+                return docs;
+            }
+            cursor = SearchCursor.encode(hits[page - 1]);
+        }
+    }
+
+    @Test
+    public void unsortedPagesLineUp() throws Exception {
+        List<Integer> expected = allAtOnce(new ArrayList<>());
+        assertEquals(DOCS, expected.size());
+        assertEquals(expected, pageByCursor(new ArrayList<>()));
+    }
+
+    @Test
+    public void sortedPagesLineUp() throws Exception {
+        List<String> order = Collections.singletonList("$n");
+        List<Integer> expected = allAtOnce(order);
+        assertEquals(DOCS, expected.size());
+        assertEquals(expected, pageByCursor(order));
+    }
+
+    @Test
+    public void cursorOfTheOtherOrderIsRejected() throws Exception {
+        List<String> order = Collections.singletonList("^n");
+        ScoreDoc sortedLast = search(options(order).top(PAGE).build()).scoreDocs[PAGE - 1];
+        ScoreDoc unsortedLast = search(options(new ArrayList<>()).top(PAGE).build()).scoreDocs[PAGE - 1];
+        assertEquals(FieldDoc.class, sortedLast.getClass());
+
+        assertThrows(IllegalArgumentException.class,
+                () -> search(options(new ArrayList<>()).top(PAGE).cursor(SearchCursor.encode(sortedLast)).build()));
+        assertThrows(IllegalArgumentException.class,
+                () -> search(options(order).top(PAGE).cursor(SearchCursor.encode(unsortedLast)).build()));
+    }
+}
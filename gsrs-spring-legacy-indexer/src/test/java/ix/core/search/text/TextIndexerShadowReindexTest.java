@@ -0,0 +1,211 @@
+package ix.core.search.text;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.facet.FacetField;
+import org.apache.lucene.facet.Facets;
+import org.apache.lucene.facet.FacetsCollector;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.taxonomy.FastTaxonomyFacetCounts;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.TermQuery;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TextIndexerShadowReindexTest {
+
+    private static final IndexerServiceFactory FACTORY = new IndexerServiceFactory() {
+        @Override
+        public IndexerService createInMemory() throws IOException {
+            return new Lucene4IndexService();
+        }
+
+        @Override
+        public IndexerService createForDir(File dir) throws IOException {
+            return new Lucene4IndexService(dir);
+        }
+    };
+
+    @TempDir
+    File baseDir;
+
+    private TextIndexer indexer;
+
+    @AfterEach
+    public void shutDown() {
+        if (indexer != null) {
+            indexer.shutdown();
+        }
+    }
+
+    private static TextIndexer open(File dir) throws IOException {
+        TextIndexerConfig config = new TextIndexerConfig();
+        config.setShadowReindex(true);
+        return new TextIndexer(dir, FACTORY, FACTORY.createForDir(dir), config, null, null, ew -> false);
+    }
+
+    private static Document doc(String kind, String id, String color) {
+        Document doc = new Document();
+        doc.add(new StringField(TextIndexer.FIELD_KIND, kind, Field.Store.YES));
+        doc.add(new StringField(TextIndexer.FIELD_ID, id, Field.Store.YES));
+        doc.add(new FacetField("color", color));
+        return doc;
+    }
+
+    private static int count(TextIndexer indexer, String kind) throws Exception {
+        indexer.waitForGeneration(indexer.currentGeneration());
+        return indexer.withSearcher(s -> s.search(new TermQuery(new Term(TextIndexer.FIELD_KIND, kind)), 1).totalHits);
+    }
+
+    private static int facetCount(TextIndexer indexer, String color) throws Exception {
+        indexer.waitForGeneration(indexer.currentGeneration());
+        return indexer.withSearcherAndTaxonomy((s, taxon) -> {
+            FacetsCollector fc = new FacetsCollector();
+            FacetsCollector.search(s, new MatchAllDocsQuery(), 10, fc);
+            Facets facets = new FastTaxonomyFacetCounts(taxon, new FacetsConfig(), fc);
+            Number n = facets.getSpecificValue("color", color);
+            return n == null ? 0 : n.intValue();
+        });
+    }
+
+    @Test
+    public void shadowCommitKeepsKindsThatWereNotReindexed() throws Exception {
+        indexer = open(baseDir);
+        indexer.addDoc(doc("A", "1", "red"));
+        indexer.addDoc(doc("B", "2", "blue"));
+        indexer.addDoc(doc("B", "3", "blue"));
+
+        indexer.beginShadowReindex(Collections.singleton("A"));
+        //searches still see the live index until the commit
+        assertEquals(1, count(indexer, "A"));
+        assertEquals(2, count(indexer, "B"));
+
+        TextIndexer shadow = indexer.getShadowIndexer();
+        assertNotNull(shadow);
+        shadow.addDoc(doc("A", "4", "green"));
+        shadow.addDoc(doc("A", "5", "green"));
+        indexer.commitShadowReindex();
+
+        assertEquals(2, count(indexer, "A"));
+        assertEquals(2, count(indexer, "B"));
+        assertEquals(2, facetCount(indexer, "blue"));
+        assertEquals(2, facetCount(indexer, "green"));
+        assertEquals(0, facetCount(indexer, "red"));
+    }
+
+    @Test
+    public void liveChangesWhileSeedingAreNotLost() throws Exception {
+        indexer = open(baseDir);
+        indexer.addDoc(doc("B", "1", "blue"));
+
+        indexer.beginShadowReindex(Collections.singleton("A"));
+        indexer.addDoc(doc("B", "2", "blue"));
+        indexer.commitShadowReindex();
+
+        assertEquals(2, count(indexer, "B"));
+    }
+
+    @Test
+    public void liveChangesFromAnotherThreadWhileSeedingAreReplayed() throws Exception {
+        CountDownLatch seeding = new CountDownLatch(1);
+        CountDownLatch changed = new CountDownLatch(1);
+        //holds up copying the live generation into the shadow one until the live changes are made
+        IndexerServiceFactory slowSeeding = new IndexerServiceFactory() {
+            @Override
+            public IndexerService createInMemory() throws IOException {
+                return new Lucene4IndexService();
+            }
+
+            @Override
+            public IndexerService createForDir(File dir) throws IOException {
+                return new Lucene4IndexService(dir) {
+                    @Override
+                    public void addIndexes(IndexReader... readers) throws IOException {
+                        seeding.countDown();
+                        try {
+                            changed.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        super.addIndexes(readers);
+                    }
+                };
+            }
+        };
+        TextIndexerConfig config = new TextIndexerConfig();
+        config.setShadowReindex(true);
+        indexer = new TextIndexer(baseDir, slowSeeding, slowSeeding.createForDir(baseDir), config, null, null, ew -> false);
+        indexer.addDoc(doc("A", "1", "red"));
+        indexer.addDoc(doc("B", "2", "blue"));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> begin = executor.submit(() -> indexer.beginShadowReindex(Collections.singleton("A")));
+            assertTrue(seeding.await(10, TimeUnit.SECONDS));
+            //a kind that is reindexed, seeding would delete it if it went in right away
+            indexer.addDoc(doc("A", "3", "green"));
+            indexer.addDocs(Arrays.asList(doc("B", "4", "blue"), doc("B", "5", "blue")));
+            changed.countDown();
+            begin.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        indexer.commitShadowReindex();
+
+        assertEquals(1, count(indexer, "A"));
+        assertEquals(3, count(indexer, "B"));
+        assertEquals(1, facetCount(indexer, "green"));
+        assertEquals(0, facetCount(indexer, "red"));
+    }
+
+    @Test
+    public void completedShadowIsPromotedOnStartup() throws Exception {
+        File shadowDir = new File(baseDir, TextIndexer.SHADOW_DIR);
+        TextIndexer generation = open(shadowDir);
+        generation.addDoc(doc("B", "1", "blue"));
+        generation.shutdown();
+        Files.createFile(new File(shadowDir, TextIndexer.SHADOW_COMPLETE_MARKER).toPath());
+
+        indexer = open(baseDir);
+        assertFalse(shadowDir.exists());
+        assertEquals(1, count(indexer, "B"));
+        assertEquals(1, facetCount(indexer, "blue"));
+    }
+
+    @Test
+    public void unfinishedShadowIsDroppedOnStartup() throws Exception {
+        TextIndexer live = open(baseDir);
+        live.addDoc(doc("A", "1", "red"));
+        live.shutdown();
+
+        File shadowDir = new File(baseDir, TextIndexer.SHADOW_DIR);
+        TextIndexer generation = open(shadowDir);
+        generation.addDoc(doc("B", "2", "blue"));
+        generation.shutdown();
+
+        indexer = open(baseDir);
+        assertFalse(shadowDir.exists());
+        assertEquals(1, count(indexer, "A"));
+        assertEquals(0, count(indexer, "B"));
+    }
+}
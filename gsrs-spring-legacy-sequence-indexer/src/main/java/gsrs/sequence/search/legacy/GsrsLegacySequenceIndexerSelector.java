@@ -1,6 +1,7 @@
 package gsrs.sequence.search.legacy;
 
 
+import gsrs.indexer.IndexEventDispatcher;
 import gsrs.sequence.indexer.SubunitIndexerEventFactory;
 import ix.seqaln.SequenceIndexerEventListener;
 import ix.seqaln.configuration.LegacySequenceAlignmentConfiguration;
@@ -15,6 +16,8 @@ public class GsrsLegacySequenceIndexerSelector implements ImportSelector {
                 SubunitIndexerEventFactory.class.getName(),
                 LegacySequenceAlignmentConfiguration.class.getName(),
                 LegacySequenceIndexerService.class.getName(),
-                SequenceIndexerEventListener.class.getName()};
+                SequenceIndexerEventListener.class.getName(),
+                //the listener only gets its events through the dispatcher
+                IndexEventDispatcher.class.getName()};
     }
 }
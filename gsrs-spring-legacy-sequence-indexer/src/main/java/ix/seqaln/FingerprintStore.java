@@ -0,0 +1,502 @@
+package ix.seqaln;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A resident copy of the k-mer fingerprints of every indexed sequence
+ * so similarity searches don't have to load and decode stored fields for every
+ * candidate on every query.
+ * <p>
+ * The fingerprints are kept sparse in a few big primitive arrays:
+ * each non-zero fingerprint slot is a {@code short} slot index and
+ * a {@code char} (unsigned 16 bit) count, counts that don't fit
+ * are kept in a small overflow map.  Sequences are scanned in order of length
+ * so the length bounds of a search are a binary search instead of
+ * a range query.
+ * </p>
+ * <p>
+ * Removed sequences are only marked as deleted and the arrays
+ * are compacted once enough of them pile up.
+ * </p>
+ */
+@Slf4j
+class FingerprintStore {
+
+    private static final char OVERFLOW = Character.MAX_VALUE;
+    private static final int MAX_TAGS = Long.SIZE;
+    //set for sequences with a tag that didn't get a bit of its own, those are in overflowTags
+    private static final int OVERFLOW_TAG_BIT = MAX_TAGS - 1;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    //per sequence
+    private String[] ids = new String[1024];
+    private int[] lengths = new int[1024];
+    private long[] tagMasks = new long[1024];
+    private int[] firstFingerprint = new int[1024];
+    private byte[] fingerprintCount = new byte[1024];
+    private boolean[] deleted = new boolean[1024];
+    private int size;
+    private int deletedCount;
+
+    //per fingerprint, fingerprint f is slots/counts [fingerprintStart[f], fingerprintStart[f+1])
+    private int[] fingerprintStart = new int[4096];
+    private int fingerprints;
+
+    //per non-zero slot
+    private short[] slots = new short[65536];
+    private char[] counts = new char[65536];
+    private int nonZero;
+    private Map<Integer, Integer> overflowCounts = new HashMap<>();
+
+    private final Map<String, List<Integer>> byId = new HashMap<>();
+    private final Map<String, Integer> tagBits = new ConcurrentHashMap<>();
+    private Map<Integer, List<String>> overflowTags = new HashMap<>();
+
+    private int[] byLength = new int[0];
+    private boolean byLengthDirty;
+
+    /**
+     * The fingerprints of a query sequence and the
+     * cutoffs a stored sequence has to be within to be a candidate.
+     */
+    static class Query {
+        final int[][] fingerprints;
+        final int[] totals;
+        final int maxDistance;
+        final int queryLength;
+        final boolean sub;
+
+        Query(SequenceIndexer.KmerFingerprintWrapper query, int K, int maxDistance, boolean sub) {
+            fingerprints = new int[K][];
+            totals = new int[K];
+            for (int k = 1; k <= K; k++) {
+                int[] fp = query.kmap.get(k).getCounts();
+                fingerprints[k - 1] = fp;
+                int total = 0;
+                for (int v : fp) {
+                    total += v;
+                }
+                totals[k - 1] = total;
+            }
+            this.maxDistance = maxDistance;
+            this.queryLength = query.length;
+            this.sub = sub;
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the non-zero slots of the k-th fingerprint of a sequence.
+     */
+    @FunctionalInterface
+    interface FingerprintReader {
+        void read(int k, Kmers.HoloFingerprint.SlotVisitor visitor);
+    }
+
+    public void add(String id, int length, List<String> tags, SequenceIndexer.KmerFingerprintWrapper kwrap) {
+        add(id, length, tags, kwrap.kmap.size(), (k, visitor) -> {
+            Kmers.HoloFingerprint fp = kwrap.kmap.get(k);
+            if (fp == null) {
+                return;
+            }
+            int[] counts = fp.getCounts();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    visitor.visit(i, counts[i]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Add a sequence reading its fingerprints straight into the store,
+     * for example from their stored encoding, without making dense arrays.
+     */
+    public void add(String id, int length, List<String> tags, int K, FingerprintReader reader) {
+        lock.writeLock().lock();
+        try {
+            ensureSequenceCapacity(size + 1);
+            ensureFingerprintCapacity(fingerprints + K + 1);
+            int e = size++;
+            ids[e] = id;
+            lengths[e] = length;
+            tagMasks[e] = tagMask(tags);
+            if ((tagMasks[e] & 1L << OVERFLOW_TAG_BIT) != 0) {
+                overflowTags.put(e, withoutBit(tags));
+            }
+            firstFingerprint[e] = fingerprints;
+            fingerprintCount[e] = (byte) K;
+            deleted[e] = false;
+            for (int k = 1; k <= K; k++) {
+                reader.read(k, this::appendSlot);
+                fingerprints++;
+                fingerprintStart[fingerprints] = nonZero;
+            }
+            byId.computeIfAbsent(id, x -> new ArrayList<>(1)).add(e);
+            byLengthDirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String id) {
+        lock.writeLock().lock();
+        try {
+            List<Integer> entries = byId.remove(id);
+            if (entries == null) {
+                return;
+            }
+            for (int e : entries) {
+                deleted[e] = true;
+                deletedCount++;
+            }
+            byLengthDirty = true;
+            if (deletedCount > 1024 && deletedCount > size / 4) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            size = 0;
+            deletedCount = 0;
+            fingerprints = 0;
+            nonZero = 0;
+            fingerprintStart[0] = 0;
+            overflowCounts.clear();
+            overflowTags.clear();
+            byId.clear();
+            Arrays.fill(ids, null);
+            byLength = new int[0];
+            byLengthDirty = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Find the stored sequences whose length is within the given bounds,
+     * which have at least one of the given tags (if any), and whose fingerprints
+     * are close enough to the query for every k.  This is the same
+     * test {@link SequenceIndexer} used to do on decoded fingerprints.
+     * The scan is done in parallel and doesn't allocate anything per sequence.
+     *
+     * @return the id and fingerprint distance of every candidate.
+     */
+    public List<SequenceIndexer.StringAndDouble> findCandidates(int lowerBound, int upperBound, List<String> mustHaveAtLeastOneTag, Query query) {
+        long queryMask = 0;
+        for (String tag : mustHaveAtLeastOneTag) {
+            Integer bit = tagBits.get(tag);
+            if (bit != null) {
+                queryMask |= 1L << bit;
+            }
+        }
+        boolean anyTags = mustHaveAtLeastOneTag.isEmpty();
+        long requiredMask = queryMask;
+        //tags without a bit can only be matched against the overflow tags
+        List<String> queryOverflow = withoutBit(mustHaveAtLeastOneTag);
+
+        lock.readLock().lock();
+        try {
+            if (!anyTags && queryMask == 0 && overflowTags.isEmpty()) {
+                return Collections.emptyList();
+            }
+            if (byLengthDirty) {
+                lock.readLock().unlock();
+                lock.writeLock().lock();
+                try {
+                    if (byLengthDirty) {
+                        sortByLength();
+                    }
+                    //downgrade
+                    lock.readLock().lock();
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+            int[] sorted = byLength;
+            int from = firstWithLengthAtLeast(sorted, lowerBound);
+            int to = upperBound == Integer.MAX_VALUE ? sorted.length : firstWithLengthAtLeast(sorted, upperBound + 1);
+            if (from >= to) {
+                return Collections.emptyList();
+            }
+            return IntStream.range(from, to)
+                    .parallel()
+                    .map(i -> sorted[i])
+                    .filter(e -> anyTags || (tagMasks[e] & requiredMask) != 0
+                            || hasOverflowTag(e, queryOverflow))
+                    .mapToObj(e -> {
+                        int score = score(e, query);
+                        return score < 0 ? null : SequenceIndexer.StringAndDouble.from(ids[e], score);
+                    })
+                    .filter(sd -> sd != null)
+                    .collect(Collectors.toList());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the hamming distance for the last k the query shares a kmer with,
+     * or -1 if the sequence isn't a candidate.
+     */
+    private int score(int e, Query query) {
+        int K = query.fingerprints.length;
+        if (fingerprintCount[e] < K) {
+            return -1;
+        }
+        int d = lengths[e] - query.queryLength;
+        int fudge = (d >= 0 && query.sub) ? d : 0;
+        int score = -1;
+        for (int k = 1; k <= K; k++) {
+            int f = firstFingerprint[e] + k - 1;
+            int[] q = query.fingerprints[k - 1];
+            int maxKmerDistance = query.maxDistance * k;
+            int maxMore = maxKmerDistance + fudge;
+            int more = 0;
+            int shared = 0;
+            for (int j = fingerprintStart[f], end = fingerprintStart[f + 1]; j < end; j++) {
+                int t = counts[j];
+                if (t == OVERFLOW) {
+                    t = overflowCounts.get(j);
+                }
+                int qv = q[slots[j]];
+                if (t > qv) {
+                    more += t - qv;
+                    if (more > maxMore) {
+                        //can't be a candidate, no need to look at the rest
+                        return -1;
+                    }
+                    shared += qv;
+                } else {
+                    shared += t;
+                }
+            }
+            //every query kmer that isn't shared is one this sequence has less of
+            int less = query.totals[k - 1] - shared;
+            if (less <= maxKmerDistance) {
+                //must have at least one kmer in agreement
+                if (shared > 0) {
+                    score = more + less;
+                }
+            } else {
+                return -1;
+            }
+        }
+        return score;
+    }
+
+    private void appendSlot(int slot, int count) {
+        if (count == 0) {
+            return;
+        }
+        ensureNonZeroCapacity(nonZero + 1);
+        slots[nonZero] = (short) slot;
+        if (count >= OVERFLOW) {
+            counts[nonZero] = OVERFLOW;
+            overflowCounts.put(nonZero, count);
+        } else {
+            counts[nonZero] = (char) count;
+        }
+        nonZero++;
+    }
+
+    /**
+     * Whether sequence e has one of the given tags that didn't get a bit.
+     */
+    private boolean hasOverflowTag(int e, List<String> queryOverflow) {
+        if (queryOverflow.isEmpty() || (tagMasks[e] & 1L << OVERFLOW_TAG_BIT) == 0) {
+            return false;
+        }
+        List<String> tags = overflowTags.get(e);
+        if (tags == null) {
+            return false;
+        }
+        for (String tag : queryOverflow) {
+            if (tags.contains(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<String> withoutBit(List<String> tags) {
+        List<String> list = new ArrayList<>(0);
+        for (String tag : tags) {
+            if (!tagBits.containsKey(tag)) {
+                list.add(tag);
+            }
+        }
+        return list;
+    }
+
+    private long tagMask(List<String> tags) {
+        long mask = 0;
+        for (String tag : tags) {
+            Integer bit = tagBits.get(tag);
+            if (bit == null) {
+                if (tagBits.size() >= OVERFLOW_TAG_BIT) {
+                    if (overflowTags.isEmpty()) {
+                        log.warn("more than " + OVERFLOW_TAG_BIT + " distinct sequence tags, tag " + tag
+                                + " and later ones are matched by name which is slower");
+                    }
+                    bit = OVERFLOW_TAG_BIT;
+                } else {
+                    bit = tagBits.size();
+                    tagBits.put(tag, bit);
+                }
+            }
+            mask |= 1L << bit;
+        }
+        return mask;
+    }
+
+    private void sortByLength() {
+        int live = size - deletedCount;
+        int[] sorted = new int[live];
+        int n = 0;
+        for (int e = 0; e < size; e++) {
+            if (!deleted[e]) {
+                sorted[n++] = e;
+            }
+        }
+        //sort ordinals by length without boxing: pack length and ordinal into a long
+        long[] keys = new long[live];
+        for (int i = 0; i < live; i++) {
+            keys[i] = ((long) lengths[sorted[i]] << 32) | sorted[i];
+        }
+        Arrays.parallelSort(keys);
+        for (int i = 0; i < live; i++) {
+            sorted[i] = (int) keys[i];
+        }
+        byLength = sorted;
+        byLengthDirty = false;
+    }
+
+    private int firstWithLengthAtLeast(int[] sorted, int length) {
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (lengths[sorted[mid]] < length) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Copy only the live sequences into new arrays.
+     */
+    private void compact() {
+        FingerprintStore copy = new FingerprintStore();
+        copy.tagBits.putAll(tagBits);
+        for (int e = 0; e < size; e++) {
+            if (deleted[e]) {
+                continue;
+            }
+            copy.ensureSequenceCapacity(copy.size + 1);
+            copy.ensureFingerprintCapacity(copy.fingerprints + fingerprintCount[e] + 1);
+            int ce = copy.size++;
+            copy.ids[ce] = ids[e];
+            copy.lengths[ce] = lengths[e];
+            copy.tagMasks[ce] = tagMasks[e];
+            List<String> overflow = overflowTags.get(e);
+            if (overflow != null) {
+                copy.overflowTags.put(ce, overflow);
+            }
+            copy.firstFingerprint[ce] = copy.fingerprints;
+            copy.fingerprintCount[ce] = fingerprintCount[e];
+            for (int f = firstFingerprint[e], fend = f + fingerprintCount[e]; f < fend; f++) {
+                int start = fingerprintStart[f];
+                int len = fingerprintStart[f + 1] - start;
+                copy.ensureNonZeroCapacity(copy.nonZero + len);
+                System.arraycopy(slots, start, copy.slots, copy.nonZero, len);
+                System.arraycopy(counts, start, copy.counts, copy.nonZero, len);
+                for (int j = 0; j < len; j++) {
+                    if (counts[start + j] == OVERFLOW) {
+                        copy.overflowCounts.put(copy.nonZero + j, overflowCounts.get(start + j));
+                    }
+                }
+                copy.nonZero += len;
+                copy.fingerprints++;
+                copy.fingerprintStart[copy.fingerprints] = copy.nonZero;
+            }
+        }
+        ids = copy.ids;
+        lengths = copy.lengths;
+        tagMasks = copy.tagMasks;
+        firstFingerprint = copy.firstFingerprint;
+        fingerprintCount = copy.fingerprintCount;
+        deleted = copy.deleted;
+        size = copy.size;
+        deletedCount = 0;
+        fingerprintStart = copy.fingerprintStart;
+        fingerprints = copy.fingerprints;
+        slots = copy.slots;
+        counts = copy.counts;
+        nonZero = copy.nonZero;
+        overflowCounts = copy.overflowCounts;
+        overflowTags = copy.overflowTags;
+        byId.clear();
+        for (int e = 0; e < size; e++) {
+            byId.computeIfAbsent(ids[e], x -> new ArrayList<>(1)).add(e);
+        }
+        byLengthDirty = true;
+    }
+
+    private void ensureSequenceCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+        int newSize = Math.max(capacity, ids.length * 2);
+        ids = Arrays.copyOf(ids, newSize);
+        lengths = Arrays.copyOf(lengths, newSize);
+        tagMasks = Arrays.copyOf(tagMasks, newSize);
+        firstFingerprint = Arrays.copyOf(firstFingerprint, newSize);
+        fingerprintCount = Arrays.copyOf(fingerprintCount, newSize);
+        deleted = Arrays.copyOf(deleted, newSize);
+    }
+
+    private void ensureFingerprintCapacity(int capacity) {
+        if (capacity <= fingerprintStart.length) {
+            return;
+        }
+        fingerprintStart = Arrays.copyOf(fingerprintStart, Math.max(capacity, fingerprintStart.length * 2));
+    }
+
+    private void ensureNonZeroCapacity(int capacity) {
+        if (capacity <= slots.length) {
+            return;
+        }
+        int newSize = Math.max(capacity, slots.length * 2);
+        slots = Arrays.copyOf(slots, newSize);
+        counts = Arrays.copyOf(counts, newSize);
+    }
+}
@@ -3,7 +3,6 @@ package ix.seqaln;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.regex.Pattern;
 
 /**
  * A basic class for kmer
@@ -74,10 +73,38 @@ public class Kmers implements Comparator<String> {
 
     public static class HoloFingerprint{
         private final int[] fp;
-        private static final Pattern SEPARATOR = Pattern.compile("\\|");
+
+        /**
+         * First byte of the binary encoding, bump it if the format changes.
+         */
+        static final byte BINARY_VERSION = 1;
 
         private int maxValue=0;
 
+        /**
+         * Fingerprints with fewer non-zero slots than this are compared
+         * by walking their non-zero slots instead of all {@link #FP_SIZE} slots.
+         */
+        static final int SPARSE_CUTOFF = FP_SIZE/8;
+        /**
+         * Number of slots compared between early exit checks; small enough
+         * to stop early, big enough for the loop to be vectorized.
+         */
+        private static final int BLOCK_SIZE = 128;
+
+        //computed lazily, only used for the distance kernels
+        private volatile int[] nonZeroSlots;
+        private volatile int total=-1;
+
+        /**
+         * Gets every non-zero slot of an encoded fingerprint
+         * without decoding it into a dense array first.
+         */
+        @FunctionalInterface
+        interface SlotVisitor{
+            void visit(int slot, int count);
+        }
+
         public static HoloFingerprint createFrom(Kmers kmers){
             return new HoloFingerprint(kmers);
         }
@@ -95,26 +122,126 @@ public class Kmers implements Comparator<String> {
             return sb.substring(0, sb.length()-1);
         }
         public static HoloFingerprint decode(String fp){
-        	
-            String[] sarray = SEPARATOR.split(fp);
             int[] intArray = new int[FP_SIZE];
+            int[] maxValue = new int[1];
+            visitText(fp, (slot, count)->{
+                intArray[slot] = count;
+                if(count > maxValue[0]){
+                    maxValue[0] = count;
+                }
+            });
+            return new HoloFingerprint(intArray, maxValue[0]);
+        }
 
+        /**
+         * Walk the "slot:count|slot:count" text encoding
+         * without splitting it into Strings.
+         */
+        static void visitText(String fp, SlotVisitor visitor){
+            int len = fp.length();
+            int i=0;
+            while(i < len){
+                int slot=0;
+                char c;
+                while((c = fp.charAt(i)) != ':'){
+                    slot = slot*10 + (c - '0');
+                    i++;
+                }
+                i++;
+                int count=0;
+                while(i < len && (c = fp.charAt(i)) != '|'){
+                    count = count*10 + (c - '0');
+                    i++;
+                }
+                i++;
+                visitor.visit(slot, count);
+            }
+        }
 
+        /**
+         * Encode as a version byte, the number of non-zero slots
+         * and then each slot as the varint gap from the previous slot
+         * followed by the varint count.  A typical protein fingerprint
+         * is a quarter of the size of the text encoding.
+         */
+        public byte[] encodeBinary(){
+            int nonZero=0;
+            for(int v : fp){
+                if(v !=0){
+                    nonZero++;
+                }
+            }
+            //each slot gap and count is at most 5 bytes
+            byte[] buf = new byte[1 + 5 + nonZero*10];
+            buf[0] = BINARY_VERSION;
+            int pos = writeVInt(buf, 1, nonZero);
+            int previous=0;
+            for(int i=0;i<fp.length;i++){
+                int v = fp[i];
+                if(v !=0){
+                    pos = writeVInt(buf, pos, i - previous);
+                    pos = writeVInt(buf, pos, v);
+                    previous = i;
+                }
+            }
+            return Arrays.copyOf(buf, pos);
+        }
 
-            int maxValue=0;
-            for(int i=0; i<sarray.length; i++){
-                String v = sarray[i];
-                if(v.isEmpty())continue;
-                int index = v.indexOf(':');
-                int offset = Integer.parseInt(v.substring(0, index));
-                int value = Integer.parseInt(v.substring(index+1));
-                intArray[offset] =value;
-                if(value > maxValue){
-                    maxValue = value;
+        public static HoloFingerprint decodeBinary(byte[] bytes, int offset, int length){
+            int[] intArray = new int[FP_SIZE];
+            int[] maxValue = new int[1];
+            visitBinary(bytes, offset, length, (slot, count)->{
+                intArray[slot] = count;
+                if(count > maxValue[0]){
+                    maxValue[0] = count;
                 }
+            });
+            return new HoloFingerprint(intArray, maxValue[0]);
+        }
+
+        static void visitBinary(byte[] bytes, int offset, int length, SlotVisitor visitor){
+            if(length==0){
+                return;
+            }
+            if(bytes[offset] != BINARY_VERSION){
+                throw new IllegalArgumentException("unknown fingerprint encoding version " + bytes[offset]);
             }
-            return new HoloFingerprint(intArray, maxValue);
+            int[] pos = new int[]{offset+1};
+            int nonZero = readVInt(bytes, pos);
+            int slot=0;
+            for(int i=0;i<nonZero;i++){
+                slot += readVInt(bytes, pos);
+                visitor.visit(slot, readVInt(bytes, pos));
+            }
+        }
 
+        private static int writeVInt(byte[] buf, int pos, int value){
+            while((value & ~0x7F) !=0){
+                buf[pos++] = (byte)((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+            return pos;
+        }
+
+        private static int readVInt(byte[] buf, int[] pos){
+            int p = pos[0];
+            byte b = buf[p++];
+            int value = b & 0x7F;
+            for(int shift = 7; (b & 0x80) != 0; shift += 7){
+                b = buf[p++];
+                value |= (b & 0x7F) << shift;
+            }
+            pos[0] = p;
+            return value;
+        }
+
+        /**
+         * The count in each fingerprint slot.  This is the internal
+         * array, not a copy, so don't modify it.
+         */
+        int[] getCounts(){
+            return fp;
         }
 
         private HoloFingerprint(int[] fp, int maxValue){
@@ -140,6 +267,121 @@ public class Kmers implements Comparator<String> {
         }
 
 
+        private int[] nonZeroSlots(){
+            int[] nz = nonZeroSlots;
+            if(nz ==null){
+                int n=0;
+                for(int v : fp){
+                    if(v !=0){
+                        n++;
+                    }
+                }
+                nz = new int[n];
+                n=0;
+                for(int i=0;i<fp.length;i++){
+                    if(fp[i] !=0){
+                        nz[n++]=i;
+                    }
+                }
+                nonZeroSlots = nz;
+            }
+            return nz;
+        }
+
+        private int total(){
+            int t = total;
+            if(t <0){
+                t=0;
+                for(int v : fp){
+                    t+=v;
+                }
+                total = t;
+            }
+            return t;
+        }
+
+        /**
+         * Compute in one pass how much more this fingerprint has than the other
+         * ({@code result[0]}, the first value of {@link #hammingMoreAndLessDistanceTo(HoloFingerprint)}),
+         * how much less ({@code result[1]}) and the {@link #sharedCount(HoloFingerprint)} ({@code result[2]}).
+         * Gives up as soon as more or less is over its bound.
+         *
+         * @param other the fingerprint to compare to.
+         * @param maxMore the largest acceptable more distance.
+         * @param maxLess the largest acceptable less distance.
+         * @param result an array of at least 3 to put the distances in, so it can be reused.
+         * @return {@code true} if both distances are within their bounds, {@code false}
+         * if not in which case result might only be partly computed.
+         */
+        public boolean distanceWithin(HoloFingerprint other, int maxMore, int maxLess, int[] result){
+            int[] nz = nonZeroSlots();
+            if(nz.length < SPARSE_CUTOFF){
+                return sparseDistanceWithin(nz, other, maxMore, maxLess, result);
+            }
+            return denseDistanceWithin(fp, other.fp, maxMore, maxLess, result);
+        }
+
+        private boolean sparseDistanceWithin(int[] nz, HoloFingerprint other, int maxMore, int maxLess, int[] result){
+            int[] a = fp;
+            int[] b = other.fp;
+            int more=0;
+            int shared=0;
+            for(int j=0;j<nz.length;j++){
+                int i = nz[j];
+                int t = a[i];
+                int q = b[i];
+                if(t > q){
+                    more += t - q;
+                    if(more > maxMore){
+                        result[0] = more;
+                        return false;
+                    }
+                    shared += q;
+                }else{
+                    shared += t;
+                }
+            }
+            //anything in other that isn't shared is something this has less of
+            int less = other.total() - shared;
+            result[0] = more;
+            result[1] = less;
+            result[2] = shared;
+            return less <= maxLess;
+        }
+
+        /**
+         * Branch free inner loop over fixed size blocks so HotSpot
+         * can turn it into SIMD min/add reductions.  Only the shared
+         * count needs a min, more and less are what is left of each side's total
+         * once the shared kmers are taken out.
+         */
+        static boolean denseDistanceWithin(int[] a, int[] b, int maxMore, int maxLess, int[] result){
+            int totalA=0;
+            int totalB=0;
+            int shared=0;
+            int n = Math.min(a.length, b.length);
+            for(int start=0; start < n; start += BLOCK_SIZE){
+                int end = Math.min(start + BLOCK_SIZE, n);
+                for(int i=start;i<end;i++){
+                    int t = a[i];
+                    int q = b[i];
+                    totalA += t;
+                    totalB += q;
+                    shared += Math.min(t, q);
+                }
+                if(totalA - shared > maxMore || totalB - shared > maxLess){
+                    result[0] = totalA - shared;
+                    result[1] = totalB - shared;
+                    result[2] = shared;
+                    return false;
+                }
+            }
+            result[0] = totalA - shared;
+            result[1] = totalB - shared;
+            result[2] = shared;
+            return true;
+        }
+
         public int hammingDistanceTo(HoloFingerprint other){
         	int[] o=hammingMoreAndLessDistanceTo(other);
             return o[0]+o[1];
@@ -0,0 +1,196 @@
+package ix.seqaln;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Least recently used cache of sequence residues by id,
+ * bounded by the total number of residues instead of the number of sequences
+ * so a few huge sequences can't push out everything else.
+ * <p>
+ * Ids which are missed by several threads at once are only loaded
+ * once, the other threads wait for that load.  Loads that overlap
+ * an {@link #invalidate(String)} aren't cached so a removed sequence
+ * doesn't come back.
+ * </p>
+ */
+@Slf4j
+class SequenceCache {
+
+    /**
+     * Loads the sequences of the given ids, ids which aren't found
+     * are left out of the returned map.
+     */
+    @FunctionalInterface
+    interface Loader {
+        Map<String, String> load(Collection<String> ids) throws Exception;
+    }
+
+    //rough per entry cost of the map entry, key and String headers
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final LinkedHashMap<String, String> lru = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<String, CompletableFuture<String>> loading = new ConcurrentHashMap<>();
+
+    private volatile long maxWeight;
+    //guarded by lru, like the count of invalidations
+    private long weight;
+    private long invalidations;
+
+    SequenceCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    public void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        synchronized (lru) {
+            evict();
+        }
+    }
+
+    /**
+     * Get the sequences of all the given ids, loading the ones that aren't cached
+     * in a single call to the loader.  A failed load is logged and only leaves out
+     * the ids it was loading, everything else is still returned.
+     *
+     * @return a map of id to sequence, ids without a sequence are left out.
+     */
+    public Map<String, String> getAll(Collection<String> ids, Loader loader) {
+        Map<String, String> found = new HashMap<>(ids.size() * 2);
+        Map<String, CompletableFuture<String>> mine = new HashMap<>();
+        Map<String, CompletableFuture<String>> theirs = new HashMap<>();
+        synchronized (lru) {
+            for (String id : ids) {
+                String seq = lru.get(id);
+                if (seq != null) {
+                    found.put(id, seq);
+                }
+            }
+        }
+        for (String id : ids) {
+            if (found.containsKey(id) || mine.containsKey(id) || theirs.containsKey(id)) {
+                continue;
+            }
+            CompletableFuture<String> f = new CompletableFuture<>();
+            CompletableFuture<String> existing = loading.putIfAbsent(id, f);
+            if (existing == null) {
+                mine.put(id, f);
+            } else {
+                theirs.put(id, existing);
+            }
+        }
+        if (!mine.isEmpty()) {
+            long before;
+            synchronized (lru) {
+                before = invalidations;
+            }
+            try {
+                Map<String, String> loaded = loader.load(mine.keySet());
+                for (Map.Entry<String, CompletableFuture<String>> e : mine.entrySet()) {
+                    String seq = loaded.get(e.getKey());
+                    if (seq != null) {
+                        found.put(e.getKey(), seq);
+                        //only cached if nothing was removed since the load started
+                        putIfNotInvalidatedSince(before, e.getKey(), seq);
+                    }
+                    e.getValue().complete(seq);
+                }
+            } catch (Throwable t) {
+                for (CompletableFuture<String> f : mine.values()) {
+                    f.completeExceptionally(t);
+                }
+                if (t instanceof Error) {
+                    throw (Error) t;
+                }
+                log.warn("trouble loading " + mine.size() + " sequences", t);
+            } finally {
+                loading.keySet().removeAll(mine.keySet());
+            }
+        }
+        for (Map.Entry<String, CompletableFuture<String>> e : theirs.entrySet()) {
+            String seq;
+            try {
+                seq = e.getValue().join();
+            } catch (CompletionException | CancellationException ex) {
+                //the loading thread already logged it
+                log.debug("sequence " + e.getKey() + " could not be loaded", ex);
+                continue;
+            }
+            if (seq != null) {
+                found.put(e.getKey(), seq);
+            }
+        }
+        return found;
+    }
+
+    public void invalidate(String id) {
+        synchronized (lru) {
+            invalidations++;
+            String old = lru.remove(id);
+            if (old != null) {
+                weight -= weigh(id, old);
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (lru) {
+            invalidations++;
+            lru.clear();
+            weight = 0;
+        }
+    }
+
+    public long weight() {
+        synchronized (lru) {
+            return weight;
+        }
+    }
+
+    public int size() {
+        synchronized (lru) {
+            return lru.size();
+        }
+    }
+
+    private void putIfNotInvalidatedSince(long invalidationCount, String id, String seq) {
+        long w = weigh(id, seq);
+        if (w > maxWeight) {
+            return;
+        }
+        synchronized (lru) {
+            if (invalidations != invalidationCount) {
+                return;
+            }
+            String old = lru.put(id, seq);
+            if (old != null) {
+                weight -= weigh(id, old);
+            }
+            weight += w;
+            evict();
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, String>> iter = lru.entrySet().iterator();
+        while (weight > maxWeight && iter.hasNext()) {
+            Map.Entry<String, String> eldest = iter.next();
+            weight -= weigh(eldest.getKey(), eldest.getValue());
+            iter.remove();
+        }
+    }
+
+    private static long weigh(String id, String seq) {
+        //residues are ascii
+        return seq.length() + id.length() + ENTRY_OVERHEAD;
+    }
+}
@@ -1,29 +1,38 @@
 package ix.seqaln;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
-import gov.nih.ncats.common.util.CachedSupplier;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
-import net.sf.ehcache.CacheManager;
-import net.sf.ehcache.Ehcache;
-import net.sf.ehcache.Element;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.core.KeywordAnalyzer;
 import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.*;
 import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.NIOFSDirectory;
 import org.apache.lucene.store.NoLockFactory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
 import org.apache.lucene.util.Version;
 
 import org.jcvi.jillion.align.pairwise.PairwiseSequenceAlignment;
@@ -36,10 +45,15 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.apache.lucene.document.Field.Store.NO;
 import static org.apache.lucene.document.Field.Store.YES;
@@ -50,20 +64,32 @@ import static org.apache.lucene.document.Field.Store.YES;
  */
 @Slf4j
 public class SequenceIndexer {
-    static final String CACHE_NAME = SequenceIndexer.class.getName()+".Cache";
     static final Version LUCENE_VERSION = Version.LATEST;
 
-    CacheManager CACHE_MANAGER;
-
     static int DEFAULT_KMER_SIZE = 3;
 
+    static int DEFAULT_MAX_QUEUED_RESULTS = 1_000;
+    static long DEFAULT_ABANDON_AFTER_MILLIS = 5 * 60_000;
+
+    static long DEFAULT_COMMIT_INTERVAL_MILLIS = 10_000;
+    static int DEFAULT_MAX_UNCOMMITTED_DOCS = 5_000;
+
+    static long DEFAULT_SEQUENCE_CACHE_BYTES = 64L * 1024 * 1024;
 
+    //how many candidate sequences are loaded together for alignment
+    private static final int SEQUENCE_BATCH_SIZE = 64;
 
+    private static final Timer ADD_TIMER = Timer.builder("gsrs.sequenceindexer.add")
+            .description("Adding one sequence and its k-mers to the index")
+            .register(Metrics.globalRegistry);
+    private static final Timer COMMIT_TIMER = Timer.builder("gsrs.sequenceindexer.commit")
+            .description("Committing the sequence and k-mer indexes")
+            .register(Metrics.globalRegistry);
+    private static final Timer SEARCH_TIMER = Timer.builder("gsrs.sequenceindexer.search")
+            .description("Aligning a query against the index, until the last result is queued")
+            .register(Metrics.globalRegistry);
 
-    CachedSupplier<Ehcache> CACHE = CachedSupplier.of(()->{
-        CACHE_MANAGER = CacheManager.getInstance();
-        return CACHE_MANAGER.addCacheIfAbsent(CACHE_NAME);
-    });
+    private final SequenceCache sequenceCache = new SequenceCache(DEFAULT_SEQUENCE_CACHE_BYTES);
 
     public static enum CutoffType{
 //        LOCAL,
@@ -299,22 +325,50 @@ public class SequenceIndexer {
 
     static final Result POISON_RESULT = new Result ();
 
-    public static class ResultEnumeration implements Enumeration<Result> {
+    /**
+     * The results of a search, handed out as soon as each alignment
+     * passes the cutoff.  The search stops if the results are
+     * {@link #cancel() cancelled}, or closed, before they are all read,
+     * and waits for the reader if it falls too far behind.
+     */
+    public static class ResultEnumeration implements Enumeration<Result>, Closeable {
         final BlockingQueue<Result> queue;
+        private final long abandonAfterMillis;
         Result next;
+        private volatile boolean cancelled;
+        private volatile boolean finished;
+        private volatile long lastRead = System.currentTimeMillis();
+        private volatile Future<?> task;
 
         ResultEnumeration (BlockingQueue<Result> queue) {
+            this(queue, DEFAULT_ABANDON_AFTER_MILLIS);
+        }
+
+        ResultEnumeration (BlockingQueue<Result> queue, long abandonAfterMillis) {
             this.queue = queue;
+            this.abandonAfterMillis = abandonAfterMillis;
             if(queue==null){
                 next=POISON_RESULT;
-            }else{
-                next ();
             }
         }
 
         void next () {
             try {
-                next = queue.take();
+                //the end of the search doesn't need room in the queue,
+                //so poll rather than wait for the poison result forever
+                Result r = null;
+                while(r == null && !cancelled){
+                    lastRead = System.currentTimeMillis();
+                    r = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if(r == null && finished && queue.isEmpty()){
+                        r = POISON_RESULT;
+                    }
+                }
+                next = r == null ? POISON_RESULT : r;
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                next = POISON_RESULT; // terminate
             }
             catch (Exception ex) {
                 log.error(ex.getMessage(), ex);
@@ -323,6 +377,9 @@ public class SequenceIndexer {
         }           
 
         public boolean hasMoreElements () {
+            if(next == null){
+                next ();
+            }
             return next != POISON_RESULT;
         }
 
@@ -331,10 +388,63 @@ public class SequenceIndexer {
                 throw new NoSuchElementException();
             }
             Result current = next;
-            next ();
+            next = null;
             Collections.sort(current.alignments);
             return current;
         }
+
+        /**
+         * Stop the search, any results not read yet are dropped.
+         */
+        public void cancel () {
+            cancelled = true;
+            Future<?> f = task;
+            if(f !=null){
+                f.cancel(true);
+            }
+            if(queue !=null){
+                queue.clear();
+            }
+        }
+
+        public boolean isCancelled () {
+            return cancelled;
+        }
+
+        @Override
+        public void close () {
+            cancel();
+        }
+
+        /**
+         * Hand a result to the reader, waiting for room in the queue.
+         * If nobody asked for a result for {@code abandonAfterMillis}
+         * the enumeration is taken to be abandoned and the search is cancelled.
+         * @return {@code false} if the search was cancelled instead.
+         */
+        boolean emit (Result r) throws InterruptedException {
+            while(!cancelled){
+                if(queue.offer(r, 100, TimeUnit.MILLISECONDS)){
+                    return true;
+                }
+                if(System.currentTimeMillis() - lastRead > abandonAfterMillis){
+                    log.warn("sequence search results were not read for " + abandonAfterMillis
+                            + " ms, dropping the rest");
+                    cancelled = true;
+                    queue.clear();
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Tell the reader there are no more results, never waits.
+         */
+        void finish () {
+            finished = true;
+            //wakes up a waiting reader if there is room, otherwise it finds out once the queue is drained
+            queue.offer(POISON_RESULT);
+        }
     }
 
 
@@ -355,6 +465,13 @@ public class SequenceIndexer {
 
     private boolean useFingerprints=true;
 
+    /**
+     * Resident copy of all the fingerprints used to find candidates
+     * for GLOBAL and SUB searches; null if it couldn't be loaded
+     * in which case the fingerprints are read from the index.
+     */
+    private FingerprintStore fingerprintStore;
+
     private File baseDir;
     private Directory indexDir;
     private Directory kmerDir;    
@@ -371,6 +488,23 @@ public class SequenceIndexer {
 
     private AtomicLong lastModified = new AtomicLong (0);
 
+    /**
+     * Number of sequences added or removed since the last commit.
+     * Searches use near real time readers so they see changes
+     * before they are committed; commits only make them durable.
+     */
+    private AtomicLong uncommittedChanges = new AtomicLong (0);
+    private volatile long lastCommit = System.currentTimeMillis();
+    private int maxKmerCandidates = Integer.MAX_VALUE;
+    private ThreadPoolExecutor alignmentPool;
+    private int maxPendingAlignments;
+    private int maxQueuedResults = DEFAULT_MAX_QUEUED_RESULTS;
+    private long abandonAfterMillis = DEFAULT_ABANDON_AFTER_MILLIS;
+    private long commitIntervalMillis = DEFAULT_COMMIT_INTERVAL_MILLIS;
+    private int maxUncommittedDocs = DEFAULT_MAX_UNCOMMITTED_DOCS;
+    private ScheduledExecutorService commitScheduler;
+    private CommitDaemon commitDaemon;
+
     private int kmerSize = DEFAULT_KMER_SIZE;
 
     private int proteinKmer = DEFAULT_KMER_SIZE;
@@ -394,10 +528,37 @@ public class SequenceIndexer {
 
 
     private SequenceIndexer (File dir, boolean readOnly) throws IOException {
-        this (dir, readOnly, ForkJoinPool.commonPool());
+        this (dir, readOnly, createSearchPool());
         localThreadPool = true;
     }
 
+    /**
+     * The threads running searches, which mostly wait for alignments and for the
+     * reader of the results, so they are kept off the common pool.
+     */
+    private static ThreadPoolExecutor createSearchPool(){
+        AtomicInteger searchThreadCount = new AtomicInteger();
+        int threads = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r->{
+            Thread t = new Thread(r, "sequence-search-"+searchThreadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static void resize(ThreadPoolExecutor pool, int threads){
+        if(threads > pool.getMaximumPoolSize()){
+            pool.setMaximumPoolSize(threads);
+            pool.setCorePoolSize(threads);
+        }else{
+            pool.setCorePoolSize(threads);
+            pool.setMaximumPoolSize(threads);
+        }
+    }
+
     public SequenceIndexer (File dir, boolean readOnly,
             ExecutorService threadPool) throws IOException {
 
@@ -437,6 +598,233 @@ public class SequenceIndexer {
 
         this.baseDir = dir;
         this.threadPool = threadPool;
+
+        fingerprintStore = loadFingerprintStore();
+
+        AtomicInteger alignmentThreadCount = new AtomicInteger();
+        int threads = Runtime.getRuntime().availableProcessors();
+        alignmentPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r->{
+            Thread t = new Thread(r, "sequence-alignment-"+alignmentThreadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        alignmentPool.allowCoreThreadTimeOut(true);
+        maxPendingAlignments = threads * 4;
+
+        if (!readOnly) {
+            commitDaemon = new CommitDaemon();
+            commitScheduler = Executors.newSingleThreadScheduledExecutor(r->{
+                Thread t = new Thread(r, "sequence-indexer-commit");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduleCommitDaemon();
+        }
+    }
+
+    /**
+     * Commits pending changes in groups, either when
+     * the commit interval has passed or when enough
+     * changes have piled up, instead of on every add.
+     */
+    class CommitDaemon implements Runnable {
+        private ReentrantLock latch = new ReentrantLock();
+
+        public void run() {
+            if(!latch.tryLock()){
+                //someone else is committing
+                return;
+            }
+            try{
+                long pending = uncommittedChanges.get();
+                if(pending >0 && (pending >= maxUncommittedDocs
+                        || System.currentTimeMillis() - lastCommit >= commitIntervalMillis)){
+                    execute();
+                }
+            }catch(Throwable t){
+                log.warn("trouble committing sequence index", t);
+            }finally{
+                latch.unlock();
+            }
+        }
+
+        /**
+         * Commit without looking at the commit policy.
+         */
+        void execute() throws IOException {
+            latch.lock();
+            try {
+                long pending = uncommittedChanges.getAndSet(0);
+                Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+                try {
+                    indexWriter.commit();
+                    kmerWriter.commit();
+                    sample.stop(COMMIT_TIMER);
+                }catch(IOException e){
+                    //try again next time
+                    uncommittedChanges.addAndGet(pending);
+                    throw e;
+                }
+                lastCommit = System.currentTimeMillis();
+            }finally{
+                latch.unlock();
+            }
+        }
+    }
+
+    private void scheduleCommitDaemon(){
+        //check more often than the interval so a commit is never much later than asked for
+        long period = Math.max(1, Math.min(commitIntervalMillis, 1_000));
+        commitScheduler.scheduleWithFixedDelay(commitDaemon, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Read the fingerprints of every sequence in the index into a new {@link FingerprintStore}.
+     * The tags aren't stored so they are read from the postings.
+     */
+    private FingerprintStore loadFingerprintStore() {
+        FingerprintStore store = new FingerprintStore();
+        try {
+            seqSearchManager.maybeRefresh();
+            IndexSearcher searcher = seqSearchManager.acquire();
+            try {
+                for (AtomicReaderContext leaf : searcher.getIndexReader().leaves()) {
+                    AtomicReader reader = leaf.reader();
+                    Bits liveDocs = reader.getLiveDocs();
+                    Map<Integer, List<String>> tagsByDoc = new HashMap<>();
+                    Terms terms = reader.terms(FIELD_TAGS);
+                    if (terms != null) {
+                        TermsEnum termsEnum = terms.iterator(null);
+                        BytesRef term;
+                        while ((term = termsEnum.next()) != null) {
+                            String tag = term.utf8ToString();
+                            DocsEnum docs = termsEnum.docs(liveDocs, null, DocsEnum.FLAG_NONE);
+                            int doc;
+                            while ((doc = docs.nextDoc()) != DocsEnum.NO_MORE_DOCS) {
+                                tagsByDoc.computeIfAbsent(doc, d -> new ArrayList<>(2)).add(tag);
+                            }
+                        }
+                    }
+                    for (int doc = 0; doc < reader.maxDoc(); doc++) {
+                        if (liveDocs != null && !liveDocs.get(doc)) {
+                            continue;
+                        }
+                        Document d = reader.document(doc);
+                        String ks = d.get(FIELD_FP_K);
+                        if (ks == null) {
+                            continue;
+                        }
+                        int K = ks.split(",").length;
+                        store.add(d.get(FIELD_ID), Integer.parseInt(d.get(FIELD_LENGTH)),
+                                tagsByDoc.getOrDefault(doc, Collections.emptyList()), K,
+                                (k, visitor) -> visitStoredFingerprint(d.getField(FIELD_FP + "_" + k), visitor));
+                    }
+                }
+            } finally {
+                seqSearchManager.release(searcher);
+            }
+            log.info("loaded " + store.size() + " sequence fingerprints");
+            return store;
+        } catch (Exception e) {
+            log.warn("could not load sequence fingerprints, they will be read from the index instead", e);
+            return null;
+        }
+    }
+
+    /**
+     * Fingerprints used to be stored as text and are now stored in
+     * the binary encoding, read whichever one this index has.
+     */
+    static Kmers.HoloFingerprint readStoredFingerprint(IndexableField field) {
+        BytesRef bytes = field.binaryValue();
+        if (bytes != null) {
+            return Kmers.HoloFingerprint.decodeBinary(bytes.bytes, bytes.offset, bytes.length);
+        }
+        return Kmers.HoloFingerprint.decode(field.stringValue());
+    }
+
+    static void visitStoredFingerprint(IndexableField field, Kmers.HoloFingerprint.SlotVisitor visitor) {
+        if (field == null) {
+            return;
+        }
+        BytesRef bytes = field.binaryValue();
+        if (bytes != null) {
+            Kmers.HoloFingerprint.visitBinary(bytes.bytes, bytes.offset, bytes.length, visitor);
+        } else {
+            Kmers.HoloFingerprint.visitText(field.stringValue(), visitor);
+        }
+    }
+
+    /**
+     * Set how often added sequences are committed to disk.
+     * @param commitIntervalMillis the maximum time in milliseconds changes are left uncommitted.
+     * @param maxUncommittedDocs the number of changes which triggers a commit before the interval is up.
+     */
+    public void setGroupCommitPolicy(long commitIntervalMillis, int maxUncommittedDocs){
+        this.commitIntervalMillis = commitIntervalMillis;
+        this.maxUncommittedDocs = maxUncommittedDocs;
+    }
+
+    /**
+     * Set the most targets a kmer (non fingerprint) search aligns,
+     * the ones sharing the most kmers with the query are kept.
+     * @param maxKmerCandidates the cap, anything less than 1 means no cap.
+     */
+    public void setMaxKmerCandidates(int maxKmerCandidates){
+        this.maxKmerCandidates = maxKmerCandidates < 1 ? Integer.MAX_VALUE : maxKmerCandidates;
+    }
+
+    /**
+     * Set how many threads align search candidates, shared by all searches,
+     * and how far ahead of them each search may load candidate sequences.
+     * @param threads the number of alignment threads, anything less than 1 means one per processor.
+     * @param maxPendingAlignments the most candidates of a single search
+     * loaded or being aligned at once, anything less than 1 means 4 per thread.
+     * @param maxQueuedResults the most results a search keeps waiting to be read
+     * before it waits for the reader.
+     */
+    public void setAlignmentPolicy(int threads, int maxPendingAlignments, int maxQueuedResults){
+        int n = threads < 1 ? Runtime.getRuntime().availableProcessors() : threads;
+        resize(alignmentPool, n);
+        this.maxPendingAlignments = maxPendingAlignments < 1 ? n * 4 : maxPendingAlignments;
+        this.maxQueuedResults = Math.max(1, maxQueuedResults);
+    }
+
+    /**
+     * Set how many searches run at once and how long a search waits for its
+     * results to be read before it gives up.
+     * @param threads the number of searches running at once, anything less than 1 means one per processor.
+     * Ignored if the indexer was given its own executor.
+     * @param abandonAfterMillis how long the results may go unread while the queue is full,
+     * anything less than 1 means the default of 5 minutes.
+     */
+    public void setSearchPolicy(int threads, long abandonAfterMillis){
+        if(localThreadPool && threadPool instanceof ThreadPoolExecutor){
+            resize((ThreadPoolExecutor) threadPool, threads < 1 ? Runtime.getRuntime().availableProcessors() : threads);
+        }
+        this.abandonAfterMillis = abandonAfterMillis < 1 ? DEFAULT_ABANDON_AFTER_MILLIS : abandonAfterMillis;
+    }
+
+    /**
+     * Commit all pending changes now.
+     * @throws IOException if there is a problem writing to the index.
+     */
+    public void flush() throws IOException {
+        if(commitDaemon !=null){
+            commitDaemon.execute();
+        }
+    }
+
+    private void markChanged(long changes){
+        lastModified.set(System.currentTimeMillis());
+        if(uncommittedChanges.addAndGet(changes) >= maxUncommittedDocs && commitScheduler !=null){
+            try {
+                commitScheduler.execute(commitDaemon);
+            }catch(RejectedExecutionException e){
+                //shutting down, shutdown commits anyway
+            }
+        }
     }
 
     public int getKmerSize() {
@@ -484,6 +872,14 @@ public class SequenceIndexer {
     }
 
     public void shutdown () {
+        if (commitScheduler != null) {
+            commitScheduler.shutdownNow();
+            try {
+                flush();
+            }catch(Exception e){
+                log.warn("trouble committing sequence index on shutdown", e);
+            }
+        }
         closeAndIgnore(kmerSearchManager);
         closeAndIgnore(seqSearchManager);
 
@@ -499,6 +895,7 @@ public class SequenceIndexer {
         if (localThreadPool) {
             threadPool.shutdownNow();
         }
+        alignmentPool.shutdownNow();
 
 
     }
@@ -507,13 +904,21 @@ public class SequenceIndexer {
         Objects.requireNonNull(id);
         indexWriter.deleteDocuments(new Term (FIELD_ID, id));
         kmerWriter.deleteDocuments(new Term (FIELD_ID, id));
-        removeSeqFromCache(id);
+        sequenceCache.invalidate(id);
+        if (fingerprintStore != null) {
+            fingerprintStore.remove(id);
+        }
+        markChanged(1);
     }
 
     public void removeAll() throws IOException {
         indexWriter.deleteAll();
         kmerWriter.deleteAll();
-        CACHE.get().removeAll();
+        sequenceCache.invalidateAll();
+        if (fingerprintStore != null) {
+            fingerprintStore.clear();
+        }
+        markChanged(1);
     }
 
 
@@ -586,69 +991,139 @@ public class SequenceIndexer {
         }
         return DEFAULT_KMER_SIZE;
     }
+    /**
+     * A sequence to add with {@link #addAll(Stream)}.
+     */
+    public static class SequenceRecord {
+        public final String id;
+        public final String seq;
+        public final List<String> tags;
+
+        public SequenceRecord(String id, String seq, List<String> tags){
+            this.id = Objects.requireNonNull(id);
+            this.seq = Objects.requireNonNull(seq);
+            this.tags = tags==null? Collections.emptyList() : tags;
+        }
+
+        public static SequenceRecord protein(String id, String seq){
+            return new SequenceRecord(id, seq, PROTEIN_TAGS);
+        }
+        public static SequenceRecord nucleicAcid(String id, String seq){
+            return new SequenceRecord(id, seq, RNA_TAGS);
+        }
+    }
+
+    /**
+     * Add a single sequence.  Like {@link #addAll(Stream)} this
+     * does not commit, the change is visible to searches right away and
+     * is committed by the group commit daemon or {@link #flush()}.
+     */
     public void add (String id, String seq, List<String> tags) throws IOException {
         if (indexWriter == null)
             throw new RuntimeException ("Index is read-only!");
 
+        Timer.Sample sample = Timer.start(Metrics.globalRegistry);
         try {
-            Document doc = new Document ();
-            int myKmerSize = getKmerSizeFor(tags);
-            
-            KmerFingerprintWrapper kwrap = KmerFingerprintWrapper.create(id, seq, myKmerSize);
-            Kmers kmers = Kmers.create(seq, myKmerSize);
-            StringBuilder ks = new StringBuilder();
-            
-            for(int i=1;i<=myKmerSize;i++){
-            	if(i>1)ks.append(",");
-            	ks.append(i);
-            	doc.add(new StringField (FIELD_FP +"_" + i, kwrap.kmap.get(i).encode(),YES));	
-            }
-            doc.add(new StringField (FIELD_FP_K, ks.toString(),YES));
-            
+            addDocuments(id, seq, tags);
+        }
+        finally {
+            sample.stop(ADD_TIMER);
+            markChanged(1);
+        }
+    }
 
-            StringField idf = new StringField (FIELD_ID, id, YES);
+    /**
+     * Add many sequences, for example during a reindex.  The fingerprints
+     * and k-mers are computed in parallel if the stream is parallel
+     * and nothing is committed until the group commit daemon runs or
+     * {@link #flush()} is called.
+     * @param records the sequences to add.
+     * @return the number of sequences added.
+     * @throws IOException if there is a problem writing to the index.
+     */
+    public long addAll(Stream<SequenceRecord> records) throws IOException {
+        if (indexWriter == null)
+            throw new RuntimeException ("Index is read-only!");
+
+        AtomicLong count = new AtomicLong();
+        try {
+            records.forEach(r -> {
+                try {
+                    addDocuments(r.id, r.seq, r.tags);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                markChanged(1);
+                count.incrementAndGet();
+            });
+        }catch(UncheckedIOException e){
+            throw e.getCause();
+        }
+        return count.get();
+    }
 
+    private void addDocuments(String id, String seq, List<String> tags) throws IOException {
+        Document doc = new Document ();
+        int myKmerSize = getKmerSizeFor(tags);
 
-            doc.add(idf);
-            doc.add(new IntField (FIELD_LENGTH, seq.length(), YES));
-            doc.add(new StoredField (FIELD_SEQ, seq.toString())); //why toString?
-            
-            
-            
-           // doc.add(new StringField (FIELD_FP_1MER, onemers.holoFingerPrint().encode(),YES));
+        KmerFingerprintWrapper kwrap = KmerFingerprintWrapper.create(id, seq, myKmerSize);
+        Kmers kmers = Kmers.create(seq, myKmerSize);
+        StringBuilder ks = new StringBuilder();
+
+        for(int i=1;i<=myKmerSize;i++){
+            if(i>1)ks.append(",");
+            ks.append(i);
+            doc.add(new StoredField (FIELD_FP +"_" + i, kwrap.kmap.get(i).encodeBinary()));
+        }
+        doc.add(new StringField (FIELD_FP_K, ks.toString(),YES));
 
 
+        StringField idf = new StringField (FIELD_ID, id, YES);
+
+
+        doc.add(idf);
+        doc.add(new IntField (FIELD_LENGTH, seq.length(), YES));
+        doc.add(new StoredField (FIELD_SEQ, seq.toString())); //why toString?
+
+
+
+       // doc.add(new StringField (FIELD_FP_1MER, onemers.holoFingerPrint().encode(),YES));
+
+
+
+        for(String tag: tags){
+            doc.add(new StringField (FIELD_TAGS,tag,NO));
+        }
+        indexWriter.addDocument(doc);
+        // indexWriter.updateDocument(new Term (FIELD_ID, id), doc);
+        if (fingerprintStore != null) {
+            fingerprintStore.add(id, seq.length(), tags, kwrap);
+        }
 
+        //lets kmer searches get the id of a hit without loading the stored document
+        SortedDocValuesField idValue = new SortedDocValuesField (FIELD_ID, new BytesRef(id));
+        List<Document> kmerDocs = new ArrayList<>(kmers.kmers().size());
+        for (String kmer : kmers.kmers()) {
+            BitSet positions = kmers.positions(kmer);
+            StringField kmerf = new StringField (FIELD_KMER, kmer, YES);
+            Document doc2 = new Document ();
+            doc2.add(idf);
+            doc2.add(idValue);
+            doc2.add(kmerf);
             for(String tag: tags){
-                doc.add(new StringField (FIELD_TAGS,tag,NO));
+                doc2.add(new StringField (FIELD_TAGS,tag,NO));
             }
-            indexWriter.addDocument(doc);
-            // indexWriter.updateDocument(new Term (FIELD_ID, id), doc);
-
-
-            for (String kmer : kmers.kmers()) {
-                BitSet positions = kmers.positions(kmer);
-                StringField kmerf = new StringField (FIELD_KMER, kmer, YES);
-                Document doc2 = new Document ();
-                doc2.add(idf);
-                doc2.add(kmerf);
-                for(String tag: tags){
-                    doc2.add(new StringField (FIELD_TAGS,tag,NO));
-                }
-                for (int i = positions.nextSetBit(0);
-                        i>=0; i = positions.nextSetBit(i+1)) {
-                    doc2.add(new IntField (FIELD_POSITION, i, YES));
-                  
-                }
-                kmerWriter.addDocument(doc2);
+            //positions are only ever read back, never searched,
+            //so they are stored without the numeric trie terms of an IntField
+            for (int i = positions.nextSetBit(0);
+                    i>=0; i = positions.nextSetBit(i+1)) {
+                doc2.add(new StoredField (FIELD_POSITION, i));
+
             }
-           // allKmers.add(KmerTest.of(id,kmers));
-            indexWriter.commit();
-            kmerWriter.commit();
-        }
-        finally {
-            lastModified.set(System.currentTimeMillis());
+            kmerDocs.add(doc2);
         }
+        kmerWriter.addDocuments(kmerDocs);
+       // allKmers.add(KmerTest.of(id,kmers));
     }
 
 
@@ -664,30 +1139,27 @@ public class SequenceIndexer {
         if (getSize()<=0 || query == null || query.length() == 0) {
             return new ResultEnumeration(null);
         }
-        final BlockingQueue<Result> out = new LinkedBlockingQueue<Result>();
-        threadPool.submit(()->{
-            //TODO katzelda turn off stopwatch for now
-//            ix.core.util.StopWatch.timeElapsed(()->{
+        final ResultEnumeration out = new ResultEnumeration(new LinkedBlockingQueue<Result>(maxQueuedResults), abandonAfterMillis);
+        out.task = threadPool.submit(()->{
+                Timer.Sample sample = Timer.start(Metrics.globalRegistry);
                 try {
                     search (out, query, identity, gap, rt, seqType);
+                }catch (InterruptedException ex) {
+                    //cancelled
                 }catch (Exception ex) {
 
                     log.warn("trouble searching sequence", ex);
                 }finally{
-                    try {
-                        out.put(POISON_RESULT);// finish
-                    }catch (InterruptedException e) {
-                        log.error(e.getMessage(), e);
-                    } 
+                    sample.stop(SEARCH_TIMER);
+                    out.finish();
                 }
-//            });
 
         });
 
-        return new ResultEnumeration (out);
+        return out;
     }
 
-    protected void search (BlockingQueue<Result> results,
+    protected void search (ResultEnumeration results,
             String query, double identity, int gap,CutoffType rt, String seqType)
                     throws Exception {
 
@@ -758,7 +1230,7 @@ public class SequenceIndexer {
     
     
     protected void search (IndexSearcher kmerSearcher,
-            BlockingQueue<Result> results,
+            ResultEnumeration results,
             String query, double identityStart, int gap, CutoffType rt, String seqType)
                     throws Exception {
 
@@ -776,7 +1248,9 @@ public class SequenceIndexer {
 
         Kmers.HoloFingerprint fpkmer = kmers.holoFingerPrint();
 
-        Map<StringAndDouble, String> seqMap = new TreeMap<>();
+        //ids only, the sequences are loaded as they are aligned;
+        //closest fingerprints first so the best hits come out early
+        Collection<StringAndDouble> candidates = new TreeSet<>();
         
         
         List<String> tags= new ArrayList<>();
@@ -804,240 +1278,145 @@ public class SequenceIndexer {
         		}
         		
 
-        		List<KmerFingerprintWrapper> res = getFPSequencesWithBounds(lowerBoundLength,upperBoundLength,tags);
-        		for(KmerFingerprintWrapper tup: res){
-        			StringAndDouble score = null;
-        			int d=tup.length-query.length();
-        			int fudge=0;
-        			if(d>=0 && rt== CutoffType.SUB){
-        				fudge=d;
-        			}
-        			for(int i=1;i<=K;i++){
-        				Kmers.HoloFingerprint kqi=qwrap.kmap.get(i);
-                		int maxKmerDistance = maxDistance*(i);
-       				
-            			int[] hammingKd=tup.kmap.get(i).hammingMoreAndLessDistanceTo(kqi);
-            			if((hammingKd[0] <= maxKmerDistance + fudge && 
-            			    hammingKd[1] <= maxKmerDistance  )){
-            				//must have at least one kmer in agreement
-            				if(tup.kmap.get(i).sharedCount(kqi)>0){
-            					score = StringAndDouble.from(tup.id,hammingKd[0]+hammingKd[1]);
-            				}
-            			}else{
-            				score=null;
-            				break;
-            			}
+        		FingerprintStore store = fingerprintStore;
+        		if(store !=null){
+        			FingerprintStore.Query fpQuery = new FingerprintStore.Query(qwrap, K, maxDistance, rt== CutoffType.SUB);
+        			for(StringAndDouble score : store.findCandidates(lowerBoundLength, upperBoundLength, tags, fpQuery)){
+        				candidates.add(score);
         			}
-        			if(score!=null){
-        				seqMap.computeIfAbsent(score, k->getSeq(k.s));
+        		}else{
+        			List<KmerFingerprintWrapper> res = getFPSequencesWithBounds(lowerBoundLength,upperBoundLength,tags);
+        			int[] distances = new int[3];
+        			for(KmerFingerprintWrapper tup: res){
+        				StringAndDouble score = null;
+        				int d=tup.length-query.length();
+        				int fudge=0;
+        				if(d>=0 && rt== CutoffType.SUB){
+        					fudge=d;
+        				}
+        				for(int i=1;i<=K;i++){
+        					Kmers.HoloFingerprint kqi=qwrap.kmap.get(i);
+        					int maxKmerDistance = maxDistance*(i);
+
+        					if(tup.kmap.get(i).distanceWithin(kqi, maxKmerDistance + fudge, maxKmerDistance, distances)){
+        						//must have at least one kmer in agreement
+        						if(distances[2]>0){
+        							score = StringAndDouble.from(tup.id,distances[0]+distances[1]);
+        						}
+        					}else{
+        						score=null;
+        						break;
+        					}
+        				}
+        				if(score!=null){
+        					candidates.add(score);
+        				}
         			}
         		}
         }else{
 
-            int ndocs = Math.max(1, kmerSearcher.getIndexReader().numDocs());
         	//Use only for local alignment
-	        for (Map.Entry<String, BitSet> entry : kmers.positionEntrySet()) {
-	            if(Thread.currentThread().isInterrupted()){
-	                return;
-	            }
-	            String kmer = entry.getKey();
-	            TermQuery tq = new TermQuery (new Term (FIELD_KMER, kmer));
-	            Query fullQ=tq;
-            	
-            	if(!tags.isEmpty()){
-            		BooleanQuery bq=new BooleanQuery();
-            		bq.setMinimumNumberShouldMatch(1);
-            		for(String tag: tags){
-                		bq.add(new TermQuery (new Term (FIELD_TAGS, tag)),Occur.SHOULD);
-                	}
-            		BooleanQuery fq=new BooleanQuery();
-            		fq.add(fullQ,Occur.MUST);
-            		fq.add(bq,Occur.MUST);
-            		fullQ=fq;
-            	}
-	            
-	            TopDocs docs = kmerSearcher.search(fullQ, ndocs);
-		            //BitSet positions = entry.getValue();
-	
-	            for (int i = 0; i < docs.totalHits; ++i) {
-	                Document doc = kmerSearcher.doc(docs.scoreDocs[i].doc);
-	                final String id = doc.get(FIELD_ID);
-
-	                StringAndDouble sd = StringAndDouble.from(id, 0);
-		                seqMap.computeIfAbsent(sd, k->getSeq(k.s));
-		            }
-            }
+        	//already ranked by most shared kmers
+        	candidates = findKmerCandidates(kmerSearcher, kmers.kmers(), tags);
         }
 
         SequenceAlignmentHelper alignmentHelper = SequenceAlignmentHelper.createFor(seqType);
 
         ResidueSequence querySeq = alignmentHelper.toSequence(query);
         
-        Map<String,Result> _cachedResults = new ConcurrentHashMap<>();
+        //the same sequence can be indexed under several ids, only align it once
+        Map<String,CompletableFuture<Result>> _cachedResults = new ConcurrentHashMap<>();
         int qlength=query.length();
 
-        List<Result> alignedResults = seqMap.entrySet()
-                .parallelStream()
-                .filter(e->{
-                            if(rt!= CutoffType.GLOBAL){
-                                return true;
+        //at most this many candidates are loaded or being aligned at a time
+        //so huge candidate sets don't end up all in memory
+        int maxPending = maxPendingAlignments;
+        Semaphore inFlight = new Semaphore(maxPending);
+        //the pool threads are shared by every search, they leave the results here
+        //and this thread waits for the reader, never them
+        BlockingQueue<Result> aligned = new LinkedBlockingQueue<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        int batchSize = Math.min(SEQUENCE_BATCH_SIZE, maxPending);
+        Iterator<StringAndDouble> candidateIter = candidates.iterator();
+        while(candidateIter.hasNext()){
+            if(results.isCancelled() || Thread.currentThread().isInterrupted()){
+                return;
+            }
+            List<StringAndDouble> batch = new ArrayList<>(batchSize);
+            while(batch.size() < batchSize && candidateIter.hasNext()){
+                batch.add(candidateIter.next());
+            }
+            if(!acquireWhileEmitting(inFlight, batch.size(), aligned, results)){
+                return;
+            }
+            Map<String, String> seqs = getSeqs(batch.stream().map(c->c.s).collect(Collectors.toList()));
+            for(int i=0; i< batch.size(); i++){
+                StringAndDouble candidate = batch.get(i);
+                String tseq = seqs.get(candidate.s);
+                if(tseq == null){
+                    inFlight.release();
+                    continue;
+                }
+                try {
+                    alignmentPool.execute(() -> {
+                        try {
+                            if(results.isCancelled()){
+                                return;
+                            }
+                            if(rt== CutoffType.GLOBAL){
+                                //Don't bother doing the alignment if it's a global cutoff and the lengths
+                                //of the strings would make it impossible for there to be overlap
+                                int tlength= tseq.length();
+                                if(Math.min(qlength, tlength) < Math.max(qlength, tlength)*identity){
+                                    return;
+                                }
+                            }
+                            //this is a computationally intensive operation,
+                            //other candidates with the same sequence wait for it instead of blocking the map
+                            CompletableFuture<Result> mine = new CompletableFuture<>();
+                            CompletableFuture<Result> existing = _cachedResults.putIfAbsent(tseq, mine);
+                            Result cachedResult;
+                            if(existing == null){
+                                try {
+                                    cachedResult = align(candidate.s, tseq, query, querySeq, alignmentHelper, gap, rt, identity);
+                                }catch(Throwable t){
+                                    mine.completeExceptionally(t);
+                                    throw t;
+                                }
+                                mine.complete(cachedResult);
+                            }else{
+                                cachedResult = existing.join();
+                            }
+                            if(cachedResult.score>=identity){
+                                //we have to make a copy with the  correct ID of the substance we are aligning
+                                //but we can re-use the alignments
+                                aligned.add(cachedResult.copyWithNewId(candidate.s));
                             }
-                    //Don't bother doing the alignment if it's a global cutoff and the lengths
-                    //of the strings would make it impossible for there to be overlap
-                    int tlength= e.getValue().length();
-                    return Math.min(qlength, tlength) >= Math.max(qlength, tlength)*identity;
-                } )
-              .map(entry-> {
-
-                      String tseq = entry.getValue();
-                      //this is a computationally intensive operation
-                      //and concurrentHashMap will block
-
-                      Result cachedResult= _cachedResults.computeIfAbsent(tseq, k -> {
-                          Result r = new Result(entry.getKey().s, querySeq.toString(), tseq);
-                          r.setScore(-1, rt);
-                                  try {
-
-                                      ResidueSequence targetSeq;
-                                      try {
-                                          targetSeq = alignmentHelper.toSequence(entry.getValue());
-                                      } catch (Exception e) {
-                                          //prob a bad seq
-
-                                          log.warn("trouble performing alignment for sequence", e);
-                                          return r;
-                                      }
-                                      PairwiseSequenceAlignment alignment = alignmentHelper.align(querySeq, targetSeq, gap, rt);
-
-                                      
-                                      r.setScore(alignment.getPercentIdentity(), rt);
-
-                                      if (r.score >= identity) {
-
-                                          ResidueSequence gappedQuery = alignment.getGappedQueryAlignment();
-                                          ResidueSequence gappedSubject = alignment.getGappedSubjectAlignment();
-                                          BitSet qbits = new BitSet((int) querySeq.getLength());
-                                          BitSet tbits = new BitSet((int) targetSeq.getLength());
-
-                                          int qOffset = (int) alignment.getQueryRange().getBegin();
-                                          int tOffset = (int) alignment.getSubjectRange().getBegin();
-                                          Iterator<Residue> qIter = gappedQuery.iterator();
-                                          Iterator<Residue> sIter = gappedSubject.iterator();
-                                          int qGaps = 0, sGaps = 0;
-                                          int currentOffset = 0;
-                                          StringBuilder fullBuilder = new StringBuilder(4 * alignment.getAlignmentLength());
-
-                                          StringBuilder topBuilder = new StringBuilder(100);
-                                          StringBuilder middleBuilder = new StringBuilder(100);
-                                          StringBuilder bottomBuilder = new StringBuilder(100);
-
-                                          int len =query.length();
-                                          int matched = 0;
-
-                                          int count=0;
-                                          boolean hasDataOnCurrentLine=false;
-                                          if(qIter.hasNext()){
-                                              topBuilder.append(   String.format("Query  %5d  ",qOffset + currentOffset +1));
-                                              middleBuilder.append("              ");
-                                              bottomBuilder.append(String.format("Sbjct  %5d  ",tOffset + currentOffset +1));
-
-                                          }
-                                          while (qIter.hasNext()) {
-                                              hasDataOnCurrentLine = true;
-                                              Residue q = qIter.next();
-                                              Residue s = sIter.next();
-                                              if (q.isGap()) {
-                                                  qGaps++;
-                                                  if(matched>0){
-                                                	  len++;
-                                                  }
-                                                  middleBuilder.append(' ');
-                                              } else if (s.isGap()) {
-                                                  sGaps++;
-                                                  middleBuilder.append(' ');
-                                              } else if (q.equals(s)) {
-                                                  qbits.set(qOffset + currentOffset - qGaps);
-                                                  tbits.set(tOffset + currentOffset - sGaps);
-
-                                                  middleBuilder.append('|');
-                                                  matched++;
-                                              } else {
-                                                  middleBuilder.append(' ');
-                                              }
-                                              topBuilder.append(q.getCharacter());
-                                              bottomBuilder.append(s.getCharacter());
-                                              count++;
-                                              if(count % 80 ==0){
-                                                  topBuilder.append(   String.format("  %5d  \n",qOffset + currentOffset - qGaps +1));
-                                                  middleBuilder.append("\n");
-                                                  bottomBuilder.append(String.format("  %5d  \n",tOffset + currentOffset - sGaps +1));
-
-                                                  fullBuilder.append(topBuilder).append(middleBuilder).append(bottomBuilder);
-                                                  topBuilder.setLength(0);
-                                                  middleBuilder.setLength(0);
-                                                  bottomBuilder.setLength(0);
-                                                  //check for next line
-                                                  if(qIter.hasNext()){
-                                                      //more data
-                                                      topBuilder.append(   String.format("Query  %5d  ",qOffset + currentOffset -qGaps +2));
-                                                      middleBuilder.append("              ");
-                                                      bottomBuilder.append(String.format("Sbjct  %5d  ",tOffset + currentOffset -sGaps +2));
-                                                  }else{
-                                                      hasDataOnCurrentLine = false;
-                                                  }
-                                              }
-                                              currentOffset++;
-
-                                          }
-                                          if(hasDataOnCurrentLine){
-                                                //end of last line of something
-                                              //current offset is already at +1 so we don't need a +1 for the end of the line
-                                              topBuilder.append(   String.format("  %5d  \n",qOffset + currentOffset -qGaps));
-                                              middleBuilder.append("\n");
-                                              bottomBuilder.append(String.format("  %5d  \n",tOffset + currentOffset -sGaps));
-                                              fullBuilder.append(topBuilder).append(middleBuilder).append(bottomBuilder);
-                                          }
-
-
-
-
-                                          Alignment aln = new Alignment(null, query, entry.getValue(),
-
-                                                    fullBuilder.toString(),
-
-                                                  matched, matched / (double) query.length(),
-                                                  alignment.getPercentIdentity(),
-                                                  matched / (double) query.length(), qbits, tbits);
-
-
-                                          r.alignments.add(aln);
-                                          if (rt == CutoffType.SUB) {
-                                        	  double dd=matched / (double) len;
-                                        	  r.setScore(dd, rt);
-                                          }
-                                      }
-                                  } catch (Exception e) {
-
-                                      log.warn("trouble calculating alignment score", e);
-                                      r.setScore(-1, rt);
-
-                                  }
-                          return r;
-                              });
-                      //we have to make a copy with the  correct ID of the substance we are aligning
-                  //but we can re-use the alignments
-
-
-	              		return cachedResult.copyWithNewId(entry.getKey().s);
-
-                      }
-
-              )
-                      .filter(result -> result.score>=identity)
-
-                      .collect(Collectors.toList());
-        for(Result r : alignedResults) {
-            results.put(r);
+                        }catch(Throwable t){
+                            failure.compareAndSet(null, t);
+                        }finally{
+                            inFlight.release();
+                        }
+                    });
+                }catch(RejectedExecutionException e){
+                    //release this and the rest of the batch
+                    inFlight.release(batch.size() - i);
+                    throw e;
+                }
+            }
+        }
+        //wait for the last alignments to finish
+        if(!acquireWhileEmitting(inFlight, maxPending, aligned, results)){
+            return;
+        }
+        inFlight.release(maxPending);
+        for(Result r; (r = aligned.poll()) !=null; ){
+            if(!results.emit(r)){
+                return;
+            }
+        }
+        if(failure.get() !=null){
+            log.warn("trouble aligning sequence", failure.get());
         }
 
                   //Sub alignment score
@@ -1061,6 +1440,270 @@ public class SequenceIndexer {
 
     }
 
+    /**
+     * Align a single candidate against the query.
+     *
+     * @return the result, with a score of -1 if the alignment failed.
+     */
+    /**
+     * Wait for permits of the search, handing the results aligned in the meantime to the reader.
+     * @return {@code false} if the search was cancelled instead.
+     */
+    private static boolean acquireWhileEmitting(Semaphore inFlight, int permits,
+                                                BlockingQueue<Result> aligned, ResultEnumeration results) throws InterruptedException {
+        while(!inFlight.tryAcquire(permits)){
+            Result r = aligned.poll(50, TimeUnit.MILLISECONDS);
+            if(r !=null && !results.emit(r)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Result align(String id, String tseq, String query, ResidueSequence querySeq,
+                         SequenceAlignmentHelper alignmentHelper, int gap, CutoffType rt, double identity) {
+        Result r = new Result(id, querySeq.toString(), tseq);
+        r.setScore(-1, rt);
+        try {
+
+            ResidueSequence targetSeq;
+            try {
+                targetSeq = alignmentHelper.toSequence(tseq);
+            } catch (Exception e) {
+                //prob a bad seq
+
+                log.warn("trouble performing alignment for sequence", e);
+                return r;
+            }
+            PairwiseSequenceAlignment alignment = alignmentHelper.align(querySeq, targetSeq, gap, rt);
+
+
+            r.setScore(alignment.getPercentIdentity(), rt);
+
+            if (r.score >= identity) {
+
+                ResidueSequence gappedQuery = alignment.getGappedQueryAlignment();
+                ResidueSequence gappedSubject = alignment.getGappedSubjectAlignment();
+                BitSet qbits = new BitSet((int) querySeq.getLength());
+                BitSet tbits = new BitSet((int) targetSeq.getLength());
+
+                int qOffset = (int) alignment.getQueryRange().getBegin();
+                int tOffset = (int) alignment.getSubjectRange().getBegin();
+                Iterator<Residue> qIter = gappedQuery.iterator();
+                Iterator<Residue> sIter = gappedSubject.iterator();
+                int qGaps = 0, sGaps = 0;
+                int currentOffset = 0;
+                StringBuilder fullBuilder = new StringBuilder(4 * alignment.getAlignmentLength());
+
+                StringBuilder topBuilder = new StringBuilder(100);
+                StringBuilder middleBuilder = new StringBuilder(100);
+                StringBuilder bottomBuilder = new StringBuilder(100);
+
+                int len =query.length();
+                int matched = 0;
+
+                int count=0;
+                boolean hasDataOnCurrentLine=false;
+                if(qIter.hasNext()){
+                    topBuilder.append(   String.format("Query  %5d  ",qOffset + currentOffset +1));
+                    middleBuilder.append("              ");
+                    bottomBuilder.append(String.format("Sbjct  %5d  ",tOffset + currentOffset +1));
+
+                }
+                while (qIter.hasNext()) {
+                    hasDataOnCurrentLine = true;
+                    Residue q = qIter.next();
+                    Residue s = sIter.next();
+                    if (q.isGap()) {
+                        qGaps++;
+                        if(matched>0){
+                      	  len++;
+                        }
+                        middleBuilder.append(' ');
+                    } else if (s.isGap()) {
+                        sGaps++;
+                        middleBuilder.append(' ');
+                    } else if (q.equals(s)) {
+                        qbits.set(qOffset + currentOffset - qGaps);
+                        tbits.set(tOffset + currentOffset - sGaps);
+
+                        middleBuilder.append('|');
+                        matched++;
+                    } else {
+                        middleBuilder.append(' ');
+                    }
+                    topBuilder.append(q.getCharacter());
+                    bottomBuilder.append(s.getCharacter());
+                    count++;
+                    if(count % 80 ==0){
+                        topBuilder.append(   String.format("  %5d  \n",qOffset + currentOffset - qGaps +1));
+                        middleBuilder.append("\n");
+                        bottomBuilder.append(String.format("  %5d  \n",tOffset + currentOffset - sGaps +1));
+
+                        fullBuilder.append(topBuilder).append(middleBuilder).append(bottomBuilder);
+                        topBuilder.setLength(0);
+                        middleBuilder.setLength(0);
+                        bottomBuilder.setLength(0);
+                        //check for next line
+                        if(qIter.hasNext()){
+                            //more data
+                            topBuilder.append(   String.format("Query  %5d  ",qOffset + currentOffset -qGaps +2));
+                            middleBuilder.append("              ");
+                            bottomBuilder.append(String.format("Sbjct  %5d  ",tOffset + currentOffset -sGaps +2));
+                        }else{
+                            hasDataOnCurrentLine = false;
+                        }
+                    }
+                    currentOffset++;
+
+                }
+                if(hasDataOnCurrentLine){
+                      //end of last line of something
+                    //current offset is already at +1 so we don't need a +1 for the end of the line
+                    topBuilder.append(   String.format("  %5d  \n",qOffset + currentOffset -qGaps));
+                    middleBuilder.append("\n");
+                    bottomBuilder.append(String.format("  %5d  \n",tOffset + currentOffset -sGaps));
+                    fullBuilder.append(topBuilder).append(middleBuilder).append(bottomBuilder);
+                }
+
+
+
+
+                Alignment aln = new Alignment(null, query, tseq,
+
+                          fullBuilder.toString(),
+
+                        matched, matched / (double) query.length(),
+                        alignment.getPercentIdentity(),
+                        matched / (double) query.length(), qbits, tbits);
+
+
+                r.alignments.add(aln);
+                if (rt == CutoffType.SUB) {
+              	  double dd=matched / (double) len;
+              	  r.setScore(dd, rt);
+                }
+            }
+        } catch (Exception e) {
+
+            log.warn("trouble calculating alignment score", e);
+            r.setScore(-1, rt);
+
+        }
+        return r;
+    }
+
+
+    /**
+     * Find every sequence which shares at least one kmer with the query
+     * by walking the {@link #FIELD_KMER} postings of each segment once,
+     * counting the shared kmers per target as it goes instead of running a search
+     * and loading a stored document for every hit.
+     *
+     * @param kmerSearcher the searcher of the kmer index.
+     * @param queryKmers the distinct kmers of the query.
+     * @param mustHaveAtLeastOneTag only count targets with one of these tags, or any if empty.
+     * @return the id and number of shared kmers of each candidate, most shared first,
+     * capped at {@link #setMaxKmerCandidates(int)}.
+     * @throws IOException if there is a problem reading the index.
+     */
+    List<StringAndDouble> findKmerCandidates(IndexSearcher kmerSearcher, Collection<String> queryKmers,
+                                             List<String> mustHaveAtLeastOneTag) throws IOException {
+        //seeking in term order lets the terms enum move forward instead of starting over
+        List<BytesRef> sortedKmers = queryKmers.stream()
+                .sorted()
+                .map(BytesRef::new)
+                .collect(Collectors.toList());
+
+        Map<String, Integer> shared = new HashMap<>();
+        for (AtomicReaderContext ctx : kmerSearcher.getIndexReader().leaves()) {
+            AtomicReader reader = ctx.reader();
+            Terms terms = reader.terms(FIELD_KMER);
+            if (terms == null) {
+                continue;
+            }
+            Bits liveDocs = reader.getLiveDocs();
+            Bits accept = liveDocs;
+            if (!mustHaveAtLeastOneTag.isEmpty()) {
+                accept = tagFilter(reader, liveDocs, mustHaveAtLeastOneTag);
+                if (accept == null) {
+                    continue;
+                }
+            }
+            //older indexes don't have the id as doc values, those read the stored id
+            SortedDocValues idValues = reader.getSortedDocValues(FIELD_ID);
+            int[] countsByOrd = idValues == null ? null : new int[idValues.getValueCount()];
+            Map<Integer, Integer> countsByDoc = new HashMap<>();
+
+            TermsEnum termsEnum = terms.iterator(null);
+            DocsEnum docsEnum = null;
+            for (BytesRef kmer : sortedKmers) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return Collections.emptyList();
+                }
+                if (!termsEnum.seekExact(kmer)) {
+                    continue;
+                }
+                docsEnum = termsEnum.docs(accept, docsEnum, DocsEnum.FLAG_NONE);
+                for (int doc = docsEnum.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docsEnum.nextDoc()) {
+                    int ord = countsByOrd == null ? -1 : idValues.getOrd(doc);
+                    if (ord >= 0) {
+                        countsByOrd[ord]++;
+                    } else {
+                        countsByDoc.merge(doc, 1, Integer::sum);
+                    }
+                }
+            }
+            if (countsByOrd != null) {
+                for (int ord = 0; ord < countsByOrd.length; ord++) {
+                    if (countsByOrd[ord] > 0) {
+                        shared.merge(idValues.lookupOrd(ord).utf8ToString(), countsByOrd[ord], Integer::sum);
+                    }
+                }
+            }
+            Set<String> idOnly = Collections.singleton(FIELD_ID);
+            for (Map.Entry<Integer, Integer> e : countsByDoc.entrySet()) {
+                String id = reader.document(e.getKey(), idOnly).get(FIELD_ID);
+                if (id != null) {
+                    shared.merge(id, e.getValue(), Integer::sum);
+                }
+            }
+        }
+
+        return shared.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .limit(maxKmerCandidates)
+                .map(e -> StringAndDouble.from(e.getKey(), e.getValue()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return the live docs of the segment with at least one of the tags,
+     * or {@code null} if there are none.
+     */
+    private static Bits tagFilter(AtomicReader reader, Bits liveDocs, List<String> tags) throws IOException {
+        Terms tagTerms = reader.terms(FIELD_TAGS);
+        if (tagTerms == null) {
+            return null;
+        }
+        FixedBitSet bits = new FixedBitSet(reader.maxDoc());
+        boolean any = false;
+        TermsEnum tagsEnum = tagTerms.iterator(null);
+        DocsEnum docsEnum = null;
+        for (String tag : tags) {
+            if (!tagsEnum.seekExact(new BytesRef(tag))) {
+                continue;
+            }
+            docsEnum = tagsEnum.docs(liveDocs, docsEnum, DocsEnum.FLAG_NONE);
+            for (int doc = docsEnum.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docsEnum.nextDoc()) {
+                bits.set(doc);
+                any = true;
+            }
+        }
+        return any ? bits : null;
+    }
+
     /**
      * There might be additional bases that can be aligned
      * beyond the Segments that weren't included because they were at the edges
@@ -1125,59 +1768,74 @@ public class SequenceIndexer {
     }
 
     public String getSeq (final String id) {
-        try {
-            return
-                    getOrElse
-                    (getClass().getName()+"/"+FIELD_SEQ+"/"+id,
-                            ()->{
-                                seqSearchManager.maybeRefresh();
-                                IndexSearcher searcher = seqSearchManager.acquire();
-                                try {
-                                    TopDocs docs = searcher.search
-                                            (new TermQuery (new Term (FIELD_ID, id)), 1);
-                                    if (docs.totalHits > 0) {
-                                        Document d = searcher.doc
-                                                (docs.scoreDocs[0].doc);
-                                        return d.get(FIELD_SEQ);
-                                    }
-                                }finally {
-                                    seqSearchManager.release(searcher);
-                                }
-                                return null;
-                            });
-        }catch (Exception ex) {
-
-            log.warn("trouble fetching sequence by id", ex);
-        }
-        return null;
+        return getSeqs(Collections.singleton(id)).get(id);
     }
 
-    private void removeSeqFromCache(String id) {
-        removeFromCache(getClass().getName()+"/"+FIELD_SEQ+"/"+id);
-    }
-    private void removeFromCache(String key) {
-        CACHE.get().remove(key);
+    /**
+     * Get the sequences of several ids at once.  Ids that aren't cached
+     * are all looked up in a single pass over the index.
+     *
+     * @param ids the ids to look up.
+     * @return a map of id to sequence, ids which aren't in the index
+     * or couldn't be read are left out.
+     */
+    public Map<String, String> getSeqs (Collection<String> ids) {
+        return sequenceCache.getAll(ids, this::loadSeqs);
     }
-    
-    @SuppressWarnings("unchecked")
-    <T> T getOrElse (String key, Callable<T> generator)
-            throws Exception {
-        Object value = CACHE.get().get(key);
 
+    /**
+     * Set how much memory, roughly in bytes, cached sequences may use.
+     */
+    public void setSequenceCacheSize(long maxBytes) {
+        sequenceCache.setMaxWeight(maxBytes);
+    }
 
-        if (value == null) {
-            value = generator.call();
-            CACHE.get().put(new Element(key, value));
-
-        }else {
-            value = ((Element)value).getObjectValue();
+    /**
+     * Look up the ids segment by segment in term order,
+     * only loading the stored sequence of each match.
+     */
+    private Map<String, String> loadSeqs (Collection<String> ids) throws IOException {
+        List<BytesRef> sortedIds = ids.stream()
+                .sorted()
+                .map(BytesRef::new)
+                .collect(Collectors.toList());
+        Map<String, String> found = new HashMap<>(ids.size() * 2);
+        Set<String> seqOnly = Collections.singleton(FIELD_SEQ);
+
+        //blocking so a concurrent caller's refresh can't leave us
+        //with a searcher that doesn't see the sequence yet
+        seqSearchManager.maybeRefreshBlocking();
+        IndexSearcher searcher = seqSearchManager.acquire();
+        try {
+            for (AtomicReaderContext ctx : searcher.getIndexReader().leaves()) {
+                AtomicReader reader = ctx.reader();
+                Terms terms = reader.terms(FIELD_ID);
+                if (terms == null) {
+                    continue;
+                }
+                Bits liveDocs = reader.getLiveDocs();
+                TermsEnum termsEnum = terms.iterator(null);
+                DocsEnum docsEnum = null;
+                for (BytesRef id : sortedIds) {
+                    if (!termsEnum.seekExact(id)) {
+                        continue;
+                    }
+                    docsEnum = termsEnum.docs(liveDocs, docsEnum, DocsEnum.FLAG_NONE);
+                    int doc = docsEnum.nextDoc();
+                    if (doc != DocIdSetIterator.NO_MORE_DOCS) {
+                        String seq = reader.document(doc, seqOnly).get(FIELD_SEQ);
+                        if (seq != null) {
+                            found.put(id.utf8ToString(), seq);
+                        }
+                    }
+                }
+            }
+        }finally {
+            seqSearchManager.release(searcher);
         }
-
-        return (T)value;
+        return found;
     }
 
-
-
     public List<KmerFingerprintWrapper> getFPSequencesWithBounds(int lowerBound, int upperbound, List<String> mustHaveAtLeastOneTag) {
         try {
                                 seqSearchManager.maybeRefresh();
@@ -1228,8 +1886,7 @@ public class SequenceIndexer {
                                     	    	    return null;
                                                 }
                                     	    	for(String k:ks.split(",")){
-                                    	    		String fpenc=d.get(FIELD_FP + "_" + k);
-                                    	    		Kmers.HoloFingerprint fp=Kmers.HoloFingerprint.decode(fpenc);
+                                    	    		Kmers.HoloFingerprint fp=readStoredFingerprint(d.getField(FIELD_FP + "_" + k));
                                     	    		kwrap.addHolo(Integer.parseInt(k), fp);
                                     	    	}
                                     	    	
@@ -2,6 +2,7 @@ package ix.seqaln;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
@@ -19,16 +20,15 @@ import org.jcvi.jillion.core.residue.nt.Nucleotide;
 import org.jcvi.jillion.core.residue.nt.NucleotideSequence;
 import org.jcvi.jillion.fasta.*;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEvent;
 import org.springframework.context.event.EventListener;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.event.TransactionalEventListener;
 
 import gsrs.events.MaintenanceModeEvent;
 import gsrs.events.ReindexEntityEvent;
 import gsrs.indexer.IndexCreateEntityEvent;
-import gsrs.indexer.IndexRemoveEntityEvent;
-import gsrs.indexer.IndexUpdateEntityEvent;
+import gsrs.indexer.IndexEventDispatcher;
+import gsrs.indexer.IndexEventSink;
 import gsrs.springUtils.GsrsSpringUtils;
 import ix.core.models.SequenceEntity;
 import ix.core.util.EntityUtils;
@@ -42,10 +42,11 @@ import lombok.extern.slf4j.Slf4j;
  * entities whose {@link ix.core.models.Indexable} annotated fields
  * have {@link Indexable#sequence()} set to {@code true}
  * and entities who implements {@link SequenceFileSupport}.
+ * Created, updated and removed entities come from the {@link IndexEventDispatcher}.
  */
 @Component
 @Slf4j
-public class SequenceIndexerEventListener {
+public class SequenceIndexerEventListener implements IndexEventSink {
 
     private final SequenceIndexerService indexer;
 
@@ -70,6 +71,8 @@ public class SequenceIndexerEventListener {
             inMaintenanceMode.set(true);
         }else{
             inMaintenanceMode.set(false);
+            //reindexing doesn't commit every sequence so make sure it's all on disk
+            indexer.flush();
         }
     }
 
@@ -86,42 +89,43 @@ public class SequenceIndexerEventListener {
         }
     }
 
-    @Async
-    @TransactionalEventListener
-    public void onCreate(IndexCreateEntityEvent event) {
-
-        if(event instanceof SequenceEntityIndexCreateEvent){
-            indexSequencesFor(event.getSource(), ((SequenceEntityIndexCreateEvent)event).getSequenceType());
-        }else {
-            indexSequencesFor(event.getSource(), null);
-        }
+    @Override
+    public boolean accepts(EntityUtils.Key key) {
+        return key.getEntityInfo().couldHaveSequenceFields()
+                || SequenceFileSupport.class.isAssignableFrom(key.getEntityInfo().getEntityClass());
     }
 
-    private void indexSequencesFor(EntityUtils.Key source, SequenceEntity.SequenceType sequenceType) {
-        try {
-            //fetch might be an expensive operation so wrap it in a cachedSupplier
-            //since we might call this more than once now
-            CachedSupplier<Optional<EntityUtils.EntityWrapper<?>>> entitySupplier = CachedSupplier.of(source::fetch);
-
-            if(source.getEntityInfo().couldHaveSequenceFields()) {
-                Optional<EntityUtils.EntityWrapper<?>> opt =entitySupplier.get();
-                if(opt.isPresent()) {
-                    EntityUtils.EntityWrapper<?> ew = opt.get();
-                    if (ew.isEntity()){
-                        Optional<EntityUtils.Key> optKey = ew.getOptionalKey();
-                        if(optKey.isPresent()) {
-                            EntityUtils.Key k = ew.getKey();
-                            addSequenceFieldDataToIndex(ew, k, sequenceType);
-                        }
-
-                    }
+    @Override
+    public void index(EntityUtils.EntityWrapper<?> ew, List<ApplicationEvent> events, boolean replace) {
+        //the latest event that says what kind of sequence it is wins
+        SequenceEntity.SequenceType sequenceType = null;
+        boolean created = false;
+        for(ApplicationEvent event : events){
+            if(event instanceof SequenceEntityIndexCreateEvent && ((SequenceEntityIndexCreateEvent)event).getSequenceType() !=null){
+                sequenceType = ((SequenceEntityIndexCreateEvent)event).getSequenceType();
+            }else if(event instanceof SequenceEntityUpdateCreateEvent && ((SequenceEntityUpdateCreateEvent)event).getSequenceType() !=null){
+                sequenceType = ((SequenceEntityUpdateCreateEvent)event).getSequenceType();
+            }
+            created |= event instanceof IndexCreateEntityEvent;
+        }
+        if(ew.isEntity() && ew.hasKey() && ew.getKey().getEntityInfo().couldHaveSequenceFields()) {
+            EntityUtils.Key key = ew.getKey();
+            if(replace) {
+                Lock l = stripedLock.get(key);
+                l.lock();
+                try {
+                    removeFromIndex(ew, key);
+                    addSequenceFieldDataToIndex(ew, key, sequenceType);
+                }finally{
+                    l.unlock();
                 }
+            }else{
+                addSequenceFieldDataToIndex(ew, key, sequenceType);
             }
-            addSequenceFileDataToIndex(source, entitySupplier);
-
-        }catch(Exception e) {
-           log.warn("Trouble sequence indexing:" + source, e);
-            
+        }
+        //sequence files are only parsed when the entity is created
+        if(created && ew.hasKey()) {
+            addSequenceFileDataToIndex(ew.getKey(), CachedSupplier.of(() -> Optional.of(ew)));
         }
     }
 
@@ -244,10 +248,8 @@ public class SequenceIndexerEventListener {
         }
     }
 
-    @Async
-    @TransactionalEventListener
-    public void onRemove(IndexRemoveEntityEvent event){
-        EntityUtils.EntityWrapper ew = event.getSource();
+    @Override
+    public void remove(EntityUtils.EntityWrapper<?> ew) {
         if(ew.isEntity() && ew.hasKey()) {
             if(!ew.getKey().getEntityInfo().couldHaveSequenceFields()) {
                 return;
@@ -256,40 +258,6 @@ public class SequenceIndexerEventListener {
         }
     }
 
-    @Async
-    @TransactionalEventListener
-    public void onUpdate(IndexUpdateEntityEvent event){
-        if(event instanceof SequenceEntityUpdateCreateEvent)return;
-        if(!event.getSource().getEntityInfo().couldHaveSequenceFields()) {
-            return;
-        }
-        EntityUtils.EntityWrapper ew = event.getSource().fetch().get();
-        if(ew.isEntity() && ew.hasKey()) {
-            EntityUtils.Key key = ew.getKey();
-            Lock l = stripedLock.get(ew.getKey());
-            l.lock();
-            try {
-                removeFromIndex(ew, key);
-                addSequenceFieldDataToIndex(ew, key, null);
-            }finally{
-                l.unlock();
-            }
-        }
-    }
-    @Async
-    @TransactionalEventListener
-    public void onUpdate(SequenceEntityUpdateCreateEvent event){
-        if(!event.getSource().getEntityInfo().couldHaveSequenceFields()) {
-            return;
-        }
-        EntityUtils.EntityWrapper ew = event.getSource().fetch().get();
-        if(ew.isEntity() && ew.hasKey()) {
-            EntityUtils.Key key = ew.getKey();
-            removeFromIndex(ew, key);
-            addSequenceFieldDataToIndex(ew, key, event.getSequenceType());
-        }
-    }
-
     private void removeFromIndex(EntityUtils.EntityWrapper ew, EntityUtils.Key key) {
         Lock l = stripedLock.get(key);
         l.lock();
@@ -12,6 +12,34 @@ public class LegacySequenceAlignmentConfiguration {
     private int nuc=3;
     private int prot = 3;
 
+    private Commit commit = new Commit();
+    private Search search = new Search();
+    //the most bytes of decoded candidate sequences kept between searches
+    private long sequenceCacheMaxBytes = 64L*1024*1024;
+
+    @Data
+    public static class Commit{
+        //the longest added sequences are left uncommitted
+        private long intervalMillis = 10_000;
+        //the number of changes which triggers a commit before the interval is up
+        private int maxDocs = 5_000;
+    }
+
+    @Data
+    public static class Search{
+        //the most targets a kmer search aligns, 0 for no cap
+        private int maxKmerCandidates = 0;
+        //searches running at once, 0 for one per processor
+        private int threads = 0;
+        //threads aligning candidates for all searches, 0 for one per processor
+        private int alignmentThreads = 0;
+        //candidates of one search loaded or being aligned at once, 0 for 4 per alignment thread
+        private int maxPendingAlignments = 0;
+        private int maxQueuedResults = 1_000;
+        //how long results may go unread before the search gives up
+        private long abandonAfterMillis = 5 * 60_000;
+    }
+
 
     /*
       int kmersize = app.configuration().getInt("ix.kmer.default", 3);
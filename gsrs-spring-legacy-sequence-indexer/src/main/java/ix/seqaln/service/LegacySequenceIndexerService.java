@@ -2,6 +2,7 @@ package ix.seqaln.service;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.stream.Stream;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -34,6 +35,13 @@ public class LegacySequenceIndexerService implements SequenceIndexerService {
         indexer.setKmerSize(configuration.getDefaultKmer());
         indexer.setNucleicKmer(configuration.getNuc());
         indexer.setProteinKmer(configuration.getProt());
+        LegacySequenceAlignmentConfiguration.Commit commit = configuration.getCommit();
+        indexer.setGroupCommitPolicy(commit.getIntervalMillis(), commit.getMaxDocs());
+        LegacySequenceAlignmentConfiguration.Search search = configuration.getSearch();
+        indexer.setMaxKmerCandidates(search.getMaxKmerCandidates());
+        indexer.setAlignmentPolicy(search.getAlignmentThreads(), search.getMaxPendingAlignments(), search.getMaxQueuedResults());
+        indexer.setSearchPolicy(search.getThreads(), search.getAbandonAfterMillis());
+        indexer.setSequenceCacheSize(configuration.getSequenceCacheMaxBytes());
     }
 
     @Override
@@ -66,6 +74,16 @@ public class LegacySequenceIndexerService implements SequenceIndexerService {
         indexer.add(id, sequence);
     }
 
+    @Override
+    public long addAll(Stream<SequenceIndexer.SequenceRecord> records) throws IOException {
+        return indexer.addAll(records);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        indexer.flush();
+    }
+
     @Override
     public SequenceIndexer.ResultEnumeration search(String query, double identity, int gap, SequenceIndexer.CutoffType rt, String seqType) {
 
@@ -5,6 +5,7 @@ import org.jcvi.jillion.core.residue.aa.ProteinSequence;
 import org.jcvi.jillion.core.residue.nt.NucleotideSequence;
 
 import java.io.IOException;
+import java.util.stream.Stream;
 
 public interface SequenceIndexerService {
 
@@ -19,6 +20,21 @@ public interface SequenceIndexerService {
 
     void add(String id, ProteinSequence sequence) throws IOException;
 
+    /**
+     * Add many sequences without committing after each one.
+     * @param records the sequences to add.
+     * @return the number of sequences added.
+     * @throws IOException if there is a problem writing to the index.
+     */
+    long addAll(Stream<SequenceIndexer.SequenceRecord> records) throws IOException;
+
+    /**
+     * Commit any pending changes to disk now instead of
+     * waiting for the next group commit.
+     * @throws IOException if there is a problem writing to the index.
+     */
+    void flush() throws IOException;
+
     default SequenceIndexer.ResultEnumeration search(String query, double identity, SequenceIndexer.CutoffType rt, String seqType) {
         return search (query, identity, 1,rt, seqType);
     }
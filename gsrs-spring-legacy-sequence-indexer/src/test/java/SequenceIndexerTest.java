@@ -6,6 +6,10 @@ import org.junit.jupiter.api.io.TempDir;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -75,4 +79,75 @@ public class SequenceIndexerTest {
         assertFalse(result.hasMoreElements());
 
     }
+    @Test
+    public void addAllIsSearchableAndDurableAfterFlush() throws IOException {
+        long count = sut.addAll(Stream.of(SequenceIndexer.SequenceRecord.nucleicAcid("myId", "ACGTACGT"),
+                SequenceIndexer.SequenceRecord.nucleicAcid("myId2", "GGGGCCCC")));
+        assertEquals(2, count);
+
+        SequenceIndexer.ResultEnumeration result = sut.search("ACGTACGT", 1, SequenceIndexer.CutoffType.SUB, "nucleicacid");
+        assertTrue(result.hasMoreElements());
+        assertEquals("myId", result.nextElement().id);
+
+        sut.flush();
+        sut.shutdown();
+        sut = SequenceIndexer.open(dir);
+        assertEquals(2, sut.getSize());
+    }
+    @Test
+    public void fingerprintsAreReloadedWhenIndexIsReopened() throws IOException {
+        sut.addNucleicAcidSequence("myId", "ACGTACGT");
+        sut.shutdown();
+        sut = SequenceIndexer.open(dir);
+
+        SequenceIndexer.ResultEnumeration result = sut.search("ACGTACGT", 1, SequenceIndexer.CutoffType.GLOBAL, "nucleicacid");
+        assertTrue(result.hasMoreElements());
+        assertEquals("myId", result.nextElement().id);
+
+        assertFalse(sut.search("ACGTACGT", 1, SequenceIndexer.CutoffType.GLOBAL, "protein").hasMoreElements());
+    }
+
+    @Test
+    public void kmerSearchRanksAndCapsCandidatesBySharedKmers() throws IOException {
+        sut.addNucleicAcidSequence("exact", "ACGTACGTTTGA");
+        sut.addNucleicAcidSequence("partial", "ACGTCCCCCCCC");
+        sut.addNucleicAcidSequence("none", "GGGGGGGGGGGG");
+        sut.addAminoAcidSequence("protein", "ACGTACGTTTGA");
+
+        sut.setUseFingerprint(false);
+        sut.setMaxKmerCandidates(1);
+        SequenceIndexer.ResultEnumeration result = sut.search("ACGTACGTTTGA", .5, SequenceIndexer.CutoffType.SUB, "nucleicacid");
+        assertTrue(result.hasMoreElements());
+        assertEquals("exact", result.nextElement().id);
+        assertFalse(result.hasMoreElements());
+    }
+
+    @Test
+    public void cancelledSearchStopsHandingOutResults() throws IOException {
+        sut.setAlignmentPolicy(1, 1, 1);
+        sut.addAll(IntStream.range(0, 50)
+                .mapToObj(i -> SequenceIndexer.SequenceRecord.nucleicAcid("id" + i, "ACGTACGTTTGA")));
+
+        SequenceIndexer.ResultEnumeration result = sut.search("ACGTACGTTTGA", 1, SequenceIndexer.CutoffType.GLOBAL, "nucleicacid");
+        assertTrue(result.hasMoreElements());
+        assertNotNull(result.nextElement());
+        result.cancel();
+        assertTrue(result.isCancelled());
+        assertFalse(result.hasMoreElements());
+    }
+
+    @Test
+    public void everyResultIsStreamedWithSmallQueues() throws IOException {
+        sut.setAlignmentPolicy(2, 2, 1);
+        sut.addAll(IntStream.range(0, 50)
+                .mapToObj(i -> SequenceIndexer.SequenceRecord.nucleicAcid("id" + i, "ACGTACGTTTGA")));
+
+        Set<String> ids = new HashSet<>();
+        try (SequenceIndexer.ResultEnumeration result = sut.search("ACGTACGTTTGA", 1, SequenceIndexer.CutoffType.GLOBAL, "nucleicacid")) {
+            while (result.hasMoreElements()) {
+                ids.add(result.nextElement().id);
+            }
+        }
+        assertEquals(50, ids.size());
+    }
 }
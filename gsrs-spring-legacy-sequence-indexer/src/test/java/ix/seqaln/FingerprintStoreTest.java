@@ -0,0 +1,156 @@
+package ix.seqaln;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FingerprintStoreTest {
+
+    private static final List<String> PROTEIN = Arrays.asList("PROTEIN");
+    private static final List<String> DNA = Arrays.asList("DNA");
+
+    private final Random random = new Random(1234);
+
+    private String randomSequence(String alphabet, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    private String mutate(String seq, int mutations, String alphabet) {
+        char[] chars = seq.toCharArray();
+        for (int i = 0; i < mutations; i++) {
+            chars[random.nextInt(chars.length)] = alphabet.charAt(random.nextInt(alphabet.length()));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * The old per candidate test done on decoded fingerprints.
+     */
+    private static Double legacyScore(SequenceIndexer.KmerFingerprintWrapper tup, SequenceIndexer.KmerFingerprintWrapper qwrap,
+                                      int K, int maxDistance, int queryLength, boolean sub) {
+        Double score = null;
+        int d = tup.length - queryLength;
+        int fudge = (d >= 0 && sub) ? d : 0;
+        for (int i = 1; i <= K; i++) {
+            Kmers.HoloFingerprint kqi = qwrap.kmap.get(i);
+            int maxKmerDistance = maxDistance * i;
+            int[] hammingKd = tup.kmap.get(i).hammingMoreAndLessDistanceTo(kqi);
+            if (hammingKd[0] <= maxKmerDistance + fudge && hammingKd[1] <= maxKmerDistance) {
+                if (tup.kmap.get(i).sharedCount(kqi) > 0) {
+                    score = (double) (hammingKd[0] + hammingKd[1]);
+                }
+            } else {
+                return null;
+            }
+        }
+        return score;
+    }
+
+    @Test
+    public void sameCandidatesAsDecodedFingerprints() {
+        String alphabet = "ACDEFGHIKLMNPQRSTVWY";
+        FingerprintStore store = new FingerprintStore();
+        List<SequenceIndexer.KmerFingerprintWrapper> all = new ArrayList<>();
+        String base = randomSequence(alphabet, 120);
+        for (int i = 0; i < 300; i++) {
+            String seq = i % 2 == 0 ? mutate(base, random.nextInt(20), alphabet) : randomSequence(alphabet, 80 + random.nextInt(80));
+            SequenceIndexer.KmerFingerprintWrapper kwrap = SequenceIndexer.KmerFingerprintWrapper.create("id" + i, seq, 3);
+            all.add(kwrap);
+            store.add(kwrap.id, kwrap.length, PROTEIN, kwrap);
+        }
+        //a nucleic acid the protein search should never find
+        String dna = randomSequence("ACGT", 120);
+        store.add("dna", dna.length(), DNA, SequenceIndexer.KmerFingerprintWrapper.create("dna", dna, 3));
+
+        for (boolean sub : new boolean[]{false, true}) {
+            double identity = sub ? 0.9 : 0.8;
+            SequenceIndexer.KmerFingerprintWrapper qwrap = SequenceIndexer.KmerFingerprintWrapper.create("q", base, 3);
+            int maxDistance = (int) Math.ceil(base.length() * (1 - identity));
+            int lower = (int) Math.floor(base.length() * identity);
+            int upper = sub ? Integer.MAX_VALUE : (int) Math.ceil(base.length() / identity);
+
+            Set<String> expected = new TreeSet<>();
+            for (SequenceIndexer.KmerFingerprintWrapper tup : all) {
+                if (tup.length < lower || tup.length > upper) {
+                    continue;
+                }
+                Double score = legacyScore(tup, qwrap, 3, maxDistance, base.length(), sub);
+                if (score != null) {
+                    expected.add(tup.id + "=" + score);
+                }
+            }
+            Set<String> actual = new TreeSet<>();
+            for (SequenceIndexer.StringAndDouble sd : store.findCandidates(lower, upper, PROTEIN,
+                    new FingerprintStore.Query(qwrap, 3, maxDistance, sub))) {
+                actual.add(sd.s + "=" + sd.d);
+            }
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void removedSequencesAreNotFound() {
+        FingerprintStore store = new FingerprintStore();
+        String seq = "ACGTACGTACGTTTGA";
+        for (int i = 0; i < 3000; i++) {
+            store.add("id" + i, seq.length(), DNA, SequenceIndexer.KmerFingerprintWrapper.create("id" + i, seq, 3));
+        }
+        //enough to trigger compaction
+        for (int i = 0; i < 2000; i++) {
+            store.remove("id" + i);
+        }
+        assertEquals(1000, store.size());
+        FingerprintStore.Query query = new FingerprintStore.Query(
+                SequenceIndexer.KmerFingerprintWrapper.create("q", seq, 3), 3, 1, false);
+        List<SequenceIndexer.StringAndDouble> found = store.findCandidates(0, Integer.MAX_VALUE, Collections.emptyList(), query);
+        assertEquals(1000, found.size());
+        assertTrue(found.stream().allMatch(sd -> Integer.parseInt(sd.s.substring(2)) >= 2000));
+
+        store.clear();
+        assertTrue(store.findCandidates(0, Integer.MAX_VALUE, Collections.emptyList(), query).isEmpty());
+    }
+
+    @Test
+    public void untaggedSequencesFoundWithoutTagFilter() {
+        FingerprintStore store = new FingerprintStore();
+        String seq = "ACGTACGTACGTTTGA";
+        store.add("untagged", seq.length(), Collections.emptyList(), SequenceIndexer.KmerFingerprintWrapper.create("untagged", seq, 3));
+        FingerprintStore.Query query = new FingerprintStore.Query(
+                SequenceIndexer.KmerFingerprintWrapper.create("q", seq, 3), 3, 1, false);
+
+        assertEquals(1, store.findCandidates(0, Integer.MAX_VALUE, Collections.emptyList(), query).size());
+        assertTrue(store.findCandidates(0, Integer.MAX_VALUE, DNA, query).isEmpty());
+    }
+
+    @Test
+    public void tagsPastTheLastBitAreNotMixedUp() {
+        FingerprintStore store = new FingerprintStore();
+        String seq = "ACGTACGTACGTTTGA";
+        for (int i = 0; i < 100; i++) {
+            store.add("s" + i, seq.length(), Arrays.asList("TAG" + i), SequenceIndexer.KmerFingerprintWrapper.create("s" + i, seq, 3));
+        }
+        FingerprintStore.Query query = new FingerprintStore.Query(
+                SequenceIndexer.KmerFingerprintWrapper.create("q", seq, 3), 3, 1, false);
+
+        for (int i : new int[]{0, 62, 63, 64, 99}) {
+            List<SequenceIndexer.StringAndDouble> found = store.findCandidates(0, Integer.MAX_VALUE, Arrays.asList("TAG" + i), query);
+            assertEquals(1, found.size(), "TAG" + i);
+            assertEquals("s" + i, found.get(0).s);
+        }
+        assertEquals(2, store.findCandidates(0, Integer.MAX_VALUE, Arrays.asList("TAG1", "TAG80"), query).size());
+        assertTrue(store.findCandidates(0, Integer.MAX_VALUE, Arrays.asList("TAG100"), query).isEmpty());
+    }
+}
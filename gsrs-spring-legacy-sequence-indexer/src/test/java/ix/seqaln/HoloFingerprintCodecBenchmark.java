@@ -0,0 +1,98 @@
+package ix.seqaln;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the old "slot:count|slot:count" text encoding of a
+ * {@link Kmers.HoloFingerprint} with the varint binary encoding,
+ * both decoding to a dense fingerprint and visiting the slots sparsely
+ * the way {@link FingerprintStore} loads them.
+ * That the binary encoding is the smaller one is checked by {@link KmersTest}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HoloFingerprintCodecBenchmark {
+
+    @Param({"protein", "nucleicAcid"})
+    public String type;
+
+    @Param({"3"})
+    public int k;
+
+    private Kmers.HoloFingerprint fingerprint;
+    private String text;
+    private byte[] binary;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(12345);
+        boolean protein = "protein".equals(type);
+        String alphabet = protein ? "ACDEFGHIKLMNPQRSTVWY" : "ACGT";
+        int length = protein ? 300 : 1500;
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        fingerprint = Kmers.create(sb.toString(), k).holoFingerPrint();
+        text = fingerprint.encode();
+        binary = fingerprint.encodeBinary();
+    }
+
+    @Benchmark
+    public String encodeText() {
+        return fingerprint.encode();
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return fingerprint.encodeBinary();
+    }
+
+    @Benchmark
+    public Kmers.HoloFingerprint decodeText() {
+        return Kmers.HoloFingerprint.decode(text);
+    }
+
+    @Benchmark
+    public Kmers.HoloFingerprint decodeBinary() {
+        return Kmers.HoloFingerprint.decodeBinary(binary, 0, binary.length);
+    }
+
+    @Benchmark
+    public void visitText(Blackhole bh) {
+        Kmers.HoloFingerprint.visitText(text, (slot, count) -> bh.consume(slot + count));
+    }
+
+    @Benchmark
+    public void visitBinary(Blackhole bh) {
+        Kmers.HoloFingerprint.visitBinary(binary, 0, binary.length, (slot, count) -> bh.consume(slot + count));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(HoloFingerprintCodecBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,96 @@
+package ix.seqaln;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the fingerprint distance used to prefilter sequence search candidates:
+ * separate {@link Kmers.HoloFingerprint#hammingMoreAndLessDistanceTo(Kmers.HoloFingerprint)}
+ * and {@link Kmers.HoloFingerprint#sharedCount(Kmers.HoloFingerprint)} calls against the combined
+ * {@link Kmers.HoloFingerprint#distanceWithin(Kmers.HoloFingerprint, int, int, int[])} kernel,
+ * for protein and nucleic acid fingerprints, with a bound that is never hit and
+ * a 90% identity bound that unrelated sequences fail early.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KmerDistanceBenchmark {
+
+    @Param({"protein", "nucleicAcid"})
+    public String type;
+
+    @Param({"1", "3"})
+    public int k;
+
+    private Kmers.HoloFingerprint target;
+    private Kmers.HoloFingerprint query;
+    private int bound;
+    private final int[] result = new int[3];
+
+    @Setup
+    public void setup() {
+        Random random = new Random(12345);
+        boolean protein = "protein".equals(type);
+        String alphabet = protein ? "ACDEFGHIKLMNPQRSTVWY" : "ACGT";
+        int length = protein ? 300 : 1500;
+        target = Kmers.create(randomSequence(random, alphabet, length), k).holoFingerPrint();
+        query = Kmers.create(randomSequence(random, alphabet, length), k).holoFingerPrint();
+        bound = (int) Math.ceil(length * 0.1) * k;
+    }
+
+    private static String randomSequence(Random random, String alphabet, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    @Benchmark
+    public void separate(Blackhole bh) {
+        int[] ml = target.hammingMoreAndLessDistanceTo(query);
+        bh.consume(ml[0] + ml[1]);
+        bh.consume(target.sharedCount(query));
+    }
+
+    @Benchmark
+    public boolean combined() {
+        return target.distanceWithin(query, Integer.MAX_VALUE, Integer.MAX_VALUE, result);
+    }
+
+    @Benchmark
+    public boolean combinedDense() {
+        return Kmers.HoloFingerprint.denseDistanceWithin(target.getCounts(), query.getCounts(), Integer.MAX_VALUE, Integer.MAX_VALUE, result);
+    }
+
+    @Benchmark
+    public boolean combinedEarlyExit() {
+        return target.distanceWithin(query, bound, bound, result);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(KmerDistanceBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
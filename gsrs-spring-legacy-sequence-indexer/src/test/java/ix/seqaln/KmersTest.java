@@ -0,0 +1,85 @@
+package ix.seqaln;
+
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KmersTest {
+
+    private static final String PROTEIN = "MKVLAAGIVALLLAAGCSSSKEETPKTEAPVEKAAPAEAPKAEEKKMWWWWWWWWWW";
+
+    @Test
+    public void binaryEncodingRoundTrips() {
+        for (int k = 1; k <= 3; k++) {
+            Kmers.HoloFingerprint fp = Kmers.create(PROTEIN, k).holoFingerPrint();
+            byte[] bytes = fp.encodeBinary();
+            Kmers.HoloFingerprint decoded = Kmers.HoloFingerprint.decodeBinary(bytes, 0, bytes.length);
+
+            assertArrayEquals(fp.getCounts(), decoded.getCounts());
+            assertEquals(fp.encode(), decoded.encode());
+            assertTrue(bytes.length < fp.encode().length());
+        }
+    }
+
+    @Test
+    public void textDecodingUnchanged() {
+        Kmers.HoloFingerprint fp = Kmers.create(PROTEIN, 2).holoFingerPrint();
+        assertArrayEquals(fp.getCounts(), Kmers.HoloFingerprint.decode(fp.encode()).getCounts());
+
+        assertEquals(0, Kmers.HoloFingerprint.decode("").hammingDistanceTo(Kmers.HoloFingerprint.decode("")));
+    }
+
+    @Test
+    public void readsTextAndBinaryStoredFingerprints() {
+        Kmers.HoloFingerprint fp = Kmers.create(PROTEIN, 3).holoFingerPrint();
+        //indexes written before the binary encoding have text fingerprints
+        Kmers.HoloFingerprint fromText = SequenceIndexer.readStoredFingerprint(new StringField("_FP_3", fp.encode(), Field.Store.YES));
+        Kmers.HoloFingerprint fromBinary = SequenceIndexer.readStoredFingerprint(new StoredField("_FP_3", fp.encodeBinary()));
+
+        assertArrayEquals(fp.getCounts(), fromText.getCounts());
+        assertArrayEquals(fp.getCounts(), fromBinary.getCounts());
+    }
+
+    @Test
+    public void unknownBinaryVersionIsRejected() {
+        byte[] bytes = Kmers.create(PROTEIN, 1).holoFingerPrint().encodeBinary();
+        bytes[0] = 99;
+        assertThrows(IllegalArgumentException.class, () -> Kmers.HoloFingerprint.decodeBinary(bytes, 0, bytes.length));
+    }
+
+    @Test
+    public void combinedDistanceMatchesSeparateDistances() {
+        Random random = new Random(42);
+        String[] alphabets = {"ACDEFGHIKLMNPQRSTVWY", "ACGT"};
+        for (String alphabet : alphabets) {
+            for (int n = 0; n < 50; n++) {
+                //mix of short (sparse) and long (dense) sequences
+                Kmers.HoloFingerprint a = Kmers.create(randomSequence(random, alphabet, 5 + random.nextInt(2000)), 1 + random.nextInt(3)).holoFingerPrint();
+                Kmers.HoloFingerprint b = Kmers.create(randomSequence(random, alphabet, 5 + random.nextInt(2000)), 1 + random.nextInt(3)).holoFingerPrint();
+                int[] expected = a.hammingMoreAndLessDistanceTo(b);
+                int shared = a.sharedCount(b);
+
+                int[] result = new int[3];
+                assertTrue(a.distanceWithin(b, Integer.MAX_VALUE, Integer.MAX_VALUE, result));
+                assertEquals(expected[0], result[0]);
+                assertEquals(expected[1], result[1]);
+                assertEquals(shared, result[2]);
+
+                assertEquals(expected[0] <= 10 && expected[1] <= 20, a.distanceWithin(b, 10, 20, result));
+            }
+        }
+    }
+
+    private static String randomSequence(Random random, String alphabet, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+}
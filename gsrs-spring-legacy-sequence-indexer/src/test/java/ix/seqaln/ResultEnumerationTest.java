@@ -0,0 +1,33 @@
+package ix.seqaln;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResultEnumerationTest {
+
+    @Test
+    public void finishingWithAFullQueueDoesNotBlock() throws Exception {
+        SequenceIndexer.ResultEnumeration results = new SequenceIndexer.ResultEnumeration(new LinkedBlockingQueue<>(1), 60_000);
+        SequenceIndexer.Result r = new SequenceIndexer.Result();
+        assertTrue(results.emit(r));
+        results.finish();
+
+        assertTrue(results.hasMoreElements());
+        assertSame(r, results.nextElement());
+        assertFalse(results.hasMoreElements());
+    }
+
+    @Test
+    public void unreadResultsAreDroppedOnceAbandoned() throws Exception {
+        SequenceIndexer.ResultEnumeration results = new SequenceIndexer.ResultEnumeration(new LinkedBlockingQueue<>(1), 200);
+        assertTrue(results.emit(new SequenceIndexer.Result()));
+        //nobody reads, so this gives up instead of waiting forever
+        assertFalse(results.emit(new SequenceIndexer.Result()));
+        assertTrue(results.isCancelled());
+        results.finish();
+        assertFalse(results.hasMoreElements());
+    }
+}
@@ -0,0 +1,138 @@
+package ix.seqaln;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SequenceCacheTest {
+
+    private static SequenceCache.Loader loaderOf(Map<String, String> seqs, AtomicInteger loads) {
+        return ids -> {
+            loads.incrementAndGet();
+            Map<String, String> found = new HashMap<>();
+            for (String id : ids) {
+                if (seqs.containsKey(id)) {
+                    found.put(id, seqs.get(id));
+                }
+            }
+            return found;
+        };
+    }
+
+    @Test
+    public void loadsMissesOnceAndLeavesOutUnknownIds() throws Exception {
+        Map<String, String> seqs = new HashMap<>();
+        seqs.put("a", "ACGT");
+        seqs.put("b", "GGCC");
+        AtomicInteger loads = new AtomicInteger();
+        SequenceCache cache = new SequenceCache(Long.MAX_VALUE);
+
+        Map<String, String> found = cache.getAll(Arrays.asList("a", "b", "missing"), loaderOf(seqs, loads));
+        assertEquals(seqs, found);
+        assertEquals(1, loads.get());
+
+        assertEquals(seqs, cache.getAll(Arrays.asList("a", "b"), loaderOf(seqs, loads)));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedByResidues() throws Exception {
+        Map<String, String> seqs = new HashMap<>();
+        char[] residues = new char[1000];
+        Arrays.fill(residues, 'A');
+        for (int i = 0; i < 10; i++) {
+            seqs.put("id" + i, new String(residues));
+        }
+        SequenceCache cache = new SequenceCache(3_500);
+        cache.getAll(seqs.keySet(), loaderOf(seqs, new AtomicInteger()));
+        assertEquals(3, cache.size());
+        assertTrue(cache.weight() <= 3_500);
+    }
+
+    @Test
+    public void invalidatedIdIsLoadedAgain() throws Exception {
+        Map<String, String> seqs = new HashMap<>();
+        seqs.put("a", "ACGT");
+        AtomicInteger loads = new AtomicInteger();
+        SequenceCache cache = new SequenceCache(Long.MAX_VALUE);
+        cache.getAll(Collections.singleton("a"), loaderOf(seqs, loads));
+
+        seqs.put("a", "TTTT");
+        cache.invalidate("a");
+        assertEquals("TTTT", cache.getAll(Collections.singleton("a"), loaderOf(seqs, loads)).get("a"));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void concurrentMissesShareOneLoad() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        SequenceCache cache = new SequenceCache(Long.MAX_VALUE);
+        SequenceCache.Loader slow = ids -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            release.await();
+            return Collections.singletonMap("a", "ACGT");
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Map<String, String>> first = executor.submit(() -> cache.getAll(Collections.singleton("a"), slow));
+            loading.await();
+            Future<Map<String, String>> second = executor.submit(() -> cache.getAll(Collections.singleton("a"), slow));
+            release.countDown();
+            assertEquals("ACGT", first.get().get("a"));
+            assertEquals("ACGT", second.get().get("a"));
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failedLoadKeepsTheSequencesThatWereFound() throws Exception {
+        Map<String, String> seqs = new HashMap<>();
+        seqs.put("a", "ACGT");
+        SequenceCache cache = new SequenceCache(Long.MAX_VALUE);
+        cache.getAll(Collections.singleton("a"), loaderOf(seqs, new AtomicInteger()));
+
+        Map<String, String> found = cache.getAll(Arrays.asList("a", "b"), ids -> {
+            throw new IllegalStateException("index closed");
+        });
+        assertEquals(Collections.singletonMap("a", "ACGT"), found);
+    }
+
+    @Test
+    public void failedSharedLoadIsLeftOutForTheWaitingThread() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        SequenceCache cache = new SequenceCache(Long.MAX_VALUE);
+        SequenceCache.Loader failing = ids -> {
+            loading.countDown();
+            release.await();
+            throw new IllegalStateException("index closed");
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Map<String, String>> first = executor.submit(() -> cache.getAll(Collections.singleton("a"), failing));
+            loading.await();
+            Future<Map<String, String>> second = executor.submit(() -> cache.getAll(Arrays.asList("a", "b"),
+                    ids -> Collections.singletonMap("b", "GGCC")));
+            release.countDown();
+            assertTrue(first.get().isEmpty());
+            assertEquals(Collections.singletonMap("b", "GGCC"), second.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package ix.seqaln;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Sequences per second added to a {@link SequenceIndexer}
+ * committing after every sequence (the old behavior of {@code add})
+ * compared to a bulk {@link SequenceIndexer#addAll(java.util.stream.Stream)}
+ * with a single flush at the end.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SequenceIndexerAddBenchmark {
+
+    private static final char[] AMINO_ACIDS = "ACDEFGHIKLMNPQRSTVWY".toCharArray();
+    private static final char[] NUCLEOTIDES = "ACGT".toCharArray();
+
+    @Param({"protein", "nucleicAcid"})
+    public String type;
+
+    private static final int BATCH_SIZE = 1000;
+
+    private List<SequenceIndexer.SequenceRecord> records;
+    private File dir;
+    private SequenceIndexer indexer;
+
+    @Setup(Level.Trial)
+    public void createSequences() {
+        Random random = new Random(12345);
+        boolean protein = "protein".equals(type);
+        records = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            String seq = randomSequence(random, protein ? AMINO_ACIDS : NUCLEOTIDES, protein ? 300 : 1500);
+            records.add(protein ? SequenceIndexer.SequenceRecord.protein("id" + i, seq)
+                    : SequenceIndexer.SequenceRecord.nucleicAcid("id" + i, seq));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void openIndex() throws IOException {
+        dir = Files.createTempDirectory("seqIndexBench").toFile();
+        indexer = SequenceIndexer.open(dir);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeIndex() throws IOException {
+        indexer.shutdown();
+        Files.walk(dir.toPath())
+                .sorted(Comparator.reverseOrder())
+                .map(java.nio.file.Path::toFile)
+                .forEach(File::delete);
+    }
+
+    private static String randomSequence(Random random, char[] alphabet, int length) {
+        char[] seq = new char[length];
+        for (int i = 0; i < length; i++) {
+            seq[i] = alphabet[random.nextInt(alphabet.length)];
+        }
+        return new String(seq);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void commitEverySequence() throws IOException {
+        for (SequenceIndexer.SequenceRecord r : records) {
+            indexer.add(r.id, r.seq, r.tags);
+            indexer.flush();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public long addAllGroupCommit() throws IOException {
+        long count = indexer.addAll(records.stream());
+        indexer.flush();
+        return count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public long addAllParallelGroupCommit() throws IOException {
+        long count = indexer.addAll(records.parallelStream());
+        indexer.flush();
+        return count;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SequenceIndexerAddBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
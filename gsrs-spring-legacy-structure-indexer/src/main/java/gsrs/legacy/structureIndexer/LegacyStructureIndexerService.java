@@ -4,6 +4,8 @@ import gov.nih.ncats.common.io.IOUtil;
 import gov.nih.ncats.molwitch.Chemical;
 import gov.nih.ncats.structureIndexer.StructureIndexer;
 import gsrs.springUtils.StaticContextAccessor;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -17,6 +19,11 @@ import java.io.IOException;
 @Service
 public class LegacyStructureIndexerService implements StructureIndexerService{
 
+    private static final Timer ADD_TIMER = timer("add");
+    private static final Timer REMOVE_TIMER = timer("remove");
+    private static final Timer SUBSTRUCTURE_TIMER = timer("substructure");
+    private static final Timer SIMILARITY_TIMER = timer("similarity");
+
     private StandardizedStructureIndexer indexer;
     private File dir;
 
@@ -36,18 +43,40 @@ public class LegacyStructureIndexerService implements StructureIndexerService{
         indexer =  new StandardizedStructureIndexer(StructureIndexer.open(dir));
     }
 
+    private static Timer timer(String operation){
+        return Timer.builder("gsrs.structureindexer")
+                .description("Structure index operations, searches until the first results are ready")
+                .tag("operation", operation)
+                .register(Metrics.globalRegistry);
+    }
+
     @Override
     public void add(String id, Chemical structure) throws IOException {
-        indexer.add(id, structure);
+        Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+        try {
+            indexer.add(id, structure);
+        }finally {
+            sample.stop(ADD_TIMER);
+        }
     }
     @Override
     public void add(String id, String structure) throws IOException {
-        indexer.add(id, structure);
+        Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+        try {
+            indexer.add(id, structure);
+        }finally {
+            sample.stop(ADD_TIMER);
+        }
     }
 
     @Override
     public void remove(String id) throws IOException {
-        indexer.remove(null, id);
+        Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+        try {
+            indexer.remove(null, id);
+        }finally {
+            sample.stop(REMOVE_TIMER);
+        }
     }
 
     
@@ -75,12 +104,22 @@ public class LegacyStructureIndexerService implements StructureIndexerService{
 
     @Override
     public StructureIndexer.ResultEnumeration substructure(String query) throws Exception {
-         return indexer.substructure(query,0);
+        Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+        try {
+            return indexer.substructure(query,0);
+        }finally {
+            sample.stop(SUBSTRUCTURE_TIMER);
+        }
     }
 
     @Override
     public StructureIndexer.ResultEnumeration similarity(String query, double threshold) throws Exception {
-        return indexer.similarity(query,threshold);
+        Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+        try {
+            return indexer.similarity(query,threshold);
+        }finally {
+            sample.stop(SIMILARITY_TIMER);
+        }
     }
 
 
@@ -1,6 +1,7 @@
 package gsrs.legacy.structureIndexer;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
@@ -10,31 +11,33 @@ import javax.persistence.EntityManager;
 import com.google.common.util.concurrent.Striped;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationEvent;
 import org.springframework.context.event.EventListener;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.event.TransactionalEventListener;
 
 import gsrs.DefaultDataSourceConfig;
 import gsrs.events.MaintenanceModeEvent;
 import gsrs.events.ReindexEntityEvent;
-import gsrs.indexer.IndexCreateEntityEvent;
-import gsrs.indexer.IndexRemoveEntityEvent;
-import gsrs.indexer.IndexUpdateEntityEvent;
+import gsrs.indexer.IndexEventDispatcher;
+import gsrs.indexer.IndexEventSink;
 import gsrs.springUtils.GsrsSpringUtils;
 import ix.core.util.EntityUtils;
 import ix.core.util.EntityUtils.Key;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Keeps the structure index up to date, created, updated and removed
+ * entities come from the {@link IndexEventDispatcher}.
+ */
 @Component
 @Slf4j
-public class StructureIndexerEventListener {
+public class StructureIndexerEventListener implements IndexEventSink {
 
     private final StructureIndexerService indexer;
 
 
     private EntityManager em;
-    
+
     private boolean useExplicitEM =false;
 
     private Striped<Lock> stripedLock = Striped.lazyWeakLock(8);
@@ -49,6 +52,10 @@ public class StructureIndexerEventListener {
         
     }
     
+    /**
+     * Read the entities to index again with the default data source's {@link EntityManager}
+     * instead of using the ones the {@link IndexEventDispatcher} fetched.
+     */
     public void useExplicitEM(boolean b) {
         useExplicitEM=b;
     }
@@ -77,33 +84,35 @@ public class StructureIndexerEventListener {
         }
     }
 
-    @Async
-    @TransactionalEventListener
-    public void onCreate(IndexCreateEntityEvent event) {
-        EntityUtils.Key key = event.getSource();
-        indexStructures(key);
+    @Override
+    public boolean accepts(Key key) {
+        return key.getEntityInfo().couldHaveStructureFields();
     }
 
-    
-    private void indexStructures(EntityUtils.Key key) {
-        try {
-           
-            if(!key.getEntityInfo().couldHaveStructureFields()) {
+    @Override
+    public void index(EntityUtils.EntityWrapper<?> ew, List<ApplicationEvent> events, boolean replace) {
+        if (useExplicitEM && ew.hasKey()) {
+            Optional<EntityUtils.EntityWrapper<?>> opt = ew.getKey().fetch(em);
+            if (!opt.isPresent()) {
                 return;
             }
-            Optional<EntityUtils.EntityWrapper<?>> opt= (useExplicitEM)?key.fetch(em):key.fetch();            
-
-            if(opt.isPresent()) {
-                EntityUtils.EntityWrapper<?> ew = opt.get();
-                if (!ew.isEntity() || !ew.hasKey()) {
-                    return;
-                }
-                EntityUtils.Key k = ew.getKey();
-                addToIndex(ew, k);
-
-            }
-        }catch(Throwable e) {
-            log.warn("Trouble structure indexing:" + key, e);
+            ew = opt.get();
+        }
+        if (!ew.isEntity() || !ew.hasKey()) {
+            return;
+        }
+        EntityUtils.Key key = ew.getKey();
+        if (!replace) {
+            addToIndex(ew, key);
+            return;
+        }
+        Lock l = stripedLock.get(key);
+        l.lock();
+        try {
+            removeFromIndex(ew, key);
+            addToIndex(ew, key);
+        }finally{
+            l.unlock();
         }
     }
 
@@ -123,37 +132,9 @@ public class StructureIndexerEventListener {
         }
     }
     
-    @Async
-    @TransactionalEventListener
-    public void onRemove(IndexRemoveEntityEvent event){
-   
-        EntityUtils.EntityWrapper ew = event.getSource();
-        EntityUtils.Key key = ew.getKey();
-        if(!key.getEntityInfo().couldHaveStructureFields()) {
-            return;
-        }
-        removeFromIndex(ew,key);
-    }
-
-    @Async
-    @TransactionalEventListener
-    public void onUpdate(IndexUpdateEntityEvent event){
-        Key k = event.getSource();
-        if(!k.getEntityInfo().couldHaveStructureFields()) {
-            return;
-        }
-        EntityUtils.EntityWrapper ew = (useExplicitEM)?k.fetch(em).get():k.fetch().get();
-        if(ew.isEntity() && ew.hasKey()) {
-            EntityUtils.Key key = ew.getKey();
-            Lock l = stripedLock.get(k);
-            l.lock();
-            try {
-                removeFromIndex(ew, key);
-                addToIndex(ew, key);
-            }finally{
-                l.unlock();
-            }
-        }
+    @Override
+    public void remove(EntityUtils.EntityWrapper<?> ew) {
+        removeFromIndex(ew, ew.getKey());
     }
 
     private void removeFromIndex(EntityUtils.EntityWrapper ew, EntityUtils.Key key) {
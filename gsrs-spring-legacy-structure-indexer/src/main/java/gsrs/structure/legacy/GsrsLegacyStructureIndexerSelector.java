@@ -1,6 +1,7 @@
 package gsrs.structure.legacy;
 
 
+import gsrs.indexer.IndexEventDispatcher;
 import gsrs.legacy.structureIndexer.StructureIndexerEventListener;
 import org.springframework.context.annotation.ImportSelector;
 import org.springframework.core.type.AnnotationMetadata;
@@ -10,6 +11,8 @@ public class GsrsLegacyStructureIndexerSelector implements ImportSelector {
     public String[] selectImports(AnnotationMetadata annotationMetadata) {
         return new String[]{
                 GsrsLegacyStructureIndexerConfiguration.class.getName(),
-                StructureIndexerEventListener.class.getName()};
+                StructureIndexerEventListener.class.getName(),
+                //the listener only gets its events through the dispatcher
+                IndexEventDispatcher.class.getName()};
     }
 }
@@ -0,0 +1,97 @@
+package gsrs.legacy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import gsrs.controller.GsrsControllerConfiguration;
+import gsrs.indexer.IndexCreateEntityEvent;
+import gsrs.springUtils.AutowireHelper;
+import gsrs.startertests.GsrsEntityTestConfiguration;
+import gsrs.startertests.GsrsJpaTest;
+import gsrs.startertests.GsrsSpringApplication;
+import gsrs.startertests.jupiter.AbstractGsrsJpaEntityJunit5Test;
+import ix.core.search.SearchOptions;
+import ix.core.search.SearchResult;
+import ix.core.search.text.TextIndexerFactory;
+import ix.core.util.EntityUtils;
+
+@ActiveProfiles("test")
+@GsrsJpaTest(classes = {GsrsSpringApplication.class, GsrsControllerConfiguration.class, GsrsEntityTestConfiguration.class})
+//the index events are only sent once the transaction commits
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class IndexGenerationTest extends AbstractGsrsJpaEntityJunit5Test {
+
+    private static final int GADGETS = 5;
+
+    @Entity
+    @Table(name = "generation_gadget")
+    public static class Gadget {
+        @Id
+        @GeneratedValue
+        public Long id;
+    }
+
+    @Autowired
+    private TextIndexerFactory tif;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    private LegacyGsrsSearchService<Gadget> searchService;
+
+    @BeforeEach
+    public void createService() {
+        searchService = new LegacyGsrsSearchService<Gadget>(Gadget.class, null) {
+        };
+        AutowireHelper.getInstance().autowire(searchService);
+    }
+
+    @AfterEach
+    public void clearIndex() throws Exception {
+        tif.getDefaultInstance().remove(new MatchAllDocsQuery());
+    }
+
+    @Test
+    public void searchWaitingForTheGenerationSeesTheSavedEntities() throws Exception {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            for (int i = 0; i < GADGETS; i++) {
+                Gadget g = new Gadget();
+                entityManager.persist(g);
+                eventPublisher.publishEvent(new IndexCreateEntityEvent(EntityUtils.EntityWrapper.of(g).getKey()));
+            }
+        });
+        //the gadgets are indexed in the background, the generation covers them anyway
+        long generation = searchService.currentGeneration();
+
+        SearchOptions options = new SearchOptions.Builder()
+                .kind(Gadget.class)
+                .waitForGeneration(generation)
+                .build();
+        SearchResult result = searchService.search(null, options);
+        result.waitForFinish();
+        assertEquals(GADGETS, result.getCount());
+    }
+}
@@ -0,0 +1,134 @@
+package gsrs.legacy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.TermQuery;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import gsrs.controller.GsrsControllerConfiguration;
+import gsrs.startertests.GsrsEntityTestConfiguration;
+import gsrs.startertests.GsrsJpaTest;
+import gsrs.startertests.GsrsSpringApplication;
+import gsrs.startertests.TestIndexValueMakerFactory;
+import gsrs.startertests.jupiter.AbstractGsrsJpaEntityJunit5Test;
+import ix.core.search.text.IndexValueMaker;
+import ix.core.search.text.IndexableValue;
+import ix.core.search.text.TextIndexer;
+import ix.core.search.text.TextIndexerFactory;
+import ix.core.util.EntityUtils;
+
+@ActiveProfiles("test")
+@GsrsJpaTest(classes = {GsrsSpringApplication.class, GsrsControllerConfiguration.class, GsrsEntityTestConfiguration.class})
+//the workers have to see the widgets, so they are committed instead of rolled back after the test
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class ReindexPipelineTest extends AbstractGsrsJpaEntityJunit5Test {
+
+    private static final int WIDGETS = 25;
+
+    @Entity
+    @Table(name = "reindex_widget")
+    public static class Widget {
+        @Id
+        @GeneratedValue
+        public Long id;
+
+        //lazy, so it can only be read inside a transaction
+        @ElementCollection
+        public List<String> tags = new ArrayList<>();
+    }
+
+    /**
+     * Remembers whether each widget was indexed inside a transaction, and its tags.
+     */
+    public static class TransactionCheckingValueMaker implements IndexValueMaker<Widget> {
+        private final Queue<String> seen = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public Class<Widget> getIndexedEntityClass() {
+            return Widget.class;
+        }
+
+        @Override
+        public void createIndexableValues(Widget widget, Consumer<IndexableValue> consumer) {
+            seen.add(TransactionSynchronizationManager.isActualTransactionActive() + ":" + widget.tags);
+        }
+    }
+
+    @Autowired
+    private TextIndexerFactory tif;
+
+    @Autowired
+    private TestIndexValueMakerFactory indexValueMakerFactory;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    private final TransactionCheckingValueMaker valueMaker = new TransactionCheckingValueMaker();
+
+    @BeforeEach
+    public void addWidgets() {
+        indexValueMakerFactory.setIndexValueMakers(valueMaker);
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            for (int i = 0; i < WIDGETS; i++) {
+                Widget w = new Widget();
+                w.tags.add("tag" + i);
+                entityManager.persist(w);
+            }
+        });
+    }
+
+    @AfterEach
+    public void clearIndex() throws Exception {
+        tif.getDefaultInstance().remove(new MatchAllDocsQuery());
+    }
+
+    @Test
+    public void batchesAreIndexedInsideTheirOwnTransaction() throws Exception {
+        TextIndexer indexer = tif.getDefaultInstance();
+        AtomicLong progress = new AtomicLong();
+
+        long read = new ReindexPipeline<>(Widget.class, null, indexer, transactionManager, 3, 4)
+                .run(progress::addAndGet);
+
+        assertEquals(WIDGETS, read);
+        assertEquals(WIDGETS, progress.get());
+        assertEquals(WIDGETS, valueMaker.seen.size());
+        for (String s : valueMaker.seen) {
+            assertTrue(s.startsWith("true:[tag"), s);
+        }
+
+        indexer.waitForGeneration(indexer.currentGeneration());
+        String kind = EntityUtils.getEntityInfoFor(Widget.class).getName();
+        int indexed = indexer.withSearcher(s -> s.search(new TermQuery(new Term(TextIndexer.FIELD_KIND, kind)), 1).totalHits);
+        assertEquals(WIDGETS, indexed);
+    }
+}